@@ -0,0 +1,59 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+
+/**
+ * Measures the assembly of the circuit matrices: remapping, stamping and compressing the LHS and stamping the RHS.
+ * @author zhick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimAssemblyBenchmark extends SimCircuitBenchmarkState
+{
+	/**
+	 * A full rebuild of the matrices, as after a topology change.
+	 * @return
+	 */
+	@Benchmark
+	public SparseStampMatrix rebuildSimMatricies()
+	{
+		this.circuit.rebuildSimMatricies();
+		return this.circuit.stampLHS;
+	}
+	
+	/**
+	 * A restamp of the LHS values with an unchanged pattern, as after a time step change.
+	 * @return
+	 */
+	@Benchmark
+	public SparseStampMatrix restampConductanceMatrix()
+	{
+		this.circuit.restampConductanceMatrix();
+		return this.circuit.stampLHS;
+	}
+	
+	/**
+	 * A restamp of the RHS, as done every step.
+	 * @return
+	 */
+	@Benchmark
+	public double[] restampVariableVector()
+	{
+		this.circuit.restampVariableVector();
+		return this.circuit.vecRHS;
+	}
+}
@@ -0,0 +1,197 @@
+package zacharyhickman.circuittest.common.sim;
+
+import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+import zacharyhickman.circuittest.common.sim.component.SimComponentCapacitor;
+import zacharyhickman.circuittest.common.sim.component.SimComponentResistor;
+import zacharyhickman.circuittest.common.sim.source.SimSourceDCCurrent;
+import zacharyhickman.circuittest.common.sim.source.SimSourceDCVoltage;
+
+/**
+ * Generators of the parameterized circuits used by the benchmarks. Every circuit has roughly the requested number of nodes,
+ * is built in a single edit batch and uses a 1us time step.
+ * @author zhick
+ *
+ */
+public final class SimBenchmarkCircuits
+{
+	private SimBenchmarkCircuits()
+	{
+	
+	}
+	
+	/**
+	 * Builds the circuit of the given kind (RC_LADDER, RESISTIVE_MESH, POWER_GRID or MANY_SOURCES) with about the given number of nodes.
+	 * @param kind
+	 * @param nodeCount
+	 * @return
+	 */
+	public static SimCircuit build(String kind, int nodeCount)
+	{
+		switch (kind)
+		{
+			case RC_LADDER:
+				return rcLadder(nodeCount);
+			case RESISTIVE_MESH:
+				return resistiveMesh(nodeCount);
+			case POWER_GRID:
+				return powerGrid(nodeCount);
+			case MANY_SOURCES:
+				return manySources(nodeCount);
+			default:
+				throw new IllegalArgumentException("Unknown benchmark circuit " + kind + ".");
+		}
+	}
+	
+	/**
+	 * A chain of series resistors with a capacitor to ground at every node, driven by a voltage source.
+	 * @param nodeCount
+	 * @return
+	 */
+	public static SimCircuit rcLadder(int nodeCount)
+	{
+		SimCircuit circuit = new SimCircuit(0f, TIME_STEP, true);
+		circuit.edit(c ->
+		{
+			SimCircuitNode ground = addNode(c, "GND", true);
+			SimCircuitNode previous = addNode(c, "N0", false);
+			c.addDCVoltageSource(new SimSourceDCVoltage("V0", previous, ground, 1f));
+			for (int i = 1; i < nodeCount; i++)
+			{
+				SimCircuitNode node = addNode(c, "N" + i, false);
+				c.addResistorComponent(new SimComponentResistor("R" + i, previous, node, 100f));
+				c.addCapacitorComponent(new SimComponentCapacitor("C" + i, node, ground, 1e-9f));
+				previous = node;
+			}
+		});
+		return circuit;
+	}
+	
+	/**
+	 * A square mesh of resistors driven at one corner and loaded at the opposite one.
+	 * @param nodeCount
+	 * @return
+	 */
+	public static SimCircuit resistiveMesh(int nodeCount)
+	{
+		int width = Math.max(2, (int) Math.round(Math.sqrt(nodeCount)));
+		SimCircuit circuit = new SimCircuit(0f, TIME_STEP, true);
+		circuit.edit(c ->
+		{
+			SimCircuitNode ground = addNode(c, "GND", true);
+			SimCircuitNode[][] mesh = addMesh(c, width, 10f);
+			c.addDCVoltageSource(new SimSourceDCVoltage("V0", mesh[0][0], ground, 1f));
+			c.addResistorComponent(new SimComponentResistor("RLOAD", mesh[width - 1][width - 1], ground, 50f));
+		});
+		return circuit;
+	}
+	
+	/**
+	 * A power distribution grid: a mesh of small wire resistances with decoupling capacitance at every node, current sinks for
+	 * the loads and supply pads (a voltage source behind a pad resistance) spread regularly over the grid.
+	 * @param nodeCount
+	 * @return
+	 */
+	public static SimCircuit powerGrid(int nodeCount)
+	{
+		int width = Math.max(2, (int) Math.round(Math.sqrt(nodeCount)));
+		int padPitch = Math.max(2, width / 4);
+		SimCircuit circuit = new SimCircuit(0f, TIME_STEP, true);
+		circuit.edit(c ->
+		{
+			SimCircuitNode ground = addNode(c, "GND", true);
+			SimCircuitNode[][] mesh = addMesh(c, width, 0.05f);
+			for (int i = 0; i < width; i++)
+			{
+				for (int j = 0; j < width; j++)
+				{
+					String suffix = i + "_" + j;
+					c.addCapacitorComponent(new SimComponentCapacitor("CD" + suffix, mesh[i][j], ground, 1e-12f));
+					if (((i * width + j) % 7) == 0)
+						c.addDCCurrentSource(new SimSourceDCCurrent("IL" + suffix, mesh[i][j], ground, 1e-4f));
+					if (((i % padPitch) == 0) && ((j % padPitch) == 0))
+					{
+						SimCircuitNode pad = addNode(c, "P" + suffix, false);
+						c.addDCVoltageSource(new SimSourceDCVoltage("VDD" + suffix, pad, ground, 1f));
+						c.addResistorComponent(new SimComponentResistor("RP" + suffix, pad, mesh[i][j], 0.1f));
+					}
+				}
+			}
+		});
+		return circuit;
+	}
+	
+	/**
+	 * Many voltage sources (half of the nodes), each driving an RC divider, with the dividers chained by coupling resistors so the
+	 * circuit stays connected. Stresses the branch rows of the MNA matrix.
+	 * @param nodeCount
+	 * @return
+	 */
+	public static SimCircuit manySources(int nodeCount)
+	{
+		int sourceCount = Math.max(1, nodeCount / 2);
+		SimCircuit circuit = new SimCircuit(0f, TIME_STEP, true);
+		circuit.edit(c ->
+		{
+			SimCircuitNode ground = addNode(c, "GND", true);
+			SimCircuitNode previousMiddle = null;
+			for (int i = 0; i < sourceCount; i++)
+			{
+				SimCircuitNode source = addNode(c, "S" + i, false);
+				SimCircuitNode middle = addNode(c, "M" + i, false);
+				c.addDCVoltageSource(new SimSourceDCVoltage("V" + i, source, ground, 1f + (i % 10) * 0.1f));
+				c.addResistorComponent(new SimComponentResistor("RS" + i, source, middle, 1000f));
+				c.addResistorComponent(new SimComponentResistor("RG" + i, middle, ground, 1000f));
+				c.addCapacitorComponent(new SimComponentCapacitor("C" + i, middle, ground, 1e-9f));
+				if (previousMiddle != null)
+					c.addResistorComponent(new SimComponentResistor("RC" + i, previousMiddle, middle, 10000f));
+				previousMiddle = middle;
+			}
+		});
+		return circuit;
+	}
+	
+	/**
+	 * Adds a width x width mesh of nodes connected by resistors of the given value.
+	 * @param circuit
+	 * @param width
+	 * @param resistance
+	 * @return
+	 */
+	static SimCircuitNode[][] addMesh(SimCircuit circuit, int width, float resistance)
+	{
+		SimCircuitNode[][] mesh = new SimCircuitNode[width][width];
+		for (int i = 0; i < width; i++)
+		{
+			for (int j = 0; j < width; j++)
+			{
+				mesh[i][j] = addNode(circuit, "N" + i + "_" + j, false);
+				if (i > 0) circuit.addResistorComponent(new SimComponentResistor("RV" + i + "_" + j, mesh[i - 1][j], mesh[i][j], resistance));
+				if (j > 0) circuit.addResistorComponent(new SimComponentResistor("RH" + i + "_" + j, mesh[i][j - 1], mesh[i][j], resistance));
+			}
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Adds a node to the circuit and returns it.
+	 * @param circuit
+	 * @param nodeName
+	 * @param reference
+	 * @return
+	 */
+	static SimCircuitNode addNode(SimCircuit circuit, String nodeName, boolean reference)
+	{
+		SimCircuitNode node = new SimCircuitNode(nodeName, reference);
+		circuit.addNewCircuitNode(node);
+		return node;
+	}
+	
+	// The names of the circuit generators.
+	public static final String RC_LADDER = "RC_LADDER";
+	public static final String RESISTIVE_MESH = "RESISTIVE_MESH";
+	public static final String POWER_GRID = "POWER_GRID";
+	public static final String MANY_SOURCES = "MANY_SOURCES";
+	
+	// The time step of the generated circuits.
+	public static final float TIME_STEP = 1e-6f;
+}
@@ -0,0 +1,29 @@
+package zacharyhickman.circuittest.common.sim;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the circuit benchmarks with the GC profiler attached, so every result also reports the allocation rate (gc.alloc.rate.norm
+ * is the bytes allocated per operation). The usual JMH command line options are accepted, e.g. "SimSolve -p nodeCount=1000".
+ * @author zhick
+ *
+ */
+public class SimBenchmarkRunner
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty()) builder.include("zacharyhickman\\.circuittest\\.common\\.sim\\.Sim.*Benchmark");
+		Options options = builder.addProfiler(GCProfiler.class).build();
+		
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,48 @@
+package zacharyhickman.circuittest.common.sim;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark state shared by the circuit benchmarks: one generated circuit per trial, parameterized by kind and node count.
+ * The circuit has taken two steps when the measurement starts, so it is mapped, factored and past the initial conditions.
+ * @author zhick
+ *
+ */
+@State(Scope.Thread)
+public abstract class SimCircuitBenchmarkState
+{
+	/**
+	 * Builds the circuit, takes the first steps and lets the benchmark prepare its own state.
+	 */
+	@Setup(Level.Trial)
+	public void buildCircuit()
+	{
+		this.circuit = SimBenchmarkCircuits.build(this.kind, this.nodeCount);
+		this.circuit.stepSimulation();
+		this.circuit.stepSimulation();
+		prepare();
+	}
+	
+	/**
+	 * Prepares the state of a benchmark once its circuit is built.
+	 */
+	void prepare()
+	{
+	
+	}
+	
+	// The generator of the circuit.
+	@Param({ SimBenchmarkCircuits.RC_LADDER, SimBenchmarkCircuits.RESISTIVE_MESH, SimBenchmarkCircuits.POWER_GRID, SimBenchmarkCircuits.MANY_SOURCES })
+	public String kind;
+	
+	// The approximate number of nodes of the circuit.
+	@Param({ "10", "1000", "100000", "1000000" })
+	public int nodeCount;
+	
+	// The circuit being measured.
+	SimCircuit circuit;
+}
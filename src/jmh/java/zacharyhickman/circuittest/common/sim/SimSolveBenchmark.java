@@ -0,0 +1,78 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zacharyhickman.circuittest.common.sim.util.LinearSystemSolver;
+
+/**
+ * Measures the linear solver work inside stepSimulation(): the numeric refactorization, the forward/backward solve with the
+ * cached factors, and a whole step on the LTI fast path (RHS restamp, solve and write-back).
+ * @author zhick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimSolveBenchmark extends SimCircuitBenchmarkState
+{
+	/**
+	 * Takes the solver the circuit steps with and allocates the solution vector of the solve benchmark. One solve is done here, so a
+	 * solver the first steps left unfactored fails the setup instead of the measurement.
+	 */
+	@Override
+	void prepare()
+	{
+		this.solver = this.circuit.getSolver();
+		this.solution = new double[this.circuit.vecRHS.length];
+		if (this.solver == null) throw new IllegalStateException("The circuit has no solver after its first steps.");
+		this.solver.solve(this.circuit.vecRHS, this.solution);
+	}
+	
+	/**
+	 * A numeric refactorization with the kept symbolic analysis.
+	 * @return
+	 */
+	@Benchmark
+	public boolean factor()
+	{
+		return this.solver.factor(this.circuit.stampLHS);
+	}
+	
+	/**
+	 * A solve with the cached factors.
+	 * @return
+	 */
+	@Benchmark
+	public double[] solve()
+	{
+		this.solver.solve(this.circuit.vecRHS, this.solution);
+		return this.solution;
+	}
+	
+	/**
+	 * A whole fixed step with the cached factorization.
+	 * @return
+	 */
+	@Benchmark
+	public float stepSimulation()
+	{
+		this.circuit.stepSimulation();
+		return this.circuit.getLastTime();
+	}
+	
+	// The solver the circuit steps with.
+	LinearSystemSolver solver;
+	
+	// The solution vector of the solve benchmark.
+	double[] solution;
+}
@@ -0,0 +1,92 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import zacharyhickman.circuittest.common.sim.wave.SimProbeSet;
+import zacharyhickman.circuittest.common.sim.wave.SimWaveformSink;
+
+/**
+ * Measures full transient runs from a reset circuit, recording one probe per step into a sink that only consumes the values.
+ * @author zhick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimTransientBenchmark extends SimCircuitBenchmarkState
+{
+	/**
+	 * Selects the last node as probe and creates the consuming sink.
+	 */
+	@Override
+	void prepare()
+	{
+		this.probes = new SimProbeSet().addNodeVoltage(this.circuit.getNodeById(this.circuit.getState().getNodeCount() - 1).getNodeName());
+		this.sink = new BlackholeSink();
+	}
+	
+	/**
+	 * Runs stepCount fixed steps from a reset circuit.
+	 * @param blackhole
+	 * @return
+	 */
+	@Benchmark
+	public int runTransient(Blackhole blackhole)
+	{
+		this.sink.blackhole = blackhole;
+		this.circuit.resetSim();
+		return this.circuit.runTransient(this.stepCount * SimBenchmarkCircuits.TIME_STEP, this.probes, this.sink);
+	}
+	
+	// The number of steps of each run.
+	@Param({ "100" })
+	public int stepCount;
+	
+	// The probe recorded per step.
+	SimProbeSet probes;
+	
+	// The sink consuming the recorded values.
+	BlackholeSink sink;
+	
+	/**
+	 * A waveform sink that hands the recorded values to the JMH blackhole.
+	 * @author zhick
+	 *
+	 */
+	static class BlackholeSink implements SimWaveformSink
+	{
+		@Override
+		public void begin(String[] probeNames, int expectedSamples)
+		{
+		
+		}
+		
+		@Override
+		public void record(double time, double[] values)
+		{
+			this.blackhole.consume(time);
+			this.blackhole.consume(values);
+		}
+		
+		@Override
+		public void end()
+		{
+		
+		}
+		
+		// The blackhole of the running benchmark.
+		Blackhole blackhole;
+	}
+}
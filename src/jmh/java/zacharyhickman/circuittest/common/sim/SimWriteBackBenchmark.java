@@ -0,0 +1,52 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+
+/**
+ * Measures moving the solution into the nodes: the write-back of the solution vector into the state arrays, and reading every
+ * node voltage back through the node handles as callers do.
+ * @author zhick
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimWriteBackBenchmark extends SimCircuitBenchmarkState
+{
+	/**
+	 * Writes the last solution back into the state arrays.
+	 * @return
+	 */
+	@Benchmark
+	public SimCircuitState writeBackSolution()
+	{
+		this.circuit.writeBackSolution();
+		return this.circuit.getState();
+	}
+	
+	/**
+	 * Reads the voltage of every node through its handle.
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void readNodeVoltages(Blackhole blackhole)
+	{
+		for (SimCircuitNode node : this.circuit.nodesById)
+		{
+			blackhole.consume(node.getNodeVoltage());
+		}
+	}
+}
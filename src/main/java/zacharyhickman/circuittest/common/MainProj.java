@@ -29,14 +29,17 @@ public class MainProj
 		// Source declaration.
 		SimSourceDCVoltage voltageA = new SimSourceDCVoltage("V1", nodeA, nodeGnd, 1f);
 		
-		// Construct the circuit.
-		circuit.addNewCircuitNode(nodeGnd);
-		circuit.addNewCircuitNode(nodeA);
-		circuit.addNewCircuitNode(nodeB);
-		circuit.addResistorComponent(resistor1);
-		circuit.addResistorComponent(resistor2);
-		circuit.addCapacitorComponent(capacitor1);
-		circuit.addDCVoltageSource(voltageA);
+		// Construct the circuit. The edit batch rebuilds the matrices once at the end.
+		circuit.edit(c ->
+		{
+			c.addNewCircuitNode(nodeGnd);
+			c.addNewCircuitNode(nodeA);
+			c.addNewCircuitNode(nodeB);
+			c.addResistorComponent(resistor1);
+			c.addResistorComponent(resistor2);
+			c.addCapacitorComponent(capacitor1);
+			c.addDCVoltageSource(voltageA);
+		});
 		
 		// Simulate the circuit multiple times.
 		for (int x = 0; x < 10; x++)
@@ -0,0 +1,115 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.Arrays;
+
+/**
+ * The upcoming breakpoints of a circuit, the times its steps have to land on, as a binary min-heap of primitive arrays. Every entry
+ * has an owner: the index of the waveform it came from, which queues its next corner once the entry is passed, or -1 for a breakpoint
+ * added by the caller. Polling and adding do not allocate once the heap has grown to the number of owners.
+ * @author zhick
+ *
+ */
+public final class SimBreakpointQueue
+{
+	// Constructor of an empty queue.
+	public SimBreakpointQueue()
+	{
+		this.times = new double[16];
+		this.owners = new int[16];
+	}
+	
+	/**
+	 * Adds a breakpoint.
+	 * @param time
+	 * @param owner
+	 */
+	public void add(double time, int owner)
+	{
+		if (this.size == this.times.length)
+		{
+			this.times = Arrays.copyOf(this.times, this.size * 2);
+			this.owners = Arrays.copyOf(this.owners, this.size * 2);
+		}
+		
+		// Sift the new entry up from the last leaf.
+		int i = this.size++;
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (this.times[parent] <= time) break;
+			this.times[i] = this.times[parent];
+			this.owners[i] = this.owners[parent];
+			i = parent;
+		}
+		this.times[i] = time;
+		this.owners[i] = owner;
+	}
+	
+	/**
+	 * Removes the earliest breakpoint. Only valid if the queue is not empty.
+	 */
+	public void poll()
+	{
+		if (this.size == 0) throw new IllegalStateException("The breakpoint queue is empty.");
+		
+		// Sift the last leaf down from the root.
+		this.size--;
+		double time = this.times[this.size];
+		int owner = this.owners[this.size];
+		int i = 0;
+		while (true)
+		{
+			int child = 2 * i + 1;
+			if (child >= this.size) break;
+			if ((child + 1 < this.size) && (this.times[child + 1] < this.times[child])) child++;
+			if (time <= this.times[child]) break;
+			this.times[i] = this.times[child];
+			this.owners[i] = this.owners[child];
+			i = child;
+		}
+		this.times[i] = time;
+		this.owners[i] = owner;
+	}
+	
+	/**
+	 * Get the time of the earliest breakpoint, or positive infinity if the queue is empty.
+	 * @return
+	 */
+	public double peekTime()
+	{
+		return (this.size > 0) ? this.times[0] : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Get the owner of the earliest breakpoint. Only valid if the queue is not empty.
+	 * @return
+	 */
+	public int peekOwner()
+	{
+		return this.owners[0];
+	}
+	
+	/**
+	 * Removes all breakpoints.
+	 */
+	public void clear()
+	{
+		this.size = 0;
+	}
+	
+	/**
+	 * Get the number of queued breakpoints.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	// The heap of breakpoint times and the owner of each.
+	double[] times;
+	int[] owners;
+	
+	// The number of queued breakpoints.
+	int size = 0;
+}
@@ -0,0 +1,255 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A copy of the full stepping state of a SimCircuit: the times, the node voltages and last node voltages, the branch and
+ * capacitor currents and the adaptive step history. SimCircuit.checkpoint() takes one and SimCircuit.restore() continues
+ * from it, bit-exact, in a circuit with the same topology. A checkpoint is tied to that topology by a hash of the node,
+ * voltage source and capacitor names.
+ *
+ * The file is little-endian: int magic, int version, long topology hash, float current time, float last time, float time step,
+ * int flags, int step level, int min step level, int max step level, int adaptive history count, double relative tolerance,
+ * double absolute tolerance, double last step size, double second last step size, long accepted steps, long rejected steps,
+ * then the node voltages, last node voltages, branch currents, capacitor currents and adaptive history, each as an int length
+ * followed by the doubles.
+ * @author zhick
+ *
+ */
+public class SimCheckpoint
+{
+	// Constructor of an empty checkpoint, filled by SimCircuit.checkpoint().
+	public SimCheckpoint()
+	{
+	
+	}
+	
+	/**
+	 * Writes the checkpoint to a file. It is written to a temporary file next to the target first and then moved over it,
+	 * so the file always holds a complete checkpoint, even if the JVM dies while writing.
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException
+	{
+		int size = HEADER_BYTES + 4 * 5 + 8 * (this.nodeVoltages.length + this.lastNodeVoltages.length + this.branchCurrents.length
+				+ this.capacitorCurrents.length + this.adaptiveHistory.length);
+		if ((this.buffer == null) || (this.buffer.capacity() < size))
+			this.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer out = this.buffer;
+		out.clear();
+		
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putLong(this.topologyHash);
+		out.putFloat(this.currentTime);
+		out.putFloat(this.lastTime);
+		out.putFloat(this.timeStep);
+		out.putInt((this.firstSimStep ? FLAG_FIRST_STEP : 0) | (this.startUp ? FLAG_START_UP : 0) | (this.adaptiveStepping ? FLAG_ADAPTIVE : 0) | (this.stepCut ? FLAG_STEP_CUT : 0));
+		out.putInt(this.stepLevel);
+		out.putInt(this.minStepLevel);
+		out.putInt(this.maxStepLevel);
+		out.putInt(this.adaptiveHistoryCount);
+		out.putDouble(this.relativeTolerance);
+		out.putDouble(this.absoluteTolerance);
+		out.putDouble(this.lastStepSize);
+		out.putDouble(this.secondLastStepSize);
+		out.putLong(this.acceptedStepCount);
+		out.putLong(this.rejectedStepCount);
+		putDoubles(out, this.nodeVoltages);
+		putDoubles(out, this.lastNodeVoltages);
+		putDoubles(out, this.branchCurrents);
+		putDoubles(out, this.capacitorCurrents);
+		putDoubles(out, this.adaptiveHistory);
+		out.flip();
+		
+		// Write and sync the temporary file, then replace the target in one step.
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			while (out.hasRemaining()) channel.write(out);
+			channel.force(true);
+		}
+		
+		// The target is only replaced by the atomic move of a complete file, so a write cut off before it leaves the previous one intact.
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reads a checkpoint written by write().
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static SimCheckpoint read(Path path) throws IOException
+	{
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		try
+		{
+			if ((in.remaining() < HEADER_BYTES) || (in.getInt() != MAGIC)) throw new IOException(path + " is not a checkpoint file.");
+			int version = in.getInt();
+			if (version != VERSION) throw new IOException(path + " has unsupported checkpoint version " + version + ".");
+			
+			SimCheckpoint checkpoint = new SimCheckpoint();
+			checkpoint.topologyHash = in.getLong();
+			checkpoint.currentTime = in.getFloat();
+			checkpoint.lastTime = in.getFloat();
+			checkpoint.timeStep = in.getFloat();
+			int flags = in.getInt();
+			checkpoint.firstSimStep = (flags & FLAG_FIRST_STEP) != 0;
+			checkpoint.startUp = (flags & FLAG_START_UP) != 0;
+			checkpoint.adaptiveStepping = (flags & FLAG_ADAPTIVE) != 0;
+			checkpoint.stepCut = (flags & FLAG_STEP_CUT) != 0;
+			checkpoint.stepLevel = in.getInt();
+			checkpoint.minStepLevel = in.getInt();
+			checkpoint.maxStepLevel = in.getInt();
+			checkpoint.adaptiveHistoryCount = in.getInt();
+			checkpoint.relativeTolerance = in.getDouble();
+			checkpoint.absoluteTolerance = in.getDouble();
+			checkpoint.lastStepSize = in.getDouble();
+			checkpoint.secondLastStepSize = in.getDouble();
+			checkpoint.acceptedStepCount = in.getLong();
+			checkpoint.rejectedStepCount = in.getLong();
+			checkpoint.nodeVoltages = getDoubles(in, path);
+			checkpoint.lastNodeVoltages = getDoubles(in, path);
+			checkpoint.branchCurrents = getDoubles(in, path);
+			checkpoint.capacitorCurrents = getDoubles(in, path);
+			checkpoint.adaptiveHistory = getDoubles(in, path);
+			if (checkpoint.lastNodeVoltages.length != checkpoint.nodeVoltages.length)
+				throw new IOException(path + " has " + checkpoint.nodeVoltages.length + " node voltages but " + checkpoint.lastNodeVoltages.length + " last node voltages.");
+			
+			return checkpoint;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException(path + " is truncated.", e);
+		}
+	}
+	
+	/**
+	 * Writes a length-prefixed double array.
+	 * @param out
+	 * @param array
+	 */
+	static void putDoubles(ByteBuffer out, double[] array)
+	{
+		out.putInt(array.length);
+		out.asDoubleBuffer().put(array);
+		out.position(out.position() + (array.length * 8));
+	}
+	
+	/**
+	 * Reads a length-prefixed double array.
+	 * @param in
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	static double[] getDoubles(ByteBuffer in, Path path) throws IOException
+	{
+		int length = in.getInt();
+		if ((length < 0) || ((long) length * 8 > in.remaining())) throw new IOException(path + " is truncated.");
+		double[] array = new double[length];
+		in.asDoubleBuffer().get(array);
+		in.position(in.position() + (length * 8));
+		return array;
+	}
+	
+	/**
+	 * Get the time the circuit will step to next.
+	 * @return
+	 */
+	public float getTime()
+	{
+		return this.currentTime;
+	}
+	
+	/**
+	 * Get the time of the last solved step.
+	 * @return
+	 */
+	public float getLastTime()
+	{
+		return this.lastTime;
+	}
+	
+	/**
+	 * Get the hash of the node, voltage source and capacitor names of the circuit the checkpoint was taken from.
+	 * @return
+	 */
+	public long getTopologyHash()
+	{
+		return this.topologyHash;
+	}
+	
+	/**
+	 * Get the number of nodes, including the reference node.
+	 * @return
+	 */
+	public int getNodeCount()
+	{
+		return this.nodeVoltages.length;
+	}
+	
+	// The magic number at the start of every checkpoint file ("CSCP").
+	public static final int MAGIC = 0x50435343;
+	
+	// The version of the file layout.
+	public static final int VERSION = 1;
+	
+	// The flags of the header.
+	static final int FLAG_FIRST_STEP = 1;
+	static final int FLAG_START_UP = 2;
+	static final int FLAG_ADAPTIVE = 4;
+	static final int FLAG_STEP_CUT = 8;
+	
+	// The size of the header in bytes.
+	static final int HEADER_BYTES = 96;
+	
+	// The hash of the names of the circuit the checkpoint was taken from.
+	long topologyHash = 0L;
+	
+	// The times and the base time step of the circuit.
+	float currentTime = 0f;
+	float lastTime = 0f;
+	float timeStep = 1f;
+	
+	// Whether the next step is the first one, and whether the first step starts all nodes at 0V.
+	boolean firstSimStep = true;
+	boolean startUp = false;
+	
+	// Whether the last step was cut short by a breakpoint.
+	boolean stepCut = false;
+	
+	// The state arrays of the circuit.
+	double[] nodeVoltages = new double[0];
+	double[] lastNodeVoltages = new double[0];
+	double[] branchCurrents = new double[0];
+	double[] capacitorCurrents = new double[0];
+	
+	// The adaptive stepping settings and history.
+	boolean adaptiveStepping = false;
+	int stepLevel = 0;
+	int minStepLevel = 0;
+	int maxStepLevel = 0;
+	double relativeTolerance = 1e-3;
+	double absoluteTolerance = 1e-6;
+	int adaptiveHistoryCount = 0;
+	double[] adaptiveHistory = new double[0];
+	double lastStepSize = 0d;
+	double secondLastStepSize = 0d;
+	long acceptedStepCount = 0;
+	long rejectedStepCount = 0;
+	
+	// The encoding buffer, kept between writes.
+	ByteBuffer buffer;
+}
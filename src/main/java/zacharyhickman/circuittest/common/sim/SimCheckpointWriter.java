@@ -0,0 +1,203 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints of a running circuit in the background. The stepping thread only copies the state arrays into the
+ * checkpoint buffer, which a writer thread then writes to disk while the simulation goes on. The buffer is reused, so no
+ * arrays are allocated after the first checkpoint, and if the previous write is still running when the next checkpoint is
+ * due, that checkpoint is skipped instead of stalling the step.
+ * Attach it with SimCircuit.setCheckpointWriter() to checkpoint periodically during runTransient(), or call checkpoint() from
+ * a custom stepping loop.
+ * @author zhick
+ *
+ */
+public class SimCheckpointWriter implements Closeable
+{
+	// Constructor of the writer. A checkpoint is taken at most every intervalMillis of wall clock time when attached to a circuit.
+	public SimCheckpointWriter(Path path, long intervalMillis)
+	{
+		if (intervalMillis < 0) throw new IllegalArgumentException("The checkpoint interval cannot be negative (" + intervalMillis + ").");
+		
+		this.path = path;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.executor = Executors.newSingleThreadExecutor(runnable ->
+		{
+			// A daemon thread does not keep the JVM running. Exiting in the middle of a write is safe, since an interrupted write
+			// leaves the previous checkpoint file intact (see SimCheckpoint.write()).
+			Thread thread = new Thread(runnable, "sim-checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Takes a checkpoint if the interval has passed since the last one. Called by SimCircuit after every step of runTransient().
+	 * @param circuit
+	 */
+	void afterStep(SimCircuit circuit)
+	{
+		long now = System.nanoTime();
+		if (this.periodicStarted && (now - this.lastCheckpointNanos < this.intervalNanos)) return;
+		
+		if (checkpoint(circuit))
+		{
+			this.lastCheckpointNanos = now;
+			this.periodicStarted = true;
+		}
+	}
+	
+	/**
+	 * Copies the state of the circuit and queues it for writing. Returns false if the previous checkpoint is still being written,
+	 * in which case nothing is taken. Throws the error of a failed earlier write.
+	 * @param circuit
+	 * @return
+	 */
+	public boolean checkpoint(SimCircuit circuit)
+	{
+		rethrowFailure();
+		
+		SimCheckpoint checkpoint;
+		synchronized (this)
+		{
+			checkpoint = this.spare;
+			this.spare = null;
+		}
+		if (checkpoint == null)
+		{
+			this.skippedCount++;
+			return false;
+		}
+		
+		circuit.checkpoint(checkpoint);
+		this.executor.execute(() -> write(checkpoint));
+		return true;
+	}
+	
+	/**
+	 * Writes a checkpoint on the writer thread and hands the buffer back for the next one.
+	 * @param checkpoint
+	 */
+	void write(SimCheckpoint checkpoint)
+	{
+		try
+		{
+			checkpoint.write(this.path);
+			this.writtenCount++;
+			this.lastWrittenTime = checkpoint.getLastTime();
+		}
+		catch (IOException e)
+		{
+			this.failure = e;
+		}
+		
+		// The buffer is free for the next checkpoint.
+		synchronized (this)
+		{
+			this.spare = checkpoint;
+		}
+	}
+	
+	/**
+	 * Throws the error of a failed write, once.
+	 */
+	void rethrowFailure()
+	{
+		IOException failure = this.failure;
+		if (failure == null) return;
+		
+		this.failure = null;
+		throw new UncheckedIOException("Could not write the checkpoint " + this.path + ".", failure);
+	}
+	
+	/**
+	 * Waits for the pending write to finish and stops the writer thread.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.executor.shutdown();
+		try
+		{
+			this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the checkpoint " + this.path + ".");
+		}
+		
+		IOException failure = this.failure;
+		this.failure = null;
+		if (failure != null) throw failure;
+	}
+	
+	/**
+	 * Get the path the checkpoints are written to.
+	 * @return
+	 */
+	public Path getPath()
+	{
+		return this.path;
+	}
+	
+	/**
+	 * Get the number of checkpoints written to disk.
+	 * @return
+	 */
+	public long getWrittenCount()
+	{
+		return this.writtenCount;
+	}
+	
+	/**
+	 * Get the number of checkpoints skipped because the previous one was still being written.
+	 * @return
+	 */
+	public long getSkippedCount()
+	{
+		return this.skippedCount;
+	}
+	
+	/**
+	 * Get the simulated time of the last checkpoint written to disk, or NaN if none was written yet.
+	 * @return
+	 */
+	public float getLastWrittenTime()
+	{
+		return this.lastWrittenTime;
+	}
+	
+	// The path of the checkpoint file.
+	final Path path;
+	
+	// The minimum wall clock time between two periodic checkpoints.
+	final long intervalNanos;
+	
+	// The single thread that writes the checkpoints in order.
+	final ExecutorService executor;
+	
+	// The checkpoint buffer the next state is copied into, or null while it is being written. Guarded by this.
+	SimCheckpoint spare = new SimCheckpoint();
+	
+	// Whether a periodic checkpoint was taken yet, and the wall clock time of the last one.
+	boolean periodicStarted = false;
+	long lastCheckpointNanos = 0L;
+	
+	// The number of checkpoints written and skipped.
+	volatile long writtenCount = 0;
+	long skippedCount = 0;
+	
+	// The simulated time of the last checkpoint written.
+	volatile float lastWrittenTime = Float.NaN;
+	
+	// The error of a failed write, thrown on the next checkpoint or on close.
+	volatile IOException failure;
+}
@@ -1,19 +1,38 @@
 package zacharyhickman.circuittest.common.sim;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
-import org.ejml.LinearSolverSafe;
-import org.ejml.data.DMatrixRMaj;
-import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
+import zacharyhickman.circuittest.common.sim.base.SimCircuitComponent;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
 import zacharyhickman.circuittest.common.sim.component.SimComponentCapacitor;
 import zacharyhickman.circuittest.common.sim.component.SimComponentInductor;
 import zacharyhickman.circuittest.common.sim.component.SimComponentResistor;
 import zacharyhickman.circuittest.common.sim.source.SimSourceDCCurrent;
 import zacharyhickman.circuittest.common.sim.source.SimSourceDCVoltage;
+import zacharyhickman.circuittest.common.sim.source.SimSourceTransientCurrent;
+import zacharyhickman.circuittest.common.sim.source.SimSourceTransientVoltage;
+import zacharyhickman.circuittest.common.sim.source.SimSourceWaveform;
+import zacharyhickman.circuittest.common.sim.util.DenseCholeskySolver;
+import zacharyhickman.circuittest.common.sim.util.DenseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.DenseLeastSquaresSolver;
+import zacharyhickman.circuittest.common.sim.util.IterativeSolver;
+import zacharyhickman.circuittest.common.sim.util.LinearSystemSolver;
+import zacharyhickman.circuittest.common.sim.util.LowRankUpdate;
 import zacharyhickman.circuittest.common.sim.util.MatrixHelper;
+import zacharyhickman.circuittest.common.sim.util.SolverSelector;
+import zacharyhickman.circuittest.common.sim.util.SparseBlockSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseCholeskySolver;
+import zacharyhickman.circuittest.common.sim.util.SparseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseOrdering;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.wave.SimProbeSet;
+import zacharyhickman.circuittest.common.sim.wave.SimWaveformSink;
 
 /**
  * An object that represents a simulatable circuit.
@@ -27,7 +46,9 @@ public class SimCircuit
 	{
 		this.currentTime = startTime;
 		this.lastTime = this.currentTime;
+		this.stepTime = startTime;
 		this.timeStep = timeStep;
+		useFixedStepCompanion();
 	}
 	
 	// Constructor of the circuit simulator which has an option of Vi = 0V.
@@ -35,8 +56,10 @@ public class SimCircuit
 	{
 		this.currentTime = startTime;
 		this.lastTime = this.currentTime;
+		this.stepTime = startTime;
 		this.timeStep = timeStep;
 		this.startUp = startUp;
+		useFixedStepCompanion();
 	}
 	
 	/**
@@ -53,7 +76,7 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.circuitNodes.put(nodeName, new SimCircuitNode(nodeName));
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 	}
 	
@@ -71,7 +94,7 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.circuitNodes.put(node.getNodeName(), node);
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 	}
 	
@@ -83,10 +106,10 @@ public class SimCircuit
 	{
 		if (this.circuitNodes.containsKey(nodeName))
 		{
-			// Remove the stored node.
-			this.circuitNodes.remove(nodeName);
+			// Remove the stored node and give it back its own voltage storage.
+			this.circuitNodes.remove(nodeName).bindState(null);
 			// Rebuild the conductance matrix.
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 		else
 		{
@@ -102,10 +125,10 @@ public class SimCircuit
 	{
 		if (this.circuitNodes.containsKey(node.getNodeName()))
 		{
-			// Remove the stored node.
-			this.circuitNodes.remove(node.getNodeName());
+			// Remove the stored node and give it back its own voltage storage.
+			this.circuitNodes.remove(node.getNodeName()).bindState(null);
 			// Rebuild the conductance matrix.
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 		else
 		{
@@ -127,7 +150,7 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.resistors.put(resistor.getComponentName(), resistor);
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 	}
 	
@@ -145,12 +168,12 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.capacitors.put(capacitor.getComponentName(), capacitor);
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 	}
 	
 	/**
-	 * Adds a DC current source to the circuit. Does nothing if the circuit contains a dc current source of the same name.
+	 * Adds a DC current source, or a time-varying SimSourceTransientCurrent, to the circuit. Does nothing if the circuit contains a dc current source of the same name.
 	 * @param dcCurrent
 	 */
 	public void addDCCurrentSource(SimSourceDCCurrent dcCurrent)
@@ -163,12 +186,12 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.currentSourcesDC.put(dcCurrent.getSourceName(), dcCurrent);
-			rebuildSimMatricies();
+			onTopologyChanged();
 		}
 	}
 	
 	/**
-	 * Adds a DC voltage source to the circuit. Does nothing if the circuit contains a dc voltage source of the same name.
+	 * Adds a DC voltage source, or a time-varying SimSourceTransientVoltage, to the circuit. Does nothing if the circuit contains a dc voltage source of the same name.
 	 * @param dcCurrent
 	 */
 	public void addDCVoltageSource(SimSourceDCVoltage dcVoltage)
@@ -181,6 +204,144 @@ public class SimCircuit
 		{
 			// Add new node instance to circuit nodes.
 			this.voltageSourcesDC.put(dcVoltage.getSourceName(), dcVoltage);
+			onTopologyChanged();
+		}
+	}
+	
+	/**
+	 * Changes the resistance of a resistor of the circuit without a rebuild. Only the matrix entries of the resistor are marked dirty,
+	 * and the next step patches them in place. The fixed step keeps its factorization and corrects it with a low-rank update, see
+	 * setLowRankUpdates().
+	 * @param resistorName
+	 * @param resistance
+	 */
+	public void setResistance(String resistorName, float resistance)
+	{
+		SimComponentResistor resistor = this.resistors.get(resistorName);
+		if (resistor == null) throw new IllegalArgumentException("The circuit has no resistor named " + resistorName + ".");
+		if ((resistance == 0f) || !Float.isFinite(resistance)) throw new IllegalArgumentException("The resistance of " + resistorName + " must be finite and not zero.");
+		
+		resistor.setResistance(resistance);
+		
+		// Until the matrices are built the stamp index may be stale, and the rebuild stamps the new value anyway.
+		if (this.matriciesDirty || (this.stampLHS == null)) return;
+		int i = resistor.getStampId();
+		if (this.resistorChanged[i]) return;
+		this.resistorChanged[i] = true;
+		this.changedResistors[this.changedResistorCount++] = i;
+	}
+	
+	/**
+	 * Changes the capacitance of a capacitor of the circuit without a rebuild, the same way as setResistance(). The capacitor current
+	 * history is kept.
+	 * @param capacitorName
+	 * @param capacitance
+	 */
+	public void setCapacitance(String capacitorName, float capacitance)
+	{
+		SimComponentCapacitor capacitor = this.capacitors.get(capacitorName);
+		if (capacitor == null) throw new IllegalArgumentException("The circuit has no capacitor named " + capacitorName + ".");
+		if (!Float.isFinite(capacitance)) throw new IllegalArgumentException("The capacitance of " + capacitorName + " must be finite.");
+		
+		capacitor.setCapacitance(capacitance);
+		
+		if (this.matriciesDirty || (this.stampLHS == null)) return;
+		int i = capacitor.getHistoryId();
+		if (this.capacitorChanged[i]) return;
+		this.capacitorChanged[i] = true;
+		this.changedCapacitors[this.changedCapacitorCount++] = i;
+	}
+	
+	/**
+	 * Changes the voltage of a DC voltage source of the circuit. Sources only stamp the RHS, which is restamped on every step, so
+	 * nothing has to be patched or factored again.
+	 * @param sourceName
+	 * @param voltage
+	 */
+	public void setDCVoltage(String sourceName, float voltage)
+	{
+		SimSourceDCVoltage voltageSource = this.voltageSourcesDC.get(sourceName);
+		if (voltageSource == null) throw new IllegalArgumentException("The circuit has no voltage source named " + sourceName + ".");
+		if (voltageSource instanceof SimSourceTransientVoltage) throw new IllegalArgumentException("The voltage of " + sourceName + " follows its waveform.");
+		
+		voltageSource.setVoltageValue(voltage);
+	}
+	
+	/**
+	 * Changes the current of a DC current source of the circuit, the same way as setDCVoltage().
+	 * @param sourceName
+	 * @param current
+	 */
+	public void setDCCurrent(String sourceName, float current)
+	{
+		SimSourceDCCurrent currentSource = this.currentSourcesDC.get(sourceName);
+		if (currentSource == null) throw new IllegalArgumentException("The circuit has no current source named " + sourceName + ".");
+		if (currentSource instanceof SimSourceTransientCurrent) throw new IllegalArgumentException("The current of " + sourceName + " follows its waveform.");
+		
+		currentSource.setCurrentValue(current);
+	}
+	
+	/**
+	 * Runs a batch of edits (node/component/source additions and removals) as one transaction. The matrices are remapped
+	 * and rebuilt once when the transaction ends instead of after every single change, so loading a circuit is linear in its size.
+	 * Transactions may be nested, the rebuild happens when the outermost one ends.
+	 * @param edits
+	 */
+	public void edit(Consumer<SimCircuit> edits)
+	{
+		beginEdit();
+		try
+		{
+			edits.accept(this);
+		}
+		finally
+		{
+			endEdit();
+		}
+	}
+	
+	/**
+	 * Starts a batch of edits. Every call must be matched by a call to endEdit().
+	 */
+	public void beginEdit()
+	{
+		this.editDepth++;
+	}
+	
+	/**
+	 * Ends a batch of edits. Rebuilds the matrices if this ends the outermost batch and the circuit changed.
+	 */
+	public void endEdit()
+	{
+		if (this.editDepth == 0) throw new IllegalStateException("endEdit() called without a matching beginEdit().");
+		
+		this.editDepth--;
+		if ((this.editDepth == 0) && this.matriciesDirty)
+		{
+			rebuildSimMatricies();
+		}
+	}
+	
+	/**
+	 * Returns true while a batch of edits is open.
+	 * @return
+	 */
+	public boolean isEditing()
+	{
+		return this.editDepth > 0;
+	}
+	
+	/**
+	 * Rebuilds the matrices after a change of the circuit, or defers the rebuild if a batch of edits is open.
+	 */
+	void onTopologyChanged()
+	{
+		if (this.editDepth > 0)
+		{
+			this.matriciesDirty = true;
+		}
+		else
+		{
 			rebuildSimMatricies();
 		}
 	}
@@ -190,321 +351,2031 @@ public class SimCircuit
 	 */
 	public void rebuildSimMatricies()
 	{
+		this.metrics.beginRebuild();
+		
 		// Remap existing nodes and branches to an integer.
+		long phaseStart = this.metrics.begin();
 		remapCircuitNodes();
 		remapBranches();
+		this.metrics.end(SimMetrics.Phase.REMAP, phaseStart);
 				
 		// Calculate the size needed for the conductance matrix.
-		// rows = #(non-reference nodes) + #(inductor branches) + #(capacitor branches) + #(voltage source branches)
-		int rowsG = (this.circuitNodes.size() - 1) + (this.inductors.size()) + (this.capacitors.size()) + this.voltageSourcesDC.size();
+		// rows = #(non-reference nodes) + #(inductor branches) + #(voltage source branches)
+		// Capacitors use a nodal companion model (conductance + current source), so they do not add branch rows.
+		int rowsG = (this.circuitNodes.size() - 1) + (this.inductors.size()) + this.voltageSourcesDC.size();
 		int columnsG = rowsG;
 		
 		// Calculate the size needed for the variable vector.
-		// rows = #(non-reference nodes) + #(inductor branches) + #(capacitor branches) + #(voltage source branches)
-		int rowsV = (this.circuitNodes.size() - 1) + (this.inductors.size()) + (this.capacitors.size()) + this.voltageSourcesDC.size();
+		// rows = #(non-reference nodes) + #(inductor branches) + #(voltage source branches)
+		int rowsV = (this.circuitNodes.size() - 1) + (this.inductors.size()) + this.voltageSourcesDC.size();
 		int columnsV = 1;
 		
-		// Create/rewrite the matrices based on calculated size.
-		this.matLHS = new SimpleMatrix(rowsG, columnsG);
-		this.matRHS = new SimpleMatrix(rowsV, columnsV);
+		// Reset the shared stamp accumulators based on calculated size. The triplet storage is reused between rebuilds.
+		phaseStart = this.metrics.begin();
+		if (this.stampLHS == null)
+			this.stampLHS = new SparseStampMatrix(rowsG, columnsG, 4 * (this.resistors.size() + this.capacitors.size() + this.voltageSourcesDC.size()));
+		else
+			this.stampLHS.reset(rowsG, columnsG);
+		this.vecRHS = new double[rowsV * columnsV];
+		
+		// Keep flat copies of the elements so the per-step restamps do not walk the maps.
+		// They are sorted by name so the stamp order, and with it the rounding of merged entries, is the same on every run.
+		this.resistorArray = this.resistors.values().toArray(new SimComponentResistor[0]);
+		this.capacitorArray = this.capacitors.values().toArray(new SimComponentCapacitor[0]);
+		this.currentSourceArray = this.currentSourcesDC.values().toArray(new SimSourceDCCurrent[0]);
+		this.voltageSourceArray = this.voltageSourcesDC.values().toArray(new SimSourceDCVoltage[0]);
+		Arrays.sort(this.resistorArray, Comparator.comparing(SimComponentResistor::getComponentName));
+		Arrays.sort(this.capacitorArray, Comparator.comparing(SimComponentCapacitor::getComponentName));
+		Arrays.sort(this.currentSourceArray, Comparator.comparing(SimSourceDCCurrent::getSourceName));
+		Arrays.sort(this.voltageSourceArray, Comparator.comparing(SimSourceDCVoltage::getSourceName));
 		
-		// Apply stamps from the resistors in the circuit.
-		for (SimComponentResistor resistor : this.resistors.values())
+		// The waveforms of the time-varying sources feed the breakpoint queue.
+		ArrayList<SimSourceWaveform> waveforms = new ArrayList<SimSourceWaveform>();
+		for (SimSourceDCCurrent currentSource : this.currentSourceArray)
 		{
-			// Get contribution matrix from resistor and add to the LHS matrix.
-			this.matLHS = MatrixHelper.addMatrix(this.matLHS, resistor.getConductanceStampLHS(this));
+			if (currentSource instanceof SimSourceTransientCurrent) waveforms.add(((SimSourceTransientCurrent) currentSource).getWaveform());
 		}
-		
-		// Apply stamps from the capacitors in the circuit.
-		for (SimComponentCapacitor capacitor : this.capacitors.values())
+		for (SimSourceDCVoltage voltageSource : this.voltageSourceArray)
 		{
-			// Get contribution matrix from capactior and add to the LHS matrix.
-			this.matLHS = MatrixHelper.addMatrix(this.matLHS, capacitor.getConductanceStampLHS(this));
-			
-			// Because the capacitor is a reactive component, it also affects the rhs matrix as well.
-			this.matRHS = MatrixHelper.addMatrix(this.matRHS, capacitor.getVariableStampRHS(this));
+			if (voltageSource instanceof SimSourceTransientVoltage) waveforms.add(((SimSourceTransientVoltage) voltageSource).getWaveform());
 		}
+		this.sourceWaveforms = waveforms.toArray(new SimSourceWaveform[0]);
+		this.breakpointsDirty = true;
 		
-		// Apply stamps from the dc current sources in the circuit.
-		for (SimSourceDCCurrent currentSource : this.currentSourcesDC.values())
+		// Give every resistor its index in the stamps and every capacitor its slot in the current history.
+		for (int i = 0; i < this.resistorArray.length; i++)
+		{
+			this.resistorArray[i].setStampId(i);
+		}
+		for (int i = 0; i < this.capacitorArray.length; i++)
 		{
-			// Get contribution matrix from current source and add to the RHS matrix.
-			this.matRHS = MatrixHelper.addMatrix(this.matRHS, currentSource.getVariableStampRHS(this));
+			this.capacitorArray[i].setHistoryId(i);
 		}
 		
-		// Apply stamps from the dc voltage sources in the circuit.
-		for (SimSourceDCVoltage voltageSource : this.voltageSourcesDC.values())
+		// The rebuild stamps the present values, so no element is left to patch.
+		if (this.resistorChanged.length != this.resistorArray.length)
 		{
-			// Get contribution matrix from voltage source and add to the LHS matrix.
-			this.matLHS = MatrixHelper.addMatrix(this.matLHS, voltageSource.getConductanceStampLHS(this));
-			
-			// Get contribution matrix from voltage source and add to the RHS matrix.
-			this.matRHS = MatrixHelper.addMatrix(this.matRHS, voltageSource.getVariableStampRHS(this));
+			this.resistorChanged = new boolean[this.resistorArray.length];
+			this.changedResistors = new int[this.resistorArray.length];
+		}
+		if (this.capacitorChanged.length != this.capacitorArray.length)
+		{
+			this.capacitorChanged = new boolean[this.capacitorArray.length];
+			this.changedCapacitors = new int[this.capacitorArray.length];
 		}
+		clearValueChanges();
+		
+		// Apply the LHS stamps and merge the stamped entries into compressed column storage.
+		stampConductanceMatrix();
+		this.stampLHS.compress();
+		this.metrics.end(SimMetrics.Phase.ASSEMBLY, phaseStart);
+		
+		// Choose the solver from the structure of the new matrix and analyze it.
+		phaseStart = this.metrics.begin();
+		selectSolver();
+		this.metrics.end(SimMetrics.Phase.ANALYSIS, phaseStart);
+		
+		// Apply the RHS stamps.
+		restampVariableVector();
+		
+		// The LHS changed, so the stored factorizations are no longer valid.
+		this.matriciesDirty = false;
+		this.factorizationDirty = true;
+		this.companionSolvers.clear();
+		restartAdaptiveHistory();
+		this.topologyHash = computeTopologyHash();
+		
+		this.metrics.endRebuild(this.state.getNodeCount(), this.state.getBranchCount(), rowsG, this.stampLHS.getNonZeroCount(), this.islandCount);
 	}
 	
 	/**
-	 * Associates existing nodes with an integer identifier. Returns true if the mapping was successful.
-	 * @return
+	 * Stamps the LHS contributions of all elements. The elements are always visited in the same order, so a restamp
+	 * with unchanged topology hits the same triplet slots.
 	 */
-	public boolean remapCircuitNodes()
+	void stampConductanceMatrix()
 	{
-		// Declare an iterator variable that will be used to keep track of the current assigned index.
-		int currentNodeIndex = 0;
+		// Apply stamps from the resistors in the circuit, remembering the first triplet slot of each one.
+		if (this.resistorSlots.length != this.resistorArray.length + 1) this.resistorSlots = new int[this.resistorArray.length + 1];
+		for (int i = 0; i < this.resistorArray.length; i++)
+		{
+			// Stamp the resistor conductance into the LHS matrix.
+			this.resistorSlots[i] = this.stampLHS.getTripletCount();
+			this.resistorArray[i].applyConductanceStamp(this, this.stampLHS);
+		}
+		this.resistorSlots[this.resistorArray.length] = this.stampLHS.getTripletCount();
 		
-		// Boolean pass variable for reference node assignment.
-		boolean hasReference = false;
+		// Apply stamps from the capacitors in the circuit, remembering the first triplet slot of each one.
+		if (this.capacitorSlots.length != this.capacitorArray.length + 1) this.capacitorSlots = new int[this.capacitorArray.length + 1];
+		for (int i = 0; i < this.capacitorArray.length; i++)
+		{
+			// Stamp the capacitor conductance into the LHS matrix.
+			this.capacitorSlots[i] = this.stampLHS.getTripletCount();
+			this.capacitorArray[i].applyConductanceStamp(this, this.stampLHS);
+		}
+		this.capacitorSlots[this.capacitorArray.length] = this.stampLHS.getTripletCount();
 		
-		// Clear old node mapping.
-		this.circuitNodeIndexMap.clear();
+		// Apply stamps from the dc voltage sources in the circuit.
+		for (SimSourceDCVoltage voltageSource : this.voltageSourceArray)
+		{
+			// Stamp the voltage source branch into the LHS matrix.
+			voltageSource.applyConductanceStamp(this, this.stampLHS);
+		}
 		
-		// First, find the ground node and assign it an index of zero.
-		for (SimCircuitNode node : this.circuitNodes.values())
+		this.stampedCompanionScale = this.companionScale;
+	}
+	
+	/**
+	 * Restamps the values of the LHS without changing its pattern, e.g. for a new time step. Does not remap anything.
+	 */
+	public void restampConductanceMatrix()
+	{
+		long phaseStart = this.metrics.begin();
+		this.stampLHS.beginRestamp();
+		stampConductanceMatrix();
+		this.stampLHS.endRestamp();
+		this.factorizationDirty = true;
+		this.metrics.end(SimMetrics.Phase.ASSEMBLY, phaseStart);
+	}
+	
+	/**
+	 * Patches the LHS entries of the resistors and capacitors whose values changed since the last step. Each element is stamped on its
+	 * own and its triplet slots are updated in place, so the cost does not depend on the size of the circuit. The fixed-step
+	 * factorization is corrected with a rank-one update per element while the update has room for it, otherwise it is factored again.
+	 * The factorizations of the adaptive and partial steps are dropped.
+	 */
+	void applyValueChanges()
+	{
+		if ((this.changedResistorCount == 0) && (this.changedCapacitorCount == 0)) return;
+		if (this.matriciesDirty || (this.stampLHS == null))
 		{
-			if (node.isReferenceNode())
-			{
-				// Found the reference node, so set its index as zero.
-				node.setNodeId(currentNodeIndex);
-				this.circuitNodeIndexMap.put(node.getNodeName(), currentNodeIndex);
-				// Increment index variable.
-				currentNodeIndex++;
-				hasReference = true;
-				break;
-			}
+			clearValueChanges();
+			return;
 		}
 		
-		// Check if we found a reference node. If not, stop remapping.
-		if (!hasReference) return false;
+		long phaseStart = this.metrics.begin();
 		
-		// Assign the rest of the nodes an index.
-		for (SimCircuitNode node : this.circuitNodes.values())
+		// The fixed-step factorization can only be updated if it is still valid and solved directly.
+		boolean lowRank = !this.factorizationDirty && !this.useFallbackSolver && !this.adaptiveStepping && !(this.solver instanceof IterativeSolver);
+		
+		// The LHS holds the stamps of the companion scale it was last stamped with, so the capacitors are patched with that scale.
+		double companionScale = this.companionScale;
+		this.companionScale = this.stampedCompanionScale;
+		for (int c = 0; c < this.changedResistorCount; c++)
 		{
-			if (!node.isReferenceNode())
-			{
-				// Assign index to non-reference nodes.
-				node.setNodeId(currentNodeIndex);
-				this.circuitNodeIndexMap.put(node.getNodeName(), currentNodeIndex);
-				// Increment index variable.
-				currentNodeIndex++;
-			}
+			int i = this.changedResistors[c];
+			SimComponentResistor resistor = this.resistorArray[i];
+			double delta = patchElement(resistor, this.resistorSlots[i], this.resistorSlots[i + 1]);
+			lowRank = lowRank && this.lowRankUpdate.add(resistor.getTerminalA().getNodeId() - 1, resistor.getTerminalB().getNodeId() - 1, delta);
 		}
+		for (int c = 0; c < this.changedCapacitorCount; c++)
+		{
+			// The fixed-step factorization may belong to another companion scale than the stamps.
+			int i = this.changedCapacitors[c];
+			SimComponentCapacitor capacitor = this.capacitorArray[i];
+			double delta = patchElement(capacitor, this.capacitorSlots[i], this.capacitorSlots[i + 1]) * (this.fixedFactorizationScale / this.stampedCompanionScale);
+			lowRank = lowRank && this.lowRankUpdate.add(capacitor.getTerminalA().getNodeId() - 1, capacitor.getTerminalB().getNodeId() - 1, delta);
+		}
+		this.companionScale = companionScale;
+		clearValueChanges();
 		
-		return true;
+		if (!lowRank) this.factorizationDirty = true;
+		this.companionSolvers.clear();
+		this.metrics.end(SimMetrics.Phase.ASSEMBLY, phaseStart);
 	}
 	
 	/**
-	 * Associates existing branches with an integer identifier. Returns true if the mapping was successful.
+	 * Stamps a single element into the scratch matrix and writes its values into its triplet slots [fromSlot, toSlot) of the LHS.
+	 * Returns the change of its first entry, which is the conductance change of a two-terminal element.
+	 * @param element
+	 * @param fromSlot
+	 * @param toSlot
 	 * @return
 	 */
-	public boolean remapBranches()
+	double patchElement(SimCircuitComponent element, int fromSlot, int toSlot)
 	{
-		// Declare an iterator variable that will be used to keep track of the current assigned index.
-		int currentBranchIndex = 0;
+		if (fromSlot == toSlot) return 0d;
 		
-		// Clear old branch mapping.
-		this.circuitBranchIndexMap.clear();
+		this.patchLHS.reset(this.stampLHS.numRows(), this.stampLHS.numCols());
+		element.applyConductanceStamp(this, this.patchLHS);
+		if (this.patchLHS.getTripletCount() != toSlot - fromSlot)
+			throw new IllegalStateException(element.getComponentName() + " stamped " + this.patchLHS.getTripletCount() + " entries instead of " + (toSlot - fromSlot) + ".");
 		
-		// Find all branches for dc voltage sources and assign them an index.
-		for (SimSourceDCVoltage dcVSource : this.voltageSourcesDC.values())
+		double delta = this.patchLHS.getTripletValue(0) - this.stampLHS.getTripletValue(fromSlot);
+		for (int k = 0; k < toSlot - fromSlot; k++)
 		{
-			dcVSource.setBranchId(currentBranchIndex);
-			this.circuitBranchIndexMap.put(dcVSource.getSourceName() + "_i", currentBranchIndex);
-			// Increment index variable.
-			currentBranchIndex++;
+			this.stampLHS.patchTripletValue(fromSlot + k, this.patchLHS.getTripletValue(k));
 		}
-		
-		return true;
+		return delta;
 	}
 	
 	/**
-	 * Resets all node voltages to zero and resets the current time.
-	 * @return
+	 * Forgets the pending value changes.
 	 */
-	public void resetSim()
+	void clearValueChanges()
 	{
-		// Reset the current time to zero.
-		this.currentTime = 0f;
+		for (int c = 0; c < this.changedResistorCount; c++) this.resistorChanged[this.changedResistors[c]] = false;
+		for (int c = 0; c < this.changedCapacitorCount; c++) this.capacitorChanged[this.changedCapacitors[c]] = false;
+		this.changedResistorCount = 0;
+		this.changedCapacitorCount = 0;
+	}
+	
+	/**
+	 * Clears and restamps only the variable vector (RHS). The LHS of a linear time-invariant circuit does not change between
+	 * steps, so this is all that needs to be done per step while the topology and time step stay the same. Time-varying sources
+	 * update their level for the time of the step first, which only changes their RHS stamps.
+	 */
+	public void restampVariableVector()
+	{
+		long phaseStart = this.metrics.begin();
 		
-		// Set start flag to true, for the next sim step to set false.
-		this.firstSimStep = true;
+		// Clear the previous stamps.
+		Arrays.fill(this.vecRHS, 0d);
 		
-		// Reset all node voltages to zero.
-		for (SimCircuitNode node : this.circuitNodes.values())
+		// Because the capacitor is a reactive component, it also affects the rhs matrix as well.
+		for (SimComponentCapacitor capacitor : this.capacitorArray)
 		{
-			node.setNodeVoltage(0f);
+			capacitor.applyVariableStamp(this, this.vecRHS);
+		}
+		
+		// Apply stamps from the dc current sources in the circuit.
+		for (SimSourceDCCurrent currentSource : this.currentSourceArray)
+		{
+			// Stamp the source current into the RHS vector.
+			currentSource.simulateBehavior(this);
+			currentSource.applyVariableStamp(this, this.vecRHS);
+		}
+		
+		// Apply stamps from the dc voltage sources in the circuit.
+		for (SimSourceDCVoltage voltageSource : this.voltageSourceArray)
+		{
+			// Stamp the voltage source level into the RHS vector.
+			voltageSource.simulateBehavior(this);
+			voltageSource.applyVariableStamp(this, this.vecRHS);
 		}
+		
+		this.metrics.end(SimMetrics.Phase.ASSEMBLY, phaseStart);
 	}
 	
 	/**
-	 * Populate the results matrix of this circuit.
+	 * Compiles the present topology into flat arrays for engines that simulate many copies of this circuit without
+	 * touching the circuit itself (e.g. parameter sweeps). The LHS is stamped for a fixed backward Euler step with the base time step,
+	 * and the present node voltages and time become the initial conditions of the copies.
 	 * @return
 	 */
-	public void stepSimulation()
+	public SimCompiledCircuit compile()
 	{
-		// Remap the stamp matricies and nodes for a new time instance.
-		remapCircuitNodes();
-		rebuildSimMatricies();
+		if (this.matriciesDirty || (this.stampLHS == null)) rebuildSimMatricies();
+		if (this.sourceWaveforms.length > 0) throw new IllegalStateException("The circuit has time-varying sources, which a compiled circuit cannot hold.");
 		
-		// Create/rewrite the result circuit based on the row length of the conductance matrix.
-		this.matSol = new SimpleMatrix(this.matLHS.numRows(), 1);
+		// Make sure the LHS holds the values set since the last step and the fixed step companion values.
+		applyValueChanges();
+		useFixedStepCompanion();
+		if (this.stampedCompanionScale != this.companionScale) restampConductanceMatrix();
 		
-		// Solve the matrix.
-		// Create solver.
-		LinearSolverSafe<DMatrixRMaj> solver = new LinearSolverSafe<DMatrixRMaj>(LinearSolverFactory_DDRM.leastSquaresQrPivot(true, false));
-		// Declare empty solution matrix, A matrix, and B matrix.
-		DMatrixRMaj solutionMat = new DMatrixRMaj(this.matLHS.numRows(), this.matLHS.numCols());
-		DMatrixRMaj bMat = MatrixHelper.convertSimpleToDMatrixRMaj(this.matRHS);
-		DMatrixRMaj aMat = MatrixHelper.convertSimpleToDMatrixRMaj(this.matLHS);
-		// Set A matrix of solver, converting to complex mat object in the process.
-		solver.setA(aMat);
-		// Solve the matrix and store in solution.
-		solver.solve(bMat, solutionMat);
-		// Set solution to circuit storage object, converting to simple mat object in the process.
-		this.matSol = MatrixHelper.convertDMatrixRMajToSimple(solutionMat);
+		SimCompiledCircuit compiled = new SimCompiledCircuit(this.state.getNodeCount(), this.state.getBranchCount(), this.resistorArray.length, this.capacitorArray.length, this.vecRHS.length);
 		
-		// If this is the first simulation step, go ahead and set the last voltage of the nodes to whatever voltage was calclated initially.
-		if (this.firstSimStep)
+		// The resistors and capacitors with the triplet slots they stamped.
+		for (int i = 0; i < this.resistorArray.length; i++)
 		{
-			// Reset flag.
-			this.firstSimStep = false;
-			
-			// Set node voltages to previous.
-			for (SimCircuitNode node : this.circuitNodes.values())
-			{
-				// Skip the ground reference node.
-				if (getIndexOfNode(node.getNodeName()) == 0) continue;
-				
-				// Search the integer mapping of the nodes and get its index.
-				int nodeIndex = getIndexOfNode(node.getNodeName());
-				
-				// Set the voltage based on the position/element of the solution matrix. This also saves the previous voltage of the node which helps with reactive components.
-				// If startUp is true, all voltage nodes should start with Vi = 0.
-				if (this.startUp)
-				{
-					node.setNodeVoltage(0f);
-				}
-				else
-				{
-					node.setNodeVoltage((float) this.matSol.get(nodeIndex - 1, 0));
-				}
-				node.setLastNodeVoltage(node.getNodeVoltage());
-			}
+			compiled.resistorNames[i] = this.resistorArray[i].getComponentName();
+			compiled.resistances[i] = this.resistorArray[i].getResistance();
 		}
-		else
+		System.arraycopy(this.resistorSlots, 0, compiled.resistorSlots, 0, compiled.resistorSlots.length);
+		for (int i = 0; i < this.capacitorArray.length; i++)
 		{
-			// Set node voltages to new voltages solved.
-			for (SimCircuitNode node : this.circuitNodes.values())
-			{
-				// Skip the ground reference node.
-				if (getIndexOfNode(node.getNodeName()) == 0) continue;
-				
-				// Search the integer mapping of the nodes and get its index.
-				int nodeIndex = getIndexOfNode(node.getNodeName());
-				
-				// Set the voltage based on the position/element of the solution matrix. This also saves the previous voltage of the node which helps with reactive components.
-				node.setNodeVoltage((float) this.matSol.get(nodeIndex - 1, 0));
-			}
+			compiled.capacitorNames[i] = this.capacitorArray[i].getComponentName();
+			compiled.capacitances[i] = this.capacitorArray[i].getCapacitance();
+			compiled.capacitorTerminalA[i] = this.capacitorArray[i].getTerminalA().getNodeId();
+			compiled.capacitorTerminalB[i] = this.capacitorArray[i].getTerminalB().getNodeId();
 		}
+		System.arraycopy(this.capacitorSlots, 0, compiled.capacitorSlots, 0, compiled.capacitorSlots.length);
 		
-		// Advance the current time based on the current step.
-		this.lastTime = this.currentTime;
-		this.currentTime += this.timeStep;
+		// The dc sources do not change between steps, so their RHS contribution is stamped once.
+		for (SimSourceDCCurrent currentSource : this.currentSourceArray)
+		{
+			currentSource.applyVariableStamp(this, compiled.sourceRHS);
+		}
+		for (SimSourceDCVoltage voltageSource : this.voltageSourceArray)
+		{
+			voltageSource.applyVariableStamp(this, compiled.sourceRHS);
+		}
+		
+		// The LHS, the initial conditions and the names of the state indices.
+		compiled.matrix = new SparseStampMatrix(this.stampLHS);
+		compiled.companionScale = this.companionScale;
+		System.arraycopy(this.state.nodeVoltages, 0, compiled.initialNodeVoltages, 0, compiled.nodeCount);
+		System.arraycopy(this.state.lastNodeVoltages, 0, compiled.initialLastNodeVoltages, 0, compiled.nodeCount);
+		compiled.nodeIndexMap.putAll(this.circuitNodeIndexMap);
+		compiled.branchIndexMap.putAll(this.circuitBranchIndexMap);
+		compiled.currentTime = this.currentTime;
+		compiled.lastTime = this.lastTime;
+		compiled.timeStep = this.timeStep;
+		compiled.firstSimStep = this.firstSimStep;
+		compiled.startUp = this.startUp;
+		
+		return compiled;
 	}
 	
 	/**
-	 * Return the solution matrix of this circuit, based on the last run simulation.
+	 * Takes a checkpoint of the stepping state of the circuit. See checkpoint(SimCheckpoint).
 	 * @return
 	 */
-	public SimpleMatrix getSolutionMatrix()
+	public SimCheckpoint checkpoint()
 	{
-		return this.matSol;
+		SimCheckpoint checkpoint = new SimCheckpoint();
+		checkpoint(checkpoint);
+		return checkpoint;
 	}
 	
 	/**
-	 * Get the total number of voltage nodes in the circuit that are not the reference node.
-	 * @return
+	 * Copies the stepping state of the circuit (times, state arrays and adaptive step history) into a checkpoint. The arrays of the
+	 * checkpoint are reused when they have the right size, so taking checkpoints repeatedly does not allocate.
+	 * @param checkpoint
 	 */
-	public int getNumberOfNonReferenceNodes()
+	public void checkpoint(SimCheckpoint checkpoint)
 	{
-		return this.circuitNodes.size() - 1;
+		// The state arrays follow the present mapping, so apply pending edits first.
+		if (this.matriciesDirty || (this.stampLHS == null)) rebuildSimMatricies();
+		
+		checkpoint.topologyHash = this.topologyHash;
+		checkpoint.currentTime = this.currentTime;
+		checkpoint.lastTime = this.lastTime;
+		checkpoint.timeStep = this.timeStep;
+		checkpoint.firstSimStep = this.firstSimStep;
+		checkpoint.startUp = this.startUp;
+		checkpoint.stepCut = this.stepCut;
+		checkpoint.nodeVoltages = copyInto(this.state.nodeVoltages, checkpoint.nodeVoltages);
+		checkpoint.lastNodeVoltages = copyInto(this.state.lastNodeVoltages, checkpoint.lastNodeVoltages);
+		checkpoint.branchCurrents = copyInto(this.state.branchCurrents, checkpoint.branchCurrents);
+		checkpoint.capacitorCurrents = copyInto(this.state.capacitorCurrents, checkpoint.capacitorCurrents);
+		checkpoint.adaptiveStepping = this.adaptiveStepping;
+		checkpoint.stepLevel = this.stepLevel;
+		checkpoint.minStepLevel = this.minStepLevel;
+		checkpoint.maxStepLevel = this.maxStepLevel;
+		checkpoint.relativeTolerance = this.relativeTolerance;
+		checkpoint.absoluteTolerance = this.absoluteTolerance;
+		checkpoint.adaptiveHistoryCount = this.adaptiveHistoryCount;
+		checkpoint.adaptiveHistory = copyInto(this.adaptiveHistory, checkpoint.adaptiveHistory);
+		checkpoint.lastStepSize = this.lastStepSize;
+		checkpoint.secondLastStepSize = this.secondLastStepSize;
+		checkpoint.acceptedStepCount = this.acceptedStepCount;
+		checkpoint.rejectedStepCount = this.rejectedStepCount;
 	}
 	
 	/**
-	 * Get the row count of the LHS matrix of this circuit.
-	 * @return
+	 * Continues the simulation from a checkpoint. The circuit must have the same nodes, voltage sources and capacitors as the
+	 * circuit the checkpoint was taken from, e.g. because it was built from the same netlist. The following steps give the same
+	 * results, bit for bit, as the steps the original circuit took after the checkpoint.
+	 * @param checkpoint
 	 */
-	public int getRowCountLHSMatrix()
+	public void restore(SimCheckpoint checkpoint)
 	{
-		return this.matLHS.numRows();
+		// Map and stamp the circuit first, since a rebuild resets the adaptive history.
+		if (this.matriciesDirty || (this.stampLHS == null)) rebuildSimMatricies();
+		
+		if ((checkpoint.topologyHash != this.topologyHash) || (checkpoint.nodeVoltages.length != this.state.nodeVoltages.length)
+				|| (checkpoint.branchCurrents.length != this.state.branchCurrents.length) || (checkpoint.capacitorCurrents.length != this.state.capacitorCurrents.length))
+			throw new IllegalArgumentException("The checkpoint was taken from a circuit with a different topology.");
+		
+		this.currentTime = checkpoint.currentTime;
+		this.lastTime = checkpoint.lastTime;
+		this.timeStep = checkpoint.timeStep;
+		this.firstSimStep = checkpoint.firstSimStep;
+		this.startUp = checkpoint.startUp;
+		this.stepCut = checkpoint.stepCut;
+		this.breakpointsDirty = true;
+		System.arraycopy(checkpoint.nodeVoltages, 0, this.state.nodeVoltages, 0, this.state.nodeVoltages.length);
+		System.arraycopy(checkpoint.lastNodeVoltages, 0, this.state.lastNodeVoltages, 0, this.state.lastNodeVoltages.length);
+		System.arraycopy(checkpoint.branchCurrents, 0, this.state.branchCurrents, 0, this.state.branchCurrents.length);
+		System.arraycopy(checkpoint.capacitorCurrents, 0, this.state.capacitorCurrents, 0, this.state.capacitorCurrents.length);
+		this.adaptiveStepping = checkpoint.adaptiveStepping;
+		this.stepLevel = checkpoint.stepLevel;
+		this.minStepLevel = checkpoint.minStepLevel;
+		this.maxStepLevel = checkpoint.maxStepLevel;
+		this.relativeTolerance = checkpoint.relativeTolerance;
+		this.absoluteTolerance = checkpoint.absoluteTolerance;
+		this.adaptiveHistoryCount = checkpoint.adaptiveHistoryCount;
+		this.adaptiveHistory = checkpoint.adaptiveHistory.clone();
+		this.lastStepSize = checkpoint.lastStepSize;
+		this.secondLastStepSize = checkpoint.secondLastStepSize;
+		this.acceptedStepCount = checkpoint.acceptedStepCount;
+		this.rejectedStepCount = checkpoint.rejectedStepCount;
 	}
 	
 	/**
-	 * Get the row count of the LHS matrix of this circuit.
-	 * @return
+	 * Set the writer that takes periodic checkpoints during runTransient(), or null to stop checkpointing.
+	 * @param checkpointWriter
 	 */
-	public int getColumnCountLHSMatrix()
+	public void setCheckpointWriter(SimCheckpointWriter checkpointWriter)
 	{
-		return this.matLHS.numCols();
+		this.checkpointWriter = checkpointWriter;
 	}
 	
 	/**
-	 * Get the row count of the RHS matrix of this circuit.
-	 * @return
+	 * Set the publisher that hands snapshots of the state to reader threads after every few steps, or null to stop publishing.
+	 * Other threads must read the state of a running circuit through the snapshots, not through its nodes and state arrays.
+	 * @param snapshotPublisher
 	 */
-	public int getColumnCountRHSMatrix()
+	public void setSnapshotPublisher(SimSnapshotPublisher snapshotPublisher)
 	{
-		return this.matRHS.numCols();
+		this.snapshotPublisher = snapshotPublisher;
 	}
 	
 	/**
-	 * Get the row count of the RHS matrix of this circuit.
+	 * Get the publisher of the state snapshots, or null.
 	 * @return
 	 */
-	public int getRowCountRHSMatrix()
+	public SimSnapshotPublisher getSnapshotPublisher()
 	{
-		return this.matRHS.numRows();
+		return this.snapshotPublisher;
 	}
 	
 	/**
-	 * Returns the index of the node of the given name.
-	 * @param nodeName
+	 * Copies source into destination, or into a new array if destination has a different length. Returns the array copied into.
+	 * @param source
+	 * @param destination
 	 * @return
 	 */
-	public int getIndexOfNode(String nodeName)
+	static double[] copyInto(double[] source, double[] destination)
 	{
-		return this.circuitNodeIndexMap.get(nodeName);
+		if (destination.length != source.length) return source.clone();
+		
+		System.arraycopy(source, 0, destination, 0, source.length);
+		return destination;
 	}
 	
 	/**
-	 * Returns the index of the branch of the given source name.
-	 * @param nodeName
+	 * Hashes the names of the nodes, voltage sources and capacitors in the order of their ids, which is what a checkpoint depends on.
 	 * @return
 	 */
-	public int getIndexOfBranch(String sourceName)
+	long computeTopologyHash()
 	{
-		return this.circuitBranchIndexMap.get(sourceName + "_i");
+		long hash = 0xcbf29ce484222325L;
+		for (SimCircuitNode node : this.nodesById)
+		{
+			hash = hashName(hash, node.getNodeName());
+		}
+		hash = hashName(hash, "");
+		for (SimSourceDCVoltage voltageSource : this.voltageSourceArray)
+		{
+			hash = hashName(hash, voltageSource.getSourceName());
+		}
+		hash = hashName(hash, "");
+		for (SimComponentCapacitor capacitor : this.capacitorArray)
+		{
+			hash = hashName(hash, capacitor.getComponentName());
+		}
+		return hash;
 	}
 	
 	/**
-	 * Get the current sim time.
+	 * Adds a name and a separator to a 64 bit FNV-1a hash.
+	 * @param hash
+	 * @param name
 	 * @return
 	 */
-	public float getTime()
+	static long hashName(long hash, String name)
 	{
-		return this.currentTime;
+		for (int i = 0; i < name.length(); i++)
+		{
+			hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+		}
+		return (hash ^ 0xffff) * 0x100000001b3L;
 	}
 	
 	/**
-	 * Get the last sim time.
-	 * @return
+	 * Marks the circuit matrices as outdated, so the next simulation step remaps, restamps and refactors them.
+	 * Only needed after modifying the public circuit maps directly, the add/remove methods already take care of it.
 	 */
-	public float getLastTime()
+	public void invalidateSimMatricies()
 	{
-		return this.lastTime;
+		this.matriciesDirty = true;
 	}
 	
 	/**
-	 * Get the difference in time between the last simulation iteration and the current one.
+	 * Associates existing nodes with an integer identifier. Returns true if the mapping was successful.
+	 * @return
+	 */
+	public boolean remapCircuitNodes()
+	{
+		// Declare an iterator variable that will be used to keep track of the current assigned index.
+		int currentNodeIndex = 0;
+		
+		// Boolean pass variable for reference node assignment.
+		boolean hasReference = false;
+		
+		// Clear old node mapping.
+		this.circuitNodeIndexMap.clear();
+		
+		// The new state arrays and the id -> node lookup. Voltages are carried over from the old mapping.
+		SimCircuitState newState = new SimCircuitState(this.circuitNodes.size(), this.voltageSourcesDC.size(), this.capacitors.size());
+		SimCircuitNode[] newNodesById = new SimCircuitNode[this.circuitNodes.size()];
+		
+		// Visit the nodes by name, so the ids do not depend on the iteration order of the map. The solver applies its own
+		// fill-reducing ordering on top of these ids.
+		SimCircuitNode[] sortedNodes = this.circuitNodes.values().toArray(new SimCircuitNode[0]);
+		Arrays.sort(sortedNodes, Comparator.comparing(SimCircuitNode::getNodeName));
+		
+		// First, find the ground node and assign it an index of zero.
+		for (SimCircuitNode node : sortedNodes)
+		{
+			if (node.isReferenceNode())
+			{
+				// Found the reference node, so set its index as zero.
+				newNodesById[currentNodeIndex] = node;
+				node.setNodeId(currentNodeIndex);
+				this.circuitNodeIndexMap.put(node.getNodeName(), currentNodeIndex);
+				// Increment index variable.
+				currentNodeIndex++;
+				hasReference = true;
+				break;
+			}
+		}
+		
+		// Check if we found a reference node. If not, stop remapping.
+		if (!hasReference) return false;
+		
+		// Assign the rest of the nodes an index.
+		for (SimCircuitNode node : sortedNodes)
+		{
+			if (!node.isReferenceNode())
+			{
+				// Carry the voltages over before the id changes. A node of the old mapping is read from the old state arrays at its
+				// old id, so the voltages are not rounded to the float of the node accessors.
+				SimCircuitState oldState = node.getState();
+				if ((oldState != null) && (oldState == this.state))
+				{
+					newState.nodeVoltages[currentNodeIndex] = oldState.nodeVoltages[node.getNodeId()];
+					newState.lastNodeVoltages[currentNodeIndex] = oldState.lastNodeVoltages[node.getNodeId()];
+				}
+				else
+				{
+					newState.nodeVoltages[currentNodeIndex] = node.getNodeVoltage();
+					newState.lastNodeVoltages[currentNodeIndex] = node.getLastNodeVoltage();
+				}
+				newNodesById[currentNodeIndex] = node;
+				
+				// Assign index to non-reference nodes.
+				node.setNodeId(currentNodeIndex);
+				this.circuitNodeIndexMap.put(node.getNodeName(), currentNodeIndex);
+				// Increment index variable.
+				currentNodeIndex++;
+			}
+		}
+		
+		// Point the node handles at the new state arrays.
+		this.state = newState;
+		this.nodesById = Arrays.copyOf(newNodesById, currentNodeIndex);
+		for (SimCircuitNode node : this.nodesById)
+		{
+			node.bindState(newState);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Associates existing branches with an integer identifier. Returns true if the mapping was successful.
+	 * @return
+	 */
+	public boolean remapBranches()
+	{
+		// Declare an iterator variable that will be used to keep track of the current assigned index.
+		int currentBranchIndex = 0;
+		
+		// Clear old branch mapping.
+		this.circuitBranchIndexMap.clear();
+		
+		// Find all branches for dc voltage sources and assign them an index, in order of name.
+		SimSourceDCVoltage[] sortedSources = this.voltageSourcesDC.values().toArray(new SimSourceDCVoltage[0]);
+		Arrays.sort(sortedSources, Comparator.comparing(SimSourceDCVoltage::getSourceName));
+		for (SimSourceDCVoltage dcVSource : sortedSources)
+		{
+			dcVSource.setBranchId(currentBranchIndex);
+			this.circuitBranchIndexMap.put(dcVSource.getSourceName() + "_i", currentBranchIndex);
+			// Increment index variable.
+			currentBranchIndex++;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Resets all node voltages to zero and resets the current time.
+	 * @return
+	 */
+	public void resetSim()
+	{
+		// Reset the current time to zero.
+		this.currentTime = 0f;
+		this.stepCut = false;
+		this.breakpointsDirty = true;
+		
+		// Set start flag to true, for the next sim step to set false.
+		this.firstSimStep = true;
+		
+		// Reset all node voltages to zero.
+		for (SimCircuitNode node : this.circuitNodes.values())
+		{
+			node.setNodeVoltage(0f);
+		}
+		
+		// Clear the branch and capacitor currents, and restart the adaptive integration history.
+		if (this.state != null)
+		{
+			Arrays.fill(this.state.branchCurrents, 0d);
+			Arrays.fill(this.state.capacitorCurrents, 0d);
+		}
+		restartAdaptiveHistory();
+	}
+	
+	/**
+	 * Populate the results matrix of this circuit.
+	 * @return
+	 */
+	public void stepSimulation()
+	{
+		this.metrics.beginStep();
+		
+		// Patch the matrix entries of the elements whose values were changed since the last step.
+		applyValueChanges();
+		
+		// The first step sets up the initial conditions with the fixed step, after that adaptive stepping may take over.
+		if (this.adaptiveStepping && !this.firstSimStep)
+		{
+			stepAdaptive();
+			this.metrics.endStep(this.lastTime, this.lastStepSize, true);
+			if (this.snapshotPublisher != null) this.snapshotPublisher.afterStep(this);
+			return;
+		}
+		
+		// A breakpoint before the next time cuts the step short to land on it, and the step after it ends on the next time again.
+		// The step after that still spans the uneven step before it. The times of the other steps stay where they were, and so does
+		// the factorization of the fixed step.
+		if (!this.firstSimStep)
+		{
+			double breakpoint = getNextBreakpoint();
+			if (this.stepCut || (this.lastStepSize != this.timeStep) || (breakpoint < this.currentTime - BREAKPOINT_RESOLUTION * this.timeStep))
+			{
+				double step = stepPartial(Math.min(breakpoint, this.currentTime));
+				this.metrics.endStep(this.lastTime, step, false);
+				if (this.snapshotPublisher != null) this.snapshotPublisher.afterStep(this);
+				return;
+			}
+		}
+		
+		// The fixed step uses backward Euler with the base time step.
+		useFixedStepCompanion();
+		this.stepTime = this.currentTime;
+		
+		// The LHS only changes with the topology or the time step, so rebuild and refactor only when one of them changed.
+		// Otherwise only the RHS (capacitor history and sources) is restamped and the cached factorization is reused.
+		if (this.matriciesDirty || (this.stampLHS == null))
+		{
+			rebuildSimMatricies();
+		}
+		else
+		{
+			// The time step changed (or adaptive or partial steps were taken), so only the values of the LHS need restamping.
+			// Partial steps leave the factorization of the fixed step valid for its own step size.
+			if (this.stampedCompanionScale != this.companionScale)
+			{
+				boolean factorizationDirty = this.factorizationDirty || (this.fixedFactorizationScale != this.companionScale);
+				restampConductanceMatrix();
+				this.factorizationDirty = factorizationDirty;
+			}
+			
+			restampVariableVector();
+		}
+		
+		// While autotuning, the candidates take turns solving the steps.
+		if (this.solverSelector.isAutotuning()) advanceAutotune();
+		boolean autotuning = this.solverSelector.isAutotuning();
+		
+		// Solve the matrix.
+		if (this.factorizationDirty)
+		{
+			long phaseStart = this.metrics.begin();
+			long factorStart = System.nanoTime();
+			factorFixedStep();
+			this.fixedFactorizationScale = this.companionScale;
+			if (autotuning && (this.solver == this.autotuneSolvers[this.autotuneCandidate]))
+				this.solverSelector.recordFactorization(this.autotuneCandidate, System.nanoTime() - factorStart);
+			
+			this.factorizationDirty = false;
+			this.metrics.end(SimMetrics.Phase.FACTORIZATION, phaseStart);
+			this.metrics.countFactorization(this.useFallbackSolver ? this.solverFallback : this.solver);
+		}
+		if (this.vecSol == null || this.vecSol.length != this.vecRHS.length)
+			this.vecSol = new double[this.vecRHS.length];
+		long phaseStart = this.metrics.begin();
+		long solveStart = System.nanoTime();
+		solveFixedStep();
+		if (autotuning && !this.useFallbackSolver && (this.solver == this.autotuneSolvers[this.autotuneCandidate]))
+			this.solverSelector.recordSolve(this.autotuneCandidate, System.nanoTime() - solveStart);
+		this.metrics.end(SimMetrics.Phase.SOLVE, phaseStart);
+		
+		// Write the solution back into the state arrays.
+		phaseStart = this.metrics.begin();
+		writeBackSolution();
+		this.metrics.end(SimMetrics.Phase.WRITE_BACK, phaseStart);
+		
+		// Advance the current time based on the current step.
+		this.lastTime = this.currentTime;
+		this.currentTime += this.timeStep;
+		this.lastStepSize = this.timeStep;
+		
+		this.metrics.endStep(this.lastTime, this.timeStep, false);
+		if (this.snapshotPublisher != null) this.snapshotPublisher.afterStep(this);
+	}
+	
+	/**
+	 * Takes a step from the last time to the given time, which is a breakpoint or the next time of the fixed steps, with the
+	 * factorization cached for its size. Restamping the LHS for it keeps the factorization of the fixed step. Returns the step size.
+	 * @param time
+	 * @return
+	 */
+	double stepPartial(double time)
+	{
+		if (this.matriciesDirty || (this.stampLHS == null))
+		{
+			rebuildSimMatricies();
+		}
+		
+		double step = time - this.lastTime;
+		boolean factorizationDirty = this.factorizationDirty;
+		usePartialStepCompanion(step);
+		LinearSystemSolver solver = getCompanionSolver();
+		this.factorizationDirty = factorizationDirty;
+		
+		this.stepTime = time;
+		restampVariableVector();
+		if (this.vecSol == null || this.vecSol.length != this.vecRHS.length)
+			this.vecSol = new double[this.vecRHS.length];
+		long phaseStart = this.metrics.begin();
+		solver.solve(this.vecRHS, this.vecSol);
+		this.metrics.end(SimMetrics.Phase.SOLVE, phaseStart);
+		
+		phaseStart = this.metrics.begin();
+		writeBackSolution();
+		this.metrics.end(SimMetrics.Phase.WRITE_BACK, phaseStart);
+		
+		// A step that ends on the next time goes back to the fixed steps, once a whole fixed step was taken since the last cut.
+		if (time >= this.currentTime)
+		{
+			this.lastStepSize = this.stepCut ? step : this.timeStep;
+			this.lastTime = this.currentTime;
+			this.currentTime += this.timeStep;
+			this.stepCut = false;
+		}
+		else
+		{
+			this.lastStepSize = step;
+			this.lastTime = (float) time;
+			this.stepCut = true;
+		}
+		
+		return step;
+	}
+	
+	/**
+	 * Returns the time of the next breakpoint after the last time, or positive infinity if there is none. Breakpoints that were
+	 * passed are dropped, and their waveforms queue their next corners.
+	 * @return
+	 */
+	double getNextBreakpoint()
+	{
+		if (this.breakpointsDirty)
+		{
+			// Queue the first corner of every waveform and the breakpoints of the caller after the last time.
+			this.breakpoints.clear();
+			for (int i = 0; i < this.sourceWaveforms.length; i++)
+			{
+				double next = this.sourceWaveforms[i].getNextBreakpoint(this.lastTime);
+				if (next < Double.POSITIVE_INFINITY) this.breakpoints.add(next, i);
+			}
+			for (int i = 0; i < this.userBreakpointCount; i++)
+			{
+				if (this.userBreakpoints[i] > this.lastTime) this.breakpoints.add(this.userBreakpoints[i], -1);
+			}
+			this.breakpointsDirty = false;
+		}
+		
+		// Breakpoints closer to the last time than the resolution (or the rounding of the float time) count as reached.
+		double reached = this.lastTime + Math.max(BREAKPOINT_RESOLUTION * this.timeStep, 2d * Math.ulp(this.lastTime));
+		while (this.breakpoints.peekTime() <= reached)
+		{
+			int owner = this.breakpoints.peekOwner();
+			this.breakpoints.poll();
+			if (owner < 0) continue;
+			
+			double next = this.sourceWaveforms[owner].getNextBreakpoint(reached);
+			if (next < Double.POSITIVE_INFINITY) this.breakpoints.add(next, owner);
+		}
+		return this.breakpoints.peekTime();
+	}
+	
+	/**
+	 * Adds a time the steps have to land on, e.g. the time of a planned edit. The corners of the waveforms of the sources are added
+	 * on their own. A fixed step is cut short at the breakpoint and an adaptive step is shortened to end on it.
+	 * @param time
+	 */
+	public void addBreakpoint(double time)
+	{
+		if (this.userBreakpointCount == this.userBreakpoints.length)
+			this.userBreakpoints = Arrays.copyOf(this.userBreakpoints, Math.max(8, this.userBreakpointCount * 2));
+		this.userBreakpoints[this.userBreakpointCount++] = time;
+		this.breakpointsDirty = true;
+	}
+	
+	/**
+	 * Removes the breakpoints added by addBreakpoint().
+	 */
+	public void clearBreakpoints()
+	{
+		this.userBreakpointCount = 0;
+		this.breakpointsDirty = true;
+	}
+	
+	/**
+	 * Get the time the step being solved lands on. Time-varying sources evaluate their waveforms at it.
+	 * @return
+	 */
+	public double getStepTime()
+	{
+		return this.stepTime;
+	}
+	
+	/**
+	 * Solves the next fixed step for every scenario of a batch of source levels at once, without taking the step. The sources only
+	 * stamp the RHS, so the LHS is assembled and factored once (or its factorization reused), the capacitor history is stamped once,
+	 * and the right hand sides of all scenarios are solved as one block with panel-blocked triangular solves. The scenarios see the
+	 * step the fixed stepping takes next with the base time step. Time-varying sources are at their level for that step unless a
+	 * scenario sets them.
+	 * @param scenarios
+	 * @return
+	 */
+	public SimScenarioResult solveScenarios(SimSourceScenarios scenarios)
+	{
+		for (String sourceName : scenarios.getSourceNames())
+		{
+			if (!this.voltageSourcesDC.containsKey(sourceName) && !this.currentSourcesDC.containsKey(sourceName))
+				throw new IllegalArgumentException("The circuit has no source named " + sourceName + ".");
+		}
+		
+		if (this.matriciesDirty || (this.stampLHS == null)) rebuildSimMatricies();
+		applyValueChanges();
+		
+		// Assemble and factor the LHS of the fixed step, as stepSimulation() would.
+		useFixedStepCompanion();
+		this.stepTime = this.currentTime;
+		if (this.stampedCompanionScale != this.companionScale)
+		{
+			boolean factorizationDirty = this.factorizationDirty || (this.fixedFactorizationScale != this.companionScale);
+			restampConductanceMatrix();
+			this.factorizationDirty = factorizationDirty;
+		}
+		if (this.factorizationDirty)
+		{
+			long phaseStart = this.metrics.begin();
+			factorFixedStep();
+			this.fixedFactorizationScale = this.companionScale;
+			this.factorizationDirty = false;
+			this.metrics.end(SimMetrics.Phase.FACTORIZATION, phaseStart);
+			this.metrics.countFactorization(this.useFallbackSolver ? this.solverFallback : this.solver);
+		}
+		
+		// The capacitor history is the same in every scenario, and the sources start from their present levels.
+		long phaseStart = this.metrics.begin();
+		int n = this.vecRHS.length;
+		int k = scenarios.getScenarioCount();
+		double[] history = new double[n];
+		for (SimComponentCapacitor capacitor : this.capacitorArray)
+		{
+			capacitor.applyVariableStamp(this, history);
+		}
+		float[] currentLevels = new float[this.currentSourceArray.length];
+		float[][] currentScenarioLevels = new float[this.currentSourceArray.length][];
+		for (int i = 0; i < this.currentSourceArray.length; i++)
+		{
+			this.currentSourceArray[i].simulateBehavior(this);
+			currentLevels[i] = this.currentSourceArray[i].getCurrentValue();
+			currentScenarioLevels[i] = scenarios.getLevels(this.currentSourceArray[i].getSourceName());
+		}
+		float[] voltageLevels = new float[this.voltageSourceArray.length];
+		float[][] voltageScenarioLevels = new float[this.voltageSourceArray.length][];
+		for (int i = 0; i < this.voltageSourceArray.length; i++)
+		{
+			this.voltageSourceArray[i].simulateBehavior(this);
+			voltageLevels[i] = this.voltageSourceArray[i].getVoltageValue();
+			voltageScenarioLevels[i] = scenarios.getLevels(this.voltageSourceArray[i].getSourceName());
+		}
+		
+		// Stamp the sources of every scenario into its column, then put the present levels back.
+		double[] rhsColumns = new double[n * k];
+		double[] column = new double[n];
+		for (int c = 0; c < k; c++)
+		{
+			System.arraycopy(history, 0, column, 0, n);
+			for (int i = 0; i < this.currentSourceArray.length; i++)
+			{
+				float level = (currentScenarioLevels[i] != null) ? currentScenarioLevels[i][c] : Float.NaN;
+				this.currentSourceArray[i].setCurrentValue(Float.isNaN(level) ? currentLevels[i] : level);
+				this.currentSourceArray[i].applyVariableStamp(this, column);
+			}
+			for (int i = 0; i < this.voltageSourceArray.length; i++)
+			{
+				float level = (voltageScenarioLevels[i] != null) ? voltageScenarioLevels[i][c] : Float.NaN;
+				this.voltageSourceArray[i].setVoltageValue(Float.isNaN(level) ? voltageLevels[i] : level);
+				this.voltageSourceArray[i].applyVariableStamp(this, column);
+			}
+			System.arraycopy(column, 0, rhsColumns, c * n, n);
+		}
+		for (int i = 0; i < this.currentSourceArray.length; i++) this.currentSourceArray[i].setCurrentValue(currentLevels[i]);
+		for (int i = 0; i < this.voltageSourceArray.length; i++) this.voltageSourceArray[i].setVoltageValue(voltageLevels[i]);
+		this.metrics.end(SimMetrics.Phase.ASSEMBLY, phaseStart);
+		
+		phaseStart = this.metrics.begin();
+		double[] solutionColumns = new double[n * k];
+		solveFixedStepMultiple(rhsColumns, solutionColumns, k);
+		this.metrics.end(SimMetrics.Phase.SOLVE, phaseStart);
+		
+		return new SimScenarioResult(k, n, this.nodesById.length - 1, new HashMap<String, Integer>(this.circuitNodeIndexMap),
+				new HashMap<String, Integer>(this.circuitBranchIndexMap), solutionColumns);
+	}
+	
+	/**
+	 * Runs the simulation until stopTime and records the probes into the sink after every step. Stepping, sampling and recording
+	 * all happen in this loop on primitive arrays, so the caller does not touch the nodes per step. Fixed steps end on the time of
+	 * the fixed steps nearest to stopTime, and adaptive steps shorten the last step to land on it. Returns the number of steps taken.
+	 * @param stopTime
+	 * @param probes
+	 * @param sink
+	 * @return
+	 */
+	public int runTransient(float stopTime, SimProbeSet probes, SimWaveformSink sink)
+	{
+		// Make sure the circuit is mapped so the probes can be resolved to state indices.
+		if (this.matriciesDirty || (this.stampLHS == null)) rebuildSimMatricies();
+		probes.resolve(this);
+		double[] values = new double[probes.size()];
+		
+		// The sample count is only known up front for fixed steps.
+		int expectedSamples = this.adaptiveStepping ? -1 : (int) Math.ceil((stopTime - this.lastTime) / this.timeStep) + 2;
+		sink.begin(probes.getProbeNames(), expectedSamples);
+		
+		// Step until the next step would land past the stop time.
+		int steps = 0;
+		this.runStopTime = stopTime;
+		try
+		{
+			while (this.firstSimStep || (this.adaptiveStepping ? (this.lastTime < stopTime - STOP_RESOLUTION * this.timeStep) : isStepBeforeStop(this.currentTime, stopTime, this.timeStep)))
+			{
+				stepSimulation();
+				long phaseStart = this.metrics.begin();
+				probes.sample(this.state, values);
+				sink.record(this.lastTime, values);
+				this.metrics.end(SimMetrics.Phase.RECORD, phaseStart);
+				if (this.checkpointWriter != null) this.checkpointWriter.afterStep(this);
+				steps++;
+			}
+		}
+		finally
+		{
+			this.runStopTime = Double.POSITIVE_INFINITY;
+		}
+		
+		sink.end();
+		return steps;
+	}
+	
+	/**
+	 * Returns true if a fixed step landing on stepTime belongs to a run until stopTime. The times of the fixed steps are sums of the
+	 * time step in float, which drift from its multiples by more than any relative tolerance over a long run, so a step still
+	 * belongs to the run if it lands less than half a step past stopTime.
+	 * @param stepTime
+	 * @param stopTime
+	 * @param timeStep
+	 * @return
+	 */
+	public static boolean isStepBeforeStop(float stepTime, float stopTime, float timeStep)
+	{
+		return stepTime < stopTime + 0.5f * timeStep;
+	}
+	
+	/**
+	 * Takes one adaptive step. The step is solved with the trapezoidal rule (backward Euler for the first step after a restart),
+	 * the local truncation error is estimated by comparing with a quadratic predictor through the last accepted points, and the
+	 * step is rejected and retried with a smaller size if the error is above the tolerance. Step sizes are base step * 2^level,
+	 * so the factorizations cached for each size are reused when the stepper returns to it.
+	 */
+	void stepAdaptive()
+	{
+		if (this.matriciesDirty || (this.stampLHS == null))
+		{
+			rebuildSimMatricies();
+		}
+		
+		double step;
+		double errorRatio;
+		boolean rejected = false;
+		boolean toBreakpoint;
+		while (true)
+		{
+			// Trapezoidal needs the capacitor currents of an accepted adaptive step.
+			step = getStepSizeOfLevel(this.stepLevel);
+			
+			// Shorten the step to land on the next breakpoint instead of stepping across it, and the last step of a run on its stop time.
+			// The stop time is no corner of a waveform, so the integration history is kept across it.
+			double breakpoint = getNextBreakpoint();
+			toBreakpoint = this.lastTime + step >= breakpoint - BREAKPOINT_RESOLUTION * this.timeStep;
+			if (toBreakpoint)
+				step = breakpoint - this.lastTime;
+			else if (this.lastTime + step >= this.runStopTime - STOP_RESOLUTION * this.timeStep)
+				step = this.runStopTime - this.lastTime;
+			useAdaptiveCompanion(step, this.adaptiveHistoryCount > 0);
+			this.stepTime = this.lastTime + step;
+			
+			// Solve with the factorization cached for this step size.
+			LinearSystemSolver solver = getCompanionSolver();
+			restampVariableVector();
+			if (this.vecSol == null || this.vecSol.length != this.vecRHS.length)
+				this.vecSol = new double[this.vecRHS.length];
+			long phaseStart = this.metrics.begin();
+			solver.solve(this.vecRHS, this.vecSol);
+			this.metrics.end(SimMetrics.Phase.SOLVE, phaseStart);
+			
+			// Estimate the error once enough history exists for the predictor.
+			errorRatio = (this.adaptiveHistoryCount >= 2) ? estimateErrorRatio(step) : 0d;
+			if ((errorRatio <= 1d) || (this.stepLevel == this.minStepLevel)) break;
+			
+			// Reject the step and shrink it. The error scales with step^3.
+			this.rejectedStepCount++;
+			this.metrics.countRejectedStep();
+			rejected = true;
+			int shrinkLevels = Math.max(1, (int) Math.ceil(Math.log(Math.cbrt(errorRatio) / 0.9) / Math.log(2d)));
+			this.stepLevel = Math.max(this.minStepLevel, this.stepLevel - shrinkLevels);
+		}
+		
+		// Accept the step. The voltages two steps back are kept for the predictor.
+		if (this.adaptiveHistory.length != this.state.nodeVoltages.length)
+			this.adaptiveHistory = new double[this.state.nodeVoltages.length];
+		System.arraycopy(this.state.lastNodeVoltages, 0, this.adaptiveHistory, 0, this.adaptiveHistory.length);
+		long phaseStart = this.metrics.begin();
+		writeBackSolution();
+		for (SimComponentCapacitor capacitor : this.capacitorArray)
+		{
+			capacitor.updateCurrentHistory(this);
+		}
+		this.metrics.end(SimMetrics.Phase.WRITE_BACK, phaseStart);
+		this.secondLastStepSize = this.lastStepSize;
+		this.lastStepSize = step;
+		this.adaptiveHistoryCount++;
+		this.acceptedStepCount++;
+		
+		// Grow the step if doubling it would still keep the error well below the tolerance.
+		if (!rejected && (this.adaptiveHistoryCount >= 2) && (errorRatio < (1d / 16d)) && (this.stepLevel < this.maxStepLevel))
+		{
+			this.stepLevel++;
+		}
+		
+		// The accepted solution belongs to the last time, and the current time is where the next step will land.
+		this.lastTime += (float) step;
+		this.currentTime = this.lastTime + (float) getStepSizeOfLevel(this.stepLevel);
+		
+		// The waveform has a corner at the breakpoint, so the predictor must not extrapolate across it. The steps start small again,
+		// since the first steps after a restart have no error estimate.
+		if (toBreakpoint)
+		{
+			restartAdaptiveHistory();
+			this.stepLevel = this.minStepLevel;
+			this.currentTime = this.lastTime + (float) getStepSizeOfLevel(this.stepLevel);
+		}
+	}
+	
+	/**
+	 * Returns the largest ratio of estimated local truncation error to tolerance over all nodes for the solution in vecSol.
+	 * Uses Milne's device: the trapezoidal error is estimated from the difference to a quadratic extrapolation of the last three points.
+	 * @param step
+	 * @return
+	 */
+	double estimateErrorRatio(double step)
+	{
+		double h1 = this.lastStepSize;
+		double h2 = this.secondLastStepSize;
+		
+		// Lagrange weights of the quadratic extrapolation through t(n), t(n-1) and t(n-2) evaluated at t(n) + step.
+		double weight0 = (step + h1) * (step + h1 + h2) / (h1 * (h1 + h2));
+		double weight1 = -step * (step + h1 + h2) / (h1 * h2);
+		double weight2 = step * (step + h1) / ((h1 + h2) * h2);
+		
+		// Error constants of the predictor and of the trapezoidal corrector (both multiply the third derivative).
+		double predictorError = step * (step + h1) * (step + h1 + h2) / 6d;
+		double correctorError = step * step * step / 12d;
+		double errorScale = correctorError / (correctorError + predictorError);
+		
+		double[] voltages = this.state.nodeVoltages;
+		double[] lastVoltages = this.state.lastNodeVoltages;
+		double ratio = 0d;
+		for (int nodeIndex = 1; nodeIndex < voltages.length; nodeIndex++)
+		{
+			double corrected = this.vecSol[nodeIndex - 1];
+			double predicted = weight0 * voltages[nodeIndex] + weight1 * lastVoltages[nodeIndex] + weight2 * this.adaptiveHistory[nodeIndex];
+			double error = errorScale * Math.abs(corrected - predicted);
+			double tolerance = this.relativeTolerance * Math.max(Math.abs(corrected), Math.abs(voltages[nodeIndex])) + this.absoluteTolerance;
+			ratio = Math.max(ratio, error / tolerance);
+		}
+		
+		return ratio;
+	}
+	
+	/**
+	 * Returns the solver factored for the current companion scale, restamping and factoring the LHS if it is not cached yet.
+	 * @return
+	 */
+	LinearSystemSolver getCompanionSolver()
+	{
+		LinearSystemSolver solver = this.companionSolvers.get(this.companionScale);
+		if (solver != null) return solver;
+		
+		// Restamp the LHS values for this step size and factor them.
+		if (this.stampedCompanionScale != this.companionScale) restampConductanceMatrix();
+		solver = this.solverPerIsland ? newIslandSolver() : newSolver(this.solverSelector.getKind());
+		long phaseStart = this.metrics.begin();
+		boolean factored = solver.factor(this.stampLHS);
+		if (!factored && !(solver instanceof SparseBlockSolver))
+		{
+			// The chosen solver does not fit this step size (e.g. a pivot of zero), fall back to the sparse LU solver.
+			solver = newSolver(SolverSelector.Kind.SPARSE_LU);
+			factored = solver.factor(this.stampLHS);
+		}
+		if (!factored)
+		{
+			// The system is singular (e.g. a floating node), fall back to the least squares solution.
+			solver = new DenseLeastSquaresSolver();
+			solver.factor(this.stampLHS);
+		}
+		this.metrics.end(SimMetrics.Phase.FACTORIZATION, phaseStart);
+		this.metrics.countFactorization(solver);
+		if (this.companionSolvers.size() >= MAX_COMPANION_SOLVERS) this.companionSolvers.clear();
+		this.companionSolvers.put(this.companionScale, solver);
+		
+		return solver;
+	}
+	
+	/**
+	 * Writes the solution of the last solve back into the state arrays. Row (id - 1) of the solution holds the voltage of node id.
+	 */
+	void writeBackSolution()
+	{
+		double[] voltages = this.state.nodeVoltages;
+		double[] lastVoltages = this.state.lastNodeVoltages;
+		int nodeCount = voltages.length;
+		
+		// If this is the first simulation step, go ahead and set the last voltage of the nodes to whatever voltage was calclated initially.
+		if (this.firstSimStep)
+		{
+			// Reset flag.
+			this.firstSimStep = false;
+			
+			// Set node voltages to previous, skipping the ground reference node.
+			// If startUp is true, all voltage nodes should start with Vi = 0.
+			for (int nodeIndex = 1; nodeIndex < nodeCount; nodeIndex++)
+			{
+				voltages[nodeIndex] = this.startUp ? 0d : this.vecSol[nodeIndex - 1];
+				lastVoltages[nodeIndex] = voltages[nodeIndex];
+			}
+		}
+		else
+		{
+			// Set node voltages to new voltages solved, saving the previous voltage which helps with reactive components.
+			for (int nodeIndex = 1; nodeIndex < nodeCount; nodeIndex++)
+			{
+				lastVoltages[nodeIndex] = voltages[nodeIndex];
+				voltages[nodeIndex] = this.vecSol[nodeIndex - 1];
+			}
+		}
+		
+		// Voltage source branch currents follow the node rows.
+		if (this.state.branchCurrents.length > 0)
+			System.arraycopy(this.vecSol, nodeCount - 1, this.state.branchCurrents, 0, this.state.branchCurrents.length);
+	}
+	
+	/**
+	 * Sets up the capacitor companion models for a fixed backward Euler step with the base time step. The history term uses
+	 * the last node voltages, as the fixed step always has.
+	 */
+	void useFixedStepCompanion()
+	{
+		this.companionScale = 1d / this.timeStep;
+		this.companionFromLastVoltages = true;
+		this.trapezoidalStep = false;
+	}
+	
+	/**
+	 * Sets up the capacitor companion models for a fixed step shortened by a breakpoint, or for a step next to one. The history term
+	 * uses the last node voltages like the fixed step, so it spans this step and the last one, and the scale is 2 / (last step + step)
+	 * to match, which is the scale of the fixed step when both have its size. Inert breakpoints then only change the steps, not the
+	 * equation they discretize.
+	 * @param step
+	 */
+	void usePartialStepCompanion(double step)
+	{
+		this.companionScale = 2d / (this.lastStepSize + step);
+		this.companionFromLastVoltages = true;
+		this.trapezoidalStep = false;
+	}
+	
+	/**
+	 * Sets up the capacitor companion models for an adaptive step of the given size.
+	 * @param step
+	 * @param trapezoidal
+	 */
+	void useAdaptiveCompanion(double step, boolean trapezoidal)
+	{
+		this.companionScale = (trapezoidal ? 2d : 1d) / step;
+		this.companionFromLastVoltages = false;
+		this.trapezoidalStep = trapezoidal;
+	}
+	
+	/**
+	 * Set the fill-reducing ordering the sparse solver applies to the node and branch indices. The matrix is refactored on the next step.
+	 * @param ordering
+	 */
+	public void setOrdering(SparseOrdering ordering)
+	{
+		this.ordering = ordering;
+		this.solverLU.setOrdering(ordering);
+		if (this.solver instanceof SparseBlockSolver) ((SparseBlockSolver) this.solver).setOrdering(ordering);
+		this.factorizationDirty = true;
+		this.companionSolvers.clear();
+	}
+	
+	/**
+	 * Get the fill-reducing ordering the sparse solver applies to the node and branch indices.
+	 * @return
+	 */
+	public SparseOrdering getOrdering()
+	{
+		return this.ordering;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the circuit matrix.
+	 * @return
+	 */
+	public int getMatrixNonZeroCount()
+	{
+		return (this.stampLHS != null) ? this.stampLHS.getNonZeroCount() : 0;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the sparse factors of the last factorization, summed over the islands: nnz(L+U) without
+	 * the unit diagonal of L for the sparse LU solver and nnz(L) for the sparse Cholesky solver. Islands factored densely count 0, and 0
+	 * is returned if the circuit is solved iteratively or has not been factored yet. Compare with getMatrixNonZeroCount() to see the fill-in.
+	 * @return
+	 */
+	public int getFactorNonZeroCount()
+	{
+		// Adaptive steps keep their own factorizations, one per step size.
+		LinearSystemSolver solver = this.adaptiveStepping ? this.companionSolvers.get(this.companionScale) : null;
+		if ((solver == null) && !this.useFallbackSolver) solver = this.solver;
+		
+		return (solver != null) ? solver.getFactorNonZeroCount() : 0;
+	}
+	
+	/**
+	 * Solves the circuit with a preconditioned iterative solver instead of the sparse LU solver, for circuits whose LU factors do not fit in memory.
+	 * The conjugate gradient is used while the circuit is nodal-only and its matrix symmetric positive definite, and BiCGSTAB once it has
+	 * voltage source branches, in which case incomplete Cholesky is replaced by ILU(0). Every step starts from the solution of the last one.
+	 * @param preconditioner
+	 * @param tolerance
+	 * @param maxIterations
+	 */
+	public void setIterativeSolver(IterativeSolver.Preconditioner preconditioner, double tolerance, int maxIterations)
+	{
+		setIterativeSolver(null, preconditioner, tolerance, maxIterations);
+	}
+	
+	/**
+	 * Solves the circuit with the given iterative method and preconditioner instead of the sparse LU solver. A null method is chosen by the
+	 * structure of the matrix, see setIterativeSolver(Preconditioner, double, int).
+	 * @param method
+	 * @param preconditioner
+	 * @param tolerance
+	 * @param maxIterations
+	 */
+	public void setIterativeSolver(IterativeSolver.Method method, IterativeSolver.Preconditioner preconditioner, double tolerance, int maxIterations)
+	{
+		if (!(tolerance > 0d) || (maxIterations < 1))
+			throw new IllegalArgumentException("The solver tolerance must be positive and at least one iteration must be allowed.");
+		
+		this.iterativeMethod = method;
+		this.iterativePreconditioner = preconditioner;
+		this.iterativeTolerance = tolerance;
+		this.iterativeMaxIterations = maxIterations;
+		setSolverKind(SolverSelector.Kind.ITERATIVE);
+	}
+	
+	/**
+	 * Goes back to solving the circuit with the sparse LU solver.
+	 */
+	public void setDirectSolver()
+	{
+		setSolverKind(SolverSelector.Kind.SPARSE_LU);
+	}
+	
+	/**
+	 * Get the iterative solver of the fixed steps, e.g. for its iteration counts, or null if the circuit is solved directly or not built yet.
+	 * @return
+	 */
+	public IterativeSolver getIterativeSolver()
+	{
+		return (this.solver instanceof IterativeSolver) ? (IterativeSolver) this.solver : null;
+	}
+	
+	/**
+	 * Get the solver of the fixed steps chosen on the last rebuild, or the sparse LU solver before the first one.
+	 * @return
+	 */
+	LinearSystemSolver getSolver()
+	{
+		return this.solver;
+	}
+	
+	/**
+	 * Forces the kind of solver of the circuit, or with null goes back to choosing it from the structure of every island on every rebuild
+	 * (the default). A forced direct kind is used for every island, and a forced Cholesky solver falls back to the sparse LU solver on an
+	 * island that turns out not to be positive definite.
+	 * @param kind
+	 */
+	public void setSolverKind(SolverSelector.Kind kind)
+	{
+		this.forcedSolverKind = kind;
+		reselectSolver();
+	}
+	
+	/**
+	 * Set whether or not the solver is autotuned after every rebuild: every candidate that fits the matrix solves stepsPerCandidate
+	 * fixed steps in turn, and the fastest one is kept. The steps are real steps of the simulation, so autotuning only costs the time
+	 * of the slower candidates. Autotuning is skipped while the kind of solver is forced.
+	 * @param enabled
+	 * @param stepsPerCandidate
+	 */
+	public void setSolverAutotune(boolean enabled, int stepsPerCandidate)
+	{
+		if (stepsPerCandidate < 1) throw new IllegalArgumentException("Every candidate must solve at least one step.");
+		
+		this.solverAutotune = enabled;
+		this.autotuneStepsPerCandidate = stepsPerCandidate;
+		reselectSolver();
+	}
+	
+	/**
+	 * Get the kind of solver chosen for the circuit matrix. When the islands get their own kinds, this is the kind of the largest one.
+	 * @return
+	 */
+	public SolverSelector.Kind getSolverKind()
+	{
+		return this.solverSelector.getKind();
+	}
+	
+	/**
+	 * Get why the solver of the circuit matrix was chosen, e.g. "120 rows, 520 non-zeros (3.6% dense), symmetric positive definite: sparse".
+	 * @return
+	 */
+	public String getSolverSelectionReason()
+	{
+		return this.solverSelector.getReason();
+	}
+	
+	/**
+	 * Get the selector of the solver, e.g. to change its thresholds before the next rebuild.
+	 * @return
+	 */
+	public SolverSelector getSolverSelector()
+	{
+		return this.solverSelector;
+	}
+	
+	/**
+	 * Set the number of element value changes the fixed-step factorization is corrected for with a low-rank update before it is factored
+	 * again, or 0 to factor again on every change. Every correction costs one more pass over the solution per step, and the corrected
+	 * solution matches a new factorization up to rounding.
+	 * @param maxRank
+	 */
+	public void setLowRankUpdates(int maxRank)
+	{
+		this.lowRankUpdate = new LowRankUpdate(maxRank);
+		this.factorizationDirty = true;
+	}
+	
+	/**
+	 * Get the number of element value changes the fixed-step factorization is corrected for at the moment.
+	 * @return
+	 */
+	public int getLowRankUpdateRank()
+	{
+		return this.lowRankUpdate.getRank();
+	}
+	
+	/**
+	 * Chooses the solver again for the present matrix, if it is built.
+	 */
+	void reselectSolver()
+	{
+		this.factorizationDirty = true;
+		this.companionSolvers.clear();
+		if ((this.stampLHS != null) && !this.matriciesDirty) selectSolver();
+	}
+	
+	/**
+	 * Chooses the solver of the fixed steps from the structure of the matrix, or takes the forced kind, and analyzes it. The islands are
+	 * split off first, and unless the kind is forced every island gets the kind that fits its own structure, so e.g. a circuit of small
+	 * channels is factored densely channel by channel. Only a matrix too large for a direct solver is solved iteratively as a whole.
+	 * Starts autotuning if it is enabled.
+	 */
+	void selectSolver()
+	{
+		SolverSelector.Kind kind = this.solverSelector.select(this.stampLHS, this.nodesById.length - 1);
+		if (this.forcedSolverKind != null)
+		{
+			if (this.forcedSolverKind != kind) this.solverSelector.override(this.forcedSolverKind, "forced, the structure suggests " + kind + " (" + this.solverSelector.getReason() + ")");
+			kind = this.forcedSolverKind;
+		}
+		
+		// A forced sparse LU solver keeps its analysis between rebuilds with the same pattern, so it is reused.
+		this.solverPerIsland = (this.forcedSolverKind == null) && (kind != SolverSelector.Kind.ITERATIVE);
+		this.islandSelector = new SolverSelector(this.solverSelector);
+		this.islandKindCounts = new int[SolverSelector.Kind.values().length];
+		this.largestIslandSize = 0;
+		if (this.solverPerIsland)
+			this.solver = newIslandSolver();
+		else
+			this.solver = (kind == SolverSelector.Kind.SPARSE_LU) ? this.solverLU : newSolver(kind);
+		this.solver.analyze(this.stampLHS);
+		this.useFallbackSolver = false;
+		if (this.solverPerIsland) describeIslandSolvers();
+		
+		// The islands are counted the same whichever solver was chosen, the iterative one does not split them.
+		this.islandCount = (this.solver instanceof SparseBlockSolver) ? ((SparseBlockSolver) this.solver).getBlockCount() : SparseBlockSolver.countBlocks(this.stampLHS);
+		
+		this.autotuneKinds = null;
+		this.autotuneSolvers = null;
+		if (this.solverAutotune && (this.forcedSolverKind == null))
+		{
+			// Every candidate is timed as one kind for all islands.
+			this.autotuneKinds = this.solverSelector.getCandidates();
+			this.autotuneSolvers = new LinearSystemSolver[this.autotuneKinds.length];
+			for (int c = 0; c < this.autotuneKinds.length; c++)
+			{
+				if (this.autotuneKinds[c] == SolverSelector.Kind.SPARSE_LU) this.autotuneSolvers[c] = this.solverLU;
+				else this.autotuneSolvers[c] = newSolver(this.autotuneKinds[c]);
+			}
+			this.solverSelector.beginAutotune(this.autotuneKinds);
+			this.autotuneStep = 0;
+			this.autotuneCandidate = -1;
+		}
+	}
+	
+	/**
+	 * Creates a solver of the given kind with the configured settings. Direct kinds split the matrix into its islands and use the
+	 * kind for every island.
+	 * @param kind
+	 * @return
+	 */
+	LinearSystemSolver newSolver(SolverSelector.Kind kind)
+	{
+		if (kind == SolverSelector.Kind.ITERATIVE) return newIterativeSolver();
+		
+		SparseBlockSolver solverBlocks = new SparseBlockSolver();
+		solverBlocks.setOrdering(this.ordering);
+		solverBlocks.setParallel(this.parallelIslands, this.parallelIslandThreshold);
+		if (kind != SolverSelector.Kind.SPARSE_LU) solverBlocks.setBlockSolverFactory((block, rows) -> newIslandSolver(kind));
+		return solverBlocks;
+	}
+	
+	/**
+	 * Creates a solver that splits the matrix into its islands and chooses the kind of solver of every island from its structure.
+	 * @return
+	 */
+	SparseBlockSolver newIslandSolver()
+	{
+		SparseBlockSolver solverBlocks = new SparseBlockSolver();
+		solverBlocks.setOrdering(this.ordering);
+		solverBlocks.setParallel(this.parallelIslands, this.parallelIslandThreshold);
+		solverBlocks.setBlockSolverFactory(this::selectIslandSolver);
+		return solverBlocks;
+	}
+	
+	/**
+	 * Chooses the kind of solver of one island from its structure and creates it. The island's rows are in the order of the matrix,
+	 * so its node rows come before its branch rows.
+	 * @param block
+	 * @param rows
+	 * @return
+	 */
+	LinearSystemSolver selectIslandSolver(SparseStampMatrix block, int[] rows)
+	{
+		int nodeRowCount = this.nodesById.length - 1;
+		if (rows != null)
+		{
+			nodeRowCount = 0;
+			for (int row : rows)
+			{
+				if (row < this.nodesById.length - 1) nodeRowCount++;
+			}
+		}
+		
+		// An island is never too large for a direct solver when the whole matrix is not.
+		SolverSelector.Kind kind = this.islandSelector.select(block, nodeRowCount);
+		if (kind == SolverSelector.Kind.ITERATIVE) kind = SolverSelector.Kind.SPARSE_LU;
+		
+		this.islandKindCounts[kind.ordinal()]++;
+		if (block.numRows() > this.largestIslandSize)
+		{
+			this.largestIslandSize = block.numRows();
+			this.largestIslandKind = kind;
+			this.largestIslandReason = this.islandSelector.getReason();
+		}
+		return newIslandSolver(kind);
+	}
+	
+	/**
+	 * Creates the solver of one island of the given direct kind with the configured settings.
+	 * @param kind
+	 * @return
+	 */
+	LinearSystemSolver newIslandSolver(SolverSelector.Kind kind)
+	{
+		switch (kind)
+		{
+			case DENSE_LU:
+				return new DenseLUSolver();
+			case DENSE_CHOLESKY:
+				return new DenseCholeskySolver();
+			case SPARSE_CHOLESKY:
+				SparseCholeskySolver solverCholesky = new SparseCholeskySolver();
+				solverCholesky.setOrdering(this.ordering);
+				return solverCholesky;
+			default:
+				SparseLUSolver solverLU = new SparseLUSolver();
+				solverLU.setOrdering(this.ordering);
+				return solverLU;
+		}
+	}
+	
+	/**
+	 * Reports the kinds chosen for the islands by the last analysis as the selected kind, the kind of the largest island, if there is
+	 * more than one island.
+	 */
+	void describeIslandSolvers()
+	{
+		int islandCount = ((SparseBlockSolver) this.solver).getBlockCount();
+		if (islandCount <= 1) return;
+		
+		StringBuilder kinds = new StringBuilder();
+		for (SolverSelector.Kind kind : SolverSelector.Kind.values())
+		{
+			if (this.islandKindCounts[kind.ordinal()] == 0) continue;
+			if (kinds.length() > 0) kinds.append(", ");
+			kinds.append(this.islandKindCounts[kind.ordinal()]).append(' ').append(kind);
+		}
+		this.solverSelector.override(this.largestIslandKind, islandCount + " islands (" + kinds + "), the largest " + this.largestIslandReason);
+	}
+	
+	/**
+	 * Switches to the next autotune candidate once the current one solved its steps, and keeps the fastest one after the last.
+	 */
+	void advanceAutotune()
+	{
+		int candidate = this.autotuneStep++ / this.autotuneStepsPerCandidate;
+		if (candidate == this.autotuneCandidate) return;
+		
+		if (candidate < this.autotuneSolvers.length)
+		{
+			this.autotuneCandidate = candidate;
+			this.solver = this.autotuneSolvers[candidate];
+		}
+		else
+		{
+			// If every candidate failed (e.g. a singular matrix) the selected kind stays.
+			this.solverSelector.endAutotune();
+			SolverSelector.Kind kind = this.solverSelector.getKind();
+			for (int c = 0; c < this.autotuneKinds.length; c++)
+			{
+				if (this.autotuneKinds[c] == kind) this.solver = this.autotuneSolvers[c];
+			}
+			this.autotuneKinds = null;
+			this.autotuneSolvers = null;
+			this.solverPerIsland = false;
+		}
+		this.factorizationDirty = true;
+	}
+	
+	/**
+	 * Factors the LHS with the solver of the fixed steps. If the chosen solver cannot factor it (a pivot of zero, or a Cholesky pivot that
+	 * is not positive) the sparse LU solver takes over, and if the matrix is singular the least squares solver.
+	 */
+	void factorFixedStep()
+	{
+		this.useFallbackSolver = !this.solver.factor(this.stampLHS);
+		if (this.useFallbackSolver && (this.solver != this.solverLU))
+		{
+			useSparseLUSolver(" could not factor the matrix");
+			this.useFallbackSolver = !this.solver.factor(this.stampLHS);
+		}
+		
+		// The system is singular (e.g. a floating node), fall back to the least squares solution.
+		if (this.useFallbackSolver) this.solverFallback.factor(this.stampLHS);
+		
+		// Value changes from here on are corrected against this factorization.
+		this.lowRankUpdate.reset(this.useFallbackSolver ? null : this.solver, this.stampLHS.numRows());
+	}
+	
+	/**
+	 * Solves the last factored LHS for the RHS into the solution vector. If the iterative solver does not converge the step is solved
+	 * again with the sparse LU solver, which takes over.
+	 */
+	void solveFixedStep()
+	{
+		if (this.useFallbackSolver)
+		{
+			this.solverFallback.solve(this.vecRHS, this.vecSol);
+			return;
+		}
+		
+		try
+		{
+			if (this.lowRankUpdate.getRank() > 0)
+				this.lowRankUpdate.solve(this.vecRHS, this.vecSol);
+			else
+				this.solver.solve(this.vecRHS, this.vecSol);
+		}
+		catch (IllegalStateException e)
+		{
+			if (!(this.solver instanceof IterativeSolver)) throw e;
+			
+			useSparseLUSolver(" did not converge");
+			factorFixedStep();
+			solveFixedStep();
+		}
+	}
+	
+	/**
+	 * Solves the last factored LHS for several right hand sides, column by column in the blocks, the same way as solveFixedStep().
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	void solveFixedStepMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		if (this.useFallbackSolver)
+		{
+			this.solverFallback.solveMultiple(rhsColumns, solutionColumns, columnCount);
+			return;
+		}
+		
+		try
+		{
+			if (this.lowRankUpdate.getRank() > 0)
+				this.lowRankUpdate.solveMultiple(rhsColumns, solutionColumns, columnCount);
+			else
+				this.solver.solveMultiple(rhsColumns, solutionColumns, columnCount);
+		}
+		catch (IllegalStateException e)
+		{
+			if (!(this.solver instanceof IterativeSolver)) throw e;
+			
+			useSparseLUSolver(" did not converge");
+			factorFixedStep();
+			solveFixedStepMultiple(rhsColumns, solutionColumns, columnCount);
+		}
+	}
+	
+	/**
+	 * Replaces a failed solver of the fixed steps with the sparse LU solver. While autotuning only the candidate is marked as failed.
+	 * @param failure
+	 */
+	void useSparseLUSolver(String failure)
+	{
+		if (this.solverSelector.isAutotuning())
+			this.solverSelector.recordFailure(this.autotuneCandidate);
+		else
+			this.solverSelector.override(SolverSelector.Kind.SPARSE_LU, this.solverSelector.getKind() + failure + ", fell back to SPARSE_LU");
+		
+		this.solver = this.solverLU;
+		this.solverPerIsland = false;
+	}
+	
+	/**
+	 * Creates an iterative solver with the configured settings for the present matrix.
+	 * @return
+	 */
+	IterativeSolver newIterativeSolver()
+	{
+		// Voltage source branches make the matrix indefinite, which rules out the conjugate gradient and incomplete Cholesky.
+		boolean branches = this.stampLHS.numRows() > this.nodesById.length - 1;
+		IterativeSolver.Method method = this.iterativeMethod;
+		if (method == null) method = branches ? IterativeSolver.Method.BICGSTAB : IterativeSolver.Method.CONJUGATE_GRADIENT;
+		IterativeSolver.Preconditioner preconditioner = this.iterativePreconditioner;
+		if (branches && (preconditioner == IterativeSolver.Preconditioner.INCOMPLETE_CHOLESKY)) preconditioner = IterativeSolver.Preconditioner.ILU0;
+		
+		IterativeSolver solver = new IterativeSolver(method, preconditioner);
+		solver.setTolerance(this.iterativeTolerance, this.iterativeMaxIterations);
+		return solver;
+	}
+	
+	/**
+	 * Get the number of islands of the circuit, i.e. the parts that only share the reference node. Each one is factored and
+	 * solved as its own block system, unless the circuit is solved iteratively.
+	 * @return
+	 */
+	public int getIslandCount()
+	{
+		return this.islandCount;
+	}
+	
+	/**
+	 * Set whether or not the islands are factored and solved in parallel once the circuit matrix has at least parallelThreshold rows.
+	 * @param parallel
+	 * @param parallelThreshold
+	 */
+	public void setParallelIslands(boolean parallel, int parallelThreshold)
+	{
+		this.solverLU.setParallel(parallel, parallelThreshold);
+		if (this.solver instanceof SparseBlockSolver) ((SparseBlockSolver) this.solver).setParallel(parallel, parallelThreshold);
+		this.parallelIslands = parallel;
+		this.parallelIslandThreshold = parallelThreshold;
+		this.companionSolvers.clear();
+	}
+	
+	/**
+	 * Get the instrumentation of this circuit: the time spent in each phase of the steps and the step, rebuild and factorization counters.
+	 * It can be polled or snapshotted from another thread while the circuit runs.
+	 * @return
+	 */
+	public SimMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Set whether or not the metrics of this circuit are collected. They are disabled by default and cost nothing while disabled.
+	 * @param enabled
+	 */
+	public void setMetricsEnabled(boolean enabled)
+	{
+		this.metrics.setEnabled(enabled);
+		
+		// Start the matrix size gauges at the present matrix, the next rebuild updates them.
+		if (enabled && (this.stampLHS != null) && !this.matriciesDirty)
+			this.metrics.recordMatrixSize(this.stampLHS.numRows(), this.stampLHS.getNonZeroCount(), this.islandCount);
+	}
+	
+	/**
+	 * Enables adaptive time stepping. Steps are chosen from base time step * 2^k within [minTimeStep, maxTimeStep], grown while the
+	 * estimated local truncation error stays small and shrunk (rejecting the step) when it exceeds relativeTolerance * |v| + absoluteTolerance.
+	 * @param minTimeStep
+	 * @param maxTimeStep
+	 * @param relativeTolerance
+	 * @param absoluteTolerance
+	 */
+	public void setAdaptiveStepping(float minTimeStep, float maxTimeStep, double relativeTolerance, double absoluteTolerance)
+	{
+		if ((minTimeStep <= 0f) || (minTimeStep > this.timeStep) || (maxTimeStep < this.timeStep))
+			throw new IllegalArgumentException("The adaptive step range [" + minTimeStep + ", " + maxTimeStep + "] must contain the time step " + this.timeStep + ".");
+		
+		this.minStepLevel = (int) Math.ceil((Math.log(minTimeStep / (double) this.timeStep) / Math.log(2d)) - 1e-9);
+		this.maxStepLevel = (int) Math.floor((Math.log(maxTimeStep / (double) this.timeStep) / Math.log(2d)) + 1e-9);
+		this.stepLevel = 0;
+		this.relativeTolerance = relativeTolerance;
+		this.absoluteTolerance = absoluteTolerance;
+		this.adaptiveStepping = true;
+		restartAdaptiveHistory();
+	}
+	
+	/**
+	 * Disables adaptive time stepping. The following steps use the fixed time step again.
+	 */
+	public void disableAdaptiveStepping()
+	{
+		this.adaptiveStepping = false;
+	}
+	
+	/**
+	 * Returns true if adaptive time stepping is enabled.
+	 * @return
+	 */
+	public boolean isAdaptiveStepping()
+	{
+		return this.adaptiveStepping;
+	}
+	
+	/**
+	 * Forgets the integration history, so the next adaptive step starts again with backward Euler and without an error estimate.
+	 */
+	public void restartAdaptiveHistory()
+	{
+		this.adaptiveHistoryCount = 0;
+	}
+	
+	/**
+	 * Get the step size of the given level of the adaptive step ladder.
+	 * @param level
+	 * @return
+	 */
+	double getStepSizeOfLevel(int level)
+	{
+		return Math.scalb((double) this.timeStep, level);
+	}
+	
+	/**
+	 * Get the number of adaptive steps that were rejected because of their error.
+	 * @return
+	 */
+	public long getRejectedStepCount()
+	{
+		return this.rejectedStepCount;
+	}
+	
+	/**
+	 * Get the number of accepted adaptive steps.
+	 * @return
+	 */
+	public long getAcceptedStepCount()
+	{
+		return this.acceptedStepCount;
+	}
+	
+	/**
+	 * Get the scale of the capacitor companion conductance (G = C * scale) of the step being solved.
+	 * @return
+	 */
+	public double getCompanionScale()
+	{
+		return this.companionScale;
+	}
+	
+	/**
+	 * Get the node voltages the capacitor companion history term is taken from for the step being solved.
+	 * @return
+	 */
+	public double[] getCompanionHistoryVoltages()
+	{
+		return this.companionFromLastVoltages ? this.state.lastNodeVoltages : this.state.nodeVoltages;
+	}
+	
+	/**
+	 * Returns true if the step being solved uses the trapezoidal rule.
+	 * @return
+	 */
+	public boolean isTrapezoidalStep()
+	{
+		return this.trapezoidalStep;
+	}
+	
+	/**
+	 * Return the solution matrix of this circuit, based on the last run simulation.
+	 * @return
+	 */
+	public SimpleMatrix getSolutionMatrix()
+	{
+		return MatrixHelper.convertVectorToSimple(this.vecSol);
+	}
+	
+	/**
+	 * Return the state arrays of this circuit (node voltages, last node voltages and branch currents indexed by id).
+	 * @return
+	 */
+	public SimCircuitState getState()
+	{
+		return this.state;
+	}
+	
+	/**
+	 * Return the node with the given id, as assigned by remapCircuitNodes().
+	 * @param nodeId
+	 * @return
+	 */
+	public SimCircuitNode getNodeById(int nodeId)
+	{
+		return this.nodesById[nodeId];
+	}
+	
+	/**
+	 * Returns the current through the voltage source of the given name, based on the last run simulation.
+	 * @param sourceName
+	 * @return
+	 */
+	public double getBranchCurrent(String sourceName)
+	{
+		return this.state.branchCurrents[getIndexOfBranch(sourceName)];
+	}
+	
+	/**
+	 * Return a dense copy of the LHS matrix of this circuit. Only meant for inspection of small circuits.
+	 * @return
+	 */
+	public SimpleMatrix getLHSMatrix()
+	{
+		return MatrixHelper.convertSparseToSimple(this.stampLHS);
+	}
+	
+	/**
+	 * Return a dense copy of the RHS vector of this circuit. Only meant for inspection of small circuits.
+	 * @return
+	 */
+	public SimpleMatrix getRHSMatrix()
+	{
+		return MatrixHelper.convertVectorToSimple(this.vecRHS);
+	}
+	
+	/**
+	 * Get the total number of voltage nodes in the circuit that are not the reference node.
+	 * @return
+	 */
+	public int getNumberOfNonReferenceNodes()
+	{
+		return this.circuitNodes.size() - 1;
+	}
+	
+	/**
+	 * Get the row count of the LHS matrix of this circuit.
+	 * @return
+	 */
+	public int getRowCountLHSMatrix()
+	{
+		return this.stampLHS.numRows();
+	}
+	
+	/**
+	 * Get the row count of the LHS matrix of this circuit.
+	 * @return
+	 */
+	public int getColumnCountLHSMatrix()
+	{
+		return this.stampLHS.numCols();
+	}
+	
+	/**
+	 * Get the row count of the RHS matrix of this circuit.
+	 * @return
+	 */
+	public int getColumnCountRHSMatrix()
+	{
+		return 1;
+	}
+	
+	/**
+	 * Get the row count of the RHS matrix of this circuit.
+	 * @return
+	 */
+	public int getRowCountRHSMatrix()
+	{
+		return this.vecRHS.length;
+	}
+	
+	/**
+	 * Returns the index of the node of the given name.
+	 * @param nodeName
+	 * @return
+	 */
+	public int getIndexOfNode(String nodeName)
+	{
+		return this.circuitNodeIndexMap.get(nodeName);
+	}
+	
+	/**
+	 * Returns the index of the branch of the given source name.
+	 * @param nodeName
+	 * @return
+	 */
+	public int getIndexOfBranch(String sourceName)
+	{
+		return this.circuitBranchIndexMap.get(sourceName + "_i");
+	}
+	
+	/**
+	 * Get the current sim time.
+	 * @return
+	 */
+	public float getTime()
+	{
+		return this.currentTime;
+	}
+	
+	/**
+	 * Get the last sim time.
+	 * @return
+	 */
+	public float getLastTime()
+	{
+		return this.lastTime;
+	}
+	
+	/**
+	 * Get the difference in time between the last simulation iteration and the current one.
 	 * @return
 	 */
 	public float getDeltaTime()
@@ -521,6 +2392,15 @@ public class SimCircuit
 		return this.timeStep;
 	}
 	
+	/**
+	 * Set the time step used by the circuit simulation. The capacitor stamps depend on it, so the next step restamps and refactors the LHS.
+	 * @param timeStep
+	 */
+	public void setTimeStep(float timeStep)
+	{
+		this.timeStep = timeStep;
+	}
+	
 	// The current time of the circuit.
 	float currentTime = 0f;
 	
@@ -536,6 +2416,18 @@ public class SimCircuit
 	// Whether or not voltage levels should start out @ 0V.
 	boolean startUp = false;
 	
+	// Whether or not the matrices need to be rebuilt before the next step (time step changed or maps edited directly).
+	boolean matriciesDirty = true;
+	
+	// The number of open edit batches. Rebuilds are deferred while this is above zero.
+	int editDepth = 0;
+	
+	// Whether or not the LHS changed since it was last factored.
+	boolean factorizationDirty = true;
+	
+	// Whether or not the last factorization had to use the fallback solver.
+	boolean useFallbackSolver = false;
+	
 	// The nodes present in this circuit.
 	public HashMap<String, SimCircuitNode> circuitNodes = new HashMap<String, SimCircuitNode>();
 	
@@ -560,14 +2452,180 @@ public class SimCircuit
 	// The mapping of branches to an index.
 	public HashMap<String, Integer> circuitBranchIndexMap = new HashMap<String, Integer>();
 	
-	// The condunctance interconnection matrix of the circuit. Rebuilt on circuit element add/remove.
-	public SimpleMatrix matLHS;
+	// The sparse condunctance interconnection matrix of the circuit. Rebuilt on circuit element add/remove.
+	public SparseStampMatrix stampLHS;
+	
+	// The variable vector of the circuit. Rebuilt on circuit element add/remove.
+	public double[] vecRHS;
+	
+	// The raw solution vector of the last simulation step.
+	double[] vecSol;
+	
+	// The node voltages, last node voltages and branch currents, indexed by the ids from remapCircuitNodes() and remapBranches().
+	SimCircuitState state = new SimCircuitState(0, 0, 0);
+	
+	// The nodes of the circuit, indexed by node id.
+	SimCircuitNode[] nodesById = new SimCircuitNode[0];
+	
+	// Flat copies of the elements, refreshed on rebuild.
+	SimComponentResistor[] resistorArray = new SimComponentResistor[0];
+	SimComponentCapacitor[] capacitorArray = new SimComponentCapacitor[0];
+	SimSourceDCCurrent[] currentSourceArray = new SimSourceDCCurrent[0];
+	SimSourceDCVoltage[] voltageSourceArray = new SimSourceDCVoltage[0];
+	
+	// The first LHS triplet slot stamped by each resistor and capacitor. Element i owns slots [slots[i], slots[i + 1]).
+	int[] resistorSlots = new int[1];
+	int[] capacitorSlots = new int[1];
+	
+	// The resistors and capacitors whose values changed since the last step, by index, and a flag per element so each is listed once.
+	int[] changedResistors = new int[0];
+	int[] changedCapacitors = new int[0];
+	int changedResistorCount = 0;
+	int changedCapacitorCount = 0;
+	boolean[] resistorChanged = new boolean[0];
+	boolean[] capacitorChanged = new boolean[0];
+	
+	// The scratch matrix a single changed element is stamped into.
+	SparseStampMatrix patchLHS = new SparseStampMatrix(0, 0, 4);
+	
+	// The low-rank correction of the fixed-step factorization for the element values changed since it was factored.
+	LowRankUpdate lowRankUpdate = new LowRankUpdate(8);
+	
+	// The sparse solver of the circuit matrix. Splits it into its independent islands and keeps the symbolic analysis of each between steps.
+	SparseBlockSolver solverLU = new SparseBlockSolver();
+	
+	// The fill-reducing ordering used by the sparse solvers.
+	SparseOrdering ordering = SparseOrdering.MINIMUM_DEGREE;
+	
+	// Whether or not the islands are solved in parallel, and the matrix size from which on they are.
+	boolean parallelIslands = true;
+	int parallelIslandThreshold = 1024;
+	
+	// The preconditioner of the iterative solver, and the forced Krylov method or null to choose it by structure.
+	IterativeSolver.Preconditioner iterativePreconditioner = IterativeSolver.Preconditioner.INCOMPLETE_CHOLESKY;
+	IterativeSolver.Method iterativeMethod;
+	
+	// The relative residual and the iteration limit of the iterative solver.
+	double iterativeTolerance = 1e-10;
+	int iterativeMaxIterations = 1000;
+	
+	// The selector of the solver, and the forced kind of solver or null to choose it from the structure of the matrix.
+	SolverSelector solverSelector = new SolverSelector();
+	SolverSelector.Kind forcedSolverKind;
+	
+	// The solver of the fixed steps, chosen on rebuild. It is the sparse LU solver above when that is forced or taken as the fallback.
+	LinearSystemSolver solver = this.solverLU;
+	
+	// Whether or not the solvers of the fixed and adaptive steps choose the kind of solver of every island from its structure.
+	boolean solverPerIsland = false;
+	
+	// The selector of the kinds of the islands, with the thresholds of the selector above.
+	SolverSelector islandSelector = new SolverSelector();
+	
+	// The number of islands given each kind by the last analysis, and the size, kind and reason of the largest island.
+	int[] islandKindCounts = new int[SolverSelector.Kind.values().length];
+	int largestIslandSize = 0;
+	SolverSelector.Kind largestIslandKind;
+	String largestIslandReason;
+	
+	// The number of islands of the circuit matrix, counted on rebuild.
+	int islandCount = 0;
+	
+	// Whether or not the solver is autotuned after a rebuild, and the number of steps each candidate solves.
+	boolean solverAutotune = false;
+	int autotuneStepsPerCandidate = 3;
+	
+	// The candidates being autotuned and their solvers, or null, the number of steps solved while autotuning and the current candidate.
+	SolverSelector.Kind[] autotuneKinds;
+	LinearSystemSolver[] autotuneSolvers;
+	int autotuneStep;
+	int autotuneCandidate;
+	
+	// The solver used when the circuit matrix is singular.
+	DenseLeastSquaresSolver solverFallback = new DenseLeastSquaresSolver();
+	
+	// The capacitor companion conductance scale (G = C * scale) of the step being solved, and the one currently stamped in the LHS.
+	double companionScale = 1d;
+	double stampedCompanionScale = Double.NaN;
+	
+	// Whether the capacitor history term of the step being solved uses the last node voltages (fixed step) or the present ones.
+	boolean companionFromLastVoltages = true;
+	
+	// Whether or not the step being solved uses the trapezoidal rule.
+	boolean trapezoidalStep = false;
+	
+	// Whether or not adaptive time stepping is enabled.
+	boolean adaptiveStepping = false;
+	
+	// The adaptive step ladder: step = timeStep * 2^level with minStepLevel <= level <= maxStepLevel.
+	int stepLevel = 0;
+	int minStepLevel = 0;
+	int maxStepLevel = 0;
+	
+	// The error tolerance of the adaptive steps.
+	double relativeTolerance = 1e-3;
+	double absoluteTolerance = 1e-6;
+	
+	// The number of accepted adaptive steps since the last restart of the integration history.
+	int adaptiveHistoryCount = 0;
+	
+	// The node voltages two accepted steps back, used by the error predictor.
+	double[] adaptiveHistory = new double[0];
+	
+	// The sizes of the last two accepted adaptive steps. The fixed steps keep the size of the last step too, which only differs from
+	// the time step around breakpoints.
+	double lastStepSize = 0d;
+	double secondLastStepSize = 0d;
+	
+	// The number of accepted and rejected adaptive steps.
+	long acceptedStepCount = 0;
+	long rejectedStepCount = 0;
+	
+	// The stop time of the run of runTransient() in progress, which the last adaptive step lands on, or positive infinity.
+	double runStopTime = Double.POSITIVE_INFINITY;
+	
+	// Adaptive steps ending closer than this fraction of the time step to the stop time of a run are taken to end on it.
+	static final double STOP_RESOLUTION = 1e-3;
+	
+	// The factorizations of the LHS cached by companion scale, i.e. by step size and integration rule. Cleared on rebuild, or when
+	// steps shortened to breakpoints have filled it.
+	HashMap<Double, LinearSystemSolver> companionSolvers = new HashMap<Double, LinearSystemSolver>();
+	static final int MAX_COMPANION_SOLVERS = 32;
+	
+	// The companion scale the solver of the fixed steps was last factored for.
+	double fixedFactorizationScale = Double.NaN;
+	
+	// The time the step being solved lands on.
+	double stepTime = 0d;
+	
+	// The waveforms of the time-varying sources, refreshed on rebuild.
+	SimSourceWaveform[] sourceWaveforms = new SimSourceWaveform[0];
+	
+	// The upcoming breakpoints, owned by the index of their waveform or -1, and whether they must be queued again from the last time.
+	SimBreakpointQueue breakpoints = new SimBreakpointQueue();
+	boolean breakpointsDirty = true;
+	
+	// The breakpoints added by the caller.
+	double[] userBreakpoints = new double[0];
+	int userBreakpointCount = 0;
+	
+	// Whether or not the last step was cut short by a breakpoint, so the next one ends on the next time of the fixed steps.
+	boolean stepCut = false;
+	
+	// Breakpoints closer than this fraction of the time step to the end of a step are taken as that end.
+	static final double BREAKPOINT_RESOLUTION = 1e-3;
+	
+	// The phase timers and counters of the simulation.
+	final SimMetrics metrics = new SimMetrics();
+	
+	// The hash of the names the state arrays are indexed by, refreshed on rebuild. Checkpoints carry it to check they fit the circuit.
+	long topologyHash = 0L;
 	
-	// The variable vector matrix of the circuit. Rebuilt on circuit element add/remove.
-	public SimpleMatrix matRHS;
+	// The writer of the periodic checkpoints taken during runTransient(), or null.
+	SimCheckpointWriter checkpointWriter;
 	
-	// The results of this circuit after simulation.
-	public SimpleMatrix matSol;
+	// The publisher of the state snapshots read by other threads, or null.
+	SimSnapshotPublisher snapshotPublisher;
 	
 	
 }
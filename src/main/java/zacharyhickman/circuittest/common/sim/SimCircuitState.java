@@ -0,0 +1,49 @@
+package zacharyhickman.circuittest.common.sim;
+
+/**
+ * The solved state of a circuit, stored as contiguous arrays indexed by the ids assigned in remapCircuitNodes() and
+ * remapBranches(). Index 0 of the node arrays is the reference node and always stays at 0V.
+ * @author zhick
+ *
+ */
+public class SimCircuitState
+{
+	// Constructor of the circuit state.
+	public SimCircuitState(int nodeCount, int branchCount, int capacitorCount)
+	{
+		this.nodeVoltages = new double[nodeCount];
+		this.lastNodeVoltages = new double[nodeCount];
+		this.branchCurrents = new double[branchCount];
+		this.capacitorCurrents = new double[capacitorCount];
+	}
+	
+	/**
+	 * Get the number of nodes (including the reference node) in this state.
+	 * @return
+	 */
+	public int getNodeCount()
+	{
+		return this.nodeVoltages.length;
+	}
+	
+	/**
+	 * Get the number of branches in this state.
+	 * @return
+	 */
+	public int getBranchCount()
+	{
+		return this.branchCurrents.length;
+	}
+	
+	// The voltage of each node, indexed by node id.
+	public final double[] nodeVoltages;
+	
+	// The previous voltage of each node, indexed by node id.
+	public final double[] lastNodeVoltages;
+	
+	// The current through each voltage source branch, indexed by branch id.
+	public final double[] branchCurrents;
+	
+	// The current through each capacitor at the last accepted step, indexed by capacitor history id. Used by the trapezoidal rule.
+	public final double[] capacitorCurrents;
+}
@@ -0,0 +1,227 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.HashMap;
+
+import zacharyhickman.circuittest.common.sim.netlist.SimNetlist;
+import zacharyhickman.circuittest.common.sim.netlist.SimNetlistElements;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.util.SparseSymbolicFactorization;
+
+/**
+ * A flat snapshot of a circuit topology made by SimCircuit.compile() or SimNetlist.compile(). It holds everything needed to step copies of the circuit
+ * with a fixed backward Euler step: the stamped LHS, the triplet slots of each resistor and capacitor so their values can be
+ * changed without restamping, the constant source RHS and the initial conditions. SimCompiledCircuitFile stores it in a binary file,
+ * together with the symbolic factorization of the LHS, so later runs can skip the compilation and the analysis.
+ * @author zhick
+ *
+ */
+public class SimCompiledCircuit
+{
+	// Constructor of the compiled circuit.
+	SimCompiledCircuit(int nodeCount, int branchCount, int resistorCount, int capacitorCount, int rowCount)
+	{
+		this.nodeCount = nodeCount;
+		this.branchCount = branchCount;
+		this.resistorNames = new String[resistorCount];
+		this.resistances = new double[resistorCount];
+		this.resistorSlots = new int[resistorCount + 1];
+		this.capacitorNames = new String[capacitorCount];
+		this.capacitances = new double[capacitorCount];
+		this.capacitorTerminalA = new int[capacitorCount];
+		this.capacitorTerminalB = new int[capacitorCount];
+		this.capacitorSlots = new int[capacitorCount + 1];
+		this.sourceRHS = new double[rowCount];
+		this.initialNodeVoltages = new double[nodeCount];
+		this.initialLastNodeVoltages = new double[nodeCount];
+	}
+	
+	/**
+	 * Compiles a netlist without building the node and element objects of a SimCircuit. The elements are stamped in the same
+	 * order and with the same float values as SimCircuit stamps them, resistors first, then capacitors and voltage sources,
+	 * but node and branch ids follow the order of the netlist instead of the names.
+	 * @param netlist
+	 * @param timeStep
+	 * @param startUp
+	 * @return
+	 */
+	public static SimCompiledCircuit fromNetlist(SimNetlist netlist, float timeStep, boolean startUp)
+	{
+		SimNetlistElements resistors = netlist.getResistors();
+		SimNetlistElements capacitors = netlist.getCapacitors();
+		SimNetlistElements voltageSources = netlist.getVoltageSources();
+		SimNetlistElements currentSources = netlist.getCurrentSources();
+		int nodeCount = netlist.getNodeCount();
+		int branchStart = nodeCount - 1;
+		int rowCount = branchStart + voltageSources.getCount();
+		
+		SimCompiledCircuit compiled = new SimCompiledCircuit(nodeCount, voltageSources.getCount(), resistors.getCount(), capacitors.getCount(), rowCount);
+		compiled.companionScale = 1d / timeStep;
+		compiled.timeStep = timeStep;
+		compiled.startUp = startUp;
+		SparseStampMatrix matrix = new SparseStampMatrix(rowCount, rowCount, 4 * (resistors.getCount() + capacitors.getCount() + voltageSources.getCount()));
+		
+		// The resistors, with the stamps of SimComponentResistor.
+		for (int i = 0; i < resistors.getCount(); i++)
+		{
+			float resistance = (float) resistors.getValue(i);
+			compiled.resistorNames[i] = resistors.getName(i);
+			compiled.resistances[i] = resistance;
+			compiled.resistorSlots[i] = matrix.getTripletCount();
+			stampConductance(matrix, resistors.getTerminalA(i), resistors.getTerminalB(i), 1/resistance);
+		}
+		compiled.resistorSlots[resistors.getCount()] = matrix.getTripletCount();
+		
+		// The capacitors, with the backward Euler companion stamps of SimComponentCapacitor.
+		for (int i = 0; i < capacitors.getCount(); i++)
+		{
+			float capacitance = (float) capacitors.getValue(i);
+			compiled.capacitorNames[i] = capacitors.getName(i);
+			compiled.capacitances[i] = capacitance;
+			compiled.capacitorTerminalA[i] = capacitors.getTerminalA(i);
+			compiled.capacitorTerminalB[i] = capacitors.getTerminalB(i);
+			compiled.capacitorSlots[i] = matrix.getTripletCount();
+			stampConductance(matrix, capacitors.getTerminalA(i), capacitors.getTerminalB(i), capacitance * compiled.companionScale);
+		}
+		compiled.capacitorSlots[capacitors.getCount()] = matrix.getTripletCount();
+		
+		// The voltage source branches, with the stamps of SimSourceDCVoltage.
+		for (int i = 0; i < voltageSources.getCount(); i++)
+		{
+			int a = voltageSources.getTerminalA(i);
+			int b = voltageSources.getTerminalB(i);
+			if (a != 0) matrix.addEntry(a - 1, branchStart + i, 1);
+			if (a != 0) matrix.addEntry(branchStart + i, a - 1, 1);
+			if (b != 0) matrix.addEntry(b - 1, branchStart + i, -1);
+			if (b != 0) matrix.addEntry(branchStart + i, b - 1, -1);
+			compiled.sourceRHS[branchStart + i] += (float) voltageSources.getValue(i);
+			compiled.branchIndexMap.put(voltageSources.getName(i) + "_i", i);
+		}
+		matrix.compress();
+		compiled.matrix = matrix;
+		
+		// The current sources only touch the RHS.
+		for (int i = 0; i < currentSources.getCount(); i++)
+		{
+			float current = (float) currentSources.getValue(i);
+			if (currentSources.getTerminalA(i) != 0) compiled.sourceRHS[currentSources.getTerminalA(i) - 1] += current;
+			if (currentSources.getTerminalB(i) != 0) compiled.sourceRHS[currentSources.getTerminalB(i) - 1] += -current;
+		}
+		
+		for (int id = 0; id < nodeCount; id++)
+		{
+			compiled.nodeIndexMap.put(netlist.getNodeName(id), id);
+		}
+		
+		return compiled;
+	}
+	
+	/**
+	 * Stamps a conductance between the nodes a and b, leaving out the entries of the reference node.
+	 * @param matrix
+	 * @param a
+	 * @param b
+	 * @param conductance
+	 */
+	static void stampConductance(SparseStampMatrix matrix, int a, int b, double conductance)
+	{
+		if (a != 0) matrix.addEntry(a - 1, a - 1, conductance);
+		if ((a != 0) && (b != 0)) matrix.addEntry(b - 1, a - 1, -conductance);
+		if ((a != 0) && (b != 0)) matrix.addEntry(a - 1, b - 1, -conductance);
+		if (b != 0) matrix.addEntry(b - 1, b - 1, conductance);
+	}
+	
+	/**
+	 * Get the number of resistors in the circuit.
+	 * @return
+	 */
+	public int getResistorCount()
+	{
+		return this.resistances.length;
+	}
+	
+	/**
+	 * Get the number of capacitors in the circuit.
+	 * @return
+	 */
+	public int getCapacitorCount()
+	{
+		return this.capacitances.length;
+	}
+	
+	/**
+	 * Returns the position of the resistor of the given name, or -1 if there is none.
+	 * @param resistorName
+	 * @return
+	 */
+	public int getIndexOfResistor(String resistorName)
+	{
+		for (int i = 0; i < this.resistorNames.length; i++)
+		{
+			if (this.resistorNames[i].equals(resistorName)) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the position of the capacitor of the given name, or -1 if there is none.
+	 * @param capacitorName
+	 * @return
+	 */
+	public int getIndexOfCapacitor(String capacitorName)
+	{
+		for (int i = 0; i < this.capacitorNames.length; i++)
+		{
+			if (this.capacitorNames[i].equals(capacitorName)) return i;
+		}
+		return -1;
+	}
+	
+	// The number of nodes, including the reference node.
+	public final int nodeCount;
+	
+	// The number of voltage source branches.
+	public final int branchCount;
+	
+	// The name and resistance of each resistor, and the first LHS triplet slot of each one. Resistor i owns slots [slots[i], slots[i + 1]).
+	public final String[] resistorNames;
+	public final double[] resistances;
+	public final int[] resistorSlots;
+	
+	// The name, capacitance and terminal node ids of each capacitor, and the first LHS triplet slot of each one.
+	public final String[] capacitorNames;
+	public final double[] capacitances;
+	public final int[] capacitorTerminalA;
+	public final int[] capacitorTerminalB;
+	public final int[] capacitorSlots;
+	
+	// The RHS contribution of the dc sources.
+	public final double[] sourceRHS;
+	
+	// The node voltages and last node voltages the copies start from, indexed by node id.
+	public final double[] initialNodeVoltages;
+	public final double[] initialLastNodeVoltages;
+	
+	// The mapping of node names and branch names to their state index.
+	public final HashMap<String, Integer> nodeIndexMap = new HashMap<String, Integer>();
+	public final HashMap<String, Integer> branchIndexMap = new HashMap<String, Integer>();
+	
+	// The compressed LHS stamped with the nominal values.
+	public SparseStampMatrix matrix;
+	
+	// The symbolic factorization of the LHS if it is known, e.g. when the circuit was read by SimCompiledCircuitFile, or null.
+	public SparseSymbolicFactorization symbolicFactorization;
+	
+	// The capacitor companion conductance scale (G = C * scale) stamped in the LHS.
+	public double companionScale = 1d;
+	
+	// The time of the circuit when it was compiled.
+	public float currentTime = 0f;
+	public float lastTime = 0f;
+	
+	// The base time step of the circuit.
+	public float timeStep = 1f;
+	
+	// Whether the next step is the first one, and whether the first step starts all nodes at 0V.
+	public boolean firstSimStep = true;
+	public boolean startUp = false;
+}
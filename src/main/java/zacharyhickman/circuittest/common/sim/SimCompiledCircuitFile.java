@@ -0,0 +1,495 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import zacharyhickman.circuittest.common.sim.util.SparseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.util.SparseSymbolicFactorization;
+
+/**
+ * Writes and reads compiled circuits as binary files, so repeated jobs on the same circuit skip the parsing, remapping,
+ * stamping and symbolic analysis and go straight to a numeric refactorization. The file is memory-mapped when it is read
+ * and the arrays are copied out of it in bulk.
+ *
+ * The file is little-endian and starts with a header:
+ *   int magic, int version, int node count, int branch count, int resistor count, int capacitor count, int row count,
+ *   double companion scale, float current time, float last time, float time step, int flags.
+ * The sections follow in this order, each array as an int length followed by its elements and each name list as an int count,
+ * an int byte length, the end offset of every name and the UTF-8 bytes:
+ *   resistor names, resistances, resistor slots, capacitor names, capacitances, capacitor terminals A and B, capacitor slots,
+ *   source RHS, initial node voltages, initial last node voltages, node names and ids, branch names and ids,
+ *   LHS triplet rows, columns and values, LHS column pointers, row indices and the value index of each triplet,
+ *   and if FLAG_SYMBOLIC is set the column order, pivot rows, L column pointers and rows, U column pointers and rows.
+ * Files are limited to 2GB, the largest single mapping.
+ * @author zhick
+ *
+ */
+public final class SimCompiledCircuitFile
+{
+	// Constructor of a file writer on an open channel.
+	private SimCompiledCircuitFile(FileChannel channel)
+	{
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Writes a compiled circuit to a file, replacing the file if it exists. If the circuit has no symbolic factorization yet
+	 * the LHS is factored once to get one, and it is kept in the compiled circuit.
+	 * @param compiled
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void write(SimCompiledCircuit compiled, Path path) throws IOException
+	{
+		SparseStampMatrix matrix = compiled.matrix;
+		if (!matrix.isCompressed()) matrix.compress();
+		
+		// A singular nominal matrix is stored without the symbolic factorization.
+		SparseSymbolicFactorization symbolic = compiled.symbolicFactorization;
+		if ((symbolic == null) || !symbolic.matchesPattern(matrix))
+		{
+			SparseLUSolver solver = new SparseLUSolver();
+			symbolic = solver.factor(matrix) ? solver.getSymbolicFactorization() : null;
+			compiled.symbolicFactorization = symbolic;
+		}
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			SimCompiledCircuitFile file = new SimCompiledCircuitFile(channel);
+			
+			// The header.
+			file.putInt(MAGIC);
+			file.putInt(VERSION);
+			file.putInt(compiled.nodeCount);
+			file.putInt(compiled.branchCount);
+			file.putInt(compiled.resistances.length);
+			file.putInt(compiled.capacitances.length);
+			file.putInt(compiled.sourceRHS.length);
+			file.ensure(24);
+			file.buffer.putDouble(compiled.companionScale);
+			file.buffer.putFloat(compiled.currentTime);
+			file.buffer.putFloat(compiled.lastTime);
+			file.buffer.putFloat(compiled.timeStep);
+			file.buffer.putInt((compiled.firstSimStep ? FLAG_FIRST_STEP : 0) | (compiled.startUp ? FLAG_START_UP : 0) | ((symbolic != null) ? FLAG_SYMBOLIC : 0));
+			
+			// The elements, the sources and the initial conditions.
+			file.putNames(compiled.resistorNames);
+			file.putDoubles(compiled.resistances, compiled.resistances.length);
+			file.putInts(compiled.resistorSlots, compiled.resistorSlots.length);
+			file.putNames(compiled.capacitorNames);
+			file.putDoubles(compiled.capacitances, compiled.capacitances.length);
+			file.putInts(compiled.capacitorTerminalA, compiled.capacitorTerminalA.length);
+			file.putInts(compiled.capacitorTerminalB, compiled.capacitorTerminalB.length);
+			file.putInts(compiled.capacitorSlots, compiled.capacitorSlots.length);
+			file.putDoubles(compiled.sourceRHS, compiled.sourceRHS.length);
+			file.putDoubles(compiled.initialNodeVoltages, compiled.initialNodeVoltages.length);
+			file.putDoubles(compiled.initialLastNodeVoltages, compiled.initialLastNodeVoltages.length);
+			file.putIndexMap(compiled.nodeIndexMap);
+			file.putIndexMap(compiled.branchIndexMap);
+			
+			// The LHS triplets and their compressed pattern.
+			int tripletCount = matrix.getTripletCount();
+			int[] tripletRows = new int[tripletCount];
+			int[] tripletColumns = new int[tripletCount];
+			double[] tripletValues = new double[tripletCount];
+			int[] valueIndices = new int[tripletCount];
+			for (int slot = 0; slot < tripletCount; slot++)
+			{
+				tripletRows[slot] = matrix.getTripletRow(slot);
+				tripletColumns[slot] = matrix.getTripletColumn(slot);
+				tripletValues[slot] = matrix.getTripletValue(slot);
+				valueIndices[slot] = matrix.getValueIndexOfSlot(slot);
+			}
+			file.putInts(tripletRows, tripletCount);
+			file.putInts(tripletColumns, tripletCount);
+			file.putDoubles(tripletValues, tripletCount);
+			file.putInts(matrix.getColumnPointers(), matrix.numCols() + 1);
+			file.putInts(matrix.getRowIndices(), matrix.getNonZeroCount());
+			file.putInts(valueIndices, tripletCount);
+			
+			// The symbolic factorization. Its matrix pattern is the LHS pattern above.
+			if (symbolic != null)
+			{
+				file.putInts(symbolic.columnOrder, symbolic.size);
+				file.putInts(symbolic.rowOfPivot, symbolic.size);
+				file.putInts(symbolic.lColumnPointers, symbolic.size + 1);
+				file.putInts(symbolic.lRowIndices, symbolic.lRowIndices.length);
+				file.putInts(symbolic.uColumnPointers, symbolic.size + 1);
+				file.putInts(symbolic.uRowIndices, symbolic.uRowIndices.length);
+			}
+			
+			file.flush();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("The compiled circuit needs " + channel.size() + " bytes, more than the 2GB a compiled circuit file can hold.");
+		}
+	}
+	
+	/**
+	 * Reads a compiled circuit written by write(). The file is memory-mapped and closed again before this returns.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static SimCompiledCircuit read(Path path) throws IOException
+	{
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is too large to be a compiled circuit file.");
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		ByteBuffer in = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		
+		try
+		{
+			if ((in.remaining() < HEADER_BYTES) || (in.getInt() != MAGIC)) throw new IOException(path + " is not a compiled circuit file.");
+			int version = in.getInt();
+			if (version != VERSION) throw new IOException(path + " has unsupported compiled circuit version " + version + ".");
+			
+			// The header.
+			int nodeCount = in.getInt();
+			int branchCount = in.getInt();
+			int resistorCount = in.getInt();
+			int capacitorCount = in.getInt();
+			int rowCount = in.getInt();
+			if ((nodeCount < 1) || (branchCount < 0) || (resistorCount < 0) || (capacitorCount < 0) || (rowCount != nodeCount - 1 + branchCount))
+				throw new IOException(path + " has an inconsistent header.");
+			SimCompiledCircuit compiled = new SimCompiledCircuit(nodeCount, branchCount, resistorCount, capacitorCount, rowCount);
+			compiled.companionScale = in.getDouble();
+			compiled.currentTime = in.getFloat();
+			compiled.lastTime = in.getFloat();
+			compiled.timeStep = in.getFloat();
+			int flags = in.getInt();
+			compiled.firstSimStep = (flags & FLAG_FIRST_STEP) != 0;
+			compiled.startUp = (flags & FLAG_START_UP) != 0;
+			
+			// The elements, the sources and the initial conditions.
+			getNames(in, compiled.resistorNames, path);
+			getDoubles(in, compiled.resistances, path);
+			getInts(in, compiled.resistorSlots, path);
+			getNames(in, compiled.capacitorNames, path);
+			getDoubles(in, compiled.capacitances, path);
+			getInts(in, compiled.capacitorTerminalA, path);
+			getInts(in, compiled.capacitorTerminalB, path);
+			getInts(in, compiled.capacitorSlots, path);
+			getDoubles(in, compiled.sourceRHS, path);
+			getDoubles(in, compiled.initialNodeVoltages, path);
+			getDoubles(in, compiled.initialLastNodeVoltages, path);
+			getIndexMap(in, compiled.nodeIndexMap, path);
+			getIndexMap(in, compiled.branchIndexMap, path);
+			
+			// The LHS.
+			int[] tripletRows = getInts(in, path);
+			int[] tripletColumns = getInts(in, path);
+			double[] tripletValues = getDoubles(in, path);
+			int[] columnPointers = getInts(in, path);
+			int[] rowIndices = getInts(in, path);
+			int[] valueIndices = getInts(in, path);
+			compiled.matrix = new SparseStampMatrix(rowCount, rowCount, tripletRows, tripletColumns, tripletValues, columnPointers, rowIndices, valueIndices);
+			
+			// The symbolic factorization.
+			if ((flags & FLAG_SYMBOLIC) != 0)
+			{
+				int[] columnOrder = getInts(in, path);
+				int[] rowOfPivot = getInts(in, path);
+				int[] lColumnPointers = getInts(in, path);
+				int[] lRowIndices = getInts(in, path);
+				int[] uColumnPointers = getInts(in, path);
+				int[] uRowIndices = getInts(in, path);
+				compiled.symbolicFactorization = new SparseSymbolicFactorization(rowCount, columnPointers, rowIndices, columnOrder, rowOfPivot,
+						lColumnPointers, lRowIndices, uColumnPointers, uRowIndices);
+			}
+			
+			return compiled;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException(path + " is truncated.", e);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(path + " is corrupt: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Reads a length-prefixed int array into an array of the expected length.
+	 * @param in
+	 * @param array
+	 * @param path
+	 * @throws IOException
+	 */
+	static void getInts(ByteBuffer in, int[] array, Path path) throws IOException
+	{
+		int length = getLength(in, 4, path);
+		if (length != array.length) throw new IOException(path + " has an array of " + length + " ints where " + array.length + " were expected.");
+		in.asIntBuffer().get(array);
+		in.position(in.position() + (length * 4));
+	}
+	
+	/**
+	 * Reads a length-prefixed int array.
+	 * @param in
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	static int[] getInts(ByteBuffer in, Path path) throws IOException
+	{
+		int[] array = new int[getLength(in, 4, path)];
+		in.asIntBuffer().get(array);
+		in.position(in.position() + (array.length * 4));
+		return array;
+	}
+	
+	/**
+	 * Reads a length-prefixed double array into an array of the expected length.
+	 * @param in
+	 * @param array
+	 * @param path
+	 * @throws IOException
+	 */
+	static void getDoubles(ByteBuffer in, double[] array, Path path) throws IOException
+	{
+		int length = getLength(in, 8, path);
+		if (length != array.length) throw new IOException(path + " has an array of " + length + " doubles where " + array.length + " were expected.");
+		in.asDoubleBuffer().get(array);
+		in.position(in.position() + (length * 8));
+	}
+	
+	/**
+	 * Reads a length-prefixed double array.
+	 * @param in
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	static double[] getDoubles(ByteBuffer in, Path path) throws IOException
+	{
+		double[] array = new double[getLength(in, 8, path)];
+		in.asDoubleBuffer().get(array);
+		in.position(in.position() + (array.length * 8));
+		return array;
+	}
+	
+	/**
+	 * Reads a name list into an array of the expected length.
+	 * @param in
+	 * @param names
+	 * @param path
+	 * @throws IOException
+	 */
+	static void getNames(ByteBuffer in, String[] names, Path path) throws IOException
+	{
+		int count = in.getInt();
+		if (count != names.length) throw new IOException(path + " has a list of " + count + " names where " + names.length + " were expected.");
+		int byteLength = in.getInt();
+		int[] ends = new int[count];
+		in.asIntBuffer().get(ends);
+		in.position(in.position() + (count * 4));
+		if ((byteLength < 0) || (byteLength > in.remaining())) throw new IOException(path + " is truncated.");
+		
+		byte[] bytes = new byte[byteLength];
+		in.get(bytes);
+		int start = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if ((ends[i] < start) || (ends[i] > byteLength)) throw new IOException(path + " has a corrupt name list.");
+			names[i] = new String(bytes, start, ends[i] - start, StandardCharsets.UTF_8);
+			start = ends[i];
+		}
+	}
+	
+	/**
+	 * Reads a name to index map.
+	 * @param in
+	 * @param map
+	 * @param path
+	 * @throws IOException
+	 */
+	static void getIndexMap(ByteBuffer in, Map<String, Integer> map, Path path) throws IOException
+	{
+		int count = in.getInt(in.position());
+		if (count < 0) throw new IOException(path + " has a corrupt name list.");
+		String[] names = new String[count];
+		getNames(in, names, path);
+		int[] indices = new int[names.length];
+		getInts(in, indices, path);
+		for (int i = 0; i < names.length; i++)
+		{
+			map.put(names[i], indices[i]);
+		}
+	}
+	
+	/**
+	 * Reads an array length and checks that the array fits in the rest of the file.
+	 * @param in
+	 * @param elementBytes
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	static int getLength(ByteBuffer in, int elementBytes, Path path) throws IOException
+	{
+		int length = in.getInt();
+		if ((length < 0) || ((long) length * elementBytes > in.remaining())) throw new IOException(path + " is truncated.");
+		return length;
+	}
+	
+	/**
+	 * Writes an int.
+	 * @param value
+	 * @throws IOException
+	 */
+	void putInt(int value) throws IOException
+	{
+		ensure(4);
+		this.buffer.putInt(value);
+	}
+	
+	/**
+	 * Writes the first length elements of an int array, prefixed by the length.
+	 * @param array
+	 * @param length
+	 * @throws IOException
+	 */
+	void putInts(int[] array, int length) throws IOException
+	{
+		putInt(length);
+		for (int offset = 0; offset < length;)
+		{
+			ensure(4);
+			int chunk = Math.min(length - offset, this.buffer.remaining() / 4);
+			this.buffer.asIntBuffer().put(array, offset, chunk);
+			this.buffer.position(this.buffer.position() + (chunk * 4));
+			offset += chunk;
+		}
+	}
+	
+	/**
+	 * Writes the first length elements of a double array, prefixed by the length.
+	 * @param array
+	 * @param length
+	 * @throws IOException
+	 */
+	void putDoubles(double[] array, int length) throws IOException
+	{
+		putInt(length);
+		for (int offset = 0; offset < length;)
+		{
+			ensure(8);
+			int chunk = Math.min(length - offset, this.buffer.remaining() / 8);
+			this.buffer.asDoubleBuffer().put(array, offset, chunk);
+			this.buffer.position(this.buffer.position() + (chunk * 8));
+			offset += chunk;
+		}
+	}
+	
+	/**
+	 * Writes a name list: the count, the byte length, the end offset of every name and the UTF-8 bytes.
+	 * @param names
+	 * @throws IOException
+	 */
+	void putNames(String[] names) throws IOException
+	{
+		byte[][] encoded = new byte[names.length][];
+		int[] ends = new int[names.length];
+		int byteLength = 0;
+		for (int i = 0; i < names.length; i++)
+		{
+			encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			byteLength += encoded[i].length;
+			ends[i] = byteLength;
+		}
+		
+		putInt(names.length);
+		putInt(byteLength);
+		for (int i = 0; i < names.length; i++)
+		{
+			putInt(ends[i]);
+		}
+		for (byte[] name : encoded)
+		{
+			for (int offset = 0; offset < name.length;)
+			{
+				ensure(1);
+				int chunk = Math.min(name.length - offset, this.buffer.remaining());
+				this.buffer.put(name, offset, chunk);
+				offset += chunk;
+			}
+		}
+	}
+	
+	/**
+	 * Writes a name to index map as a name list followed by the indices.
+	 * @param map
+	 * @throws IOException
+	 */
+	void putIndexMap(Map<String, Integer> map) throws IOException
+	{
+		String[] names = new String[map.size()];
+		int[] indices = new int[names.length];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : map.entrySet())
+		{
+			names[i] = entry.getKey();
+			indices[i++] = entry.getValue();
+		}
+		putNames(names);
+		putInts(indices, indices.length);
+	}
+	
+	/**
+	 * Flushes the buffer if it has less than the given number of bytes left.
+	 * @param bytes
+	 * @throws IOException
+	 */
+	void ensure(int bytes) throws IOException
+	{
+		if (this.buffer.remaining() < bytes) flush();
+	}
+	
+	/**
+	 * Writes the buffered bytes to the channel.
+	 * @throws IOException
+	 */
+	void flush() throws IOException
+	{
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+	
+	// The magic number at the start of every compiled circuit file ("CSCC").
+	public static final int MAGIC = 0x43435343;
+	
+	// The version of the file layout.
+	public static final int VERSION = 1;
+	
+	// The flags of the header.
+	static final int FLAG_FIRST_STEP = 1;
+	static final int FLAG_START_UP = 2;
+	static final int FLAG_SYMBOLIC = 4;
+	
+	// The size of the header in bytes.
+	static final int HEADER_BYTES = 52;
+	
+	// The size of the write buffer.
+	static final int BUFFER_BYTES = 1024 * 1024;
+	
+	// The channel being written.
+	final FileChannel channel;
+	
+	// The write buffer.
+	final ByteBuffer buffer;
+}
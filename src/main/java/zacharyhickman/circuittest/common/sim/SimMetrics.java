@@ -0,0 +1,368 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.Arrays;
+
+import zacharyhickman.circuittest.common.sim.util.LinearSystemSolver;
+
+/**
+ * Instrumentation of the simulation hot path: the nanoseconds spent in each phase of a step, and counters for steps, rejected
+ * steps, rebuilds, factorizations and the matrix size. While enabled, every step and rebuild is also emitted as a JFR event
+ * (SimStepEvent, SimRebuildEvent) if a recording has them turned on.
+ * Metrics are disabled by default. Every hook checks the enabled flag before reading the clock, so a disabled instance costs
+ * one predictable branch per phase.
+ * The metrics are written by the simulating thread only. Other threads may poll them or take a snapshot(), which reflects at
+ * least every step completed before the step count it reports.
+ * @author zhick
+ *
+ */
+public class SimMetrics
+{
+	/**
+	 * The phases of the simulation that are timed.
+	 */
+	public enum Phase
+	{
+		// Assigning ids to the nodes and branches on rebuild.
+		REMAP,
+		// Stamping and compressing the LHS, and restamping its values and the RHS.
+		ASSEMBLY,
+		// Finding the islands and the fill-reducing orderings of the matrix on rebuild.
+		ANALYSIS,
+		// Numerically factoring the matrix.
+		FACTORIZATION,
+		// Forward and back substitution.
+		SOLVE,
+		// Copying the solution into the state arrays (and the capacitor current history of adaptive steps).
+		WRITE_BACK,
+		// Sampling the probes and recording them into the sink during runTransient().
+		RECORD
+	}
+	
+	/**
+	 * Set whether or not the metrics are collected. The collected values are kept when disabled.
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Returns true if the metrics are collected.
+	 * @return
+	 */
+	public boolean isEnabled()
+	{
+		return this.enabled;
+	}
+	
+	/**
+	 * Clears all collected times and counters.
+	 */
+	public void reset()
+	{
+		Arrays.fill(this.phaseNanos, 0L);
+		Arrays.fill(this.phaseCounts, 0L);
+		this.rejectedStepCount = 0;
+		this.rebuildCount = 0;
+		this.factorizationCount = 0;
+		this.stepCount = 0;
+	}
+	
+	/**
+	 * Returns an immutable copy of the collected times and counters.
+	 * @return
+	 */
+	public SimMetricsSnapshot snapshot()
+	{
+		// Read the step count first, it is written last by every step.
+		long steps = this.stepCount;
+		return new SimMetricsSnapshot(System.nanoTime(), steps, this.rejectedStepCount, this.rebuildCount, this.factorizationCount,
+				this.matrixRowCount, this.matrixNonZeroCount, this.factorNonZeroCount, this.islandCount, this.phaseNanos.clone(), this.phaseCounts.clone());
+	}
+	
+	/**
+	 * Get the total nanoseconds spent in the given phase.
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseNanos(Phase phase)
+	{
+		return this.phaseNanos[phase.ordinal()];
+	}
+	
+	/**
+	 * Get the number of times the given phase was run.
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseCount(Phase phase)
+	{
+		return this.phaseCounts[phase.ordinal()];
+	}
+	
+	/**
+	 * Get the number of completed steps.
+	 * @return
+	 */
+	public long getStepCount()
+	{
+		return this.stepCount;
+	}
+	
+	/**
+	 * Get the number of adaptive steps that were rejected because of their error and retried.
+	 * @return
+	 */
+	public long getRejectedStepCount()
+	{
+		return this.rejectedStepCount;
+	}
+	
+	/**
+	 * Get the number of times the matrices were remapped and rebuilt.
+	 * @return
+	 */
+	public long getRebuildCount()
+	{
+		return this.rebuildCount;
+	}
+	
+	/**
+	 * Get the number of numeric factorizations of the circuit matrix.
+	 * @return
+	 */
+	public long getFactorizationCount()
+	{
+		return this.factorizationCount;
+	}
+	
+	/**
+	 * Get the row count of the circuit matrix at the last rebuild.
+	 * @return
+	 */
+	public int getMatrixRowCount()
+	{
+		return this.matrixRowCount;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the circuit matrix at the last rebuild.
+	 * @return
+	 */
+	public int getMatrixNonZeroCount()
+	{
+		return this.matrixNonZeroCount;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the LU factors of the last sparse factorization.
+	 * @return
+	 */
+	public int getFactorNonZeroCount()
+	{
+		return this.factorNonZeroCount;
+	}
+	
+	/**
+	 * Get the number of islands of the circuit matrix at the last rebuild.
+	 * @return
+	 */
+	public int getIslandCount()
+	{
+		return this.islandCount;
+	}
+	
+	/**
+	 * Returns the start time of a phase, or 0 without reading the clock if the metrics are disabled.
+	 * @return
+	 */
+	long begin()
+	{
+		return this.enabled ? System.nanoTime() : 0L;
+	}
+	
+	/**
+	 * Adds the time since startNanos (from begin()) to the given phase.
+	 * @param phase
+	 * @param startNanos
+	 */
+	void end(Phase phase, long startNanos)
+	{
+		if (!this.enabled) return;
+		
+		long elapsed = System.nanoTime() - startNanos;
+		int index = phase.ordinal();
+		this.phaseNanos[index] += elapsed;
+		this.phaseCounts[index]++;
+		this.stepPhaseNanos[index] += elapsed;
+	}
+	
+	/**
+	 * Starts a step. Begins its JFR event if a recording wants it.
+	 */
+	void beginStep()
+	{
+		if (!this.enabled) return;
+		
+		Arrays.fill(this.stepPhaseNanos, 0L);
+		this.stepRejections = 0;
+		this.stepFactored = false;
+		SimStepEvent event = new SimStepEvent();
+		if (event.isEnabled())
+		{
+			event.begin();
+			this.stepEvent = event;
+		}
+	}
+	
+	/**
+	 * Ends a step that solved the given time with the given step size, and commits its JFR event.
+	 * @param time
+	 * @param stepSize
+	 * @param adaptive
+	 */
+	void endStep(double time, double stepSize, boolean adaptive)
+	{
+		if (!this.enabled) return;
+		
+		SimStepEvent event = this.stepEvent;
+		if (event != null)
+		{
+			this.stepEvent = null;
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.time = time;
+				event.stepSize = stepSize;
+				event.adaptive = adaptive;
+				event.factored = this.stepFactored;
+				event.rejections = this.stepRejections;
+				event.assemblyNanos = this.stepPhaseNanos[Phase.ASSEMBLY.ordinal()];
+				event.factorizationNanos = this.stepPhaseNanos[Phase.FACTORIZATION.ordinal()];
+				event.solveNanos = this.stepPhaseNanos[Phase.SOLVE.ordinal()];
+				event.writeBackNanos = this.stepPhaseNanos[Phase.WRITE_BACK.ordinal()];
+				event.commit();
+			}
+		}
+		
+		// Written last, see snapshot().
+		this.stepCount++;
+	}
+	
+	/**
+	 * Counts a rejected adaptive step.
+	 */
+	void countRejectedStep()
+	{
+		if (!this.enabled) return;
+		
+		this.rejectedStepCount++;
+		this.stepRejections++;
+	}
+	
+	/**
+	 * Counts a factorization by the given solver and records the size of its factors.
+	 * @param solver
+	 */
+	void countFactorization(LinearSystemSolver solver)
+	{
+		if (!this.enabled) return;
+		
+		this.factorizationCount++;
+		this.stepFactored = true;
+		this.factorNonZeroCount = solver.getFactorNonZeroCount();
+	}
+	
+	/**
+	 * Starts a rebuild. Begins its JFR event if a recording wants it.
+	 */
+	void beginRebuild()
+	{
+		if (!this.enabled) return;
+		
+		SimRebuildEvent event = new SimRebuildEvent();
+		if (event.isEnabled())
+		{
+			event.begin();
+			this.rebuildEvent = event;
+		}
+	}
+	
+	/**
+	 * Ends a rebuild of a matrix of the given size, and commits its JFR event.
+	 * @param nodeCount
+	 * @param branchCount
+	 * @param rowCount
+	 * @param nonZeroCount
+	 * @param islandCount
+	 */
+	void endRebuild(int nodeCount, int branchCount, int rowCount, int nonZeroCount, int islandCount)
+	{
+		if (!this.enabled) return;
+		
+		this.rebuildCount++;
+		recordMatrixSize(rowCount, nonZeroCount, islandCount);
+		
+		SimRebuildEvent event = this.rebuildEvent;
+		if (event != null)
+		{
+			this.rebuildEvent = null;
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.nodeCount = nodeCount;
+				event.branchCount = branchCount;
+				event.rowCount = rowCount;
+				event.nonZeroCount = nonZeroCount;
+				event.islandCount = islandCount;
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Records the size of the circuit matrix.
+	 * @param rowCount
+	 * @param nonZeroCount
+	 * @param islandCount
+	 */
+	void recordMatrixSize(int rowCount, int nonZeroCount, int islandCount)
+	{
+		this.matrixRowCount = rowCount;
+		this.matrixNonZeroCount = nonZeroCount;
+		this.islandCount = islandCount;
+	}
+	
+	// Whether or not the metrics are collected.
+	boolean enabled = false;
+	
+	// The total nanoseconds spent in each phase, and the number of times each phase was run, indexed by phase ordinal.
+	final long[] phaseNanos = new long[Phase.values().length];
+	final long[] phaseCounts = new long[Phase.values().length];
+	
+	// The counters.
+	long rejectedStepCount = 0;
+	long rebuildCount = 0;
+	long factorizationCount = 0;
+	
+	// The number of completed steps. Volatile so that a poll from another thread sees everything the counted steps wrote.
+	volatile long stepCount = 0;
+	
+	// The size of the circuit matrix and its factors.
+	int matrixRowCount = 0;
+	int matrixNonZeroCount = 0;
+	int factorNonZeroCount = 0;
+	int islandCount = 0;
+	
+	// The nanoseconds spent in each phase of the step in progress.
+	final long[] stepPhaseNanos = new long[Phase.values().length];
+	
+	// The number of rejections and whether or not the matrix was factored during the step in progress.
+	int stepRejections = 0;
+	boolean stepFactored = false;
+	
+	// The JFR events in progress, or null if no recording wants them.
+	SimStepEvent stepEvent;
+	SimRebuildEvent rebuildEvent;
+}
@@ -0,0 +1,207 @@
+package zacharyhickman.circuittest.common.sim;
+
+import zacharyhickman.circuittest.common.sim.SimMetrics.Phase;
+
+/**
+ * An immutable copy of the metrics of a circuit at one point in time. Two snapshots can be subtracted to get the metrics of the
+ * interval between them.
+ * @author zhick
+ *
+ */
+public final class SimMetricsSnapshot
+{
+	// Constructor of the metrics snapshot.
+	SimMetricsSnapshot(long takenNanos, long stepCount, long rejectedStepCount, long rebuildCount, long factorizationCount,
+			int matrixRowCount, int matrixNonZeroCount, int factorNonZeroCount, int islandCount, long[] phaseNanos, long[] phaseCounts)
+	{
+		this.takenNanos = takenNanos;
+		this.stepCount = stepCount;
+		this.rejectedStepCount = rejectedStepCount;
+		this.rebuildCount = rebuildCount;
+		this.factorizationCount = factorizationCount;
+		this.matrixRowCount = matrixRowCount;
+		this.matrixNonZeroCount = matrixNonZeroCount;
+		this.factorNonZeroCount = factorNonZeroCount;
+		this.islandCount = islandCount;
+		this.phaseNanos = phaseNanos;
+		this.phaseCounts = phaseCounts;
+	}
+	
+	/**
+	 * Returns the metrics of the interval from an earlier snapshot to this one. The matrix sizes are the ones of this snapshot.
+	 * @param earlier
+	 * @return
+	 */
+	public SimMetricsSnapshot since(SimMetricsSnapshot earlier)
+	{
+		long[] nanos = new long[this.phaseNanos.length];
+		long[] counts = new long[this.phaseCounts.length];
+		for (int i = 0; i < nanos.length; i++)
+		{
+			nanos[i] = this.phaseNanos[i] - earlier.phaseNanos[i];
+			counts[i] = this.phaseCounts[i] - earlier.phaseCounts[i];
+		}
+		
+		return new SimMetricsSnapshot(this.takenNanos, this.stepCount - earlier.stepCount, this.rejectedStepCount - earlier.rejectedStepCount,
+				this.rebuildCount - earlier.rebuildCount, this.factorizationCount - earlier.factorizationCount,
+				this.matrixRowCount, this.matrixNonZeroCount, this.factorNonZeroCount, this.islandCount, nanos, counts);
+	}
+	
+	/**
+	 * Get the System.nanoTime() at which the snapshot was taken.
+	 * @return
+	 */
+	public long getTakenNanos()
+	{
+		return this.takenNanos;
+	}
+	
+	/**
+	 * Get the total nanoseconds spent in the given phase.
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseNanos(Phase phase)
+	{
+		return this.phaseNanos[phase.ordinal()];
+	}
+	
+	/**
+	 * Get the number of times the given phase was run.
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseCount(Phase phase)
+	{
+		return this.phaseCounts[phase.ordinal()];
+	}
+	
+	/**
+	 * Get the total nanoseconds spent in all phases.
+	 * @return
+	 */
+	public long getTotalNanos()
+	{
+		long total = 0;
+		for (long nanos : this.phaseNanos) total += nanos;
+		return total;
+	}
+	
+	/**
+	 * Get the average nanoseconds per completed step, over all phases.
+	 * @return
+	 */
+	public double getNanosPerStep()
+	{
+		return (this.stepCount > 0) ? getTotalNanos() / (double) this.stepCount : 0d;
+	}
+	
+	/**
+	 * Get the number of completed steps.
+	 * @return
+	 */
+	public long getStepCount()
+	{
+		return this.stepCount;
+	}
+	
+	/**
+	 * Get the number of rejected adaptive steps.
+	 * @return
+	 */
+	public long getRejectedStepCount()
+	{
+		return this.rejectedStepCount;
+	}
+	
+	/**
+	 * Get the number of rebuilds of the matrices.
+	 * @return
+	 */
+	public long getRebuildCount()
+	{
+		return this.rebuildCount;
+	}
+	
+	/**
+	 * Get the number of numeric factorizations of the circuit matrix.
+	 * @return
+	 */
+	public long getFactorizationCount()
+	{
+		return this.factorizationCount;
+	}
+	
+	/**
+	 * Get the row count of the circuit matrix.
+	 * @return
+	 */
+	public int getMatrixRowCount()
+	{
+		return this.matrixRowCount;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the circuit matrix.
+	 * @return
+	 */
+	public int getMatrixNonZeroCount()
+	{
+		return this.matrixNonZeroCount;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the LU factors of the last sparse factorization.
+	 * @return
+	 */
+	public int getFactorNonZeroCount()
+	{
+		return this.factorNonZeroCount;
+	}
+	
+	/**
+	 * Get the number of islands of the circuit matrix.
+	 * @return
+	 */
+	public int getIslandCount()
+	{
+		return this.islandCount;
+	}
+	
+	/**
+	 * Returns a multi-line report of the phase times and the counters.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder();
+		long total = getTotalNanos();
+		report.append(String.format("steps=%d rejected=%d rebuilds=%d factorizations=%d%n", this.stepCount, this.rejectedStepCount, this.rebuildCount, this.factorizationCount));
+		report.append(String.format("matrix rows=%d nnz=%d factor nnz=%d islands=%d%n", this.matrixRowCount, this.matrixNonZeroCount, this.factorNonZeroCount, this.islandCount));
+		for (Phase phase : Phase.values())
+		{
+			long nanos = this.phaseNanos[phase.ordinal()];
+			report.append(String.format("%-14s %12.3f ms %6.1f%% %10d calls%n", phase, nanos / 1e6, (total > 0) ? 100d * nanos / total : 0d, this.phaseCounts[phase.ordinal()]));
+		}
+		return report.toString();
+	}
+	
+	// The System.nanoTime() at which the snapshot was taken.
+	final long takenNanos;
+	
+	// The counters.
+	final long stepCount;
+	final long rejectedStepCount;
+	final long rebuildCount;
+	final long factorizationCount;
+	
+	// The size of the circuit matrix and its factors.
+	final int matrixRowCount;
+	final int matrixNonZeroCount;
+	final int factorNonZeroCount;
+	final int islandCount;
+	
+	// The total nanoseconds spent in each phase, and the number of times each phase was run, indexed by phase ordinal.
+	final long[] phaseNanos;
+	final long[] phaseCounts;
+}
@@ -0,0 +1,509 @@
+package zacharyhickman.circuittest.common.sim;
+
+import zacharyhickman.circuittest.common.sim.netlist.SimNetlist;
+import zacharyhickman.circuittest.common.sim.netlist.SimNetlistElements;
+import zacharyhickman.circuittest.common.sim.util.OffHeapArray;
+import zacharyhickman.circuittest.common.sim.util.OffHeapByteArray;
+import zacharyhickman.circuittest.common.sim.util.OffHeapDoubleArray;
+import zacharyhickman.circuittest.common.sim.util.OffHeapIntArray;
+import zacharyhickman.circuittest.common.sim.util.OffHeapSparseMatrix;
+import zacharyhickman.circuittest.common.sim.util.OffHeapStringTable;
+
+/**
+ * A fixed-step transient simulator for power-grid sized circuits, with all per-node and per-element storage outside of the Java heap.
+ * The node names live in an OffHeapStringTable, the node voltages, capacitor parameters and solver vectors in off-heap arrays
+ * and the nodal matrix in an OffHeapSparseMatrix, so the heap only holds a few dozen handles however large the circuit is,
+ * and the garbage collector has nothing to trace. The off-heap memory counts against -XX:MaxDirectMemorySize, which has to
+ * be raised to fit the circuit.
+ *
+ * A grid is driven by its supply pads: every voltage source must connect a node to the reference node, and that node is held
+ * at the source voltage. The remaining nodal matrix is symmetric positive definite, so each step is solved with a Jacobi
+ * preconditioned conjugate gradient started from the last solution instead of a factorization whose fill would not fit.
+ * Elements are stamped with the float values SimCircuit uses, and the steps follow SimCircuit.stepSimulation() with a fixed
+ * step, so the voltages agree with it to the solver tolerance. Branch currents of the sources are not computed.
+ * @author zhick
+ *
+ */
+public class SimOffHeapCircuit
+{
+	// Constructor of the circuit, with the storage for the given number of nodes and capacitors.
+	SimOffHeapCircuit(int nodeCount, int capacitorCount, float timeStep, boolean startUp)
+	{
+		int rowCount = nodeCount - 1;
+		this.nodeCount = nodeCount;
+		this.timeStep = timeStep;
+		this.companionScale = 1d / timeStep;
+		this.startUp = startUp;
+		this.fixedRows = new OffHeapByteArray(rowCount);
+		this.constantRHS = new OffHeapDoubleArray(rowCount);
+		this.capacitorTerminalA = new OffHeapIntArray(capacitorCount);
+		this.capacitorTerminalB = new OffHeapIntArray(capacitorCount);
+		this.capacitorConductances = new OffHeapDoubleArray(capacitorCount);
+		this.nodeVoltages = new OffHeapDoubleArray(nodeCount);
+		this.lastNodeVoltages = new OffHeapDoubleArray(nodeCount);
+		this.diagonalInverse = new OffHeapDoubleArray(rowCount);
+		this.vecRHS = new OffHeapDoubleArray(rowCount);
+		this.vecSol = new OffHeapDoubleArray(rowCount);
+		this.residual = new OffHeapDoubleArray(rowCount);
+		this.preconditioned = new OffHeapDoubleArray(rowCount);
+		this.direction = new OffHeapDoubleArray(rowCount);
+		this.product = new OffHeapDoubleArray(rowCount);
+		this.matrix = new OffHeapSparseMatrix(rowCount);
+	}
+	
+	/**
+	 * Builds the off-heap circuit of a netlist. Once built, the circuit does not refer to the netlist, so the netlist can be dropped.
+	 * Throws an exception if a voltage source does not connect to the reference node, if a node is driven by two sources or if
+	 * a node has no conductance at all.
+	 * @param netlist
+	 * @param timeStep
+	 * @param startUp
+	 * @return
+	 */
+	public static SimOffHeapCircuit fromNetlist(SimNetlist netlist, float timeStep, boolean startUp)
+	{
+		SimNetlistElements capacitors = netlist.getCapacitors();
+		SimNetlistElements voltageSources = netlist.getVoltageSources();
+		SimNetlistElements currentSources = netlist.getCurrentSources();
+		int nodeCount = netlist.getNodeCount();
+		SimOffHeapCircuit circuit = new SimOffHeapCircuit(nodeCount, capacitors.getCount(), timeStep, startUp);
+		
+		// The node names, copied as bytes.
+		long nameBytes = 0;
+		for (int id = 0; id < nodeCount; id++) nameBytes += netlist.getNodeNameLength(id);
+		circuit.nodeNames = new OffHeapStringTable(nodeCount, nameBytes);
+		byte[] name = new byte[64];
+		for (int id = 0; id < nodeCount; id++)
+		{
+			int length = netlist.getNodeNameLength(id);
+			if (length > name.length) name = new byte[Math.max(name.length * 2, length)];
+			netlist.copyNodeName(id, name, 0);
+			circuit.nodeNames.intern(name, 0, length);
+		}
+		
+		// The pads. A fixed row holds its voltage in the constant RHS.
+		for (int i = 0; i < voltageSources.getCount(); i++)
+		{
+			int a = voltageSources.getTerminalA(i);
+			int b = voltageSources.getTerminalB(i);
+			if ((a != 0) == (b != 0))
+				throw new IllegalStateException("The voltage source " + voltageSources.getName(i) + " does not connect a node to the reference node, which the off-heap circuit needs.");
+			int row = ((a != 0) ? a : b) - 1;
+			if (circuit.fixedRows.get(row) != 0)
+				throw new IllegalStateException("The node " + netlist.getNodeName(row + 1) + " is driven by more than one voltage source.");
+			circuit.fixedRows.set(row, (byte) 1);
+			float voltage = (float) voltageSources.getValue(i);
+			circuit.constantRHS.set(row, (a != 0) ? voltage : -voltage);
+		}
+		
+		// The current sources only touch the RHS of the free rows, the pads absorb the rest.
+		for (int i = 0; i < currentSources.getCount(); i++)
+		{
+			float current = (float) currentSources.getValue(i);
+			circuit.addSourceCurrent(currentSources.getTerminalA(i), current);
+			circuit.addSourceCurrent(currentSources.getTerminalB(i), -current);
+		}
+		
+		// The capacitor parameters, with the backward Euler companion conductance of SimComponentCapacitor.
+		for (int i = 0; i < capacitors.getCount(); i++)
+		{
+			circuit.capacitorTerminalA.set(i, capacitors.getTerminalA(i));
+			circuit.capacitorTerminalB.set(i, capacitors.getTerminalB(i));
+			circuit.capacitorConductances.set(i, (float) capacitors.getValue(i) * circuit.companionScale);
+		}
+		
+		// Count the matrix entries, then stamp them.
+		circuit.stampMatrix(netlist, false);
+		circuit.matrix.startFilling();
+		circuit.stampMatrix(netlist, true);
+		circuit.matrix.compress();
+		
+		for (int row = 0; row < nodeCount - 1; row++)
+		{
+			double diagonal = circuit.matrix.get(row, row);
+			if (!(diagonal > 0d))
+				throw new IllegalStateException("The node " + netlist.getNodeName(row + 1) + " has no conductance to the rest of the circuit.");
+			circuit.diagonalInverse.set(row, 1d / diagonal);
+		}
+		
+		return circuit;
+	}
+	
+	/**
+	 * Adds a source current into a node, unless it is the reference node or a pad.
+	 * @param node
+	 * @param current
+	 */
+	void addSourceCurrent(int node, double current)
+	{
+		if ((node == 0) || (this.fixedRows.get(node - 1) != 0)) return;
+		
+		this.constantRHS.add(node - 1, current);
+	}
+	
+	/**
+	 * Stamps the resistors, capacitors and pads into the matrix, or only counts their entries if fill is false.
+	 * @param netlist
+	 * @param fill
+	 */
+	void stampMatrix(SimNetlist netlist, boolean fill)
+	{
+		SimNetlistElements resistors = netlist.getResistors();
+		for (int i = 0; i < resistors.getCount(); i++)
+		{
+			float resistance = (float) resistors.getValue(i);
+			stampConductance(resistors.getTerminalA(i), resistors.getTerminalB(i), 1/resistance, fill);
+		}
+		
+		for (int i = 0; i < this.capacitorConductances.length(); i++)
+		{
+			stampConductance(this.capacitorTerminalA.get(i), this.capacitorTerminalB.get(i), this.capacitorConductances.get(i), fill);
+		}
+		
+		// A pad row is the identity.
+		for (int row = 0; row < this.nodeCount - 1; row++)
+		{
+			if (this.fixedRows.get(row) == 0) continue;
+			if (fill) this.matrix.addEntry(row, row, 1d);
+			else this.matrix.countEntry(row);
+		}
+	}
+	
+	/**
+	 * Stamps a conductance between the nodes a and b into the free rows. The coupling of a free node to a pad is constant, so it
+	 * goes into the constant RHS instead of the matrix, which keeps the matrix symmetric.
+	 * @param a
+	 * @param b
+	 * @param conductance
+	 * @param fill
+	 */
+	void stampConductance(int a, int b, double conductance, boolean fill)
+	{
+		stampHalf(a, b, conductance, fill);
+		stampHalf(b, a, conductance, fill);
+	}
+	
+	/**
+	 * Stamps the row of node a of a conductance between the nodes a and b.
+	 * @param a
+	 * @param b
+	 * @param conductance
+	 * @param fill
+	 */
+	void stampHalf(int a, int b, double conductance, boolean fill)
+	{
+		if ((a == 0) || (this.fixedRows.get(a - 1) != 0)) return;
+		
+		if (!fill)
+		{
+			this.matrix.countEntry(a - 1);
+			if ((b != 0) && (this.fixedRows.get(b - 1) == 0)) this.matrix.countEntry(b - 1);
+			return;
+		}
+		
+		this.matrix.addEntry(a - 1, a - 1, conductance);
+		if (b == 0) return;
+		if (this.fixedRows.get(b - 1) != 0)
+			this.constantRHS.add(a - 1, conductance * this.constantRHS.get(b - 1));
+		else
+			this.matrix.addEntry(a - 1, b - 1, -conductance);
+	}
+	
+	/**
+	 * Takes one fixed backward Euler step, the way SimCircuit.stepSimulation() does.
+	 */
+	public void stepSimulation()
+	{
+		int rowCount = this.nodeCount - 1;
+		
+		// The constant RHS, then the capacitor history currents from the last node voltages into the free rows.
+		this.vecRHS.copyFrom(this.constantRHS, rowCount);
+		for (long i = 0; i < this.capacitorConductances.length(); i++)
+		{
+			int a = this.capacitorTerminalA.get(i);
+			int b = this.capacitorTerminalB.get(i);
+			double historyCurrent = this.capacitorConductances.get(i) * (this.lastNodeVoltages.get(a) - this.lastNodeVoltages.get(b));
+			if ((a != 0) && (this.fixedRows.get(a - 1) == 0)) this.vecRHS.add(a - 1, historyCurrent);
+			if ((b != 0) && (this.fixedRows.get(b - 1) == 0)) this.vecRHS.add(b - 1, -historyCurrent);
+		}
+		
+		solve();
+		
+		// Write the solution back, the first step sets up the initial voltages.
+		for (int nodeIndex = 1; nodeIndex < this.nodeCount; nodeIndex++)
+		{
+			if (this.firstSimStep)
+			{
+				double voltage = this.startUp ? 0d : this.vecSol.get(nodeIndex - 1);
+				this.nodeVoltages.set(nodeIndex, voltage);
+				this.lastNodeVoltages.set(nodeIndex, voltage);
+			}
+			else
+			{
+				this.lastNodeVoltages.set(nodeIndex, this.nodeVoltages.get(nodeIndex));
+				this.nodeVoltages.set(nodeIndex, this.vecSol.get(nodeIndex - 1));
+			}
+		}
+		this.firstSimStep = false;
+		
+		this.lastTime = this.currentTime;
+		this.currentTime += this.timeStep;
+	}
+	
+	/**
+	 * Steps the circuit until the time of the fixed steps nearest to stopTime, see SimCircuit.isStepBeforeStop(). Returns the number
+	 * of steps taken.
+	 * @param stopTime
+	 * @return
+	 */
+	public long runTransient(float stopTime)
+	{
+		long steps = 0;
+		while (this.firstSimStep || SimCircuit.isStepBeforeStop(this.currentTime, stopTime, this.timeStep))
+		{
+			stepSimulation();
+			steps++;
+		}
+		return steps;
+	}
+	
+	/**
+	 * Solves the matrix for the RHS with the Jacobi preconditioned conjugate gradient, starting from the solution of the last step.
+	 */
+	void solve()
+	{
+		int rowCount = this.nodeCount - 1;
+		OffHeapDoubleArray x = this.vecSol;
+		OffHeapDoubleArray r = this.residual;
+		OffHeapDoubleArray z = this.preconditioned;
+		OffHeapDoubleArray p = this.direction;
+		OffHeapDoubleArray q = this.product;
+		
+		// The matrix is symmetric, so the gathering transposed product is used throughout.
+		this.matrix.multiplyTransposed(x, q);
+		double rhsNorm = 0d;
+		double residualNorm = 0d;
+		double rz = 0d;
+		for (int row = 0; row < rowCount; row++)
+		{
+			double b = this.vecRHS.get(row);
+			double residual = b - q.get(row);
+			double preconditioned = residual * this.diagonalInverse.get(row);
+			r.set(row, residual);
+			z.set(row, preconditioned);
+			p.set(row, preconditioned);
+			rhsNorm += b * b;
+			residualNorm += residual * residual;
+			rz += residual * preconditioned;
+		}
+		double limit = this.tolerance * this.tolerance * rhsNorm;
+		
+		int iteration = 0;
+		while (residualNorm > limit)
+		{
+			if (iteration == this.maxIterations)
+				throw new IllegalStateException("The conjugate gradient did not converge in " + this.maxIterations + " iterations (relative residual "
+						+ Math.sqrt(residualNorm / rhsNorm) + ").");
+			iteration++;
+			
+			this.matrix.multiplyTransposed(p, q);
+			double pq = 0d;
+			for (int row = 0; row < rowCount; row++) pq += p.get(row) * q.get(row);
+			double alpha = rz / pq;
+			
+			residualNorm = 0d;
+			double rzNext = 0d;
+			for (int row = 0; row < rowCount; row++)
+			{
+				x.add(row, alpha * p.get(row));
+				double residual = r.get(row) - alpha * q.get(row);
+				double preconditioned = residual * this.diagonalInverse.get(row);
+				r.set(row, residual);
+				z.set(row, preconditioned);
+				residualNorm += residual * residual;
+				rzNext += residual * preconditioned;
+			}
+			
+			double beta = rzNext / rz;
+			rz = rzNext;
+			for (int row = 0; row < rowCount; row++) p.set(row, z.get(row) + beta * p.get(row));
+		}
+		
+		this.lastIterationCount = iteration;
+		this.totalIterationCount += iteration;
+	}
+	
+	/**
+	 * Sets the relative residual the conjugate gradient stops at, and the number of iterations after which a step fails.
+	 * @param tolerance
+	 * @param maxIterations
+	 */
+	public void setSolverTolerance(double tolerance, int maxIterations)
+	{
+		if (!(tolerance > 0d) || (maxIterations < 1))
+			throw new IllegalArgumentException("The solver tolerance must be positive and at least one iteration must be allowed.");
+		
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+	}
+	
+	/**
+	 * Get the number of nodes, including the reference node.
+	 * @return
+	 */
+	public int getNodeCount()
+	{
+		return this.nodeCount;
+	}
+	
+	/**
+	 * Get the name of the node of the given id.
+	 * @param nodeId
+	 * @return
+	 */
+	public String getNodeName(int nodeId)
+	{
+		return this.nodeNames.getName(nodeId);
+	}
+	
+	/**
+	 * Returns the id of the node of the given name, or -1 if there is none.
+	 * @param nodeName
+	 * @return
+	 */
+	public int getIndexOfNode(String nodeName)
+	{
+		return this.nodeNames.find(nodeName);
+	}
+	
+	/**
+	 * Get the voltage of the node of the given id.
+	 * @param nodeId
+	 * @return
+	 */
+	public double getNodeVoltage(int nodeId)
+	{
+		return this.nodeVoltages.get(nodeId);
+	}
+	
+	/**
+	 * Get the number of conjugate gradient iterations of the last step.
+	 * @return
+	 */
+	public int getLastIterationCount()
+	{
+		return this.lastIterationCount;
+	}
+	
+	/**
+	 * Get the number of conjugate gradient iterations of all steps.
+	 * @return
+	 */
+	public long getTotalIterationCount()
+	{
+		return this.totalIterationCount;
+	}
+	
+	/**
+	 * Get the number of stored entries of the nodal matrix.
+	 * @return
+	 */
+	public long getMatrixNonZeroCount()
+	{
+		return this.matrix.getNonZeroCount();
+	}
+	
+	/**
+	 * Get the number of off-heap bytes held by the circuit.
+	 * @return
+	 */
+	public long getOffHeapBytes()
+	{
+		OffHeapArray[] arrays = { this.fixedRows, this.constantRHS, this.capacitorTerminalA, this.capacitorTerminalB, this.capacitorConductances,
+				this.nodeVoltages, this.lastNodeVoltages, this.diagonalInverse, this.vecRHS, this.vecSol, this.residual, this.preconditioned,
+				this.direction, this.product };
+		long bytes = this.nodeNames.getByteSize() + this.matrix.getByteSize();
+		for (OffHeapArray array : arrays) bytes += array.getByteSize();
+		return bytes;
+	}
+	
+	/**
+	 * Get the time the circuit will step to next.
+	 * @return
+	 */
+	public float getTime()
+	{
+		return this.currentTime;
+	}
+	
+	/**
+	 * Get the time of the last solved step.
+	 * @return
+	 */
+	public float getLastTime()
+	{
+		return this.lastTime;
+	}
+	
+	/**
+	 * Get the time step.
+	 * @return
+	 */
+	public float getTimeStep()
+	{
+		return this.timeStep;
+	}
+	
+	// The number of nodes, including the reference node.
+	final int nodeCount;
+	
+	// The names of the nodes, indexed by node id.
+	OffHeapStringTable nodeNames;
+	
+	// The rows of the nodes held by a pad (1) or free (0), indexed by node id - 1.
+	final OffHeapByteArray fixedRows;
+	
+	// The RHS part that does not change between steps: the pad voltages in their own rows, and the current sources and the pad couplings in the free rows.
+	final OffHeapDoubleArray constantRHS;
+	
+	// The terminal node ids and companion conductance of each capacitor.
+	final OffHeapIntArray capacitorTerminalA;
+	final OffHeapIntArray capacitorTerminalB;
+	final OffHeapDoubleArray capacitorConductances;
+	
+	// The node voltages and last node voltages, indexed by node id.
+	final OffHeapDoubleArray nodeVoltages;
+	final OffHeapDoubleArray lastNodeVoltages;
+	
+	// The nodal matrix and the inverse of its diagonal.
+	final OffHeapSparseMatrix matrix;
+	final OffHeapDoubleArray diagonalInverse;
+	
+	// The RHS and solution vectors, and the work vectors of the conjugate gradient.
+	final OffHeapDoubleArray vecRHS;
+	final OffHeapDoubleArray vecSol;
+	final OffHeapDoubleArray residual;
+	final OffHeapDoubleArray preconditioned;
+	final OffHeapDoubleArray direction;
+	final OffHeapDoubleArray product;
+	
+	// The relative residual the conjugate gradient stops at, and the iterations it may take per step.
+	double tolerance = 1e-10;
+	int maxIterations = 10000;
+	
+	// The conjugate gradient iterations of the last step and of all steps.
+	int lastIterationCount = 0;
+	long totalIterationCount = 0;
+	
+	// The capacitor companion conductance scale (G = C * scale).
+	final double companionScale;
+	
+	// The time of the circuit and the time step.
+	float currentTime = 0f;
+	float lastTime = 0f;
+	final float timeStep;
+	
+	// Whether the next step is the first one, and whether the first step starts all nodes at 0V.
+	boolean firstSimStep = true;
+	final boolean startUp;
+}
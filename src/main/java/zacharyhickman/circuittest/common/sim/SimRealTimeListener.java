@@ -0,0 +1,19 @@
+package zacharyhickman.circuittest.common.sim;
+
+/**
+ * Called by SimRealTimeStepper after every step, on the stepping thread and inside the step deadline. This is where the
+ * outputs of a hardware-in-the-loop setup are read from the circuit state and the next inputs are written to the sources.
+ * It must not allocate if the loop is to stay allocation-free.
+ * @author zhick
+ *
+ */
+@FunctionalInterface
+public interface SimRealTimeListener
+{
+	/**
+	 * Called after the given step was solved.
+	 * @param circuit
+	 * @param step
+	 */
+	public void afterStep(SimCircuit circuit, long step);
+}
@@ -0,0 +1,285 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a circuit in real time with a fixed period, e.g. 100 microseconds for a 10 kHz hardware-in-the-loop loop. Step k is
+ * started at start + k * period, parking the thread until shortly before and spinning for the rest, and must be done, including
+ * the listener, before step k + 1 is due. A step that finishes late counts as an overrun and the schedule skips the periods it
+ * ran into instead of bursting to catch up.
+ * 
+ * After warmUp() the fixed step path of SimCircuit allocates nothing: the matrices, the factorization and the solve workspaces
+ * are kept between steps. The islands are solved on the stepping thread, since handing them to the common pool adds both
+ * allocation and jitter. The metrics add a JFR event per step while they are enabled, so leave them off in real-time runs.
+ * 
+ * The jitter (how late each step starts) is kept in a histogram with power of two buckets: bucket 0 holds 0ns and bucket i
+ * holds [2^(i-1), 2^i) ns. The statistics belong to the stepping thread, read them after run() returned or from the listener.
+ * @author zhick
+ *
+ */
+public class SimRealTimeStepper
+{
+	// Constructor of the stepper with the period between step starts in nanoseconds.
+	public SimRealTimeStepper(SimCircuit circuit, long periodNanos)
+	{
+		if (periodNanos <= 0) throw new IllegalArgumentException("The step period must be positive (" + periodNanos + "ns).");
+		
+		this.circuit = circuit;
+		this.periodNanos = periodNanos;
+		this.spinNanos = Math.min(DEFAULT_SPIN_NANOS, periodNanos);
+		circuit.setParallelIslands(false, circuit.parallelIslandThreshold);
+	}
+	
+	/**
+	 * Takes the given number of steps through the same loop as run(), but without waiting for the schedule, so the matrices are
+	 * built and factored, the workspaces are allocated and the step code and the listener are compiled before the real-time run.
+	 * Clears the statistics.
+	 * @param steps
+	 * @param listener
+	 */
+	public void warmUp(int steps, SimRealTimeListener listener)
+	{
+		this.pacing = false;
+		try
+		{
+			run(steps, listener);
+		}
+		finally
+		{
+			this.pacing = true;
+		}
+		resetStatistics();
+	}
+	
+	/**
+	 * Runs the given number of steps on the real-time schedule, starting now, and returns the number of steps taken, which is
+	 * smaller if stop() was called. The listener may be null.
+	 * @param steps
+	 * @param listener
+	 * @return
+	 */
+	public long run(long steps, SimRealTimeListener listener)
+	{
+		checkFixedStep();
+		this.running = true;
+		
+		long period = this.periodNanos;
+		long due = System.nanoTime();
+		long taken = 0;
+		while ((taken < steps) && this.running)
+		{
+			if (this.pacing) waitUntil(due);
+			long start = System.nanoTime();
+			recordJitter(start - due);
+			
+			this.circuit.stepSimulation();
+			if (listener != null) listener.afterStep(this.circuit, this.stepCount);
+			
+			long end = System.nanoTime();
+			this.maxStepNanos = Math.max(this.maxStepNanos, end - start);
+			this.stepCount++;
+			taken++;
+			
+			// The step is late if it ran into the start of the next one. Skip the periods it ran into.
+			due += period;
+			if (this.pacing && (end > due))
+			{
+				long missed = ((end - due) / period) + 1;
+				this.overrunCount++;
+				this.missedPeriodCount += missed;
+				due += missed * period;
+			}
+		}
+		
+		this.running = false;
+		return taken;
+	}
+	
+	/**
+	 * Makes a running run() return after the present step. Can be called from any thread.
+	 */
+	public void stop()
+	{
+		this.running = false;
+	}
+	
+	/**
+	 * Clears the step counters and the jitter histogram.
+	 */
+	public void resetStatistics()
+	{
+		this.stepCount = 0;
+		this.overrunCount = 0;
+		this.missedPeriodCount = 0;
+		this.maxJitterNanos = 0;
+		this.maxStepNanos = 0;
+		Arrays.fill(this.jitterHistogram, 0L);
+	}
+	
+	/**
+	 * Throws an exception if the circuit uses adaptive stepping, whose step sizes and rejections do not fit a fixed period.
+	 */
+	void checkFixedStep()
+	{
+		if (this.circuit.isAdaptiveStepping())
+			throw new IllegalStateException("Real-time stepping needs a fixed time step, disable the adaptive stepping of the circuit first.");
+	}
+	
+	/**
+	 * Parks until shortly before the given time and spins for the rest, since parking alone wakes up too late.
+	 * @param due
+	 */
+	void waitUntil(long due)
+	{
+		long remaining = due - System.nanoTime();
+		if (remaining > this.spinNanos) LockSupport.parkNanos(remaining - this.spinNanos);
+		while (System.nanoTime() - due < 0)
+		{
+			Thread.onSpinWait();
+		}
+	}
+	
+	/**
+	 * Adds how late a step started to the histogram.
+	 * @param jitterNanos
+	 */
+	void recordJitter(long jitterNanos)
+	{
+		long jitter = Math.max(0L, jitterNanos);
+		this.jitterHistogram[64 - Long.numberOfLeadingZeros(jitter)]++;
+		this.maxJitterNanos = Math.max(this.maxJitterNanos, jitter);
+	}
+	
+	/**
+	 * Set how long before a step is due the stepper stops parking and starts spinning. More spinning gives less jitter for more CPU.
+	 * @param spinNanos
+	 */
+	public void setSpinNanos(long spinNanos)
+	{
+		this.spinNanos = Math.max(0L, spinNanos);
+	}
+	
+	/**
+	 * Get the period between step starts in nanoseconds.
+	 * @return
+	 */
+	public long getPeriodNanos()
+	{
+		return this.periodNanos;
+	}
+	
+	/**
+	 * Get the number of steps taken on the schedule.
+	 * @return
+	 */
+	public long getStepCount()
+	{
+		return this.stepCount;
+	}
+	
+	/**
+	 * Get the number of steps that did not finish before the next step was due.
+	 * @return
+	 */
+	public long getOverrunCount()
+	{
+		return this.overrunCount;
+	}
+	
+	/**
+	 * Get the number of periods skipped because of overruns.
+	 * @return
+	 */
+	public long getMissedPeriodCount()
+	{
+		return this.missedPeriodCount;
+	}
+	
+	/**
+	 * Get the largest delay of a step start in nanoseconds.
+	 * @return
+	 */
+	public long getMaxJitterNanos()
+	{
+		return this.maxJitterNanos;
+	}
+	
+	/**
+	 * Get the longest time a step took, including the listener, in nanoseconds.
+	 * @return
+	 */
+	public long getMaxStepNanos()
+	{
+		return this.maxStepNanos;
+	}
+	
+	/**
+	 * Copies the jitter histogram into counts, which needs JITTER_BUCKETS entries.
+	 * @param counts
+	 */
+	public void getJitterHistogram(long[] counts)
+	{
+		System.arraycopy(this.jitterHistogram, 0, counts, 0, JITTER_BUCKETS);
+	}
+	
+	/**
+	 * Returns the upper limit in nanoseconds of the jitter bucket below which the given fraction (0 to 1) of the step starts fall.
+	 * @param fraction
+	 * @return
+	 */
+	public long getJitterPercentileNanos(double fraction)
+	{
+		long threshold = (long) Math.ceil(fraction * this.stepCount);
+		long count = 0;
+		for (int bucket = 0; bucket < JITTER_BUCKETS; bucket++)
+		{
+			count += this.jitterHistogram[bucket];
+			if ((count >= threshold) && (count > 0)) return getBucketLimitNanos(bucket);
+		}
+		return 0L;
+	}
+	
+	/**
+	 * Returns the upper limit (exclusive) in nanoseconds of a jitter histogram bucket.
+	 * @param bucket
+	 * @return
+	 */
+	public static long getBucketLimitNanos(int bucket)
+	{
+		return (bucket >= 63) ? Long.MAX_VALUE : (1L << bucket);
+	}
+	
+	// The number of buckets of the jitter histogram.
+	public static final int JITTER_BUCKETS = 64;
+	
+	// The default time spent spinning before a step is due.
+	public static final long DEFAULT_SPIN_NANOS = 50000L;
+	
+	// The circuit being stepped.
+	final SimCircuit circuit;
+	
+	// The period between step starts.
+	final long periodNanos;
+	
+	// How long before a step is due the stepper starts spinning.
+	long spinNanos;
+	
+	// Whether or not run() should keep stepping.
+	volatile boolean running = false;
+	
+	// Whether or not run() waits for the schedule. Off while warming up.
+	boolean pacing = true;
+	
+	// The step counters.
+	long stepCount = 0;
+	long overrunCount = 0;
+	long missedPeriodCount = 0;
+	
+	// The largest start delay and step time.
+	long maxJitterNanos = 0;
+	long maxStepNanos = 0;
+	
+	// The number of step starts per jitter bucket.
+	final long[] jitterHistogram = new long[JITTER_BUCKETS];
+}
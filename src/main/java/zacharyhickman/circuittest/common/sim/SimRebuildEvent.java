@@ -0,0 +1,34 @@
+package zacharyhickman.circuittest.common.sim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a remap and rebuild of the circuit matrices, emitted while the metrics of the circuit are enabled.
+ * @author zhick
+ *
+ */
+@Name("zacharyhickman.circuittest.SimRebuild")
+@Label("Simulation Rebuild")
+@Category({ "Circuit Simulator" })
+@Description("A remap of the nodes and branches and a rebuild of the circuit matrices.")
+final class SimRebuildEvent extends Event
+{
+	@Label("Nodes")
+	int nodeCount;
+	
+	@Label("Branches")
+	int branchCount;
+	
+	@Label("Matrix Rows")
+	int rowCount;
+	
+	@Label("Matrix Non-Zeros")
+	int nonZeroCount;
+	
+	@Label("Islands")
+	int islandCount;
+}
@@ -0,0 +1,105 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The solutions of a batch of source scenarios from SimCircuit.solveScenarios(), one column of the MNA solution (node voltages, then
+ * branch currents) per scenario. The node and branch indices are copied, so the result stays valid when the circuit is edited.
+ * @author zhick
+ *
+ */
+public class SimScenarioResult
+{
+	// Constructor of the result. Column c of the solutions occupies [c * rowCount, (c + 1) * rowCount).
+	SimScenarioResult(int scenarioCount, int rowCount, int nonReferenceNodeCount, HashMap<String, Integer> nodeIndexMap, HashMap<String, Integer> branchIndexMap,
+			double[] solutions)
+	{
+		this.scenarioCount = scenarioCount;
+		this.rowCount = rowCount;
+		this.nonReferenceNodeCount = nonReferenceNodeCount;
+		this.nodeIndexMap = nodeIndexMap;
+		this.branchIndexMap = branchIndexMap;
+		this.solutions = solutions;
+	}
+	
+	/**
+	 * Returns the voltage of the node of the given name in a scenario.
+	 * @param scenario
+	 * @param nodeName
+	 * @return
+	 */
+	public double getNodeVoltage(int scenario, String nodeName)
+	{
+		Integer nodeId = this.nodeIndexMap.get(nodeName);
+		if (nodeId == null) throw new IllegalArgumentException("The circuit has no node named " + nodeName + ".");
+		
+		// The reference node has no row.
+		return (nodeId == 0) ? 0d : this.solutions[scenario * this.rowCount + nodeId - 1];
+	}
+	
+	/**
+	 * Returns the current through the voltage source of the given name in a scenario.
+	 * @param scenario
+	 * @param sourceName
+	 * @return
+	 */
+	public double getBranchCurrent(int scenario, String sourceName)
+	{
+		Integer branchId = this.branchIndexMap.get(sourceName + "_i");
+		if (branchId == null) throw new IllegalArgumentException("The circuit has no voltage source named " + sourceName + ".");
+		
+		return this.solutions[scenario * this.rowCount + this.nonReferenceNodeCount + branchId];
+	}
+	
+	/**
+	 * Returns a copy of the solution of a scenario. Row (id - 1) holds the voltage of node id, and the branch currents follow the nodes.
+	 * @param scenario
+	 * @return
+	 */
+	public double[] getSolution(int scenario)
+	{
+		return Arrays.copyOfRange(this.solutions, scenario * this.rowCount, (scenario + 1) * this.rowCount);
+	}
+	
+	/**
+	 * Get the solutions of all scenarios, column by column. The array is not copied.
+	 * @return
+	 */
+	public double[] getSolutions()
+	{
+		return this.solutions;
+	}
+	
+	/**
+	 * Get the number of scenarios.
+	 * @return
+	 */
+	public int getScenarioCount()
+	{
+		return this.scenarioCount;
+	}
+	
+	/**
+	 * Get the number of rows of every solution.
+	 * @return
+	 */
+	public int getRowCount()
+	{
+		return this.rowCount;
+	}
+	
+	// The number of scenarios and of rows per solution.
+	final int scenarioCount;
+	final int rowCount;
+	
+	// The number of node rows, after which the branch rows start.
+	final int nonReferenceNodeCount;
+	
+	// The node ids and branch indices by name.
+	final HashMap<String, Integer> nodeIndexMap;
+	final HashMap<String, Integer> branchIndexMap;
+	
+	// The solutions, column by column.
+	final double[] solutions;
+}
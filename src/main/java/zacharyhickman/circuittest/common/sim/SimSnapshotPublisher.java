@@ -0,0 +1,140 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the state of a running circuit to reader threads, e.g. a dashboard polling node voltages while the simulation steps.
+ * The stepping thread copies the state into a back buffer and swaps it in as the front snapshot with one atomic write, so readers
+ * never see a half-written step and neither side takes a lock. The snapshot swapped out becomes the next back buffer unless a reader
+ * still holds it, in which case it is left to that reader and a new one is allocated, so a slow reader costs an allocation instead of
+ * stalling the step.
+ * Attach it with SimCircuit.setSnapshotPublisher() to publish every intervalSteps steps, or call publish() from a custom stepping loop.
+ * Readers take the latest snapshot with acquire() and hand it back with SimStateSnapshot.release().
+ * @author zhick
+ *
+ */
+public class SimSnapshotPublisher
+{
+	// Constructor of a publisher that publishes after every step when attached to a circuit.
+	public SimSnapshotPublisher()
+	{
+		this(1);
+	}
+	
+	// Constructor of a publisher that publishes after every intervalSteps steps when attached to a circuit.
+	public SimSnapshotPublisher(int intervalSteps)
+	{
+		if (intervalSteps < 1) throw new IllegalArgumentException("The publishing interval must be at least 1 step (" + intervalSteps + ").");
+		
+		this.intervalSteps = intervalSteps;
+	}
+	
+	/**
+	 * Publishes a snapshot if the interval has passed since the last one. Called by SimCircuit after every step.
+	 * @param circuit
+	 */
+	void afterStep(SimCircuit circuit)
+	{
+		if (++this.stepsSincePublish < this.intervalSteps) return;
+		
+		publish(circuit);
+	}
+	
+	/**
+	 * Copies the present state of the circuit into the back buffer and makes it the front snapshot. Must only be called from the
+	 * thread that steps the circuit.
+	 * @param circuit
+	 */
+	public void publish(SimCircuit circuit)
+	{
+		this.stepsSincePublish = 0;
+		
+		// The name maps are copied once per topology, since the circuit clears and refills its own on every rebuild.
+		if ((this.nodeIndexMap == null) || (this.topologyHash != circuit.topologyHash) || (this.nodeIndexMap.size() != circuit.circuitNodeIndexMap.size())
+				|| (this.branchIndexMap.size() != circuit.circuitBranchIndexMap.size()))
+		{
+			this.nodeIndexMap = new HashMap<String, Integer>(circuit.circuitNodeIndexMap);
+			this.branchIndexMap = new HashMap<String, Integer>(circuit.circuitBranchIndexMap);
+			this.topologyHash = circuit.topologyHash;
+		}
+		
+		SimStateSnapshot back = this.back;
+		if (back == null)
+		{
+			back = new SimStateSnapshot();
+			this.allocationCount++;
+		}
+		back.fill(circuit, ++this.sequence, this.nodeIndexMap, this.branchIndexMap);
+		SimStateSnapshot previous = this.front.getAndSet(back);
+		
+		// A reader that took the previous snapshot before the swap keeps it, and one that is about to take it sees the swap in
+		// acquire() and retries, so it can only be refilled when no reader holds it now.
+		this.back = ((previous != null) && (previous.readerCount.get() == 0)) ? previous : null;
+	}
+	
+	/**
+	 * Takes the latest published snapshot, or returns null if none has been published yet. The snapshot does not change until it
+	 * is released with SimStateSnapshot.release().
+	 * @return
+	 */
+	public SimStateSnapshot acquire()
+	{
+		while (true)
+		{
+			SimStateSnapshot snapshot = this.front.get();
+			if (snapshot == null) return null;
+			
+			// Only a snapshot that is still the front after its reader count was raised is safe from being refilled.
+			snapshot.readerCount.incrementAndGet();
+			if (this.front.get() == snapshot) return snapshot;
+			snapshot.readerCount.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Get the number of snapshots published so far.
+	 * @return
+	 */
+	public long getPublishedCount()
+	{
+		return this.sequence;
+	}
+	
+	/**
+	 * Get the number of snapshot buffers allocated so far, 2 if the readers always released their snapshot before the next publish.
+	 * @return
+	 */
+	public long getAllocationCount()
+	{
+		return this.allocationCount;
+	}
+	
+	/**
+	 * Get the number of steps between two snapshots published by an attached circuit.
+	 * @return
+	 */
+	public int getIntervalSteps()
+	{
+		return this.intervalSteps;
+	}
+	
+	// The number of steps between two snapshots, and the steps taken since the last one.
+	final int intervalSteps;
+	int stepsSincePublish = 0;
+	
+	// The latest published snapshot, read by any thread.
+	final AtomicReference<SimStateSnapshot> front = new AtomicReference<SimStateSnapshot>();
+	
+	// The snapshot the next publish fills, or null if a new one has to be allocated. Only touched by the stepping thread.
+	SimStateSnapshot back;
+	
+	// The number of the last publication and the number of snapshots allocated.
+	long sequence = 0L;
+	long allocationCount = 0L;
+	
+	// The name maps shared by the snapshots of the present topology, and the topology hash they were copied at.
+	HashMap<String, Integer> nodeIndexMap;
+	HashMap<String, Integer> branchIndexMap;
+	long topologyHash = 0L;
+}
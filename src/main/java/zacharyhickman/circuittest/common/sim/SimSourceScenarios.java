@@ -0,0 +1,101 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * A batch of source scenarios for SimCircuit.solveScenarios(): for every scenario the level of some of the DC voltage and current
+ * sources of the circuit, by name. A source keeps its present level in the scenarios that do not set it, so a scenario in which only
+ * one current source is active sets every other one to 0.
+ * @author zhick
+ *
+ */
+public class SimSourceScenarios
+{
+	// Constructor of a batch of the given number of scenarios, all at the present source levels.
+	public SimSourceScenarios(int scenarioCount)
+	{
+		if (scenarioCount < 0) throw new IllegalArgumentException("The scenario count cannot be negative (" + scenarioCount + ").");
+		
+		this.scenarioCount = scenarioCount;
+	}
+	
+	/**
+	 * Sets the level of the source of the given name in a scenario, in volts for a voltage source and amperes for a current source.
+	 * @param scenario
+	 * @param sourceName
+	 * @param level
+	 */
+	public void setLevel(int scenario, String sourceName, float level)
+	{
+		if ((scenario < 0) || (scenario >= this.scenarioCount))
+			throw new IndexOutOfBoundsException("Scenario " + scenario + " is outside of the batch (" + this.scenarioCount + " scenarios).");
+		
+		float[] sourceLevels = this.levels.get(sourceName);
+		if (sourceLevels == null)
+		{
+			sourceLevels = new float[this.scenarioCount];
+			Arrays.fill(sourceLevels, Float.NaN);
+			this.levels.put(sourceName, sourceLevels);
+		}
+		sourceLevels[scenario] = level;
+	}
+	
+	/**
+	 * Sets the level of the source of the given name in every scenario, e.g. 0 before activating it in a single one.
+	 * @param sourceName
+	 * @param level
+	 */
+	public void setLevelOfAll(String sourceName, float level)
+	{
+		for (int scenario = 0; scenario < this.scenarioCount; scenario++) setLevel(scenario, sourceName, level);
+	}
+	
+	/**
+	 * Returns the level of the source of the given name in a scenario, or NaN if the scenario keeps its present level.
+	 * @param scenario
+	 * @param sourceName
+	 * @return
+	 */
+	public float getLevel(int scenario, String sourceName)
+	{
+		float[] sourceLevels = this.levels.get(sourceName);
+		return (sourceLevels != null) ? sourceLevels[scenario] : Float.NaN;
+	}
+	
+	/**
+	 * Returns the levels of the source of the given name in every scenario, NaN where it keeps its present level, or null if no
+	 * scenario sets it.
+	 * @param sourceName
+	 * @return
+	 */
+	float[] getLevels(String sourceName)
+	{
+		return this.levels.get(sourceName);
+	}
+	
+	/**
+	 * Get the names of the sources set by any scenario.
+	 * @return
+	 */
+	public Set<String> getSourceNames()
+	{
+		return this.levels.keySet();
+	}
+	
+	/**
+	 * Get the number of scenarios.
+	 * @return
+	 */
+	public int getScenarioCount()
+	{
+		return this.scenarioCount;
+	}
+	
+	// The number of scenarios.
+	final int scenarioCount;
+	
+	// The levels of every source set by a scenario, NaN where a scenario keeps the present level.
+	final HashMap<String, float[]> levels = new HashMap<String, float[]>();
+}
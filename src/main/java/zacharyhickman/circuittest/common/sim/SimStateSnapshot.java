@@ -0,0 +1,164 @@
+package zacharyhickman.circuittest.common.sim;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The node voltages and branch currents of a circuit after one step, published by a SimSnapshotPublisher. A snapshot taken with
+ * SimSnapshotPublisher.acquire() does not change until it is released, after which the publisher may refill it with a later step,
+ * so values must not be read from it after release(). The node and branch indices are shared by all snapshots of one topology.
+ * @author zhick
+ *
+ */
+public final class SimStateSnapshot
+{
+	// Constructor of an empty snapshot, sized for the state of the circuit by fill().
+	SimStateSnapshot()
+	{
+	
+	}
+	
+	/**
+	 * Copies the state of the circuit into this snapshot. Only called by the publisher while no reader holds the snapshot.
+	 * @param circuit
+	 * @param sequence
+	 * @param nodeIndexMap
+	 * @param branchIndexMap
+	 */
+	void fill(SimCircuit circuit, long sequence, HashMap<String, Integer> nodeIndexMap, HashMap<String, Integer> branchIndexMap)
+	{
+		this.sequence = sequence;
+		this.time = circuit.lastTime;
+		this.nodeVoltages = SimCircuit.copyInto(circuit.state.nodeVoltages, this.nodeVoltages);
+		this.branchCurrents = SimCircuit.copyInto(circuit.state.branchCurrents, this.branchCurrents);
+		this.nodeIndexMap = nodeIndexMap;
+		this.branchIndexMap = branchIndexMap;
+	}
+	
+	/**
+	 * Gives the snapshot back to the publisher. Must be called exactly once for every snapshot returned by acquire().
+	 */
+	public void release()
+	{
+		this.readerCount.decrementAndGet();
+	}
+	
+	/**
+	 * Returns the voltage of the node of the given name.
+	 * @param nodeName
+	 * @return
+	 */
+	public double getNodeVoltage(String nodeName)
+	{
+		Integer nodeId = this.nodeIndexMap.get(nodeName);
+		if (nodeId == null) throw new IllegalArgumentException("The circuit has no node named " + nodeName + ".");
+		
+		return this.nodeVoltages[nodeId];
+	}
+	
+	/**
+	 * Returns the voltage of the node with the given id.
+	 * @param nodeId
+	 * @return
+	 */
+	public double getNodeVoltage(int nodeId)
+	{
+		return this.nodeVoltages[nodeId];
+	}
+	
+	/**
+	 * Returns the current through the voltage source of the given name.
+	 * @param sourceName
+	 * @return
+	 */
+	public double getBranchCurrent(String sourceName)
+	{
+		Integer branchId = this.branchIndexMap.get(sourceName + "_i");
+		if (branchId == null) throw new IllegalArgumentException("The circuit has no voltage source named " + sourceName + ".");
+		
+		return this.branchCurrents[branchId];
+	}
+	
+	/**
+	 * Returns the id of the node of the given name, or null if there is no such node.
+	 * @param nodeName
+	 * @return
+	 */
+	public Integer getNodeId(String nodeName)
+	{
+		return this.nodeIndexMap.get(nodeName);
+	}
+	
+	/**
+	 * Copies the node voltages, indexed by node id, into the given array, or into a new array if it is null or has a different length.
+	 * Returns the array copied into.
+	 * @param destination
+	 * @return
+	 */
+	public double[] copyNodeVoltages(double[] destination)
+	{
+		return (destination != null) ? SimCircuit.copyInto(this.nodeVoltages, destination) : this.nodeVoltages.clone();
+	}
+	
+	/**
+	 * Copies the branch currents into the given array, or into a new array if it is null or has a different length. Returns the array
+	 * copied into.
+	 * @param destination
+	 * @return
+	 */
+	public double[] copyBranchCurrents(double[] destination)
+	{
+		return (destination != null) ? SimCircuit.copyInto(this.branchCurrents, destination) : this.branchCurrents.clone();
+	}
+	
+	/**
+	 * Get the number of the publication, which grows by one with every snapshot the publisher publishes.
+	 * @return
+	 */
+	public long getSequence()
+	{
+		return this.sequence;
+	}
+	
+	/**
+	 * Get the time solved by the step.
+	 * @return
+	 */
+	public float getTime()
+	{
+		return this.time;
+	}
+	
+	/**
+	 * Get the number of nodes, including the reference node.
+	 * @return
+	 */
+	public int getNodeCount()
+	{
+		return this.nodeVoltages.length;
+	}
+	
+	/**
+	 * Get the number of voltage source branches.
+	 * @return
+	 */
+	public int getBranchCount()
+	{
+		return this.branchCurrents.length;
+	}
+	
+	// The number of the publication and the time solved by the step.
+	long sequence;
+	float time;
+	
+	// The node voltages indexed by node id, and the branch currents.
+	double[] nodeVoltages = new double[0];
+	double[] branchCurrents = new double[0];
+	
+	// The node ids and branch indices by name, never changed once published.
+	HashMap<String, Integer> nodeIndexMap;
+	HashMap<String, Integer> branchIndexMap;
+	
+	// The number of readers holding the snapshot. The publisher only refills it while this is 0.
+	final AtomicInteger readerCount = new AtomicInteger();
+}
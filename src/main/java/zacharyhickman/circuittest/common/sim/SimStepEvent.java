@@ -0,0 +1,55 @@
+package zacharyhickman.circuittest.common.sim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of one simulation step, emitted while the metrics of the circuit are enabled.
+ * @author zhick
+ *
+ */
+@Name("zacharyhickman.circuittest.SimStep")
+@Label("Simulation Step")
+@Category({ "Circuit Simulator" })
+@Description("One step of the circuit simulation, with the time spent in each of its phases.")
+final class SimStepEvent extends Event
+{
+	@Label("Time")
+	@Description("The simulation time solved by the step, in seconds.")
+	double time;
+	
+	@Label("Step Size")
+	@Description("The size of the step, in seconds.")
+	double stepSize;
+	
+	@Label("Adaptive")
+	boolean adaptive;
+	
+	@Label("Factored")
+	@Description("Whether or not the step had to factor the circuit matrix.")
+	boolean factored;
+	
+	@Label("Rejections")
+	@Description("The number of times the adaptive step was rejected and retried with a smaller size.")
+	int rejections;
+	
+	@Label("Assembly")
+	@Timespan(Timespan.NANOSECONDS)
+	long assemblyNanos;
+	
+	@Label("Factorization")
+	@Timespan(Timespan.NANOSECONDS)
+	long factorizationNanos;
+	
+	@Label("Solve")
+	@Timespan(Timespan.NANOSECONDS)
+	long solveNanos;
+	
+	@Label("Write Back")
+	@Timespan(Timespan.NANOSECONDS)
+	long writeBackNanos;
+}
@@ -0,0 +1,489 @@
+package zacharyhickman.circuittest.common.sim.analysis;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCircuitState;
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+import zacharyhickman.circuittest.common.sim.util.SparseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.util.SparseSymbolicFactorization;
+import zacharyhickman.circuittest.common.sim.wave.SimProbeSet;
+
+/**
+ * The scratch space of one ensemble worker thread, which steps a batch of laneCount variants in lockstep. All per-variant numbers
+ * (triplet and matrix values, L/U values, RHS, node voltages) are stored lane-interleaved, entry e of lane l at [e * laneCount + l],
+ * so assembly, refactorization and the triangular solves walk the shared patterns once per batch and apply every entry to all lanes
+ * in a contiguous inner loop the JIT can vectorize. A lane whose reused pivot is rejected leaves the batch and is run again on its
+ * own by a SimSweepWorker, which factors it with a new pivot sequence, so every variant gets the same result as in a scalar sweep.
+ * @author zhick
+ *
+ */
+class SimEnsembleWorker
+{
+	// Constructor of the worker.
+	SimEnsembleWorker(SimCompiledCircuit circuit, SparseLUSolver nominalSolver, SparseSymbolicFactorization symbolic, double[] slotSigns, SimProbeSet probes,
+			int laneCount)
+	{
+		this.circuit = circuit;
+		this.nominalSolver = nominalSolver;
+		this.slotSigns = slotSigns;
+		this.probes = probes;
+		this.laneCount = laneCount;
+		this.pivotTolerance = nominalSolver.getPivotTolerance();
+		
+		// The shared patterns. The pivot of each row is the inverse of the pivot sequence.
+		int n = symbolic.size;
+		this.size = n;
+		this.matrixColumnPointers = symbolic.matrixColumnPointers;
+		this.matrixRowIndices = symbolic.matrixRowIndices;
+		this.columnOrder = symbolic.columnOrder;
+		this.lColumnPointers = symbolic.lColumnPointers;
+		this.lRowIndices = symbolic.lRowIndices;
+		this.uColumnPointers = symbolic.uColumnPointers;
+		this.uRowIndices = symbolic.uRowIndices;
+		this.pivotOfRow = new int[n];
+		for (int k = 0; k < n; k++) this.pivotOfRow[symbolic.rowOfPivot[k]] = k;
+		
+		// The nominal triplets and the matrix entry each one is summed into.
+		SparseStampMatrix matrix = circuit.matrix;
+		int tripletCount = matrix.getTripletCount();
+		this.nominalTriplets = new double[tripletCount];
+		this.valueIndexOfSlot = new int[tripletCount];
+		for (int slot = 0; slot < tripletCount; slot++)
+		{
+			this.nominalTriplets[slot] = matrix.getTripletValue(slot);
+			this.valueIndexOfSlot[slot] = matrix.getValueIndexOfSlot(slot);
+		}
+		
+		// Lane-interleaved values.
+		this.tripletValues = new double[tripletCount * laneCount];
+		this.matrixValues = new double[this.matrixRowIndices.length * laneCount];
+		this.lValues = new double[this.lRowIndices.length * laneCount];
+		this.uValues = new double[this.uRowIndices.length * laneCount];
+		this.work = new double[n * laneCount];
+		this.solveWork = new double[n * laneCount];
+		this.vecSol = new double[n * laneCount];
+		this.capacitances = new double[circuit.getCapacitorCount() * laneCount];
+		this.nodeVoltages = new double[circuit.nodeCount * laneCount];
+		this.lastNodeVoltages = new double[circuit.nodeCount * laneCount];
+		this.branchCurrents = new double[circuit.branchCount * laneCount];
+		this.laneWork = new double[laneCount];
+		this.largest = new double[laneCount];
+		this.failed = new boolean[laneCount];
+		
+		// The values of one lane while the variation chooses them, and the state of one lane while its probes are sampled.
+		this.resistances = new double[circuit.getResistorCount()];
+		this.laneCapacitances = new double[circuit.getCapacitorCount()];
+		this.state = new SimCircuitState(circuit.nodeCount, circuit.branchCount, circuit.getCapacitorCount());
+		this.values = new double[probes.size()];
+	}
+	
+	/**
+	 * Simulates the variants [firstVariant, firstVariant + variantCount) until stopTime and stores the probe values at the end in
+	 * results[probe][variant], NaN for a variant whose matrix is singular. Lanes past variantCount run the nominal circuit.
+	 * @param firstVariant
+	 * @param variantCount
+	 * @param variation
+	 * @param seed
+	 * @param stopTime
+	 * @param results
+	 */
+	void runBatch(int firstVariant, int variantCount, SimSweepVariation variation, long seed, float stopTime, double[][] results)
+	{
+		int lanes = this.laneCount;
+		
+		// Choose the values of every lane, the same way SimSweepWorker.runVariant() does.
+		for (int slot = 0; slot < this.nominalTriplets.length; slot++)
+		{
+			Arrays.fill(this.tripletValues, slot * lanes, (slot + 1) * lanes, this.nominalTriplets[slot]);
+		}
+		for (int lane = 0; lane < lanes; lane++)
+		{
+			System.arraycopy(this.circuit.resistances, 0, this.resistances, 0, this.resistances.length);
+			System.arraycopy(this.circuit.capacitances, 0, this.laneCapacitances, 0, this.laneCapacitances.length);
+			if (lane < variantCount)
+			{
+				int variant = firstVariant + lane;
+				variation.apply(this.circuit, variant, new SplittableRandom(seed + variant * 0x9E3779B97F4A7C15L), this.resistances, this.laneCapacitances);
+			}
+			stampLane(lane);
+		}
+		assemble();
+		
+		// Refactor all lanes with the nominal pivot sequence and step them together.
+		int failedCount = refactor();
+		if (failedCount < lanes) stepUntil(stopTime);
+		
+		for (int lane = 0; lane < variantCount; lane++)
+		{
+			int variant = firstVariant + lane;
+			boolean solved;
+			if (this.failed[lane])
+			{
+				// The lane needs pivots of its own.
+				if (this.fallbackWorker == null) this.fallbackWorker = new SimSweepWorker(this.circuit, this.nominalSolver, this.slotSigns, this.probes);
+				solved = this.fallbackWorker.runVariant(variant, variation, seed, stopTime, this.values);
+				this.fallbackCount++;
+			}
+			else
+			{
+				sampleLane(lane);
+				solved = true;
+			}
+			for (int p = 0; p < this.values.length; p++) results[p][variant] = solved ? this.values[p] : Double.NaN;
+		}
+	}
+	
+	/**
+	 * Writes the conductances of the resistors and capacitors chosen for a lane into its triplet slots, and its capacitances into the
+	 * interleaved capacitances.
+	 * @param lane
+	 */
+	void stampLane(int lane)
+	{
+		int lanes = this.laneCount;
+		int[] resistorSlots = this.circuit.resistorSlots;
+		for (int i = 0; i < this.resistances.length; i++)
+		{
+			double conductance = 1d / this.resistances[i];
+			for (int slot = resistorSlots[i]; slot < resistorSlots[i + 1]; slot++)
+			{
+				this.tripletValues[slot * lanes + lane] = this.slotSigns[slot] * conductance;
+			}
+		}
+		
+		int[] capacitorSlots = this.circuit.capacitorSlots;
+		for (int i = 0; i < this.laneCapacitances.length; i++)
+		{
+			double conductance = this.laneCapacitances[i] * this.circuit.companionScale;
+			for (int slot = capacitorSlots[i]; slot < capacitorSlots[i + 1]; slot++)
+			{
+				this.tripletValues[slot * lanes + lane] = this.slotSigns[slot] * conductance;
+			}
+			this.capacitances[i * lanes + lane] = this.laneCapacitances[i];
+		}
+	}
+	
+	/**
+	 * Sums the triplets of all lanes into the matrix values, in the slot order of SparseStampMatrix.refreshValues().
+	 */
+	void assemble()
+	{
+		int lanes = this.laneCount;
+		double[] triplets = this.tripletValues;
+		double[] matrix = this.matrixValues;
+		Arrays.fill(matrix, 0d);
+		for (int slot = 0; slot < this.valueIndexOfSlot.length; slot++)
+		{
+			int to = this.valueIndexOfSlot[slot] * lanes;
+			int from = slot * lanes;
+			for (int lane = 0; lane < lanes; lane++) matrix[to + lane] += triplets[from + lane];
+		}
+	}
+	
+	/**
+	 * Refactors the matrix of every lane with the shared pivot sequence and L/U patterns, the lane-interleaved form of
+	 * SparseLUSolver.refactorNumeric(). Marks the lanes whose pivot became too small as failed and returns their number.
+	 * @return
+	 */
+	int refactor()
+	{
+		int lanes = this.laneCount;
+		double[] x = this.work;
+		double[] a = this.matrixValues;
+		double[] l = this.lValues;
+		double[] u = this.uValues;
+		double[] largest = this.largest;
+		Arrays.fill(this.failed, false);
+		
+		for (int k = 0; k < this.size; k++)
+		{
+			// Scatter the column in pivot order.
+			int col = this.columnOrder[k];
+			for (int p = this.matrixColumnPointers[col]; p < this.matrixColumnPointers[col + 1]; p++)
+			{
+				System.arraycopy(a, p * lanes, x, this.pivotOfRow[this.matrixRowIndices[p]] * lanes, lanes);
+			}
+			
+			// The U pattern is stored in topological order, so each entry is final when it is reached.
+			int uEnd = this.uColumnPointers[k + 1] - 1;
+			for (int p = this.uColumnPointers[k]; p < uEnd; p++)
+			{
+				int j = this.uRowIndices[p];
+				int jOffset = j * lanes;
+				int uOffset = p * lanes;
+				System.arraycopy(x, jOffset, u, uOffset, lanes);
+				Arrays.fill(x, jOffset, jOffset + lanes, 0d);
+				for (int q = this.lColumnPointers[j] + 1; q < this.lColumnPointers[j + 1]; q++)
+				{
+					int xOffset = this.lRowIndices[q] * lanes;
+					int lOffset = q * lanes;
+					for (int lane = 0; lane < lanes; lane++) x[xOffset + lane] -= l[lOffset + lane] * u[uOffset + lane];
+				}
+			}
+			
+			// Check that the reused pivot is still acceptable in every lane.
+			int kOffset = k * lanes;
+			int lStart = this.lColumnPointers[k] + 1;
+			int lEnd = this.lColumnPointers[k + 1];
+			for (int lane = 0; lane < lanes; lane++) largest[lane] = Math.abs(x[kOffset + lane]);
+			for (int p = lStart; p < lEnd; p++)
+			{
+				int xOffset = this.lRowIndices[p] * lanes;
+				for (int lane = 0; lane < lanes; lane++) largest[lane] = Math.max(largest[lane], Math.abs(x[xOffset + lane]));
+			}
+			int pivotOffset = uEnd * lanes;
+			for (int lane = 0; lane < lanes; lane++)
+			{
+				double pivot = x[kOffset + lane];
+				if ((pivot == 0d) || (Math.abs(pivot) < largest[lane] * this.pivotTolerance)) this.failed[lane] = true;
+				u[pivotOffset + lane] = pivot;
+				x[kOffset + lane] = 0d;
+			}
+			
+			for (int p = lStart; p < lEnd; p++)
+			{
+				int xOffset = this.lRowIndices[p] * lanes;
+				int lOffset = p * lanes;
+				for (int lane = 0; lane < lanes; lane++)
+				{
+					l[lOffset + lane] = x[xOffset + lane] / u[pivotOffset + lane];
+					x[xOffset + lane] = 0d;
+				}
+			}
+		}
+		
+		int failedCount = 0;
+		for (boolean laneFailed : this.failed)
+		{
+			if (laneFailed) failedCount++;
+		}
+		return failedCount;
+	}
+	
+	/**
+	 * Solves the refactored systems of all lanes for the interleaved RHS in vecSol and stores the solutions in it, the
+	 * lane-interleaved form of SparseLUSolver.solve().
+	 */
+	void solve()
+	{
+		int lanes = this.laneCount;
+		int n = this.size;
+		double[] y = this.solveWork;
+		double[] yj = this.laneWork;
+		double[] l = this.lValues;
+		double[] u = this.uValues;
+		
+		// Apply the row permutation.
+		for (int i = 0; i < n; i++) System.arraycopy(this.vecSol, i * lanes, y, this.pivotOfRow[i] * lanes, lanes);
+		
+		// Forward substitution with the unit lower factor (diagonal stored first in each column). Row j is copied out first, so the
+		// inner loops read and write different arrays.
+		for (int j = 0; j < n; j++)
+		{
+			System.arraycopy(y, j * lanes, yj, 0, lanes);
+			for (int p = this.lColumnPointers[j] + 1; p < this.lColumnPointers[j + 1]; p++)
+			{
+				int yOffset = this.lRowIndices[p] * lanes;
+				int lOffset = p * lanes;
+				for (int lane = 0; lane < lanes; lane++) y[yOffset + lane] -= l[lOffset + lane] * yj[lane];
+			}
+		}
+		
+		// Backward substitution with the upper factor (diagonal stored last in each column).
+		for (int j = n - 1; j >= 0; j--)
+		{
+			int jOffset = j * lanes;
+			int last = this.uColumnPointers[j + 1] - 1;
+			int pivotOffset = last * lanes;
+			for (int lane = 0; lane < lanes; lane++) yj[lane] = y[jOffset + lane] / u[pivotOffset + lane];
+			System.arraycopy(yj, 0, y, jOffset, lanes);
+			for (int p = this.uColumnPointers[j]; p < last; p++)
+			{
+				int yOffset = this.uRowIndices[p] * lanes;
+				int uOffset = p * lanes;
+				for (int lane = 0; lane < lanes; lane++) y[yOffset + lane] -= u[uOffset + lane] * yj[lane];
+			}
+		}
+		
+		// Undo the column permutation.
+		for (int k = 0; k < n; k++) System.arraycopy(y, k * lanes, this.vecSol, this.columnOrder[k] * lanes, lanes);
+	}
+	
+	/**
+	 * Steps all lanes from the compiled initial conditions until stopTime, the lane-interleaved form of SimSweepWorker.stepUntil().
+	 * @param stopTime
+	 */
+	void stepUntil(float stopTime)
+	{
+		int lanes = this.laneCount;
+		int nodeCount = this.circuit.nodeCount;
+		double[] voltages = this.nodeVoltages;
+		double[] lastVoltages = this.lastNodeVoltages;
+		double[] rhs = this.vecSol;
+		for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++)
+		{
+			Arrays.fill(voltages, nodeIndex * lanes, (nodeIndex + 1) * lanes, this.circuit.initialNodeVoltages[nodeIndex]);
+			Arrays.fill(lastVoltages, nodeIndex * lanes, (nodeIndex + 1) * lanes, this.circuit.initialLastNodeVoltages[nodeIndex]);
+		}
+		Arrays.fill(this.branchCurrents, 0d);
+		
+		boolean firstSimStep = this.circuit.firstSimStep;
+		float currentTime = this.circuit.currentTime;
+		while (firstSimStep || SimCircuit.isStepBeforeStop(currentTime, stopTime, this.circuit.timeStep))
+		{
+			// Capacitor history currents from the last node voltages, then the sources.
+			Arrays.fill(rhs, 0d);
+			double companionScale = this.circuit.companionScale;
+			double[] historyCurrents = this.laneWork;
+			for (int i = 0; i < this.laneCapacitances.length; i++)
+			{
+				int a = this.circuit.capacitorTerminalA[i];
+				int b = this.circuit.capacitorTerminalB[i];
+				int cOffset = i * lanes;
+				int aOffset = a * lanes;
+				int bOffset = b * lanes;
+				for (int lane = 0; lane < lanes; lane++)
+				{
+					historyCurrents[lane] = (this.capacitances[cOffset + lane] * companionScale) * (lastVoltages[aOffset + lane] - lastVoltages[bOffset + lane]);
+				}
+				if (a != 0)
+				{
+					int rowOffset = (a - 1) * lanes;
+					for (int lane = 0; lane < lanes; lane++) rhs[rowOffset + lane] += historyCurrents[lane];
+				}
+				if (b != 0)
+				{
+					int rowOffset = (b - 1) * lanes;
+					for (int lane = 0; lane < lanes; lane++) rhs[rowOffset + lane] -= historyCurrents[lane];
+				}
+			}
+			for (int row = 0; row < this.size; row++)
+			{
+				double source = this.circuit.sourceRHS[row];
+				if (source == 0d) continue;
+				int rowOffset = row * lanes;
+				for (int lane = 0; lane < lanes; lane++) rhs[rowOffset + lane] += source;
+			}
+			
+			solve();
+			
+			// Write the solution back, the first step sets up the initial voltages. Node id i is row i - 1, so the node rows of all
+			// lanes are one block.
+			int nodeValues = (nodeCount - 1) * lanes;
+			if (firstSimStep)
+			{
+				if (this.circuit.startUp) Arrays.fill(voltages, lanes, lanes + nodeValues, 0d);
+				else System.arraycopy(rhs, 0, voltages, lanes, nodeValues);
+				System.arraycopy(voltages, lanes, lastVoltages, lanes, nodeValues);
+			}
+			else
+			{
+				System.arraycopy(voltages, lanes, lastVoltages, lanes, nodeValues);
+				System.arraycopy(rhs, 0, voltages, lanes, nodeValues);
+			}
+			System.arraycopy(rhs, nodeValues, this.branchCurrents, 0, this.branchCurrents.length);
+			
+			firstSimStep = false;
+			currentTime += this.circuit.timeStep;
+		}
+	}
+	
+	/**
+	 * Copies the state of a lane into the state arrays and samples the probes into values.
+	 * @param lane
+	 */
+	void sampleLane(int lane)
+	{
+		int lanes = this.laneCount;
+		double[] voltages = this.state.nodeVoltages;
+		for (int nodeIndex = 0; nodeIndex < voltages.length; nodeIndex++) voltages[nodeIndex] = this.nodeVoltages[nodeIndex * lanes + lane];
+		double[] currents = this.state.branchCurrents;
+		for (int branch = 0; branch < currents.length; branch++) currents[branch] = this.branchCurrents[branch * lanes + lane];
+		this.probes.sample(this.state, this.values);
+	}
+	
+	/**
+	 * Get the number of variants this worker had to run on their own because the nominal pivots did not suit them.
+	 * @return
+	 */
+	int getFallbackCount()
+	{
+		return this.fallbackCount;
+	}
+	
+	// The compiled circuit being swept.
+	SimCompiledCircuit circuit;
+	
+	// The factorization of the nominal circuit, from which the fallback worker starts.
+	SparseLUSolver nominalSolver;
+	
+	// The sign (+1 on the diagonal, -1 off it) of each LHS triplet slot of the resistors and capacitors.
+	double[] slotSigns;
+	
+	// The probes sampled at the end of each variant.
+	SimProbeSet probes;
+	
+	// The number of variants stepped in lockstep.
+	final int laneCount;
+	
+	// The relative threshold for keeping a reused pivot.
+	final double pivotTolerance;
+	
+	// The size of the matrix.
+	final int size;
+	
+	// The shared pattern of the matrix, pivot sequence and L/U patterns of the nominal factorization.
+	final int[] matrixColumnPointers;
+	final int[] matrixRowIndices;
+	final int[] columnOrder;
+	final int[] pivotOfRow;
+	final int[] lColumnPointers;
+	final int[] lRowIndices;
+	final int[] uColumnPointers;
+	final int[] uRowIndices;
+	
+	// The nominal value of each triplet slot and the matrix entry it is summed into.
+	final double[] nominalTriplets;
+	final int[] valueIndexOfSlot;
+	
+	// The lane-interleaved triplet, matrix and L/U values.
+	final double[] tripletValues;
+	final double[] matrixValues;
+	final double[] lValues;
+	final double[] uValues;
+	
+	// The lane-interleaved dense workspaces of the refactorization, kept cleared between columns, and of the solves.
+	final double[] work;
+	final double[] solveWork;
+	
+	// One value of every lane: the row the solves are applying, or the history current of a capacitor.
+	final double[] laneWork;
+	
+	// The lane-interleaved RHS, overwritten by the solution.
+	final double[] vecSol;
+	
+	// The lane-interleaved capacitances and state.
+	final double[] capacitances;
+	final double[] nodeVoltages;
+	final double[] lastNodeVoltages;
+	final double[] branchCurrents;
+	
+	// The largest candidate of the pivot column and whether the pivot was rejected, per lane.
+	final double[] largest;
+	final boolean[] failed;
+	
+	// The resistor and capacitor values of one lane while they are chosen.
+	final double[] resistances;
+	final double[] laneCapacitances;
+	
+	// The state and probe values of one lane while it is sampled.
+	final SimCircuitState state;
+	final double[] values;
+	
+	// The scalar worker for the lanes that need their own pivots, created on first use, and the number of variants it ran.
+	SimSweepWorker fallbackWorker;
+	int fallbackCount = 0;
+}
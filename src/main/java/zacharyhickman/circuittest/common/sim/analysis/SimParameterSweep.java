@@ -0,0 +1,216 @@
+package zacharyhickman.circuittest.common.sim.analysis;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+import zacharyhickman.circuittest.common.sim.util.SparseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.util.SparseSymbolicFactorization;
+import zacharyhickman.circuittest.common.sim.wave.SimProbeSet;
+
+/**
+ * Runs many variants of one circuit with different resistor and capacitor values (parameter sweeps and Monte Carlo tolerance analysis).
+ * The topology is compiled and the nominal matrix is factored once. Every variant only patches the element values, refactors
+ * numerically with the shared pivot sequence and L/U patterns, and steps with a fixed backward Euler step. The variants are spread
+ * over the threads of a ForkJoinPool, each thread reusing its own scratch arrays. In ensemble mode (a lane count above 1) every thread
+ * steps batches of variants in lockstep with lane-interleaved values, see SimEnsembleWorker.
+ * @author zhick
+ *
+ */
+public class SimParameterSweep
+{
+	// Constructor of the sweep. Compiles the present topology of the circuit, later edits of the circuit are not seen by the sweep.
+	public SimParameterSweep(SimCircuit circuit)
+	{
+		this(circuit.compile());
+	}
+	
+	// Constructor of the sweep of an already compiled circuit, e.g. one compiled straight from a netlist.
+	public SimParameterSweep(SimCompiledCircuit compiled)
+	{
+		this.compiled = compiled;
+		
+		// The nominal factorization provides the pivot sequence and patterns that all variants share.
+		// A stored symbolic factorization turns it into a numeric refactorization.
+		SparseSymbolicFactorization symbolic = this.compiled.symbolicFactorization;
+		this.nominalSolver = ((symbolic != null) && symbolic.matchesPattern(this.compiled.matrix)) ? new SparseLUSolver(symbolic) : new SparseLUSolver();
+		if (!this.nominalSolver.factor(this.compiled.matrix))
+			throw new IllegalStateException("The circuit matrix is singular, so it cannot be swept.");
+		
+		// Resistors and capacitors stamp +G on the diagonal and -G off it.
+		SparseStampMatrix matrix = this.compiled.matrix;
+		this.slotSigns = new double[matrix.getTripletCount()];
+		for (int slot = 0; slot < this.slotSigns.length; slot++)
+		{
+			this.slotSigns[slot] = (matrix.getTripletRow(slot) == matrix.getTripletColumn(slot)) ? 1d : -1d;
+		}
+	}
+	
+	/**
+	 * Runs the variants on the common ForkJoinPool.
+	 * @param variantCount
+	 * @param stopTime
+	 * @param probes
+	 * @param variation
+	 * @return
+	 */
+	public SimSweepResult run(int variantCount, float stopTime, SimProbeSet probes, SimSweepVariation variation)
+	{
+		return run(variantCount, stopTime, probes, variation, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Simulates variantCount variants until stopTime and collects the probe values at the stop time.
+	 * @param variantCount
+	 * @param stopTime
+	 * @param probes
+	 * @param variation
+	 * @param pool
+	 * @return
+	 */
+	public SimSweepResult run(int variantCount, float stopTime, SimProbeSet probes, SimSweepVariation variation, ForkJoinPool pool)
+	{
+		if (variantCount < 0) throw new IllegalArgumentException("The variant count cannot be negative (" + variantCount + ").");
+		
+		probes.resolve(this.compiled);
+		int probeCount = probes.size();
+		double[][] results = new double[probeCount][variantCount];
+		long seed = this.seed;
+		
+		// In ensemble mode the tasks pull batches of laneCount variants, which share the pivots and patterns of the nominal factorization.
+		int laneCount = this.laneCount;
+		if (laneCount > 1)
+		{
+			SparseSymbolicFactorization symbolic = this.nominalSolver.getSymbolicFactorization();
+			AtomicInteger nextBatch = new AtomicInteger();
+			AtomicInteger fallbackCount = new AtomicInteger();
+			int batchCount = (variantCount + laneCount - 1) / laneCount;
+			int taskCount = Math.max(1, Math.min(pool.getParallelism(), batchCount));
+			ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[taskCount];
+			for (int t = 0; t < taskCount; t++)
+			{
+				tasks[t] = pool.submit(() ->
+				{
+					SimEnsembleWorker worker = new SimEnsembleWorker(this.compiled, this.nominalSolver, symbolic, this.slotSigns, probes, laneCount);
+					int batch;
+					while ((batch = nextBatch.getAndIncrement()) < batchCount)
+					{
+						int firstVariant = batch * laneCount;
+						worker.runBatch(firstVariant, Math.min(laneCount, variantCount - firstVariant), variation, seed, stopTime, results);
+					}
+					fallbackCount.addAndGet(worker.getFallbackCount());
+				});
+			}
+			for (ForkJoinTask<?> task : tasks)
+			{
+				task.join();
+			}
+			this.ensembleFallbackCount = fallbackCount.get();
+			
+			return new SimSweepResult(probes.getProbeNames(), results);
+		}
+		
+		// One task per thread, each with its own worker scratch, pulling variants from a shared counter.
+		AtomicInteger nextVariant = new AtomicInteger();
+		int taskCount = Math.max(1, Math.min(pool.getParallelism(), variantCount));
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[taskCount];
+		for (int t = 0; t < taskCount; t++)
+		{
+			tasks[t] = pool.submit(() ->
+			{
+				SimSweepWorker worker = new SimSweepWorker(this.compiled, this.nominalSolver, this.slotSigns, probes);
+				double[] values = new double[probeCount];
+				int variant;
+				while ((variant = nextVariant.getAndIncrement()) < variantCount)
+				{
+					boolean solved = worker.runVariant(variant, variation, seed, stopTime, values);
+					for (int p = 0; p < probeCount; p++) results[p][variant] = solved ? values[p] : Double.NaN;
+				}
+			});
+		}
+		for (ForkJoinTask<?> task : tasks)
+		{
+			task.join();
+		}
+		
+		return new SimSweepResult(probes.getProbeNames(), results);
+	}
+	
+	/**
+	 * Set the seed the random generators of the variants are derived from.
+	 * @param seed
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+	
+	/**
+	 * Get the seed the random generators of the variants are derived from.
+	 * @return
+	 */
+	public long getSeed()
+	{
+		return this.seed;
+	}
+	
+	/**
+	 * Set the number of variants every thread steps in lockstep. 1 (the default) steps every variant on its own, a larger count
+	 * turns on the ensemble mode, whose memory grows with the lane count times the size of the L/U factors.
+	 * @param laneCount
+	 */
+	public void setLaneCount(int laneCount)
+	{
+		if (laneCount < 1) throw new IllegalArgumentException("The lane count must be at least 1 (" + laneCount + ").");
+		
+		this.laneCount = laneCount;
+	}
+	
+	/**
+	 * Get the number of variants every thread steps in lockstep.
+	 * @return
+	 */
+	public int getLaneCount()
+	{
+		return this.laneCount;
+	}
+	
+	/**
+	 * Get the number of variants of the last ensemble run that could not use the nominal pivot sequence and were stepped on their own.
+	 * @return
+	 */
+	public int getEnsembleFallbackCount()
+	{
+		return this.ensembleFallbackCount;
+	}
+	
+	/**
+	 * Get the compiled circuit being swept.
+	 * @return
+	 */
+	public SimCompiledCircuit getCompiledCircuit()
+	{
+		return this.compiled;
+	}
+	
+	// The compiled topology and nominal values of the circuit.
+	SimCompiledCircuit compiled;
+	
+	// The factorization of the nominal circuit, shared read-only by the workers.
+	SparseLUSolver nominalSolver;
+	
+	// The sign of each LHS triplet slot.
+	double[] slotSigns;
+	
+	// The seed the random generators of the variants are derived from.
+	long seed = 0L;
+	
+	// The number of variants every thread steps in lockstep, 1 outside of the ensemble mode.
+	int laneCount = 1;
+	
+	// The number of variants of the last ensemble run that were stepped on their own.
+	int ensembleFallbackCount = 0;
+}
@@ -0,0 +1,165 @@
+package zacharyhickman.circuittest.common.sim.analysis;
+
+import java.util.Arrays;
+
+/**
+ * The probe values of every variant of a parameter sweep, sampled at the stop time, with statistics per probe.
+ * Variants whose matrix was singular are stored as NaN and left out of the statistics.
+ * @author zhick
+ *
+ */
+public class SimSweepResult
+{
+	// Constructor of the sweep result. values[probe][variant].
+	SimSweepResult(String[] probeNames, double[][] values)
+	{
+		this.probeNames = probeNames;
+		this.values = values;
+		this.sortedValues = new double[values.length][];
+		
+		// Sort the solved values of each probe once for the order statistics.
+		for (int p = 0; p < values.length; p++)
+		{
+			double[] sorted = new double[values[p].length];
+			int count = 0;
+			for (double value : values[p])
+			{
+				if (!Double.isNaN(value)) sorted[count++] = value;
+			}
+			sorted = Arrays.copyOf(sorted, count);
+			Arrays.sort(sorted);
+			this.sortedValues[p] = sorted;
+		}
+	}
+	
+	/**
+	 * Get the names of the probes.
+	 * @return
+	 */
+	public String[] getProbeNames()
+	{
+		return this.probeNames.clone();
+	}
+	
+	/**
+	 * Returns the position of the probe of the given name, or -1 if there is none.
+	 * @param probeName
+	 * @return
+	 */
+	public int getProbeIndex(String probeName)
+	{
+		for (int p = 0; p < this.probeNames.length; p++)
+		{
+			if (this.probeNames[p].equals(probeName)) return p;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the number of variants that were run.
+	 * @return
+	 */
+	public int getVariantCount()
+	{
+		return (this.values.length > 0) ? this.values[0].length : 0;
+	}
+	
+	/**
+	 * Get the number of variants that could not be solved.
+	 * @return
+	 */
+	public int getFailedVariantCount()
+	{
+		return (this.values.length > 0) ? getVariantCount() - this.sortedValues[0].length : 0;
+	}
+	
+	/**
+	 * Get the value of a probe for every variant, indexed by variant number.
+	 * @param probe
+	 * @return
+	 */
+	public double[] getValues(int probe)
+	{
+		return this.values[probe];
+	}
+	
+	/**
+	 * Get the smallest value of a probe over all solved variants.
+	 * @param probe
+	 * @return
+	 */
+	public double getMin(int probe)
+	{
+		double[] sorted = this.sortedValues[probe];
+		return (sorted.length > 0) ? sorted[0] : Double.NaN;
+	}
+	
+	/**
+	 * Get the largest value of a probe over all solved variants.
+	 * @param probe
+	 * @return
+	 */
+	public double getMax(int probe)
+	{
+		double[] sorted = this.sortedValues[probe];
+		return (sorted.length > 0) ? sorted[sorted.length - 1] : Double.NaN;
+	}
+	
+	/**
+	 * Get the mean value of a probe over all solved variants.
+	 * @param probe
+	 * @return
+	 */
+	public double getMean(int probe)
+	{
+		double[] sorted = this.sortedValues[probe];
+		double sum = 0d;
+		for (double value : sorted) sum += value;
+		return (sorted.length > 0) ? sum / sorted.length : Double.NaN;
+	}
+	
+	/**
+	 * Get the sample standard deviation of a probe over all solved variants.
+	 * @param probe
+	 * @return
+	 */
+	public double getStandardDeviation(int probe)
+	{
+		double[] sorted = this.sortedValues[probe];
+		if (sorted.length < 2) return 0d;
+		
+		double mean = getMean(probe);
+		double sum = 0d;
+		for (double value : sorted) sum += (value - mean) * (value - mean);
+		return Math.sqrt(sum / (sorted.length - 1));
+	}
+	
+	/**
+	 * Get a percentile (0 to 100) of a probe over all solved variants, interpolating linearly between the closest ranks.
+	 * @param probe
+	 * @param percentile
+	 * @return
+	 */
+	public double getPercentile(int probe, double percentile)
+	{
+		if ((percentile < 0d) || (percentile > 100d))
+			throw new IllegalArgumentException("The percentile must be between 0 and 100, not " + percentile + ".");
+		
+		double[] sorted = this.sortedValues[probe];
+		if (sorted.length == 0) return Double.NaN;
+		
+		double rank = (percentile / 100d) * (sorted.length - 1);
+		int lower = (int) Math.floor(rank);
+		int upper = Math.min(lower + 1, sorted.length - 1);
+		return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+	}
+	
+	// The names of the probes.
+	String[] probeNames;
+	
+	// The value of each probe for each variant, values[probe][variant].
+	double[][] values;
+	
+	// The solved values of each probe in ascending order.
+	double[][] sortedValues;
+}
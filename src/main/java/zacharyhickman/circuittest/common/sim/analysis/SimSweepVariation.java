@@ -0,0 +1,115 @@
+package zacharyhickman.circuittest.common.sim.analysis;
+
+import java.util.SplittableRandom;
+
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+
+/**
+ * Chooses the resistor and capacitor values of one variant of a parameter sweep. The arrays are filled with the nominal values
+ * (indexed like the compiled circuit) before apply is called, and the random generator is seeded from the sweep seed and the
+ * variant number, so a variant gets the same values no matter which thread runs it.
+ * @author zhick
+ *
+ */
+@FunctionalInterface
+public interface SimSweepVariation
+{
+	/**
+	 * Changes the values of the given variant.
+	 * @param circuit
+	 * @param variant
+	 * @param random
+	 * @param resistances
+	 * @param capacitances
+	 */
+	public void apply(SimCompiledCircuit circuit, int variant, SplittableRandom random, double[] resistances, double[] capacitances);
+	
+	/**
+	 * Returns a variation that applies this variation and then the next one.
+	 * @param next
+	 * @return
+	 */
+	public default SimSweepVariation andThen(SimSweepVariation next)
+	{
+		return (circuit, variant, random, resistances, capacitances) ->
+		{
+			apply(circuit, variant, random, resistances, capacitances);
+			next.apply(circuit, variant, random, resistances, capacitances);
+		};
+	}
+	
+	/**
+	 * Returns a Monte Carlo variation that scales every resistor and capacitor by a uniform random factor in [1 - tolerance, 1 + tolerance].
+	 * @param resistorTolerance
+	 * @param capacitorTolerance
+	 * @return
+	 */
+	public static SimSweepVariation uniformTolerance(double resistorTolerance, double capacitorTolerance)
+	{
+		return (circuit, variant, random, resistances, capacitances) ->
+		{
+			for (int i = 0; i < resistances.length; i++) resistances[i] *= 1d + resistorTolerance * (2d * random.nextDouble() - 1d);
+			for (int i = 0; i < capacitances.length; i++) capacitances[i] *= 1d + capacitorTolerance * (2d * random.nextDouble() - 1d);
+		};
+	}
+	
+	/**
+	 * Returns a Monte Carlo variation that scales every resistor and capacitor by a normally distributed factor, where the
+	 * tolerance is three standard deviations.
+	 * @param resistorTolerance
+	 * @param capacitorTolerance
+	 * @return
+	 */
+	public static SimSweepVariation gaussianTolerance(double resistorTolerance, double capacitorTolerance)
+	{
+		return (circuit, variant, random, resistances, capacitances) ->
+		{
+			for (int i = 0; i < resistances.length; i++) resistances[i] *= 1d + (resistorTolerance / 3d) * nextGaussian(random);
+			for (int i = 0; i < capacitances.length; i++) capacitances[i] *= 1d + (capacitorTolerance / 3d) * nextGaussian(random);
+		};
+	}
+	
+	/**
+	 * Returns a variation that steps the resistor of the given name through the given values, variant i using values[i % values.length].
+	 * @param resistorName
+	 * @param values
+	 * @return
+	 */
+	public static SimSweepVariation resistorValues(String resistorName, double... values)
+	{
+		return (circuit, variant, random, resistances, capacitances) ->
+		{
+			int index = circuit.getIndexOfResistor(resistorName);
+			if (index < 0) throw new IllegalArgumentException("The circuit has no resistor named " + resistorName + ".");
+			resistances[index] = values[variant % values.length];
+		};
+	}
+	
+	/**
+	 * Returns a variation that steps the capacitor of the given name through the given values, variant i using values[i % values.length].
+	 * @param capacitorName
+	 * @param values
+	 * @return
+	 */
+	public static SimSweepVariation capacitorValues(String capacitorName, double... values)
+	{
+		return (circuit, variant, random, resistances, capacitances) ->
+		{
+			int index = circuit.getIndexOfCapacitor(capacitorName);
+			if (index < 0) throw new IllegalArgumentException("The circuit has no capacitor named " + capacitorName + ".");
+			capacitances[index] = values[variant % values.length];
+		};
+	}
+	
+	/**
+	 * Returns a standard normal random number (Box-Muller), since SplittableRandom has no Gaussian generator.
+	 * @param random
+	 * @return
+	 */
+	public static double nextGaussian(SplittableRandom random)
+	{
+		double u = 1d - random.nextDouble();
+		double v = random.nextDouble();
+		return Math.sqrt(-2d * Math.log(u)) * Math.cos(2d * Math.PI * v);
+	}
+}
@@ -0,0 +1,167 @@
+package zacharyhickman.circuittest.common.sim.analysis;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCircuitState;
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+import zacharyhickman.circuittest.common.sim.util.SparseLUSolver;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
+import zacharyhickman.circuittest.common.sim.wave.SimProbeSet;
+
+/**
+ * The scratch space of one sweep worker thread: its own copy of the matrix values, a solver sharing the nominal pivot sequence
+ * and L/U patterns, and the state arrays. Apart from the random generator of each variant, which is seeded from the variant index
+ * so its values do not depend on the worker that runs it, nothing is allocated per variant.
+ * @author zhick
+ *
+ */
+class SimSweepWorker
+{
+	// Constructor of the worker.
+	SimSweepWorker(SimCompiledCircuit circuit, SparseLUSolver nominalSolver, double[] slotSigns, SimProbeSet probes)
+	{
+		this.circuit = circuit;
+		this.slotSigns = slotSigns;
+		this.probes = probes;
+		this.matrix = new SparseStampMatrix(circuit.matrix);
+		this.solver = new SparseLUSolver(nominalSolver);
+		this.state = new SimCircuitState(circuit.nodeCount, circuit.branchCount, circuit.getCapacitorCount());
+		this.vecRHS = new double[circuit.sourceRHS.length];
+		this.vecSol = new double[circuit.sourceRHS.length];
+		this.resistances = new double[circuit.getResistorCount()];
+		this.capacitances = new double[circuit.getCapacitorCount()];
+	}
+	
+	/**
+	 * Simulates one variant until stopTime and samples the probes at the end into values. Returns false if the matrix of the variant is singular.
+	 * @param variant
+	 * @param variation
+	 * @param seed
+	 * @param stopTime
+	 * @param values
+	 * @return
+	 */
+	boolean runVariant(int variant, SimSweepVariation variation, long seed, float stopTime, double[] values)
+	{
+		// Choose the values of this variant.
+		System.arraycopy(this.circuit.resistances, 0, this.resistances, 0, this.resistances.length);
+		System.arraycopy(this.circuit.capacitances, 0, this.capacitances, 0, this.capacitances.length);
+		variation.apply(this.circuit, variant, new SplittableRandom(seed + variant * 0x9E3779B97F4A7C15L), this.resistances, this.capacitances);
+		
+		// Patch the element slots and refactor with the shared pivot sequence.
+		stampValues();
+		if (!this.solver.factor(this.matrix)) return false;
+		
+		stepUntil(stopTime);
+		this.probes.sample(this.state, values);
+		return true;
+	}
+	
+	/**
+	 * Writes the conductances of the variant into the triplet slots of the resistors and capacitors and refreshes the matrix values.
+	 */
+	void stampValues()
+	{
+		int[] resistorSlots = this.circuit.resistorSlots;
+		for (int i = 0; i < this.resistances.length; i++)
+		{
+			double conductance = 1d / this.resistances[i];
+			for (int slot = resistorSlots[i]; slot < resistorSlots[i + 1]; slot++)
+			{
+				this.matrix.setTripletValue(slot, this.slotSigns[slot] * conductance);
+			}
+		}
+		
+		int[] capacitorSlots = this.circuit.capacitorSlots;
+		for (int i = 0; i < this.capacitances.length; i++)
+		{
+			double conductance = this.capacitances[i] * this.circuit.companionScale;
+			for (int slot = capacitorSlots[i]; slot < capacitorSlots[i + 1]; slot++)
+			{
+				this.matrix.setTripletValue(slot, this.slotSigns[slot] * conductance);
+			}
+		}
+		
+		this.matrix.refreshValues();
+	}
+	
+	/**
+	 * Steps the variant from the compiled initial conditions until stopTime, the same way SimCircuit.runTransient() takes fixed steps.
+	 * @param stopTime
+	 */
+	void stepUntil(float stopTime)
+	{
+		double[] voltages = this.state.nodeVoltages;
+		double[] lastVoltages = this.state.lastNodeVoltages;
+		int nodeCount = voltages.length;
+		System.arraycopy(this.circuit.initialNodeVoltages, 0, voltages, 0, nodeCount);
+		System.arraycopy(this.circuit.initialLastNodeVoltages, 0, lastVoltages, 0, nodeCount);
+		
+		boolean firstSimStep = this.circuit.firstSimStep;
+		float currentTime = this.circuit.currentTime;
+		while (firstSimStep || SimCircuit.isStepBeforeStop(currentTime, stopTime, this.circuit.timeStep))
+		{
+			// Capacitor history currents from the last node voltages, then the sources.
+			Arrays.fill(this.vecRHS, 0d);
+			for (int i = 0; i < this.capacitances.length; i++)
+			{
+				int a = this.circuit.capacitorTerminalA[i];
+				int b = this.circuit.capacitorTerminalB[i];
+				double historyCurrent = (this.capacitances[i] * this.circuit.companionScale) * (lastVoltages[a] - lastVoltages[b]);
+				if (a != 0) this.vecRHS[a - 1] += historyCurrent;
+				if (b != 0) this.vecRHS[b - 1] -= historyCurrent;
+			}
+			for (int row = 0; row < this.vecRHS.length; row++) this.vecRHS[row] += this.circuit.sourceRHS[row];
+			
+			this.solver.solve(this.vecRHS, this.vecSol);
+			
+			// Write the solution back, the first step sets up the initial voltages.
+			for (int nodeIndex = 1; nodeIndex < nodeCount; nodeIndex++)
+			{
+				if (firstSimStep)
+				{
+					voltages[nodeIndex] = this.circuit.startUp ? 0d : this.vecSol[nodeIndex - 1];
+					lastVoltages[nodeIndex] = voltages[nodeIndex];
+				}
+				else
+				{
+					lastVoltages[nodeIndex] = voltages[nodeIndex];
+					voltages[nodeIndex] = this.vecSol[nodeIndex - 1];
+				}
+			}
+			if (this.state.branchCurrents.length > 0)
+				System.arraycopy(this.vecSol, nodeCount - 1, this.state.branchCurrents, 0, this.state.branchCurrents.length);
+			
+			firstSimStep = false;
+			currentTime += this.circuit.timeStep;
+		}
+	}
+	
+	// The compiled circuit being swept.
+	SimCompiledCircuit circuit;
+	
+	// The sign (+1 on the diagonal, -1 off it) of each LHS triplet slot of the resistors and capacitors.
+	double[] slotSigns;
+	
+	// The probes sampled at the end of each variant.
+	SimProbeSet probes;
+	
+	// The LHS values of the variant being simulated.
+	SparseStampMatrix matrix;
+	
+	// The solver sharing the symbolic analysis of the nominal circuit.
+	SparseLUSolver solver;
+	
+	// The state arrays of the variant being simulated.
+	SimCircuitState state;
+	
+	// The RHS and solution vectors.
+	double[] vecRHS;
+	double[] vecSol;
+	
+	// The resistor and capacitor values of the variant being simulated.
+	double[] resistances;
+	double[] capacitances;
+}
@@ -3,6 +3,8 @@ package zacharyhickman.circuittest.common.sim.base;
 import org.ejml.simple.SimpleMatrix;
 
 import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.util.MatrixHelper;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 /**
  * An object that represents a component in a circuit.
@@ -30,20 +32,46 @@ public abstract class SimCircuitComponent
 	}
 	
 	/**
-	 * Apply to the main circuit matrix the conductance contribution of this element (LHS).
+	 * Stamp the conductance contribution of this element (LHS) directly into the shared circuit matrix.
+	 * @param circuit
+	 * @param stampLHS
+	 */
+	public void applyConductanceStamp(SimCircuit circuit, SparseStampMatrix stampLHS)
+	{
+		
+	}
+	
+	/**
+	 * Stamp the variable contribution of this element (RHS) directly into the shared circuit vector.
+	 * @param circuit
+	 * @param stampRHS
+	 */
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
+	{
+		
+	}
+	
+	/**
+	 * Return the conductance contribution matrix of this element (LHS) as a dense matrix.
+	 * Compatibility shim over applyConductanceStamp(), the simulator itself no longer uses it.
 	 * @param circuit
 	 */
 	public SimpleMatrix getConductanceStampLHS(SimCircuit circuit)
 	{
-		return null;
+		SparseStampMatrix stampLHS = new SparseStampMatrix(circuit.getRowCountLHSMatrix(), circuit.getColumnCountLHSMatrix());
+		applyConductanceStamp(circuit, stampLHS);
+		return MatrixHelper.convertSparseToSimple(stampLHS);
 	}
 	
 	/**
-	 * Apply to the main circuit matrix the conductance contribution of this element (RHS).
+	 * Return the variable contribution vector of this element (RHS) as a dense matrix.
+	 * Compatibility shim over applyVariableStamp(), the simulator itself no longer uses it.
 	 * @param circuit
 	 */
 	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
 	{
-		return null;
+		double[] stampRHS = new double[circuit.getRowCountRHSMatrix()];
+		applyVariableStamp(circuit, stampRHS);
+		return MatrixHelper.convertVectorToSimple(stampRHS);
 	}
 }
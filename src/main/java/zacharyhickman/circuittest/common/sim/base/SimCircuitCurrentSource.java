@@ -1,6 +1,10 @@
 package zacharyhickman.circuittest.common.sim.base;
 
+import org.ejml.simple.SimpleMatrix;
+
 import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.util.MatrixHelper;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 /**
  * Object that represents a source object in a circuit.
@@ -30,6 +34,28 @@ public abstract class SimCircuitCurrentSource
 	// Get the current through this source (from terminal A to terminal B).
 	public abstract float getCurrentValue();
 	
+	/**
+	 * Stamp the source contribution of this element (RHS) directly into the shared circuit vector.
+	 * @param circuit
+	 * @param stampRHS
+	 */
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
+	{
+		
+	}
+	
+	/**
+	 * Return the source contribution vector of this element (RHS) as a dense matrix.
+	 * Compatibility shim over applyVariableStamp(), the simulator itself no longer uses it.
+	 * @param circuit
+	 */
+	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
+	{
+		double[] stampRHS = new double[circuit.getRowCountRHSMatrix()];
+		applyVariableStamp(circuit, stampRHS);
+		return MatrixHelper.convertVectorToSimple(stampRHS);
+	}
+	
 	// Simulate some behavior that the source needs to exhibit.
 	public void simulateBehavior(SimCircuit circuit)
 	{
@@ -1,7 +1,10 @@
 package zacharyhickman.circuittest.common.sim.base;
 
+import zacharyhickman.circuittest.common.sim.SimCircuitState;
+
 /**
- * An object that represents a voltage node in a circuit.
+ * An object that represents a voltage node in a circuit. Once the node is part of a mapped circuit it is only a handle,
+ * the voltages themselves live in the circuit state arrays at the index of the node id.
  * @author zhick
  *
  */
@@ -44,6 +47,7 @@ public class SimCircuitNode
 	 */
 	public float getNodeVoltage()
 	{
+		if (this.state != null) return (float) this.state.nodeVoltages[this.nodeId];
 		return this.voltage;
 	}
 	
@@ -53,6 +57,7 @@ public class SimCircuitNode
 	 */
 	public float getLastNodeVoltage()
 	{
+		if (this.state != null) return (float) this.state.lastNodeVoltages[this.nodeId];
 		return this.lastVoltage;
 	}
 	
@@ -70,6 +75,14 @@ public class SimCircuitNode
 	 */
 	public void setNodeVoltage(float voltage)
 	{
+		if (this.state != null)
+		{
+			// Save the previous voltage of this node.
+			this.state.lastNodeVoltages[this.nodeId] = this.state.nodeVoltages[this.nodeId];
+			this.state.nodeVoltages[this.nodeId] = voltage;
+			return;
+		}
+		
 		// Save the previous voltage of this node.
 		this.lastVoltage = this.voltage;
 		this.voltage = voltage;
@@ -80,6 +93,12 @@ public class SimCircuitNode
 	 */
 	public void setLastNodeVoltage(float lastVoltage)
 	{
+		if (this.state != null)
+		{
+			this.state.lastNodeVoltages[this.nodeId] = lastVoltage;
+			return;
+		}
+		
 		this.lastVoltage = lastVoltage;
 	}
 	
@@ -92,6 +111,30 @@ public class SimCircuitNode
 		this.nodeId = nodeId;
 	}
 	
+	/**
+	 * Binds this node to the state arrays of a circuit. The voltages are then read and written at the index of the node id.
+	 * Pass null to unbind the node, which copies the current voltages back into the node.
+	 * @param state
+	 */
+	public void bindState(SimCircuitState state)
+	{
+		if ((state == null) && (this.state != null))
+		{
+			this.voltage = (float) this.state.nodeVoltages[this.nodeId];
+			this.lastVoltage = (float) this.state.lastNodeVoltages[this.nodeId];
+		}
+		this.state = state;
+	}
+	
+	/**
+	 * Get the circuit state this node is bound to, or null if the node is not part of a mapped circuit.
+	 * @return
+	 */
+	public SimCircuitState getState()
+	{
+		return this.state;
+	}
+	
 	// The string id of this node.
 	String nodeName = "";
 	
@@ -106,4 +149,7 @@ public class SimCircuitNode
 	
 	// Whether or not this node is a reference node.
 	boolean isReference = false;
+	
+	// The circuit state arrays this node is bound to. The voltage fields above are only used while this is null.
+	SimCircuitState state = null;
 }
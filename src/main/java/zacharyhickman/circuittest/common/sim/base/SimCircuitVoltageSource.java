@@ -1,6 +1,10 @@
 package zacharyhickman.circuittest.common.sim.base;
 
+import org.ejml.simple.SimpleMatrix;
+
 import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.util.MatrixHelper;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 /**
  * Object that represents a source object in a circuit.
@@ -48,6 +52,50 @@ public abstract class SimCircuitVoltageSource
 		return this.branchId;
 	}
 	
+	/**
+	 * Stamp the source contribution of this element (LHS) directly into the shared circuit matrix.
+	 * @param circuit
+	 * @param stampLHS
+	 */
+	public void applyConductanceStamp(SimCircuit circuit, SparseStampMatrix stampLHS)
+	{
+		
+	}
+	
+	/**
+	 * Stamp the source contribution of this element (RHS) directly into the shared circuit vector.
+	 * @param circuit
+	 * @param stampRHS
+	 */
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
+	{
+		
+	}
+	
+	/**
+	 * Return the source contribution matrix of this element (LHS) as a dense matrix.
+	 * Compatibility shim over applyConductanceStamp(), the simulator itself no longer uses it.
+	 * @param circuit
+	 */
+	public SimpleMatrix getConductanceStampLHS(SimCircuit circuit)
+	{
+		SparseStampMatrix stampLHS = new SparseStampMatrix(circuit.getRowCountLHSMatrix(), circuit.getColumnCountLHSMatrix());
+		applyConductanceStamp(circuit, stampLHS);
+		return MatrixHelper.convertSparseToSimple(stampLHS);
+	}
+	
+	/**
+	 * Return the source contribution vector of this element (RHS) as a dense matrix.
+	 * Compatibility shim over applyVariableStamp(), the simulator itself no longer uses it.
+	 * @param circuit
+	 */
+	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
+	{
+		double[] stampRHS = new double[circuit.getRowCountRHSMatrix()];
+		applyVariableStamp(circuit, stampRHS);
+		return MatrixHelper.convertVectorToSimple(stampRHS);
+	}
+	
 	// Simulate some behavior that the source needs to exhibit.
 	public void simulateBehavior(SimCircuit circuit)
 	{
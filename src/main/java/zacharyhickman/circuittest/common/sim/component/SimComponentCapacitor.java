@@ -1,10 +1,10 @@
 package zacharyhickman.circuittest.common.sim.component;
 
-import org.ejml.simple.SimpleMatrix;
-
 import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCircuitState;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitComponent;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 public class SimComponentCapacitor extends SimCircuitComponent
 {
@@ -17,6 +17,9 @@ public class SimComponentCapacitor extends SimCircuitComponent
 	// The node connected to the second terminal of this two-terminal capacitor.
 	SimCircuitNode terminalB;
 	
+	// The index of this capacitor in the capacitor current history of the circuit state.
+	int historyId = 0;
+	
 	public SimComponentCapacitor(String deviceName, SimCircuitNode terminalA, SimCircuitNode terminalB, float capacitance)
 	{
 		super(deviceName);
@@ -26,14 +29,70 @@ public class SimComponentCapacitor extends SimCircuitComponent
 	}
 	
 	/**
-	 * Return the conductance contribution matrix of this element (LHS).
+	 * Set the index of this capacitor in the capacitor current history of the circuit state.
+	 * @param historyId
+	 */
+	public void setHistoryId(int historyId)
+	{
+		this.historyId = historyId;
+	}
+	
+	/**
+	 * Get the index of this capacitor in the capacitor current history of the circuit state.
+	 * @return
+	 */
+	public int getHistoryId()
+	{
+		return this.historyId;
+	}
+	
+	/**
+	 * Get the capacitance of this capacitor.
+	 * @return
+	 */
+	public float getCapacitance()
+	{
+		return this.capacitance;
+	}
+	
+	/**
+	 * Set the capacitance of this capacitor. A capacitor that is part of a circuit is changed through SimCircuit.setCapacitance(),
+	 * which also patches its matrix entries.
+	 * @param capacitance
+	 */
+	public void setCapacitance(float capacitance)
+	{
+		this.capacitance = capacitance;
+	}
+	
+	/**
+	 * Get the node connected to the first terminal of this capacitor.
+	 * @return
+	 */
+	public SimCircuitNode getTerminalA()
+	{
+		return this.terminalA;
+	}
+	
+	/**
+	 * Get the node connected to the second terminal of this capacitor.
+	 * @return
+	 */
+	public SimCircuitNode getTerminalB()
+	{
+		return this.terminalB;
+	}
+	
+	/**
+	 * Stamp the conductance contribution of this element (LHS) into the shared circuit matrix.
+	 * The companion conductance is C * (1/dt) for backward Euler and C * (2/dt) for the trapezoidal rule.
 	 * @param circuit
+	 * @param stampLHS
 	 */
 	@Override
-	public SimpleMatrix getConductanceStampLHS(SimCircuit circuit)
+	public void applyConductanceStamp(SimCircuit circuit, SparseStampMatrix stampLHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with conductance values.
-		SimpleMatrix capacitorLHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), circuit.getColumnCountLHSMatrix());
+		double conductance = this.capacitance * circuit.getCompanionScale();
 		
 		/*
 		 * From the top left, calculate the location of the stamp elements based on what nodes this capacitor is connected to.
@@ -41,40 +100,53 @@ public class SimComponentCapacitor extends SimCircuitComponent
 		 * We don't include a stamp element if one of the terminals is connected to ground.
 		 */
 		if (this.terminalA.getNodeId() != 0) 
-			capacitorLHS.set(this.terminalA.getNodeId() - 1, this.terminalA.getNodeId() - 1, this.capacitance/circuit.getTimeStep());
+			stampLHS.addEntry(this.terminalA.getNodeId() - 1, this.terminalA.getNodeId() - 1, conductance);
 		if ((this.terminalA.getNodeId() != 0) && (this.terminalB.getNodeId() != 0)) 
-			capacitorLHS.set(this.terminalB.getNodeId() - 1, this.terminalA.getNodeId() - 1, -this.capacitance/circuit.getTimeStep());
+			stampLHS.addEntry(this.terminalB.getNodeId() - 1, this.terminalA.getNodeId() - 1, -conductance);
 		if ((this.terminalA.getNodeId() != 0) && (this.terminalB.getNodeId() != 0)) 
-			capacitorLHS.set(this.terminalA.getNodeId() - 1, this.terminalB.getNodeId() - 1, -this.capacitance/circuit.getTimeStep());
+			stampLHS.addEntry(this.terminalA.getNodeId() - 1, this.terminalB.getNodeId() - 1, -conductance);
 		if (this.terminalB.getNodeId() != 0) 
-			capacitorLHS.set(this.terminalB.getNodeId() - 1, this.terminalB.getNodeId() - 1, this.capacitance/circuit.getTimeStep());
-		
-		// Return the matrix that contains the conductance values of the capacitor.
-		return capacitorLHS;		
+			stampLHS.addEntry(this.terminalB.getNodeId() - 1, this.terminalB.getNodeId() - 1, conductance);
 	}
 	
 	/**
-	 * Apply to the main circuit matrix the conductance contribution of this element (RHS).
+	 * Stamp the variable contribution of this element (RHS) into the shared circuit vector.
 	 * @param circuit
+	 * @param stampRHS
 	 */
 	@Override
-	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with current values from this capacitor.
-		SimpleMatrix capacitorRHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), 1);
-		
 		/*
 		 * From the top left, calculate the location of the stamp elements based on what nodes this capacitor is connected to. 
 		 * Note that we use nodeId-1, because the reference node is not included in the matrix. We also check if one of the nodes is ground node, and alter accordingly.
 		 * We don't include a stamp element if one of the terminals is connected to ground.
+		 * The history current comes from the voltage across the capacitor at the previous step, plus its previous current for the trapezoidal rule.
 		 */
-		float deltaV = (this.terminalA.getLastNodeVoltage() - this.terminalB.getLastNodeVoltage());
+		double[] historyVoltages = circuit.getCompanionHistoryVoltages();
+		double deltaV = (historyVoltages[this.terminalA.getNodeId()] - historyVoltages[this.terminalB.getNodeId()]);
+		double historyCurrent = (this.capacitance * circuit.getCompanionScale())*deltaV;
+		if (circuit.isTrapezoidalStep())
+			historyCurrent += circuit.getState().capacitorCurrents[this.historyId];
 		if (this.terminalA.getNodeId() != 0)
-			capacitorRHS.set((this.terminalA.getNodeId() - 1), 0, (this.capacitance/circuit.getTimeStep())*(this.terminalA.getLastNodeVoltage() - this.terminalB.getLastNodeVoltage()));
+			stampRHS[this.terminalA.getNodeId() - 1] += historyCurrent;
 		if (this.terminalB.getNodeId() != 0)
-			capacitorRHS.set((this.terminalB.getNodeId() - 1), 0, -(this.capacitance/circuit.getTimeStep())*(this.terminalA.getLastNodeVoltage() - this.terminalB.getLastNodeVoltage()));
-		
-		// Return the matrix that contains the current values through this capacitor based on last voltage across it.
-		return capacitorRHS;		
+			stampRHS[this.terminalB.getNodeId() - 1] += -historyCurrent;
+	}
+	
+	/**
+	 * Updates the current history of this capacitor after a step was accepted and written back to the circuit state.
+	 * @param circuit
+	 */
+	public void updateCurrentHistory(SimCircuit circuit)
+	{
+		SimCircuitState state = circuit.getState();
+		int a = this.terminalA.getNodeId();
+		int b = this.terminalB.getNodeId();
+		double deltaV = (state.nodeVoltages[a] - state.nodeVoltages[b]) - (state.lastNodeVoltages[a] - state.lastNodeVoltages[b]);
+		double current = (this.capacitance * circuit.getCompanionScale())*deltaV;
+		if (circuit.isTrapezoidalStep())
+			current -= state.capacitorCurrents[this.historyId];
+		state.capacitorCurrents[this.historyId] = current;
 	}
 }
@@ -1,10 +1,9 @@
 package zacharyhickman.circuittest.common.sim.component;
 
-import org.ejml.simple.SimpleMatrix;
-
 import zacharyhickman.circuittest.common.sim.SimCircuit;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitComponent;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 public class SimComponentResistor extends SimCircuitComponent
 {
@@ -17,6 +16,9 @@ public class SimComponentResistor extends SimCircuitComponent
 	// The node connected to the second terminal of this two-terminal resistor.
 	SimCircuitNode terminalB;
 	
+	// The index of this resistor in the resistor stamps of the circuit.
+	int stampId = 0;
+	
 	public SimComponentResistor(String deviceName, SimCircuitNode terminalA, SimCircuitNode terminalB, float resistance)
 	{
 		super(deviceName);
@@ -26,30 +28,80 @@ public class SimComponentResistor extends SimCircuitComponent
 	}
 	
 	/**
-	 * Return the conductance contribution matrix of this element (LHS).
+	 * Get the resistance of this resistor.
+	 * @return
+	 */
+	public float getResistance()
+	{
+		return this.resistance;
+	}
+	
+	/**
+	 * Set the resistance of this resistor. A resistor that is part of a circuit is changed through SimCircuit.setResistance(),
+	 * which also patches its matrix entries.
+	 * @param resistance
+	 */
+	public void setResistance(float resistance)
+	{
+		this.resistance = resistance;
+	}
+	
+	/**
+	 * Set the index of this resistor in the resistor stamps of the circuit.
+	 * @param stampId
+	 */
+	public void setStampId(int stampId)
+	{
+		this.stampId = stampId;
+	}
+	
+	/**
+	 * Get the index of this resistor in the resistor stamps of the circuit.
+	 * @return
+	 */
+	public int getStampId()
+	{
+		return this.stampId;
+	}
+	
+	/**
+	 * Get the node connected to the first terminal of this resistor.
+	 * @return
+	 */
+	public SimCircuitNode getTerminalA()
+	{
+		return this.terminalA;
+	}
+	
+	/**
+	 * Get the node connected to the second terminal of this resistor.
+	 * @return
+	 */
+	public SimCircuitNode getTerminalB()
+	{
+		return this.terminalB;
+	}
+	
+	/**
+	 * Stamp the conductance contribution of this element (LHS) into the shared circuit matrix.
 	 * @param circuit
+	 * @param stampLHS
 	 */
 	@Override
-	public SimpleMatrix getConductanceStampLHS(SimCircuit circuit)
+	public void applyConductanceStamp(SimCircuit circuit, SparseStampMatrix stampLHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with conductance values.
-		SimpleMatrix resistorLHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), circuit.getColumnCountLHSMatrix());
-		
 		/*
 		 * From the top left, calculate the location of the stamp elements based on what nodes this resistor is connected to.
 		 * Note that we use nodeId-1, because the reference node is not included in the matrix. We also check if one of the nodes is ground node, and alter accordingly.
 		 * We don't include a stamp element if one of the terminals is connected to ground.
 		 */
 		if (this.terminalA.getNodeId() != 0) 
-			resistorLHS.set(this.terminalA.getNodeId() - 1, this.terminalA.getNodeId() - 1, 1/this.resistance);
+			stampLHS.addEntry(this.terminalA.getNodeId() - 1, this.terminalA.getNodeId() - 1, 1/this.resistance);
 		if ((this.terminalA.getNodeId() != 0) && (this.terminalB.getNodeId() != 0)) 
-			resistorLHS.set(this.terminalB.getNodeId() - 1, this.terminalA.getNodeId() - 1, -1/this.resistance);
+			stampLHS.addEntry(this.terminalB.getNodeId() - 1, this.terminalA.getNodeId() - 1, -1/this.resistance);
 		if ((this.terminalA.getNodeId() != 0) && (this.terminalB.getNodeId() != 0)) 
-			resistorLHS.set(this.terminalA.getNodeId() - 1, this.terminalB.getNodeId() - 1, -1/this.resistance);
+			stampLHS.addEntry(this.terminalA.getNodeId() - 1, this.terminalB.getNodeId() - 1, -1/this.resistance);
 		if (this.terminalB.getNodeId() != 0) 
-			resistorLHS.set(this.terminalB.getNodeId() - 1, this.terminalB.getNodeId() - 1, 1/this.resistance);
-		
-		// Return the matrix that contains the conductance values of the resistor.
-		return resistorLHS;		
+			stampLHS.addEntry(this.terminalB.getNodeId() - 1, this.terminalB.getNodeId() - 1, 1/this.resistance);
 	}
 }
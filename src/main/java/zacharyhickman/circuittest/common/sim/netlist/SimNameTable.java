@@ -0,0 +1,218 @@
+package zacharyhickman.circuittest.common.sim.netlist;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An open-addressing table that interns names given as raw bytes and numbers them in order of first appearance.
+ * Lookups hash and compare the bytes in place, so a name that was seen before costs no allocation. A String is only
+ * made for a name when it is asked for.
+ * @author zhick
+ *
+ */
+final class SimNameTable
+{
+	// Constructor of the name table.
+	SimNameTable(int expectedCount)
+	{
+		int capacity = Integer.highestOneBit(Math.max(16, expectedCount * 2) - 1) << 1;
+		this.slots = new long[capacity];
+		this.offsets = new int[Math.max(16, expectedCount) + 1];
+		this.names = new String[this.offsets.length - 1];
+		this.arena = new byte[this.names.length * 8];
+	}
+	
+	/**
+	 * Returns the id of the name held in bytes[offset, offset + length), adding it to the table if it is new.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	int intern(byte[] bytes, int offset, int length)
+	{
+		int hash = hash(bytes, offset, length);
+		int mask = this.slots.length - 1;
+		int slot = hash & mask;
+		while (this.slots[slot] != 0)
+		{
+			long entry = this.slots[slot];
+			int id = (int) entry - 1;
+			if (((int) (entry >>> 32) == hash) && matches(id, bytes, offset, length)) return id;
+			slot = (slot + 1) & mask;
+		}
+		
+		// Add the name, growing the storage first if needed.
+		int id = this.size;
+		if (id == this.names.length)
+		{
+			int newCapacity = this.names.length * 2;
+			this.offsets = Arrays.copyOf(this.offsets, newCapacity + 1);
+			this.names = Arrays.copyOf(this.names, newCapacity);
+		}
+		int start = this.offsets[id];
+		if (start + length > this.arena.length)
+			this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, start + length));
+		System.arraycopy(bytes, offset, this.arena, start, length);
+		this.offsets[id + 1] = start + length;
+		this.slots[slot] = entry(hash, id);
+		this.size++;
+		
+		// Keep the load factor at or below one half.
+		if (this.size * 2 > this.slots.length) rehash(this.slots.length * 2);
+		
+		return id;
+	}
+	
+	/**
+	 * Returns the id of the given name, adding it to the table if it is new.
+	 * @param name
+	 * @return
+	 */
+	int intern(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return intern(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Returns the id of the given name, or -1 if it is not in the table.
+	 * @param name
+	 * @return
+	 */
+	int find(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(bytes, 0, bytes.length);
+		int mask = this.slots.length - 1;
+		for (int slot = hash & mask; this.slots[slot] != 0; slot = (slot + 1) & mask)
+		{
+			long entry = this.slots[slot];
+			int id = (int) entry - 1;
+			if (((int) (entry >>> 32) == hash) && matches(id, bytes, 0, bytes.length)) return id;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the name of the given id.
+	 * @param id
+	 * @return
+	 */
+	String getName(int id)
+	{
+		if (this.names[id] == null) this.names[id] = new String(this.arena, this.offsets[id], getNameLength(id), StandardCharsets.UTF_8);
+		return this.names[id];
+	}
+	
+	/**
+	 * Get the length of the name of the given id in bytes.
+	 * @param id
+	 * @return
+	 */
+	int getNameLength(int id)
+	{
+		return this.offsets[id + 1] - this.offsets[id];
+	}
+	
+	/**
+	 * Copies the bytes of the name of the given id into dest at position. Returns the position after the copied name.
+	 * @param id
+	 * @param dest
+	 * @param position
+	 * @return
+	 */
+	int copyName(int id, byte[] dest, int position)
+	{
+		int length = getNameLength(id);
+		System.arraycopy(this.arena, this.offsets[id], dest, position, length);
+		return position + length;
+	}
+	
+	/**
+	 * Get the number of names in the table.
+	 * @return
+	 */
+	int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Returns true if the name of the given id equals bytes[offset, offset + length).
+	 * @param id
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	boolean matches(int id, byte[] bytes, int offset, int length)
+	{
+		int start = this.offsets[id];
+		if (this.offsets[id + 1] - start != length) return false;
+		return Arrays.equals(this.arena, start, start + length, bytes, offset, offset + length);
+	}
+	
+	/**
+	 * Rebuilds the slots with the given power of two capacity.
+	 * @param capacity
+	 */
+	void rehash(int capacity)
+	{
+		long[] oldSlots = this.slots;
+		this.slots = new long[capacity];
+		int mask = capacity - 1;
+		for (long entry : oldSlots)
+		{
+			if (entry == 0) continue;
+			int slot = (int) (entry >>> 32) & mask;
+			while (this.slots[slot] != 0) slot = (slot + 1) & mask;
+			this.slots[slot] = entry;
+		}
+	}
+	
+	/**
+	 * Packs a hash and an id into a slot entry. The id is stored plus one, so an empty slot is 0.
+	 * @param hash
+	 * @param id
+	 * @return
+	 */
+	static long entry(int hash, int id)
+	{
+		return ((long) hash << 32) | (id + 1);
+	}
+	
+	/**
+	 * Hashes bytes[offset, offset + length). FNV-1a, finished with a mix so the low bits used for the slots are well spread.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	static int hash(byte[] bytes, int offset, int length)
+	{
+		int hash = 0x811c9dc5;
+		for (int i = offset; i < offset + length; i++)
+		{
+			hash = (hash ^ bytes[i]) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+	
+	// The open-addressing slots. Each holds the hash of its name in the high half and the id plus one in the low half, or 0 if it is empty.
+	// Keeping the hash in the slot means a probe only touches the name bytes when the hashes match.
+	long[] slots;
+	
+	// The bytes of all names back to back. Name id occupies arena[offsets[id], offsets[id + 1]).
+	byte[] arena;
+	int[] offsets;
+	
+	// The name of each id, made on first use.
+	String[] names;
+	
+	// The number of names in the table.
+	int size = 0;
+}
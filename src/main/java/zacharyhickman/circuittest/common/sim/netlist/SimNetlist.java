@@ -0,0 +1,323 @@
+package zacharyhickman.circuittest.common.sim.netlist;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+import zacharyhickman.circuittest.common.sim.SimOffHeapCircuit;
+import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+import zacharyhickman.circuittest.common.sim.component.SimComponentCapacitor;
+import zacharyhickman.circuittest.common.sim.component.SimComponentResistor;
+import zacharyhickman.circuittest.common.sim.source.SimSourceDCCurrent;
+import zacharyhickman.circuittest.common.sim.source.SimSourceDCVoltage;
+import zacharyhickman.circuittest.common.sim.source.SimSourceTransientCurrent;
+import zacharyhickman.circuittest.common.sim.source.SimSourceTransientVoltage;
+import zacharyhickman.circuittest.common.sim.source.SimSourceWaveform;
+
+/**
+ * A flattened netlist read by SimNetlistReader. Nodes are numbered in order of first appearance, with the reference node "0"
+ * as id 0, and the elements of each kind are kept as flat arrays. Subcircuit instances are already expanded: the elements and
+ * internal nodes of instance X1 are named X1.R1, X1.N3 and so on.
+ * Current sources are stored with terminal A as the node the current flows into, i.e. the SPICE card I1 n+ n- 1m is stored with
+ * terminal A = n- and terminal B = n+, the way SimSourceDCCurrent stamps it.
+ * @author zhick
+ *
+ */
+public class SimNetlist
+{
+	// Constructor of the netlist.
+	SimNetlist(String title, SimSubcircuit top)
+	{
+		this.title = title;
+		this.top = top;
+	}
+	
+	/**
+	 * Compiles the netlist straight into the flat representation used by the parameter sweeps, without building a SimCircuit.
+	 * The time step is taken from the .tran card.
+	 * @param startUp
+	 * @return
+	 */
+	public SimCompiledCircuit compile(boolean startUp)
+	{
+		if (!hasTransient()) throw new IllegalStateException("The netlist has no .tran card, so the time step must be given.");
+		
+		return compile((float) this.tranStep, startUp);
+	}
+	
+	/**
+	 * Compiles the netlist straight into the flat representation used by the parameter sweeps, without building a SimCircuit.
+	 * @param timeStep
+	 * @param startUp
+	 * @return
+	 */
+	public SimCompiledCircuit compile(float timeStep, boolean startUp)
+	{
+		checkSupported();
+		checkConstantSources("a compiled circuit");
+		
+		return SimCompiledCircuit.fromNetlist(this, timeStep, startUp);
+	}
+	
+	/**
+	 * Builds an off-heap circuit for power-grid sized netlists. See SimOffHeapCircuit for the restrictions on the sources.
+	 * @param timeStep
+	 * @param startUp
+	 * @return
+	 */
+	public SimOffHeapCircuit toOffHeapCircuit(float timeStep, boolean startUp)
+	{
+		checkSupported();
+		checkConstantSources("an off-heap circuit");
+		
+		return SimOffHeapCircuit.fromNetlist(this, timeStep, startUp);
+	}
+	
+	/**
+	 * Creates a circuit simulator holding the netlist. The time step is taken from the .tran card.
+	 * @param startUp
+	 * @return
+	 */
+	public SimCircuit toCircuit(boolean startUp)
+	{
+		if (!hasTransient()) throw new IllegalStateException("The netlist has no .tran card, so the time step must be given.");
+		
+		SimCircuit circuit = new SimCircuit((float) this.tranStart, (float) this.tranStep, startUp);
+		addToCircuit(circuit);
+		return circuit;
+	}
+	
+	/**
+	 * Adds the nodes and elements of the netlist to a circuit in one edit batch, so the matrices are rebuilt once.
+	 * @param circuit
+	 */
+	public void addToCircuit(SimCircuit circuit)
+	{
+		checkSupported();
+		
+		// One node object per node id.
+		SimCircuitNode[] nodes = new SimCircuitNode[getNodeCount()];
+		nodes[0] = new SimCircuitNode(REFERENCE_NODE_NAME, true);
+		for (int id = 1; id < nodes.length; id++)
+		{
+			nodes[id] = new SimCircuitNode(getNodeName(id));
+		}
+		
+		SimNetlistElements resistors = this.top.resistors;
+		SimNetlistElements capacitors = this.top.capacitors;
+		SimNetlistElements voltageSources = this.top.voltageSources;
+		SimNetlistElements currentSources = this.top.currentSources;
+		circuit.edit(c ->
+		{
+			for (SimCircuitNode node : nodes)
+			{
+				c.addNewCircuitNode(node);
+			}
+			for (int i = 0; i < resistors.count; i++)
+			{
+				c.addResistorComponent(new SimComponentResistor(resistors.getName(i), nodes[resistors.terminalA[i]], nodes[resistors.terminalB[i]], (float) resistors.values[i]));
+			}
+			for (int i = 0; i < capacitors.count; i++)
+			{
+				c.addCapacitorComponent(new SimComponentCapacitor(capacitors.getName(i), nodes[capacitors.terminalA[i]], nodes[capacitors.terminalB[i]], (float) capacitors.values[i]));
+			}
+			for (int i = 0; i < voltageSources.count; i++)
+			{
+				SimSourceWaveform waveform = voltageSources.getWaveform(i);
+				if (waveform != null)
+					c.addDCVoltageSource(new SimSourceTransientVoltage(voltageSources.getName(i), nodes[voltageSources.terminalA[i]], nodes[voltageSources.terminalB[i]], waveform));
+				else
+					c.addDCVoltageSource(new SimSourceDCVoltage(voltageSources.getName(i), nodes[voltageSources.terminalA[i]], nodes[voltageSources.terminalB[i]], (float) voltageSources.values[i]));
+			}
+			for (int i = 0; i < currentSources.count; i++)
+			{
+				SimSourceWaveform waveform = currentSources.getWaveform(i);
+				if (waveform != null)
+					c.addDCCurrentSource(new SimSourceTransientCurrent(currentSources.getName(i), nodes[currentSources.terminalA[i]], nodes[currentSources.terminalB[i]], waveform));
+				else
+					c.addDCCurrentSource(new SimSourceDCCurrent(currentSources.getName(i), nodes[currentSources.terminalA[i]], nodes[currentSources.terminalB[i]], (float) currentSources.values[i]));
+			}
+		});
+	}
+	
+	/**
+	 * Throws an exception if the netlist holds elements the simulator has no model for.
+	 */
+	void checkSupported()
+	{
+		if (this.top.inductors.count > 0)
+			throw new IllegalStateException("The simulator has no inductor model yet, so the netlist cannot be simulated (first inductor " + this.top.inductors.getName(0) + ").");
+	}
+	
+	/**
+	 * Throws an exception if the netlist has sources with a waveform, which only SimCircuit simulates.
+	 * @param target
+	 */
+	void checkConstantSources(String target)
+	{
+		if (this.top.voltageSources.waveformCount + this.top.currentSources.waveformCount > 0)
+			throw new IllegalStateException("The netlist has PULSE, PWL, SIN or EXP sources, which " + target + " cannot hold.");
+	}
+	
+	/**
+	 * Get the title line of the netlist.
+	 * @return
+	 */
+	public String getTitle()
+	{
+		return this.title;
+	}
+	
+	/**
+	 * Get the number of nodes, including the reference node.
+	 * @return
+	 */
+	public int getNodeCount()
+	{
+		return this.top.nodes.size();
+	}
+	
+	/**
+	 * Get the name of the node of the given id.
+	 * @param nodeId
+	 * @return
+	 */
+	public String getNodeName(int nodeId)
+	{
+		return this.top.nodes.getName(nodeId);
+	}
+	
+	/**
+	 * Get the length of the UTF-8 name of the node of the given id in bytes.
+	 * @param nodeId
+	 * @return
+	 */
+	public int getNodeNameLength(int nodeId)
+	{
+		return this.top.nodes.getNameLength(nodeId);
+	}
+	
+	/**
+	 * Copies the UTF-8 name of the node of the given id into dest at position, without making a String. Returns the position after the copied name.
+	 * @param nodeId
+	 * @param dest
+	 * @param position
+	 * @return
+	 */
+	public int copyNodeName(int nodeId, byte[] dest, int position)
+	{
+		return this.top.nodes.copyName(nodeId, dest, position);
+	}
+	
+	/**
+	 * Returns the id of the node of the given name, or -1 if there is none.
+	 * @param nodeName
+	 * @return
+	 */
+	public int getIndexOfNode(String nodeName)
+	{
+		return this.top.nodes.find(nodeName);
+	}
+	
+	/**
+	 * Get the resistors of the netlist.
+	 * @return
+	 */
+	public SimNetlistElements getResistors()
+	{
+		return this.top.resistors;
+	}
+	
+	/**
+	 * Get the capacitors of the netlist.
+	 * @return
+	 */
+	public SimNetlistElements getCapacitors()
+	{
+		return this.top.capacitors;
+	}
+	
+	/**
+	 * Get the inductors of the netlist.
+	 * @return
+	 */
+	public SimNetlistElements getInductors()
+	{
+		return this.top.inductors;
+	}
+	
+	/**
+	 * Get the voltage sources of the netlist. Terminal A is the positive terminal.
+	 * @return
+	 */
+	public SimNetlistElements getVoltageSources()
+	{
+		return this.top.voltageSources;
+	}
+	
+	/**
+	 * Get the current sources of the netlist. Terminal A is the node the current flows into.
+	 * @return
+	 */
+	public SimNetlistElements getCurrentSources()
+	{
+		return this.top.currentSources;
+	}
+	
+	/**
+	 * Get the total number of elements in the netlist.
+	 * @return
+	 */
+	public int getElementCount()
+	{
+		return this.top.resistors.count + this.top.capacitors.count + this.top.inductors.count + this.top.voltageSources.count + this.top.currentSources.count;
+	}
+	
+	/**
+	 * Returns true if the netlist has a .tran card.
+	 * @return
+	 */
+	public boolean hasTransient()
+	{
+		return !Double.isNaN(this.tranStep);
+	}
+	
+	/**
+	 * Get the time step of the .tran card, or NaN if there is none.
+	 * @return
+	 */
+	public double getTranStep()
+	{
+		return this.tranStep;
+	}
+	
+	/**
+	 * Get the stop time of the .tran card, or NaN if there is none.
+	 * @return
+	 */
+	public double getTranStop()
+	{
+		return this.tranStop;
+	}
+	
+	/**
+	 * Get the start time of the .tran card (0 if not given).
+	 * @return
+	 */
+	public double getTranStart()
+	{
+		return this.tranStart;
+	}
+	
+	// The name of the reference node.
+	public static final String REFERENCE_NODE_NAME = "0";
+	
+	// The title line of the netlist.
+	final String title;
+	
+	// The flattened top level of the netlist.
+	final SimSubcircuit top;
+	
+	// The time step, stop time and start time of the .tran card.
+	double tranStep = Double.NaN;
+	double tranStop = Double.NaN;
+	double tranStart = 0d;
+}
@@ -0,0 +1,191 @@
+package zacharyhickman.circuittest.common.sim.netlist;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import zacharyhickman.circuittest.common.sim.source.SimSourceWaveform;
+
+/**
+ * The two-terminal elements of one kind in a netlist, stored as parallel arrays: the name, the node ids of both terminals and
+ * the value of each element, in the order they were read. The names are kept as bytes back to back and only turned into
+ * Strings when asked for, so reading millions of elements does not create millions of objects. Sources may also have a waveform,
+ * kept in an array that is only allocated once the first one is set.
+ * @author zhick
+ *
+ */
+public final class SimNetlistElements
+{
+	// Constructor of the element list.
+	SimNetlistElements()
+	{
+		this.nameOffsets = new int[17];
+		this.nameBytes = new byte[256];
+		this.terminalA = new int[16];
+		this.terminalB = new int[16];
+		this.values = new double[16];
+	}
+	
+	/**
+	 * Appends an element named by bytes[offset, offset + length).
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param nodeA
+	 * @param nodeB
+	 * @param value
+	 */
+	void add(byte[] bytes, int offset, int length, int nodeA, int nodeB, double value)
+	{
+		add(bytes, offset, length, null, 0, 0, nodeA, nodeB, value);
+	}
+	
+	/**
+	 * Appends a copy of an element of another list, with its name prefixed and its terminals replaced.
+	 * @param prefix
+	 * @param source
+	 * @param index
+	 * @param nodeA
+	 * @param nodeB
+	 */
+	void addRenamed(byte[] prefix, SimNetlistElements source, int index, int nodeA, int nodeB)
+	{
+		int offset = source.nameOffsets[index];
+		add(prefix, 0, prefix.length, source.nameBytes, offset, source.nameOffsets[index + 1] - offset, nodeA, nodeB, source.values[index]);
+		SimSourceWaveform waveform = source.getWaveform(index);
+		if (waveform != null) setWaveform(this.count - 1, waveform);
+	}
+	
+	/**
+	 * Appends an element named by the first name part followed by the second one.
+	 * @param first
+	 * @param firstOffset
+	 * @param firstLength
+	 * @param second
+	 * @param secondOffset
+	 * @param secondLength
+	 * @param nodeA
+	 * @param nodeB
+	 * @param value
+	 */
+	void add(byte[] first, int firstOffset, int firstLength, byte[] second, int secondOffset, int secondLength, int nodeA, int nodeB, double value)
+	{
+		if (this.count == this.values.length)
+		{
+			int newCapacity = this.values.length * 2;
+			this.nameOffsets = Arrays.copyOf(this.nameOffsets, newCapacity + 1);
+			this.terminalA = Arrays.copyOf(this.terminalA, newCapacity);
+			this.terminalB = Arrays.copyOf(this.terminalB, newCapacity);
+			this.values = Arrays.copyOf(this.values, newCapacity);
+			if (this.waveforms != null) this.waveforms = Arrays.copyOf(this.waveforms, newCapacity);
+		}
+		int start = this.nameOffsets[this.count];
+		int end = start + firstLength + secondLength;
+		if (end > this.nameBytes.length) this.nameBytes = Arrays.copyOf(this.nameBytes, Math.max(this.nameBytes.length * 2, end));
+		System.arraycopy(first, firstOffset, this.nameBytes, start, firstLength);
+		if (second != null) System.arraycopy(second, secondOffset, this.nameBytes, start + firstLength, secondLength);
+		this.nameOffsets[this.count + 1] = end;
+		this.terminalA[this.count] = nodeA;
+		this.terminalB[this.count] = nodeB;
+		this.values[this.count] = value;
+		this.count++;
+	}
+	
+	/**
+	 * Get the number of elements.
+	 * @return
+	 */
+	public int getCount()
+	{
+		return this.count;
+	}
+	
+	/**
+	 * Get the name of an element.
+	 * @param index
+	 * @return
+	 */
+	public String getName(int index)
+	{
+		int start = this.nameOffsets[index];
+		return new String(this.nameBytes, start, this.nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Get the node id of the first terminal of an element.
+	 * @param index
+	 * @return
+	 */
+	public int getTerminalA(int index)
+	{
+		return this.terminalA[index];
+	}
+	
+	/**
+	 * Get the node id of the second terminal of an element.
+	 * @param index
+	 * @return
+	 */
+	public int getTerminalB(int index)
+	{
+		return this.terminalB[index];
+	}
+	
+	/**
+	 * Get the value (resistance, capacitance, inductance, voltage or current) of an element.
+	 * @param index
+	 * @return
+	 */
+	public double getValue(int index)
+	{
+		return this.values[index];
+	}
+	
+	/**
+	 * Set the waveform of a source.
+	 * @param index
+	 * @param waveform
+	 */
+	void setWaveform(int index, SimSourceWaveform waveform)
+	{
+		if (this.waveforms == null) this.waveforms = new SimSourceWaveform[this.values.length];
+		this.waveforms[index] = waveform;
+		this.waveformCount++;
+	}
+	
+	/**
+	 * Get the waveform of a source, or null if it is a DC source.
+	 * @param index
+	 * @return
+	 */
+	public SimSourceWaveform getWaveform(int index)
+	{
+		return (this.waveforms != null) ? this.waveforms[index] : null;
+	}
+	
+	/**
+	 * Get the number of sources with a waveform.
+	 * @return
+	 */
+	public int getWaveformCount()
+	{
+		return this.waveformCount;
+	}
+	
+	// The names of all elements back to back. The name of element i occupies nameBytes[nameOffsets[i], nameOffsets[i + 1]).
+	byte[] nameBytes;
+	int[] nameOffsets;
+	
+	// The node ids of the terminals of each element.
+	int[] terminalA;
+	int[] terminalB;
+	
+	// The value of each element. For a source with a waveform it is its DC value.
+	double[] values;
+	
+	// The waveform of each source, or null until the first one is set, and the number of sources with one.
+	SimSourceWaveform[] waveforms;
+	int waveformCount = 0;
+	
+	// The number of elements.
+	int count = 0;
+}
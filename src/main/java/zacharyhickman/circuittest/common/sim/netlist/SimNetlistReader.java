@@ -0,0 +1,809 @@
+package zacharyhickman.circuittest.common.sim.netlist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import zacharyhickman.circuittest.common.sim.source.SimSourceWaveform;
+import zacharyhickman.circuittest.common.sim.source.SimWaveformExponential;
+import zacharyhickman.circuittest.common.sim.source.SimWaveformPiecewiseLinear;
+import zacharyhickman.circuittest.common.sim.source.SimWaveformPulse;
+import zacharyhickman.circuittest.common.sim.source.SimWaveformSine;
+
+/**
+ * A streaming reader of a SPICE netlist subset: R, C, L, V and I element cards, X subcircuit instances, .subckt/.ends
+ * definitions, .tran and .end. The input is read in large blocks from a channel and tokenized on the raw bytes. Node names
+ * are interned into a byte-level hash table, so a node that was seen before costs no allocation, and the elements go straight
+ * into flat arrays. Names are case sensitive, the card letters and keywords are not.
+ * Follows the SPICE conventions: the first line is the title, * starts a comment line, ; starts a comment at the end of a line,
+ * + continues the previous card, 0 (or GND) is the reference node and values may carry a scale suffix (T, G, MEG, K, M, U, N,
+ * P, F, MIL) followed by a unit that is ignored. Trailing parameters of an element (e.g. IC=0) are ignored. Sources take a DC
+ * value and a PULSE, PWL, SIN or EXP transient specification. Other control cards (.op, .option, .print, ...) are skipped, and
+ * the reader stops at .end.
+ * @author zhick
+ *
+ */
+public class SimNetlistReader
+{
+	/**
+	 * Reads a netlist file.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static SimNetlist readFile(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			// Size the node table for roughly one new node per two element lines.
+			SimNetlistReader reader = new SimNetlistReader();
+			reader.setExpectedNodeCount((int) Math.min(Integer.MAX_VALUE / 4, channel.size() / 48));
+			return reader.read(channel);
+		}
+	}
+	
+	/**
+	 * Set whether or not the first line of the input is a title line, as in SPICE. Defaults to true.
+	 * @param firstLineTitle
+	 */
+	public void setFirstLineTitle(boolean firstLineTitle)
+	{
+		this.firstLineTitle = firstLineTitle;
+	}
+	
+	/**
+	 * Set the number of nodes the node table is sized for up front. Only a hint, the table grows as needed.
+	 * @param expectedNodeCount
+	 */
+	public void setExpectedNodeCount(int expectedNodeCount)
+	{
+		this.expectedNodeCount = Math.max(16, expectedNodeCount);
+	}
+	
+	/**
+	 * Reads a netlist from the channel until its end or a .end card. The channel is not closed.
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	public SimNetlist read(ReadableByteChannel channel) throws IOException
+	{
+		this.top = new SimSubcircuit(null, this.expectedNodeCount);
+		this.scope = this.top;
+		this.subcircuits.clear();
+		this.title = "";
+		this.lineNumber = 0;
+		this.tokenCount = 0;
+		this.cardBytesUsed = 0;
+		this.ended = false;
+		this.tranStep = Double.NaN;
+		this.tranStop = Double.NaN;
+		this.tranStart = 0d;
+		
+		readLines(channel);
+		processCard();
+		if (this.scope != this.top) throw new IOException("The definition of subcircuit " + this.scope.name + " has no .ends card.");
+		
+		// Expand the subcircuit instances of the top level now that every definition is known.
+		for (int i = 0; i < this.top.instanceNames.size(); i++)
+		{
+			String instanceName = this.top.instanceNames.get(i);
+			expandInstance(findSubcircuit(this.top, i), instanceName, this.top.instanceNodes.get(i), 1);
+		}
+		
+		SimNetlist netlist = new SimNetlist(this.title, this.top);
+		netlist.tranStep = this.tranStep;
+		netlist.tranStop = this.tranStop;
+		netlist.tranStart = this.tranStart;
+		this.top = null;
+		this.scope = null;
+		return netlist;
+	}
+	
+	/**
+	 * Reads the channel block by block and hands every complete line to processLine().
+	 * @param channel
+	 * @throws IOException
+	 */
+	void readLines(ReadableByteChannel channel) throws IOException
+	{
+		byte[] buffer = new byte[BLOCK_SIZE];
+		int start = 0;
+		int scan = 0;
+		int limit = 0;
+		boolean endOfInput = false;
+		while (!this.ended)
+		{
+			// Find the end of the line in the bytes read so far.
+			int end = scan;
+			while ((end < limit) && (buffer[end] != '\n')) end++;
+			if (end < limit)
+			{
+				processLine(buffer, start, end);
+				start = end + 1;
+				scan = start;
+				continue;
+			}
+			
+			if (endOfInput)
+			{
+				// The last line has no line break.
+				if (start < limit) processLine(buffer, start, limit);
+				break;
+			}
+			
+			// Move the partial line to the front and read the next block behind it, growing the buffer for very long lines.
+			if (start > 0)
+			{
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				limit -= start;
+				start = 0;
+			}
+			if (limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			scan = limit;
+			int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+			if (read < 0)
+				endOfInput = true;
+			else
+				limit += read;
+		}
+	}
+	
+	/**
+	 * Handles one physical line: the title, a comment, a continuation of the pending card or the start of a new card.
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	void processLine(byte[] buffer, int from, int to) throws IOException
+	{
+		this.lineNumber++;
+		if ((to > from) && (buffer[to - 1] == '\r')) to--;
+		
+		if ((this.lineNumber == 1) && this.firstLineTitle)
+		{
+			this.title = new String(buffer, from, to - from, StandardCharsets.UTF_8).trim();
+			return;
+		}
+		
+		// Comment lines may sit between the lines of a continued card.
+		int first = from;
+		while ((first < to) && isBlank(buffer[first])) first++;
+		if ((first == to) || (buffer[first] == '*')) return;
+		
+		if (buffer[from] == '+')
+		{
+			if (this.tokenCount == 0) throw new IOException("Line " + this.lineNumber + ": continuation line without a card to continue.");
+			tokenize(buffer, from + 1, to);
+			return;
+		}
+		
+		// Finish the previous card. Nothing after .end is read.
+		processCard();
+		if (this.ended) return;
+		this.cardLine = this.lineNumber;
+		tokenize(buffer, first, to);
+	}
+	
+	/**
+	 * Splits the line into tokens and appends them to the pending card. The token bytes are copied, since the read buffer moves.
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 */
+	void tokenize(byte[] buffer, int from, int to)
+	{
+		int i = from;
+		while (i < to)
+		{
+			byte b = buffer[i];
+			if (isSeparator(b))
+			{
+				i++;
+				continue;
+			}
+			
+			// A comment runs to the end of the line.
+			if (b == ';') break;
+			
+			int tokenStart = i;
+			while ((i < to) && !isSeparator(buffer[i]) && (buffer[i] != ';')) i++;
+			int length = i - tokenStart;
+			
+			if (this.tokenCount == this.tokenStarts.length)
+			{
+				this.tokenStarts = Arrays.copyOf(this.tokenStarts, this.tokenCount * 2);
+				this.tokenLengths = Arrays.copyOf(this.tokenLengths, this.tokenCount * 2);
+			}
+			if (this.cardBytesUsed + length > this.cardBytes.length)
+				this.cardBytes = Arrays.copyOf(this.cardBytes, Math.max(this.cardBytes.length * 2, this.cardBytesUsed + length));
+			System.arraycopy(buffer, tokenStart, this.cardBytes, this.cardBytesUsed, length);
+			this.tokenStarts[this.tokenCount] = this.cardBytesUsed;
+			this.tokenLengths[this.tokenCount] = length;
+			this.tokenCount++;
+			this.cardBytesUsed += length;
+		}
+	}
+	
+	/**
+	 * Processes the pending card, if any, and clears it.
+	 * @throws IOException
+	 */
+	void processCard() throws IOException
+	{
+		if (this.tokenCount == 0) return;
+		
+		switch (toLower(this.cardBytes[this.tokenStarts[0]]))
+		{
+			case 'r':
+				readElement(this.scope.resistors, "resistance");
+				break;
+			case 'c':
+				readElement(this.scope.capacitors, "capacitance");
+				break;
+			case 'l':
+				readElement(this.scope.inductors, "inductance");
+				break;
+			case 'v':
+				readSource(this.scope.voltageSources, false);
+				break;
+			case 'i':
+				readSource(this.scope.currentSources, true);
+				break;
+			case 'x':
+				readInstance();
+				break;
+			case '.':
+				readControl();
+				break;
+			default:
+				throw new IOException("Line " + this.cardLine + ": unsupported element " + tokenString(0) + ".");
+		}
+		
+		this.tokenCount = 0;
+		this.cardBytesUsed = 0;
+	}
+	
+	/**
+	 * Reads a passive element card: name node node value [parameters].
+	 * @param elements
+	 * @param valueName
+	 * @throws IOException
+	 */
+	void readElement(SimNetlistElements elements, String valueName) throws IOException
+	{
+		if (this.tokenCount < 4) throw new IOException("Line " + this.cardLine + ": " + tokenString(0) + " needs two nodes and a " + valueName + ".");
+		
+		elements.add(this.cardBytes, this.tokenStarts[0], this.tokenLengths[0], readNode(1), readNode(2), readValue(3));
+	}
+	
+	/**
+	 * Reads an independent source card: name node+ node- [[DC] value] [transient specification]. Current sources are stored with the
+	 * node the current flows into first.
+	 * @param elements
+	 * @param currentSource
+	 * @throws IOException
+	 */
+	void readSource(SimNetlistElements elements, boolean currentSource) throws IOException
+	{
+		if (this.tokenCount < 3) throw new IOException("Line " + this.cardLine + ": " + tokenString(0) + " needs two nodes.");
+		
+		int positive = readNode(1);
+		int negative = readNode(2);
+		
+		// The value is optional (0) and may be preceded by the DC keyword. A transient specification may follow it, other trailing
+		// specifications (e.g. AC) are ignored.
+		double value = 0d;
+		int valueToken = 3;
+		if ((valueToken < this.tokenCount) && tokenEquals(valueToken, "dc")) valueToken++;
+		boolean valueGiven = (valueToken < this.tokenCount) && isNumberStart(this.cardBytes[this.tokenStarts[valueToken]]);
+		if (valueGiven) value = readValue(valueToken++);
+		SimSourceWaveform waveform = null;
+		if ((valueToken < this.tokenCount) && isWaveformName(valueToken))
+			waveform = readWaveform(valueToken);
+		else if (!valueGiven && (valueToken < this.tokenCount))
+			throw new IOException("Line " + this.cardLine + ": unsupported source specification " + tokenString(valueToken) + " of " + tokenString(0) + ", only DC, PULSE, PWL, SIN and EXP sources are supported.");
+		
+		if (currentSource)
+			elements.add(this.cardBytes, this.tokenStarts[0], this.tokenLengths[0], negative, positive, value);
+		else
+			elements.add(this.cardBytes, this.tokenStarts[0], this.tokenLengths[0], positive, negative, value);
+		if (waveform != null) elements.setWaveform(elements.getCount() - 1, waveform);
+	}
+	
+	/**
+	 * Reads the transient specification of a source starting at the given token: PULSE(V1 V2 [TD [TR [TF [PW [PER]]]]]),
+	 * PWL(T1 V1 [T2 V2 ...]), SIN(VO VA FREQ [TD [THETA [PHASE]]]) or EXP(V1 V2 TD1 TAU1 [TD2 [TAU2]]). A pulse without a rise or fall
+	 * time steps, without a width stays up and without a period happens once. An exponential pulse without a fall delay never falls.
+	 * @param token
+	 * @return
+	 * @throws IOException
+	 */
+	SimSourceWaveform readWaveform(int token) throws IOException
+	{
+		// The parameters run up to the end of the card or the first token that is not a number.
+		int parameterCount = 0;
+		while ((token + 1 + parameterCount < this.tokenCount) && isNumberStart(this.cardBytes[this.tokenStarts[token + 1 + parameterCount]])) parameterCount++;
+		double[] parameters = new double[parameterCount];
+		for (int i = 0; i < parameterCount; i++) parameters[i] = readValue(token + 1 + i);
+		
+		try
+		{
+			if (tokenEquals(token, "pulse") && (parameters.length >= 2) && (parameters.length <= 7))
+			{
+				return new SimWaveformPulse(parameters[0], parameters[1], getParameter(parameters, 2, 0d), getParameter(parameters, 3, 0d),
+						getParameter(parameters, 4, 0d), getParameter(parameters, 5, Double.POSITIVE_INFINITY), getParameter(parameters, 6, 0d));
+			}
+			if (tokenEquals(token, "pwl") && (parameters.length >= 2) && (parameters.length % 2 == 0))
+			{
+				double[] times = new double[parameters.length / 2];
+				double[] values = new double[parameters.length / 2];
+				for (int i = 0; i < times.length; i++)
+				{
+					times[i] = parameters[2 * i];
+					values[i] = parameters[2 * i + 1];
+				}
+				return new SimWaveformPiecewiseLinear(times, values);
+			}
+			if ((tokenEquals(token, "sin") || tokenEquals(token, "sine")) && (parameters.length >= 3) && (parameters.length <= 6))
+			{
+				return new SimWaveformSine(parameters[0], parameters[1], parameters[2], getParameter(parameters, 3, 0d), getParameter(parameters, 4, 0d), getParameter(parameters, 5, 0d));
+			}
+			if (tokenEquals(token, "exp") && (parameters.length >= 4) && (parameters.length <= 6))
+			{
+				return new SimWaveformExponential(parameters[0], parameters[1], parameters[2], parameters[3],
+						getParameter(parameters, 4, Double.POSITIVE_INFINITY), getParameter(parameters, 5, parameters[3]));
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("Line " + this.cardLine + ": " + e.getMessage());
+		}
+		
+		throw new IOException("Line " + this.cardLine + ": wrong number of parameters for " + tokenString(token) + " of " + tokenString(0) + ".");
+	}
+	
+	/**
+	 * Returns true if the token names a transient specification.
+	 * @param token
+	 * @return
+	 */
+	boolean isWaveformName(int token)
+	{
+		return tokenEquals(token, "pulse") || tokenEquals(token, "pwl") || tokenEquals(token, "sin") || tokenEquals(token, "sine") || tokenEquals(token, "exp");
+	}
+	
+	/**
+	 * Returns the parameter at the given index, or the default if there are not that many.
+	 * @param parameters
+	 * @param index
+	 * @param fallback
+	 * @return
+	 */
+	static double getParameter(double[] parameters, int index, double fallback)
+	{
+		return (index < parameters.length) ? parameters[index] : fallback;
+	}
+	
+	/**
+	 * Reads a subcircuit instance card: name node... subcircuit [parameters].
+	 * @throws IOException
+	 */
+	void readInstance() throws IOException
+	{
+		// The subcircuit name is the last token that is not a parameter.
+		int nameToken = this.tokenCount - 1;
+		while ((nameToken > 0) && tokenContains(nameToken, (byte) '=')) nameToken--;
+		if (nameToken < 1) throw new IOException("Line " + this.cardLine + ": " + tokenString(0) + " needs a subcircuit name.");
+		
+		int[] nodes = new int[nameToken - 1];
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i] = readNode(i + 1);
+		}
+		this.scope.addInstance(tokenString(0), nodes, tokenString(nameToken).toLowerCase(), this.cardLine);
+	}
+	
+	/**
+	 * Reads a control card.
+	 * @throws IOException
+	 */
+	void readControl() throws IOException
+	{
+		if (tokenEquals(0, ".subckt"))
+		{
+			if (this.scope != this.top) throw new IOException("Line " + this.cardLine + ": nested .subckt definitions are not supported.");
+			if (this.tokenCount < 2) throw new IOException("Line " + this.cardLine + ": .subckt needs a name.");
+			
+			String name = tokenString(1).toLowerCase();
+			if (this.subcircuits.containsKey(name)) throw new IOException("Line " + this.cardLine + ": subcircuit " + name + " is defined twice.");
+			SimSubcircuit subcircuit = new SimSubcircuit(name, 16);
+			
+			// The pins get the local ids 1 to pinCount. Parameters (params: w=1) end the pin list.
+			for (int i = 2; (i < this.tokenCount) && !tokenContains(i, (byte) '=') && !tokenEquals(i, "params:"); i++)
+			{
+				int pin = isReferenceToken(i) ? 0 : subcircuit.nodes.intern(this.cardBytes, this.tokenStarts[i], this.tokenLengths[i]);
+				if (pin != subcircuit.pinCount + 1) throw new IOException("Line " + this.cardLine + ": pin " + tokenString(i) + " of subcircuit " + name + " is the reference node or listed twice.");
+				subcircuit.pinCount++;
+			}
+			this.subcircuits.put(name, subcircuit);
+			this.scope = subcircuit;
+		}
+		else if (tokenEquals(0, ".ends"))
+		{
+			if (this.scope == this.top) throw new IOException("Line " + this.cardLine + ": .ends without a .subckt.");
+			this.scope = this.top;
+		}
+		else if (tokenEquals(0, ".tran"))
+		{
+			if (this.tokenCount < 3) throw new IOException("Line " + this.cardLine + ": .tran needs a time step and a stop time.");
+			this.tranStep = readValue(1);
+			this.tranStop = readValue(2);
+			if ((this.tokenCount > 3) && isNumberStart(this.cardBytes[this.tokenStarts[3]])) this.tranStart = readValue(3);
+		}
+		else if (tokenEquals(0, ".end"))
+		{
+			this.ended = true;
+		}
+		else if (tokenEquals(0, ".include") || tokenEquals(0, ".inc") || tokenEquals(0, ".lib"))
+		{
+			// Skipping these would silently drop elements.
+			throw new IOException("Line " + this.cardLine + ": " + tokenString(0) + " is not supported, concatenate the files instead.");
+		}
+	}
+	
+	/**
+	 * Expands a subcircuit instance into the top level. Internal nodes and elements are named after the instance path.
+	 * @param subcircuit
+	 * @param path
+	 * @param pinNodes
+	 * @param depth
+	 * @throws IOException
+	 */
+	void expandInstance(SimSubcircuit subcircuit, String path, int[] pinNodes, int depth) throws IOException
+	{
+		if (depth > MAX_SUBCIRCUIT_DEPTH) throw new IOException("Subcircuit instance " + path + " is nested more than " + MAX_SUBCIRCUIT_DEPTH + " levels deep, the definitions are probably recursive.");
+		if (pinNodes.length != subcircuit.pinCount)
+			throw new IOException("Subcircuit instance " + path + " connects " + pinNodes.length + " nodes, but " + subcircuit.name + " has " + subcircuit.pinCount + " pins.");
+		
+		// Map the local node ids to top level ids: the reference node stays, pins connect to the instance nodes, internal nodes are new.
+		int[] nodeMap = new int[subcircuit.nodes.size()];
+		System.arraycopy(pinNodes, 0, nodeMap, 1, pinNodes.length);
+		byte[] prefix = (path + ".").getBytes(StandardCharsets.UTF_8);
+		for (int local = subcircuit.pinCount + 1; local < nodeMap.length; local++)
+		{
+			int length = prefix.length + subcircuit.nodes.getNameLength(local);
+			if (length > this.nameBytes.length) this.nameBytes = new byte[Math.max(length, this.nameBytes.length * 2)];
+			System.arraycopy(prefix, 0, this.nameBytes, 0, prefix.length);
+			subcircuit.nodes.copyName(local, this.nameBytes, prefix.length);
+			nodeMap[local] = this.top.nodes.intern(this.nameBytes, 0, length);
+		}
+		
+		expandElements(subcircuit.resistors, this.top.resistors, prefix, nodeMap);
+		expandElements(subcircuit.capacitors, this.top.capacitors, prefix, nodeMap);
+		expandElements(subcircuit.inductors, this.top.inductors, prefix, nodeMap);
+		expandElements(subcircuit.voltageSources, this.top.voltageSources, prefix, nodeMap);
+		expandElements(subcircuit.currentSources, this.top.currentSources, prefix, nodeMap);
+		
+		// Expand the nested instances.
+		for (int i = 0; i < subcircuit.instanceNames.size(); i++)
+		{
+			int[] localNodes = subcircuit.instanceNodes.get(i);
+			int[] nodes = new int[localNodes.length];
+			for (int k = 0; k < nodes.length; k++) nodes[k] = nodeMap[localNodes[k]];
+			expandInstance(findSubcircuit(subcircuit, i), path + "." + subcircuit.instanceNames.get(i), nodes, depth + 1);
+		}
+	}
+	
+	/**
+	 * Appends the elements of a subcircuit to the top level, renaming them and mapping their nodes.
+	 * @param source
+	 * @param target
+	 * @param prefix
+	 * @param nodeMap
+	 */
+	static void expandElements(SimNetlistElements source, SimNetlistElements target, byte[] prefix, int[] nodeMap)
+	{
+		for (int i = 0; i < source.count; i++)
+		{
+			target.addRenamed(prefix, source, i, nodeMap[source.terminalA[i]], nodeMap[source.terminalB[i]]);
+		}
+	}
+	
+	/**
+	 * Returns the definition of an instance of the given scope.
+	 * @param scope
+	 * @param instance
+	 * @return
+	 * @throws IOException
+	 */
+	SimSubcircuit findSubcircuit(SimSubcircuit scope, int instance) throws IOException
+	{
+		SimSubcircuit subcircuit = this.subcircuits.get(scope.instanceSubcircuits.get(instance));
+		if (subcircuit == null)
+			throw new IOException("Line " + scope.instanceLines.get(instance) + ": subcircuit " + scope.instanceSubcircuits.get(instance) + " of " + scope.instanceNames.get(instance) + " is not defined.");
+		return subcircuit;
+	}
+	
+	/**
+	 * Returns the node id of a token in the current scope.
+	 * @param token
+	 * @return
+	 */
+	int readNode(int token)
+	{
+		if (isReferenceToken(token)) return 0;
+		return this.scope.nodes.intern(this.cardBytes, this.tokenStarts[token], this.tokenLengths[token]);
+	}
+	
+	/**
+	 * Returns true if the token names the reference node (0 or GND).
+	 * @param token
+	 * @return
+	 */
+	boolean isReferenceToken(int token)
+	{
+		int start = this.tokenStarts[token];
+		int length = this.tokenLengths[token];
+		return ((length == 1) && (this.cardBytes[start] == '0')) || tokenEquals(token, "gnd");
+	}
+	
+	/**
+	 * Parses a token as a SPICE number: a decimal number, an optional scale suffix and an optional unit.
+	 * @param token
+	 * @return
+	 * @throws IOException
+	 */
+	double readValue(int token) throws IOException
+	{
+		byte[] bytes = this.cardBytes;
+		int start = this.tokenStarts[token];
+		int end = start + this.tokenLengths[token];
+		int i = start;
+		
+		boolean negative = false;
+		if ((i < end) && ((bytes[i] == '-') || (bytes[i] == '+')))
+		{
+			negative = (bytes[i] == '-');
+			i++;
+		}
+		
+		// The significant digits and the power of ten they are scaled by.
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		while ((i < end) && (bytes[i] >= '0') && (bytes[i] <= '9'))
+		{
+			anyDigit = true;
+			if (digits < 18)
+			{
+				mantissa = mantissa * 10 + (bytes[i] - '0');
+				if (mantissa > 0) digits++;
+			}
+			else
+			{
+				exponent++;
+			}
+			i++;
+		}
+		if ((i < end) && (bytes[i] == '.'))
+		{
+			i++;
+			while ((i < end) && (bytes[i] >= '0') && (bytes[i] <= '9'))
+			{
+				anyDigit = true;
+				if (digits < 18)
+				{
+					mantissa = mantissa * 10 + (bytes[i] - '0');
+					if (mantissa > 0) digits++;
+					exponent--;
+				}
+				i++;
+			}
+		}
+		if (!anyDigit) throw new IOException("Line " + this.cardLine + ": " + tokenString(token) + " is not a number.");
+		
+		// An exponent, unless the e starts a unit.
+		if ((i + 1 < end) && ((bytes[i] == 'e') || (bytes[i] == 'E')))
+		{
+			int k = i + 1;
+			boolean negativeExponent = false;
+			if ((bytes[k] == '-') || (bytes[k] == '+'))
+			{
+				negativeExponent = (bytes[k] == '-');
+				k++;
+			}
+			if ((k < end) && (bytes[k] >= '0') && (bytes[k] <= '9'))
+			{
+				int value = 0;
+				while ((k < end) && (bytes[k] >= '0') && (bytes[k] <= '9'))
+				{
+					if (value < 10000) value = value * 10 + (bytes[k] - '0');
+					k++;
+				}
+				exponent += negativeExponent ? -value : value;
+				i = k;
+			}
+		}
+		
+		// The scale suffix. Anything after it is a unit and ignored.
+		double factor = 1d;
+		if (i < end)
+		{
+			switch (toLower(bytes[i]))
+			{
+				case 't': exponent += 12; break;
+				case 'g': exponent += 9; break;
+				case 'k': exponent += 3; break;
+				case 'u': exponent -= 6; break;
+				case 'n': exponent -= 9; break;
+				case 'p': exponent -= 12; break;
+				case 'f': exponent -= 15; break;
+				case 'm':
+					if ((i + 2 < end) && (toLower(bytes[i + 1]) == 'e') && (toLower(bytes[i + 2]) == 'g'))
+						exponent += 6;
+					else if ((i + 2 < end) && (toLower(bytes[i + 1]) == 'i') && (toLower(bytes[i + 2]) == 'l'))
+						factor = 25.4e-6;
+					else
+						exponent -= 3;
+					break;
+				default:
+					break;
+			}
+		}
+		
+		// Exact when the digits and the power of ten both fit a double (Clinger's fast path), otherwise let the JDK round it.
+		double value;
+		if ((digits <= 15) && (Math.abs(exponent) <= 22))
+		{
+			value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		}
+		else
+		{
+			value = Double.parseDouble(mantissa + "e" + exponent);
+		}
+		
+		return (negative ? -value : value) * factor;
+	}
+	
+	/**
+	 * Returns the token as a String.
+	 * @param token
+	 * @return
+	 */
+	String tokenString(int token)
+	{
+		return new String(this.cardBytes, this.tokenStarts[token], this.tokenLengths[token], StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns true if the token equals the given lower case keyword, ignoring case.
+	 * @param token
+	 * @param keyword
+	 * @return
+	 */
+	boolean tokenEquals(int token, String keyword)
+	{
+		if (this.tokenLengths[token] != keyword.length()) return false;
+		int start = this.tokenStarts[token];
+		for (int i = 0; i < keyword.length(); i++)
+		{
+			if (toLower(this.cardBytes[start + i]) != keyword.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the token contains the given byte.
+	 * @param token
+	 * @param b
+	 * @return
+	 */
+	boolean tokenContains(int token, byte b)
+	{
+		int start = this.tokenStarts[token];
+		for (int i = start; i < start + this.tokenLengths[token]; i++)
+		{
+			if (this.cardBytes[i] == b) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the byte separates tokens.
+	 * @param b
+	 * @return
+	 */
+	static boolean isSeparator(byte b)
+	{
+		return (b == ' ') || (b == '\t') || (b == ',') || (b == '(') || (b == ')') || (b == '\r');
+	}
+	
+	/**
+	 * Returns true if the byte is a space or a tab.
+	 * @param b
+	 * @return
+	 */
+	static boolean isBlank(byte b)
+	{
+		return (b == ' ') || (b == '\t') || (b == '\r');
+	}
+	
+	/**
+	 * Returns true if a number can start with the byte.
+	 * @param b
+	 * @return
+	 */
+	static boolean isNumberStart(byte b)
+	{
+		return ((b >= '0') && (b <= '9')) || (b == '.') || (b == '-') || (b == '+');
+	}
+	
+	/**
+	 * Returns the lower case of an ASCII letter, or the byte itself.
+	 * @param b
+	 * @return
+	 */
+	static int toLower(byte b)
+	{
+		return ((b >= 'A') && (b <= 'Z')) ? b + ('a' - 'A') : b;
+	}
+	
+	// The size of the blocks read from the channel.
+	static final int BLOCK_SIZE = 1 << 20;
+	
+	// The deepest nesting of subcircuit instances, to catch recursive definitions.
+	static final int MAX_SUBCIRCUIT_DEPTH = 64;
+	
+	// The powers of ten that are exact in a double.
+	static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	// Whether or not the first line is the title.
+	boolean firstLineTitle = true;
+	
+	// The number of nodes the node table is sized for.
+	int expectedNodeCount = 1024;
+	
+	// The top level of the netlist being read, and the scope that cards are added to (the top level or a subcircuit definition).
+	SimSubcircuit top;
+	SimSubcircuit scope;
+	
+	// The subcircuit definitions by lower case name.
+	HashMap<String, SimSubcircuit> subcircuits = new HashMap<String, SimSubcircuit>();
+	
+	// The title line.
+	String title = "";
+	
+	// The number of the line being read, and the line the pending card started on.
+	int lineNumber = 0;
+	int cardLine = 0;
+	
+	// Whether or not the .end card was read.
+	boolean ended = false;
+	
+	// The tokens of the pending card, copied back to back into cardBytes.
+	byte[] cardBytes = new byte[256];
+	int cardBytesUsed = 0;
+	int[] tokenStarts = new int[16];
+	int[] tokenLengths = new int[16];
+	int tokenCount = 0;
+	
+	// Scratch space for the names of expanded internal nodes.
+	byte[] nameBytes = new byte[256];
+	
+	// The .tran card.
+	double tranStep = Double.NaN;
+	double tranStop = Double.NaN;
+	double tranStart = 0d;
+}
@@ -0,0 +1,58 @@
+package zacharyhickman.circuittest.common.sim.netlist;
+
+import java.util.ArrayList;
+
+/**
+ * The body of a .subckt definition, or of the top level of a netlist. Nodes are numbered locally: 0 is the reference node,
+ * 1 to pinCount are the pins and the internal nodes follow. Subcircuit instances (X cards) are kept as they were read and
+ * expanded once the whole netlist is known, since SPICE allows a definition to follow its first use.
+ * @author zhick
+ *
+ */
+final class SimSubcircuit
+{
+	// Constructor of the subcircuit.
+	SimSubcircuit(String name, int expectedNodeCount)
+	{
+		this.name = name;
+		this.nodes = new SimNameTable(expectedNodeCount);
+		this.nodes.intern(SimNetlist.REFERENCE_NODE_NAME);
+	}
+	
+	/**
+	 * Appends a subcircuit instance.
+	 * @param instanceName
+	 * @param instanceNodes
+	 * @param subcircuitName
+	 * @param lineNumber
+	 */
+	void addInstance(String instanceName, int[] instanceNodes, String subcircuitName, int lineNumber)
+	{
+		this.instanceNames.add(instanceName);
+		this.instanceNodes.add(instanceNodes);
+		this.instanceSubcircuits.add(subcircuitName);
+		this.instanceLines.add(lineNumber);
+	}
+	
+	// The name of the subcircuit (lower case), or null for the top level.
+	final String name;
+	
+	// The number of pins.
+	int pinCount = 0;
+	
+	// The local node names.
+	final SimNameTable nodes;
+	
+	// The elements, with local node ids.
+	final SimNetlistElements resistors = new SimNetlistElements();
+	final SimNetlistElements capacitors = new SimNetlistElements();
+	final SimNetlistElements inductors = new SimNetlistElements();
+	final SimNetlistElements voltageSources = new SimNetlistElements();
+	final SimNetlistElements currentSources = new SimNetlistElements();
+	
+	// The subcircuit instances: the instance name, the local node ids connected to the pins, the subcircuit name and the line of the card.
+	final ArrayList<String> instanceNames = new ArrayList<String>();
+	final ArrayList<int[]> instanceNodes = new ArrayList<int[]>();
+	final ArrayList<String> instanceSubcircuits = new ArrayList<String>();
+	final ArrayList<Integer> instanceLines = new ArrayList<Integer>();
+}
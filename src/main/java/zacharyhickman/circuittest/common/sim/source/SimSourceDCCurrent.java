@@ -1,7 +1,5 @@
 package zacharyhickman.circuittest.common.sim.source;
 
-import org.ejml.simple.SimpleMatrix;
-
 import zacharyhickman.circuittest.common.sim.SimCircuit;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitCurrentSource;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
@@ -37,25 +35,30 @@ public class SimSourceDCCurrent extends SimCircuitCurrentSource
 	}
 	
 	/**
-	 * Apply to the main circuit matrix the conductance contribution of this element (RHS).
+	 * Set the current of this DC current source. It only changes the RHS, which is restamped on every step.
+	 * @param dcCurrent
+	 */
+	public void setCurrentValue(float dcCurrent)
+	{
+		this.dcCurrent = dcCurrent;
+	}
+	
+	/**
+	 * Stamp the current contribution of this source (RHS) into the shared circuit vector.
 	 * @param circuit
+	 * @param stampRHS
 	 */
-	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
+	@Override
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with current values.
-		SimpleMatrix currentSourceRHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), 1);
-		
 		/*
 		 * From the top left, calculate the location of the stamp elements based on what nodes this current source is connected to. 
 		 * Note that we use nodeId-1, because the reference node is not included in the matrix. We also check if one of the nodes is ground node, and alter accordingly.
 		 * We don't include a stamp element if one of the terminals is connected to ground.
 		 */
 		if (this.terminalA.getNodeId() != 0)
-			currentSourceRHS.set((this.terminalA.getNodeId() - 1), 0, this.dcCurrent);
+			stampRHS[this.terminalA.getNodeId() - 1] += this.dcCurrent;
 		if (this.terminalB.getNodeId() != 0)
-			currentSourceRHS.set((this.terminalB.getNodeId() - 1), 0, -this.dcCurrent);
-		
-		// Return the matrix that contains the current values of this source.
-		return currentSourceRHS;		
+			stampRHS[this.terminalB.getNodeId() - 1] += -this.dcCurrent;
 	}
 }
@@ -1,10 +1,9 @@
 package zacharyhickman.circuittest.common.sim.source;
 
-import org.ejml.simple.SimpleMatrix;
-
 import zacharyhickman.circuittest.common.sim.SimCircuit;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
 import zacharyhickman.circuittest.common.sim.base.SimCircuitVoltageSource;
+import zacharyhickman.circuittest.common.sim.util.SparseStampMatrix;
 
 public class SimSourceDCVoltage extends SimCircuitVoltageSource
 {
@@ -25,16 +24,33 @@ public class SimSourceDCVoltage extends SimCircuitVoltageSource
 		this.terminalA = terminalA;
 		this.terminalB = terminalB;
 	}
+	
+	/**
+	 * Get the voltage of this DC voltage source.
+	 * @return
+	 */
+	public float getVoltageValue()
+	{
+		return this.dcVoltage;
+	}
+	
+	/**
+	 * Set the voltage of this DC voltage source. It only changes the RHS, which is restamped on every step.
+	 * @param dcVoltage
+	 */
+	public void setVoltageValue(float dcVoltage)
+	{
+		this.dcVoltage = dcVoltage;
+	}
 
 	/**
-	 * Return the source contribution matrix of this voltage source (LHS).
+	 * Stamp the source contribution of this voltage source (LHS) into the shared circuit matrix.
 	 * @param circuit
+	 * @param stampLHS
 	 */
-	public SimpleMatrix getConductanceStampLHS(SimCircuit circuit)
+	@Override
+	public void applyConductanceStamp(SimCircuit circuit, SparseStampMatrix stampLHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with 1s or -1s.
-		SimpleMatrix dcVoltageLHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), circuit.getColumnCountLHSMatrix());
-		
 		/*
 		 * For a dc voltage source, we need to place a 1 or a -1 on the LHS matrix of the circuit, depending on what nodes are connected to this source.
 		 * These 1s or -1s reside on their own row and column which represents a branch. We use branchStartingIndex to skip past the stamp slots and
@@ -42,36 +58,28 @@ public class SimSourceDCVoltage extends SimCircuitVoltageSource
 		 */
 		int branchStartingIndex = circuit.getNumberOfNonReferenceNodes();
 		if (this.terminalA.getNodeId() != 0) 
-			dcVoltageLHS.set((this.terminalA.getNodeId() - 1), branchStartingIndex + this.getBranchId(), 1);
+			stampLHS.addEntry((this.terminalA.getNodeId() - 1), branchStartingIndex + this.getBranchId(), 1);
 		if (this.terminalA.getNodeId() != 0) 
-			dcVoltageLHS.set(branchStartingIndex + this.getBranchId(), (this.terminalA.getNodeId() - 1), 1);
+			stampLHS.addEntry(branchStartingIndex + this.getBranchId(), (this.terminalA.getNodeId() - 1), 1);
 		if (this.terminalB.getNodeId() != 0) 
-			dcVoltageLHS.set((this.terminalB.getNodeId() - 1), branchStartingIndex + this.getBranchId(), -1);
+			stampLHS.addEntry((this.terminalB.getNodeId() - 1), branchStartingIndex + this.getBranchId(), -1);
 		if (this.terminalB.getNodeId() != 0) 
-			dcVoltageLHS.set(branchStartingIndex + this.getBranchId(), (this.terminalB.getNodeId() - 1), -1);
-		
-		// Return the matrix that contains the conductance values of the capacitor.
-		return dcVoltageLHS;		
+			stampLHS.addEntry(branchStartingIndex + this.getBranchId(), (this.terminalB.getNodeId() - 1), -1);
 	}
 	
 	/**
-	 * Return the source contribution vector of this dc voltage source (RHS).
+	 * Stamp the source contribution of this dc voltage source (RHS) into the shared circuit vector.
 	 * @param circuit
+	 * @param stampRHS
 	 */
-	public SimpleMatrix getVariableStampRHS(SimCircuit circuit)
+	@Override
+	public void applyVariableStamp(SimCircuit circuit, double[] stampRHS)
 	{
-		// Create a new matrix, sized based on nodes in the circuit, to populate with current values from this capacitor.
-		SimpleMatrix dcVoltageRHS = new SimpleMatrix(circuit.getRowCountLHSMatrix(), 1);
-		
 		/*
-		 * For a dc voltage source, we need to place a 1 or a -1 on the LHS matrix of the circuit, depending on what nodes are connected to this source.
-		 * These 1s or -1s reside on their own row and column which represents a branch. For the RHS, we need to set the coresponding node voltages based on the voltage
-		 * level of this dc voltage source. We use branchStartingIndex to skip past the stamp slots and move straight to the branch section of the matrix.
+		 * For the RHS, we need to set the branch row of this source to the voltage level of this dc voltage source.
+		 * We use branchStartingIndex to skip past the stamp slots and move straight to the branch section of the matrix.
 		 */
 		int branchStartingIndex = circuit.getNumberOfNonReferenceNodes();
-		dcVoltageRHS.set(branchStartingIndex + this.getBranchId(), 0, this.dcVoltage);
-		
-		// Return the matrix that contains the current values through this capacitor based on last voltage across it.
-		return dcVoltageRHS;		
+		stampRHS[branchStartingIndex + this.getBranchId()] += this.dcVoltage;
 	}
 }
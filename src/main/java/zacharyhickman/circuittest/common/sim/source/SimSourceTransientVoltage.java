@@ -0,0 +1,42 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.base.SimCircuitNode;
+
+/**
+ * A voltage source driven by a waveform (PULSE, PWL, SIN or EXP). Before every step the circuit calls simulateBehavior(), which sets
+ * the level of the source to the waveform at the time of the step. The level only enters the RHS, so the factorization of the LHS is kept.
+ * @author zhick
+ *
+ */
+public class SimSourceTransientVoltage extends SimSourceDCVoltage
+{
+	// Constructor of this transient voltage source. The level starts at the value of the waveform at time 0.
+	public SimSourceTransientVoltage(String sourceName, SimCircuitNode terminalA, SimCircuitNode terminalB, SimSourceWaveform waveform)
+	{
+		super(sourceName, terminalA, terminalB, (float) waveform.getValue(0d));
+		this.waveform = waveform;
+	}
+	
+	/**
+	 * Sets the level of this source to the waveform at the time of the step being solved.
+	 * @param circuit
+	 */
+	@Override
+	public void simulateBehavior(SimCircuit circuit)
+	{
+		this.dcVoltage = (float) this.waveform.getValue(circuit.getStepTime());
+	}
+	
+	/**
+	 * Get the waveform driving this source.
+	 * @return
+	 */
+	public SimSourceWaveform getWaveform()
+	{
+		return this.waveform;
+	}
+	
+	// The waveform driving this source.
+	final SimSourceWaveform waveform;
+}
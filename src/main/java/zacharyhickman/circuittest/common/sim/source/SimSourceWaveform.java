@@ -0,0 +1,24 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+/**
+ * The shape of a time-varying source: its value over time and the corners where its slope jumps. The time stepper lands steps
+ * on the corners instead of stepping across them. Waveforms are immutable, so one waveform can drive many sources.
+ * @author zhick
+ *
+ */
+public abstract class SimSourceWaveform
+{
+	/**
+	 * Get the value of the waveform at the given time.
+	 * @param time
+	 * @return
+	 */
+	public abstract double getValue(double time);
+	
+	/**
+	 * Get the first corner of the waveform strictly after the given time, or positive infinity if there is none.
+	 * @param time
+	 * @return
+	 */
+	public abstract double getNextBreakpoint(double time);
+}
@@ -0,0 +1,66 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+/**
+ * An exponential pulse, the SPICE EXP(V1 V2 TD1 TAU1 TD2 TAU2) source: the initial value until the rise delay, then an exponential
+ * approach to the pulsed value with the rise time constant, and from the fall delay on an exponential return to the initial value with
+ * the fall time constant. The corners are the two delays.
+ * @author zhick
+ *
+ */
+public class SimWaveformExponential extends SimSourceWaveform
+{
+	// Constructor of the exponential pulse.
+	public SimWaveformExponential(double initialValue, double pulsedValue, double riseDelay, double riseTimeConstant, double fallDelay, double fallTimeConstant)
+	{
+		if (!(riseTimeConstant > 0d) || !(fallTimeConstant > 0d)) throw new IllegalArgumentException("The time constants of an exponential pulse must be positive.");
+		if ((riseDelay < 0d) || !(fallDelay >= riseDelay)) throw new IllegalArgumentException("The rise delay of an exponential pulse must not be negative or after its fall delay.");
+		
+		this.initialValue = initialValue;
+		this.pulsedValue = pulsedValue;
+		this.riseDelay = riseDelay;
+		this.riseTimeConstant = riseTimeConstant;
+		this.fallDelay = fallDelay;
+		this.fallTimeConstant = fallTimeConstant;
+	}
+	
+	/**
+	 * Get the value of the exponential pulse at the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getValue(double time)
+	{
+		if (time <= this.riseDelay) return this.initialValue;
+		
+		double swing = this.pulsedValue - this.initialValue;
+		double value = this.initialValue + swing * -Math.expm1(-(time - this.riseDelay) / this.riseTimeConstant);
+		if (time > this.fallDelay) value -= swing * -Math.expm1(-(time - this.fallDelay) / this.fallTimeConstant);
+		return value;
+	}
+	
+	/**
+	 * Get the first delay after the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getNextBreakpoint(double time)
+	{
+		if (this.riseDelay > time) return this.riseDelay;
+		if (this.fallDelay > time) return this.fallDelay;
+		return Double.POSITIVE_INFINITY;
+	}
+	
+	// The value before the rise and the value approached by it.
+	final double initialValue;
+	final double pulsedValue;
+	
+	// The start and time constant of the rise.
+	final double riseDelay;
+	final double riseTimeConstant;
+	
+	// The start and time constant of the fall.
+	final double fallDelay;
+	final double fallTimeConstant;
+}
@@ -0,0 +1,97 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+import java.util.Arrays;
+
+/**
+ * A piecewise linear waveform, the SPICE PWL(T1 V1 T2 V2 ...) source: linear between the points, the first value before the first
+ * point and the last value after the last one. Two points at the same time make a step. Every point is a corner.
+ * @author zhick
+ *
+ */
+public class SimWaveformPiecewiseLinear extends SimSourceWaveform
+{
+	// Constructor of the waveform through the given points.
+	public SimWaveformPiecewiseLinear(double[] times, double[] values)
+	{
+		if ((times.length == 0) || (times.length != values.length))
+			throw new IllegalArgumentException("A piecewise linear waveform needs at least one point and a value for every time.");
+		for (int i = 1; i < times.length; i++)
+		{
+			if (!(times[i] >= times[i - 1])) throw new IllegalArgumentException("The times of a piecewise linear waveform must not decrease.");
+		}
+		
+		this.times = times.clone();
+		this.values = values.clone();
+	}
+	
+	/**
+	 * Get the value of the waveform at the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getValue(double time)
+	{
+		int next = findNextPoint(time);
+		if (next == 0) return this.values[0];
+		if (next == this.times.length) return this.values[next - 1];
+		
+		double t0 = this.times[next - 1];
+		double v0 = this.values[next - 1];
+		return v0 + (this.values[next] - v0) * (time - t0) / (this.times[next] - t0);
+	}
+	
+	/**
+	 * Get the first point of the waveform after the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getNextBreakpoint(double time)
+	{
+		int next = findNextPoint(time);
+		return (next < this.times.length) ? this.times[next] : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Returns the index of the first point strictly after the given time, or the number of points if there is none.
+	 * @param time
+	 * @return
+	 */
+	int findNextPoint(double time)
+	{
+		int low = 0;
+		int high = this.times.length;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (this.times[middle] <= time) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+	
+	/**
+	 * Get the times of the points.
+	 * @return
+	 */
+	public double[] getTimes()
+	{
+		return Arrays.copyOf(this.times, this.times.length);
+	}
+	
+	/**
+	 * Get the values of the points.
+	 * @return
+	 */
+	public double[] getValues()
+	{
+		return Arrays.copyOf(this.values, this.values.length);
+	}
+	
+	// The times of the points, in order.
+	final double[] times;
+	
+	// The value at each point.
+	final double[] values;
+}
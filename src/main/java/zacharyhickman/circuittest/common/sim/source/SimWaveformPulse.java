@@ -0,0 +1,89 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+/**
+ * A trapezoidal pulse, the SPICE PULSE(V1 V2 TD TR TF PW PER) source: the initial value until the delay, then a linear rise to the
+ * pulsed value, the pulsed value for the pulse width, a linear fall back to the initial value and the initial value for the rest
+ * of the period. A period of 0 gives a single pulse, and a rise or fall time of 0 an ideal step.
+ * @author zhick
+ *
+ */
+public class SimWaveformPulse extends SimSourceWaveform
+{
+	// Constructor of the pulse.
+	public SimWaveformPulse(double initialValue, double pulsedValue, double delay, double riseTime, double fallTime, double pulseWidth, double period)
+	{
+		if ((delay < 0d) || (riseTime < 0d) || (fallTime < 0d) || (pulseWidth < 0d) || (period < 0d))
+			throw new IllegalArgumentException("The delay, rise time, fall time, pulse width and period of a pulse must not be negative.");
+		if ((period > 0d) && (riseTime + pulseWidth + fallTime > period))
+			throw new IllegalArgumentException("The rise time, pulse width and fall time of a pulse must fit in its period.");
+		
+		this.initialValue = initialValue;
+		this.pulsedValue = pulsedValue;
+		this.delay = delay;
+		this.riseTime = riseTime;
+		this.fallTime = fallTime;
+		this.pulseWidth = pulseWidth;
+		this.period = period;
+	}
+	
+	/**
+	 * Get the value of the pulse at the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getValue(double time)
+	{
+		if (time < this.delay) return this.initialValue;
+		
+		// The time into the present period.
+		double local = time - this.delay;
+		if (this.period > 0d) local -= Math.floor(local / this.period) * this.period;
+		
+		if (local < this.riseTime) return this.initialValue + (this.pulsedValue - this.initialValue) * local / this.riseTime;
+		local -= this.riseTime;
+		if (local < this.pulseWidth) return this.pulsedValue;
+		local -= this.pulseWidth;
+		if (local < this.fallTime) return this.pulsedValue + (this.initialValue - this.pulsedValue) * local / this.fallTime;
+		return this.initialValue;
+	}
+	
+	/**
+	 * Get the first corner of the pulse after the given time: the start of the rise, the top, the start of the fall or the bottom.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getNextBreakpoint(double time)
+	{
+		if (time < this.delay) return this.delay;
+		
+		// The corners of the present period, then of the next one.
+		double cycle = (this.period > 0d) ? Math.floor((time - this.delay) / this.period) : 0d;
+		for (int k = 0; k < 2; k++)
+		{
+			double start = this.delay + (cycle + k) * this.period;
+			if (start > time) return start;
+			if (start + this.riseTime > time) return start + this.riseTime;
+			if (start + this.riseTime + this.pulseWidth > time) return start + this.riseTime + this.pulseWidth;
+			if (start + this.riseTime + this.pulseWidth + this.fallTime > time) return start + this.riseTime + this.pulseWidth + this.fallTime;
+			if (this.period == 0d) break;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+	
+	// The value outside of the pulse and the value of its top.
+	final double initialValue;
+	final double pulsedValue;
+	
+	// The time of the first rise.
+	final double delay;
+	
+	// The durations of the rise, the fall and the top.
+	final double riseTime;
+	final double fallTime;
+	final double pulseWidth;
+	
+	// The time between the starts of two pulses, or 0 for a single pulse.
+	final double period;
+}
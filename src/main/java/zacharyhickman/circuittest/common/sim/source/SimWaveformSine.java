@@ -0,0 +1,65 @@
+package zacharyhickman.circuittest.common.sim.source;
+
+/**
+ * A damped sine, the SPICE SIN(VO VA FREQ TD THETA PHASE) source: offset + amplitude * exp(-(t - delay) * damping) * sin(2 pi frequency
+ * (t - delay) + phase) from the delay on, and the value at the delay before it. The phase is in degrees. The only corner is the delay.
+ * @author zhick
+ *
+ */
+public class SimWaveformSine extends SimSourceWaveform
+{
+	// Constructor of the sine.
+	public SimWaveformSine(double offset, double amplitude, double frequency, double delay, double damping, double phaseDegrees)
+	{
+		if ((frequency < 0d) || (delay < 0d)) throw new IllegalArgumentException("The frequency and delay of a sine must not be negative.");
+		
+		this.offset = offset;
+		this.amplitude = amplitude;
+		this.frequency = frequency;
+		this.delay = delay;
+		this.damping = damping;
+		this.phase = Math.toRadians(phaseDegrees);
+	}
+	
+	/**
+	 * Get the value of the sine at the given time.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getValue(double time)
+	{
+		if (time < this.delay) return this.offset + this.amplitude * Math.sin(this.phase);
+		
+		double local = time - this.delay;
+		double envelope = (this.damping != 0d) ? Math.exp(-local * this.damping) : 1d;
+		return this.offset + this.amplitude * envelope * Math.sin(2d * Math.PI * this.frequency * local + this.phase);
+	}
+	
+	/**
+	 * Get the start of the sine if it is after the given time. The sine itself is smooth and has no corners.
+	 * @param time
+	 * @return
+	 */
+	@Override
+	public double getNextBreakpoint(double time)
+	{
+		return (this.delay > time) ? this.delay : Double.POSITIVE_INFINITY;
+	}
+	
+	// The offset and the amplitude of the sine.
+	final double offset;
+	final double amplitude;
+	
+	// The frequency in hertz.
+	final double frequency;
+	
+	// The time the sine starts at.
+	final double delay;
+	
+	// The damping factor of the envelope in 1/s.
+	final double damping;
+	
+	// The phase at the start in radians.
+	final double phase;
+}
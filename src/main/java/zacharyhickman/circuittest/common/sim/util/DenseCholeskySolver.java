@@ -0,0 +1,106 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A dense Cholesky solver (A = L*L^T) for small symmetric positive definite systems, i.e. small nodal-only circuits. It needs
+ * no pivoting and half the work of LU. Only the lower triangle of the matrix is read.
+ * @author zhick
+ *
+ */
+public class DenseCholeskySolver implements LinearSystemSolver
+{
+	/**
+	 * Nothing to analyze for a dense solver.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+	
+	}
+	
+	/**
+	 * Copies the lower triangle of the matrix into dense storage and factors it. Returns false if it is not positive definite.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols()) throw new IllegalArgumentException("The matrix must be square.");
+		
+		int n = matLHS.numRows();
+		if (this.size != n)
+		{
+			this.size = n;
+			this.l = new double[n * n];
+		}
+		double[] a = this.l;
+		Arrays.fill(a, 0d);
+		int[] columnPointers = matLHS.getColumnPointers();
+		int[] rowIndices = matLHS.getRowIndices();
+		double[] values = matLHS.getValues();
+		for (int col = 0; col < n; col++)
+		{
+			for (int p = columnPointers[col]; p < columnPointers[col + 1]; p++)
+			{
+				if (rowIndices[p] >= col) a[rowIndices[p] * n + col] = values[p];
+			}
+		}
+		
+		// Row by row: L(i, j) = (A(i, j) - L(i, 0:j) . L(j, 0:j)) / L(j, j).
+		for (int i = 0; i < n; i++)
+		{
+			for (int j = 0; j <= i; j++)
+			{
+				double sum = a[i * n + j];
+				for (int k = 0; k < j; k++) sum -= a[i * n + k] * a[j * n + k];
+				if (j < i)
+				{
+					a[i * n + j] = sum / a[j * n + j];
+				}
+				else
+				{
+					if (!(sum > 0d)) return false;
+					a[i * n + i] = Math.sqrt(sum);
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Solves the last factored system.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		int n = this.size;
+		double[] a = this.l;
+		
+		// Forward substitution with L, then back substitution with L^T.
+		for (int row = 0; row < n; row++)
+		{
+			double sum = vecRHS[row];
+			for (int col = 0; col < row; col++) sum -= a[row * n + col] * solution[col];
+			solution[row] = sum / a[row * n + row];
+		}
+		for (int row = n - 1; row >= 0; row--)
+		{
+			double sum = solution[row];
+			for (int k = row + 1; k < n; k++) sum -= a[k * n + row] * solution[k];
+			solution[row] = sum / a[row * n + row];
+		}
+	}
+	
+	// The dimension of the factored matrix.
+	int size = -1;
+	
+	// The Cholesky factor in the lower triangle, row-major.
+	double[] l;
+}
@@ -0,0 +1,133 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A dense LU solver with partial pivoting for small circuits, where the bookkeeping of a sparse factorization costs more than
+ * the few zeros it skips. The matrix is copied into a row-major array and factored in place.
+ * @author zhick
+ *
+ */
+public class DenseLUSolver implements LinearSystemSolver
+{
+	/**
+	 * Nothing to analyze for a dense solver.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+	
+	}
+	
+	/**
+	 * Copies the matrix into dense storage and factors it. Returns false if it is singular.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols()) throw new IllegalArgumentException("The matrix must be square.");
+		
+		int n = matLHS.numRows();
+		if (this.size != n)
+		{
+			this.size = n;
+			this.lu = new double[n * n];
+			this.pivotRows = new int[n];
+		}
+		double[] a = this.lu;
+		Arrays.fill(a, 0d);
+		int[] columnPointers = matLHS.getColumnPointers();
+		int[] rowIndices = matLHS.getRowIndices();
+		double[] values = matLHS.getValues();
+		for (int col = 0; col < n; col++)
+		{
+			for (int p = columnPointers[col]; p < columnPointers[col + 1]; p++) a[rowIndices[p] * n + col] = values[p];
+		}
+		
+		for (int k = 0; k < n; k++)
+		{
+			// Pick the largest entry of the column as pivot and swap its row up.
+			int pivotRow = k;
+			double largest = Math.abs(a[k * n + k]);
+			for (int row = k + 1; row < n; row++)
+			{
+				double magnitude = Math.abs(a[row * n + k]);
+				if (magnitude > largest)
+				{
+					largest = magnitude;
+					pivotRow = row;
+				}
+			}
+			if (largest <= 0d) return false;
+			this.pivotRows[k] = pivotRow;
+			if (pivotRow != k)
+			{
+				for (int col = 0; col < n; col++)
+				{
+					double swap = a[k * n + col];
+					a[k * n + col] = a[pivotRow * n + col];
+					a[pivotRow * n + col] = swap;
+				}
+			}
+			
+			double pivot = a[k * n + k];
+			for (int row = k + 1; row < n; row++)
+			{
+				double multiplier = a[row * n + k] / pivot;
+				if (multiplier == 0d) continue;
+				a[row * n + k] = multiplier;
+				for (int col = k + 1; col < n; col++) a[row * n + col] -= multiplier * a[k * n + col];
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Solves the last factored system.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		int n = this.size;
+		double[] a = this.lu;
+		System.arraycopy(vecRHS, 0, solution, 0, n);
+		
+		// Apply the row swaps, then forward substitution with the unit lower factor and back substitution with the upper one.
+		for (int k = 0; k < n; k++)
+		{
+			int pivotRow = this.pivotRows[k];
+			if (pivotRow == k) continue;
+			double swap = solution[k];
+			solution[k] = solution[pivotRow];
+			solution[pivotRow] = swap;
+		}
+		for (int row = 1; row < n; row++)
+		{
+			double sum = solution[row];
+			for (int col = 0; col < row; col++) sum -= a[row * n + col] * solution[col];
+			solution[row] = sum;
+		}
+		for (int row = n - 1; row >= 0; row--)
+		{
+			double sum = solution[row];
+			for (int col = row + 1; col < n; col++) sum -= a[row * n + col] * solution[col];
+			solution[row] = sum / a[row * n + row];
+		}
+	}
+	
+	// The dimension of the factored matrix.
+	int size = -1;
+	
+	// The factors in row-major order: the unit lower factor below the diagonal and the upper factor on and above it.
+	double[] lu;
+	
+	// The row swapped with row k at step k.
+	int[] pivotRows;
+}
@@ -0,0 +1,63 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import org.ejml.LinearSolverSafe;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
+
+/**
+ * A dense least squares solver (pivoted QR). Slow, but it still produces a solution for singular systems such as
+ * circuits with floating nodes, so it is kept as the fallback of the sparse solver.
+ * @author zhick
+ *
+ */
+public class DenseLeastSquaresSolver implements LinearSystemSolver
+{
+	/**
+	 * Nothing to analyze for a dense solver.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+	
+	}
+	
+	/**
+	 * Copies the matrix into dense storage and decomposes it.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		this.aMat = MatrixHelper.convertSparseToDMatrixRMaj(matLHS);
+		this.bMat = new DMatrixRMaj(this.aMat.getNumRows(), 1);
+		this.solutionMat = new DMatrixRMaj(this.aMat.getNumCols(), 1);
+		return this.solver.setA(this.aMat);
+	}
+	
+	/**
+	 * Solves the last factored system.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		for (int i = 0; i < vecRHS.length; i++) this.bMat.set(i, 0, vecRHS[i]);
+		this.solver.solve(this.bMat, this.solutionMat);
+		for (int i = 0; i < solution.length; i++) solution[i] = this.solutionMat.get(i, 0);
+	}
+	
+	// The wrapped least squares solver.
+	LinearSolverSafe<DMatrixRMaj> solver = new LinearSolverSafe<DMatrixRMaj>(LinearSolverFactory_DDRM.leastSquaresQrPivot(true, false));
+	
+	// The dense copy of the matrix.
+	DMatrixRMaj aMat;
+	
+	// The dense right hand side.
+	DMatrixRMaj bMat;
+	
+	// The dense solution.
+	DMatrixRMaj solutionMat;
+}
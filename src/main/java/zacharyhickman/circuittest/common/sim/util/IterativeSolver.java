@@ -0,0 +1,758 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A preconditioned Krylov solver for systems whose LU factors would not fit in memory, such as large power-delivery meshes.
+ * The conjugate gradient needs a symmetric positive definite matrix, i.e. a nodal-only circuit of resistors, capacitors and current
+ * sources. BiCGSTAB and restarted GMRES also handle the indefinite MNA matrices of circuits with voltage source branches.
+ * factor() only builds the preconditioner: the inverse diagonal (Jacobi), or an incomplete LU or Cholesky factorization with the
+ * sparsity pattern of the matrix itself, so it needs no more memory than the matrix.
+ * Every solve starts from the solution of the previous one, so a transient step whose solution moved only a little converges in a
+ * few iterations. A solve that does not reach the tolerance throws an exception instead of returning an inaccurate solution.
+ * @author zhick
+ *
+ */
+public class IterativeSolver implements LinearSystemSolver
+{
+	// Constructor of the solver with the default tolerance and iteration limit.
+	public IterativeSolver(Method method, Preconditioner preconditioner)
+	{
+		this.method = method;
+		this.preconditioner = preconditioner;
+	}
+	
+	/**
+	 * The Krylov methods of the solver.
+	 */
+	public enum Method
+	{
+		// The conjugate gradient, for symmetric positive definite matrices only.
+		CONJUGATE_GRADIENT,
+		// The stabilized bi-conjugate gradient, for general matrices. Two products with the matrix per iteration.
+		BICGSTAB,
+		// The generalized minimal residual method, restarted every restart iterations, for general matrices. One product per iteration.
+		GMRES
+	}
+	
+	/**
+	 * The preconditioners of the solver.
+	 */
+	public enum Preconditioner
+	{
+		// The inverse of the diagonal. Rows without a diagonal entry (voltage source branches) are left unscaled.
+		JACOBI,
+		// The incomplete LU factorization without fill.
+		ILU0,
+		// The incomplete Cholesky factorization without fill, for symmetric positive definite matrices only.
+		INCOMPLETE_CHOLESKY
+	}
+	
+	/**
+	 * Transposes the pattern of the matrix into rows, adding a diagonal entry where the pattern has none so the incomplete
+	 * factorizations always have a pivot position.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols()) throw new IllegalArgumentException("The matrix must be square.");
+		
+		int n = matLHS.numRows();
+		int[] columnPointers = matLHS.getColumnPointers();
+		int[] rowIndices = matLHS.getRowIndices();
+		
+		// Count the entries of each row, plus the missing diagonals.
+		boolean[] hasDiagonal = new boolean[n];
+		int[] counts = new int[n + 1];
+		for (int col = 0; col < n; col++)
+		{
+			for (int p = columnPointers[col]; p < columnPointers[col + 1]; p++)
+			{
+				counts[rowIndices[p] + 1]++;
+				if (rowIndices[p] == col) hasDiagonal[col] = true;
+			}
+		}
+		for (int row = 0; row < n; row++)
+		{
+			if (!hasDiagonal[row]) counts[row + 1]++;
+			counts[row + 1] += counts[row];
+		}
+		
+		// Walking the columns in order leaves the columns of every row sorted. A missing diagonal goes in when its column comes up.
+		int entryCount = counts[n];
+		this.rowPointers = counts.clone();
+		this.columnIndices = new int[entryCount];
+		this.sourceIndices = new int[entryCount];
+		this.diagonalPositions = new int[n];
+		int[] next = Arrays.copyOf(counts, n);
+		for (int col = 0; col < n; col++)
+		{
+			if (!hasDiagonal[col])
+			{
+				int q = next[col]++;
+				this.columnIndices[q] = col;
+				this.sourceIndices[q] = -1;
+				this.diagonalPositions[col] = q;
+			}
+			for (int p = columnPointers[col]; p < columnPointers[col + 1]; p++)
+			{
+				int row = rowIndices[p];
+				int q = next[row]++;
+				this.columnIndices[q] = col;
+				this.sourceIndices[q] = p;
+				if (row == col) this.diagonalPositions[row] = q;
+			}
+		}
+		
+		this.size = n;
+		this.analyzedColumnPointers = columnPointers.clone();
+		this.analyzedRowIndices = rowIndices.clone();
+		this.values = new double[entryCount];
+		this.factorValues = (this.preconditioner == Preconditioner.JACOBI) ? null : new double[entryCount];
+		this.diagonalInverse = (this.preconditioner == Preconditioner.JACOBI) ? new double[n] : null;
+		this.rowMarks = new int[n];
+		this.guess = new double[n];
+		this.residual = new double[n];
+		this.preconditioned = new double[n];
+		this.direction = new double[n];
+		this.product = new double[n];
+		if (this.method == Method.BICGSTAB)
+		{
+			this.shadowResidual = new double[n];
+			this.stepVector = new double[n];
+			this.stepProduct = new double[n];
+			this.stepPreconditioned = new double[n];
+		}
+		if (this.method == Method.GMRES)
+		{
+			int m = this.restart;
+			this.basis = new double[m + 1][n];
+			this.hessenberg = new double[m + 1][m];
+			this.rotationCos = new double[m];
+			this.rotationSin = new double[m];
+			this.leastSquaresRHS = new double[m + 1];
+		}
+		this.hasGuess = false;
+		this.analyzed = true;
+		this.factored = false;
+	}
+	
+	/**
+	 * Copies the values of the matrix and builds the preconditioner. Analyzes the matrix first if its pattern changed.
+	 * Returns false if the incomplete factorization breaks down (a zero pivot, or a non-positive one for incomplete Cholesky).
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (!this.analyzed || (matLHS.numCols() != this.size) || !Arrays.equals(matLHS.getColumnPointers(), this.analyzedColumnPointers)
+				|| !Arrays.equals(matLHS.getRowIndices(), this.analyzedRowIndices))
+			analyze(matLHS);
+		
+		double[] matrixValues = matLHS.getValues();
+		for (int q = 0; q < this.values.length; q++)
+		{
+			int source = this.sourceIndices[q];
+			this.values[q] = (source >= 0) ? matrixValues[source] : 0d;
+		}
+		
+		switch (this.preconditioner)
+		{
+			case JACOBI:
+				for (int row = 0; row < this.size; row++)
+				{
+					double diagonal = this.values[this.diagonalPositions[row]];
+					this.diagonalInverse[row] = (diagonal != 0d) ? 1d / diagonal : 1d;
+				}
+				this.factored = true;
+				break;
+			case ILU0:
+				this.factored = factorIncompleteLU();
+				break;
+			case INCOMPLETE_CHOLESKY:
+				this.factored = factorIncompleteCholesky();
+				break;
+		}
+		
+		return this.factored;
+	}
+	
+	/**
+	 * Computes the incomplete LU factorization in place in factorValues: the unit lower factor left of the diagonal of each row and
+	 * the upper factor from the diagonal on. Returns false on a zero pivot.
+	 * @return
+	 */
+	boolean factorIncompleteLU()
+	{
+		double[] lu = this.factorValues;
+		System.arraycopy(this.values, 0, lu, 0, lu.length);
+		int[] marks = this.rowMarks;
+		Arrays.fill(marks, -1);
+		
+		for (int row = 0; row < this.size; row++)
+		{
+			int rowStart = this.rowPointers[row];
+			int rowEnd = this.rowPointers[row + 1];
+			for (int q = rowStart; q < rowEnd; q++) marks[this.columnIndices[q]] = q;
+			
+			// Eliminate with every earlier row this row has an entry in, dropping the fill outside the pattern.
+			for (int q = rowStart; q < this.diagonalPositions[row]; q++)
+			{
+				int k = this.columnIndices[q];
+				double multiplier = lu[q] / lu[this.diagonalPositions[k]];
+				lu[q] = multiplier;
+				for (int r = this.diagonalPositions[k] + 1; r < this.rowPointers[k + 1]; r++)
+				{
+					int position = marks[this.columnIndices[r]];
+					if (position >= 0) lu[position] -= multiplier * lu[r];
+				}
+			}
+			
+			for (int q = rowStart; q < rowEnd; q++) marks[this.columnIndices[q]] = -1;
+			if (lu[this.diagonalPositions[row]] == 0d) return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Computes the incomplete Cholesky factor L (A ~ L*L^T) in place in the lower part of factorValues. Only the lower triangle of
+	 * the matrix is read. Returns false on a non-positive pivot.
+	 * @return
+	 */
+	boolean factorIncompleteCholesky()
+	{
+		double[] l = this.factorValues;
+		System.arraycopy(this.values, 0, l, 0, l.length);
+		int[] marks = this.rowMarks;
+		Arrays.fill(marks, -1);
+		
+		for (int row = 0; row < this.size; row++)
+		{
+			int rowStart = this.rowPointers[row];
+			int diagonal = this.diagonalPositions[row];
+			for (int q = rowStart; q <= diagonal; q++) marks[this.columnIndices[q]] = q;
+			
+			// L(row, k) = (A(row, k) - sum over j < k of L(row, j) * L(k, j)) / L(k, k), with the columns of the row in order.
+			double diagonalSum = 0d;
+			for (int q = rowStart; q < diagonal; q++)
+			{
+				int k = this.columnIndices[q];
+				double sum = l[q];
+				for (int r = this.rowPointers[k]; r < this.diagonalPositions[k]; r++)
+				{
+					int position = marks[this.columnIndices[r]];
+					if (position >= 0) sum -= l[position] * l[r];
+				}
+				l[q] = sum / l[this.diagonalPositions[k]];
+				diagonalSum += l[q] * l[q];
+			}
+			
+			for (int q = rowStart; q <= diagonal; q++) marks[this.columnIndices[q]] = -1;
+			double pivot = l[diagonal] - diagonalSum;
+			if (!(pivot > 0d)) return false;
+			l[diagonal] = Math.sqrt(pivot);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Solves the last factored system, starting from the solution of the previous solve.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		if (!this.factored) throw new IllegalStateException("The solver has not been factored.");
+		
+		double[] x = this.guess;
+		if (!this.hasGuess) Arrays.fill(x, 0d);
+		
+		double rhsNorm = 0d;
+		for (int row = 0; row < this.size; row++) rhsNorm += vecRHS[row] * vecRHS[row];
+		rhsNorm = Math.sqrt(rhsNorm);
+		double limit = this.tolerance * rhsNorm;
+		if (rhsNorm == 0d)
+		{
+			// The solution of a zero RHS is 0, whatever the guess.
+			Arrays.fill(x, 0d);
+			Arrays.fill(solution, 0, this.size, 0d);
+			this.lastIterationCount = 0;
+			this.lastResidualNorm = 0d;
+			this.hasGuess = true;
+			return;
+		}
+		
+		int iterations;
+		switch (this.method)
+		{
+			case CONJUGATE_GRADIENT:
+				iterations = solveConjugateGradient(vecRHS, x, limit);
+				break;
+			case BICGSTAB:
+				iterations = solveBiCGSTAB(vecRHS, x, limit);
+				break;
+			default:
+				iterations = solveGMRES(vecRHS, x, limit);
+				break;
+		}
+		this.lastIterationCount = iterations;
+		this.totalIterationCount += iterations;
+		this.hasGuess = true;
+		
+		// A breakdown of the method leaves a residual of NaN, which counts as not converged.
+		if (!(this.lastResidualNorm <= limit))
+		{
+			this.hasGuess = false;
+			throw new IllegalStateException("The " + this.method + " solver did not converge in " + this.maxIterations + " iterations (relative residual "
+					+ (this.lastResidualNorm / rhsNorm) + ").");
+		}
+		System.arraycopy(x, 0, solution, 0, this.size);
+	}
+	
+	/**
+	 * Preconditioned conjugate gradient. Returns the number of iterations.
+	 * @param b
+	 * @param x
+	 * @param limit
+	 * @return
+	 */
+	int solveConjugateGradient(double[] b, double[] x, double limit)
+	{
+		double[] r = this.residual;
+		double[] z = this.preconditioned;
+		double[] p = this.direction;
+		double[] q = this.product;
+		
+		multiply(x, q);
+		for (int row = 0; row < this.size; row++) r[row] = b[row] - q[row];
+		double residualNorm = norm(r);
+		applyPreconditioner(r, z);
+		System.arraycopy(z, 0, p, 0, this.size);
+		double rz = dot(r, z);
+		
+		int iteration = 0;
+		while ((residualNorm > limit) && (iteration < this.maxIterations))
+		{
+			iteration++;
+			multiply(p, q);
+			double alpha = rz / dot(p, q);
+			for (int row = 0; row < this.size; row++)
+			{
+				x[row] += alpha * p[row];
+				r[row] -= alpha * q[row];
+			}
+			residualNorm = norm(r);
+			if (residualNorm <= limit) break;
+			
+			applyPreconditioner(r, z);
+			double rzNext = dot(r, z);
+			double beta = rzNext / rz;
+			rz = rzNext;
+			for (int row = 0; row < this.size; row++) p[row] = z[row] + beta * p[row];
+		}
+		
+		this.lastResidualNorm = residualNorm;
+		return iteration;
+	}
+	
+	/**
+	 * Right preconditioned BiCGSTAB. Returns the number of iterations.
+	 * @param b
+	 * @param x
+	 * @param limit
+	 * @return
+	 */
+	int solveBiCGSTAB(double[] b, double[] x, double limit)
+	{
+		double[] r = this.residual;
+		double[] shadow = this.shadowResidual;
+		double[] p = this.direction;
+		double[] pHat = this.preconditioned;
+		double[] v = this.product;
+		double[] s = this.stepVector;
+		double[] sHat = this.stepPreconditioned;
+		double[] t = this.stepProduct;
+		
+		multiply(x, v);
+		for (int row = 0; row < this.size; row++) r[row] = b[row] - v[row];
+		double residualNorm = norm(r);
+		System.arraycopy(r, 0, shadow, 0, this.size);
+		Arrays.fill(p, 0d);
+		Arrays.fill(v, 0d);
+		double rho = 1d;
+		double alpha = 1d;
+		double omega = 1d;
+		
+		int iteration = 0;
+		while ((residualNorm > limit) && (iteration < this.maxIterations))
+		{
+			iteration++;
+			double rhoNext = dot(shadow, r);
+			if ((rhoNext == 0d) || (omega == 0d))
+			{
+				// Breakdown, start over from the present residual.
+				System.arraycopy(r, 0, shadow, 0, this.size);
+				Arrays.fill(p, 0d);
+				Arrays.fill(v, 0d);
+				rho = alpha = omega = 1d;
+				rhoNext = dot(shadow, r);
+			}
+			double beta = (rhoNext / rho) * (alpha / omega);
+			rho = rhoNext;
+			for (int row = 0; row < this.size; row++) p[row] = r[row] + beta * (p[row] - omega * v[row]);
+			applyPreconditioner(p, pHat);
+			multiply(pHat, v);
+			alpha = rho / dot(shadow, v);
+			for (int row = 0; row < this.size; row++) s[row] = r[row] - alpha * v[row];
+			if (norm(s) <= limit)
+			{
+				for (int row = 0; row < this.size; row++) x[row] += alpha * pHat[row];
+				System.arraycopy(s, 0, r, 0, this.size);
+				residualNorm = norm(r);
+				break;
+			}
+			
+			applyPreconditioner(s, sHat);
+			multiply(sHat, t);
+			double tt = dot(t, t);
+			omega = (tt != 0d) ? dot(t, s) / tt : 0d;
+			for (int row = 0; row < this.size; row++)
+			{
+				x[row] += alpha * pHat[row] + omega * sHat[row];
+				r[row] = s[row] - omega * t[row];
+			}
+			residualNorm = norm(r);
+		}
+		
+		this.lastResidualNorm = residualNorm;
+		return iteration;
+	}
+	
+	/**
+	 * Right preconditioned GMRES, restarted every restart iterations. Returns the number of iterations.
+	 * @param b
+	 * @param x
+	 * @param limit
+	 * @return
+	 */
+	int solveGMRES(double[] b, double[] x, double limit)
+	{
+		double[][] v = this.basis;
+		double[][] h = this.hessenberg;
+		double[] g = this.leastSquaresRHS;
+		double[] z = this.preconditioned;
+		double[] w = this.product;
+		
+		int iteration = 0;
+		while (true)
+		{
+			// The residual of the present solution starts the next cycle.
+			multiply(x, w);
+			for (int row = 0; row < this.size; row++) v[0][row] = b[row] - w[row];
+			double beta = norm(v[0]);
+			this.lastResidualNorm = beta;
+			if ((beta <= limit) || (iteration >= this.maxIterations)) return iteration;
+			for (int row = 0; row < this.size; row++) v[0][row] /= beta;
+			Arrays.fill(g, 0d);
+			g[0] = beta;
+			
+			// Arnoldi with modified Gram-Schmidt, turning the Hessenberg matrix upper triangular with Givens rotations as it grows.
+			int k = 0;
+			while ((k < this.restart) && (iteration < this.maxIterations))
+			{
+				iteration++;
+				applyPreconditioner(v[k], z);
+				multiply(z, w);
+				for (int i = 0; i <= k; i++)
+				{
+					double hik = dot(w, v[i]);
+					h[i][k] = hik;
+					for (int row = 0; row < this.size; row++) w[row] -= hik * v[i][row];
+				}
+				double hNext = norm(w);
+				if (hNext != 0d)
+				{
+					for (int row = 0; row < this.size; row++) v[k + 1][row] = w[row] / hNext;
+				}
+				
+				for (int i = 0; i < k; i++)
+				{
+					double rotated = this.rotationCos[i] * h[i][k] + this.rotationSin[i] * h[i + 1][k];
+					h[i + 1][k] = -this.rotationSin[i] * h[i][k] + this.rotationCos[i] * h[i + 1][k];
+					h[i][k] = rotated;
+				}
+				double radius = Math.hypot(h[k][k], hNext);
+				this.rotationCos[k] = h[k][k] / radius;
+				this.rotationSin[k] = hNext / radius;
+				h[k][k] = radius;
+				g[k + 1] = -this.rotationSin[k] * g[k];
+				g[k] = this.rotationCos[k] * g[k];
+				k++;
+				
+				if ((Math.abs(g[k]) <= limit) || (hNext == 0d)) break;
+			}
+			
+			// Solve the triangular least squares system and add the correction, which is preconditioned once for the whole cycle.
+			for (int i = k - 1; i >= 0; i--)
+			{
+				double sum = g[i];
+				for (int j = i + 1; j < k; j++) sum -= h[i][j] * g[j];
+				g[i] = sum / h[i][i];
+			}
+			Arrays.fill(w, 0d);
+			for (int i = 0; i < k; i++)
+			{
+				for (int row = 0; row < this.size; row++) w[row] += g[i] * v[i][row];
+			}
+			applyPreconditioner(w, z);
+			for (int row = 0; row < this.size; row++) x[row] += z[row];
+		}
+	}
+	
+	/**
+	 * Computes y = A*x with the rows of the matrix.
+	 * @param x
+	 * @param y
+	 */
+	void multiply(double[] x, double[] y)
+	{
+		for (int row = 0; row < this.size; row++)
+		{
+			double sum = 0d;
+			for (int q = this.rowPointers[row]; q < this.rowPointers[row + 1]; q++) sum += this.values[q] * x[this.columnIndices[q]];
+			y[row] = sum;
+		}
+	}
+	
+	/**
+	 * Computes z = M^-1 * r for the preconditioner M.
+	 * @param r
+	 * @param z
+	 */
+	void applyPreconditioner(double[] r, double[] z)
+	{
+		int n = this.size;
+		double[] f = this.factorValues;
+		switch (this.preconditioner)
+		{
+			case JACOBI:
+				for (int row = 0; row < n; row++) z[row] = r[row] * this.diagonalInverse[row];
+				break;
+			case ILU0:
+				// Forward substitution with the unit lower factor, then back substitution with the upper factor.
+				for (int row = 0; row < n; row++)
+				{
+					double sum = r[row];
+					for (int q = this.rowPointers[row]; q < this.diagonalPositions[row]; q++) sum -= f[q] * z[this.columnIndices[q]];
+					z[row] = sum;
+				}
+				for (int row = n - 1; row >= 0; row--)
+				{
+					double sum = z[row];
+					for (int q = this.diagonalPositions[row] + 1; q < this.rowPointers[row + 1]; q++) sum -= f[q] * z[this.columnIndices[q]];
+					z[row] = sum / f[this.diagonalPositions[row]];
+				}
+				break;
+			case INCOMPLETE_CHOLESKY:
+				// Forward substitution with L by rows, then back substitution with L^T by the same rows.
+				for (int row = 0; row < n; row++)
+				{
+					double sum = r[row];
+					for (int q = this.rowPointers[row]; q < this.diagonalPositions[row]; q++) sum -= f[q] * z[this.columnIndices[q]];
+					z[row] = sum / f[this.diagonalPositions[row]];
+				}
+				for (int row = n - 1; row >= 0; row--)
+				{
+					double value = z[row] / f[this.diagonalPositions[row]];
+					z[row] = value;
+					for (int q = this.rowPointers[row]; q < this.diagonalPositions[row]; q++) z[this.columnIndices[q]] -= f[q] * value;
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Returns the dot product of two vectors.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	double dot(double[] a, double[] b)
+	{
+		double sum = 0d;
+		for (int row = 0; row < this.size; row++) sum += a[row] * b[row];
+		return sum;
+	}
+	
+	/**
+	 * Returns the euclidean norm of a vector.
+	 * @param a
+	 * @return
+	 */
+	double norm(double[] a)
+	{
+		return Math.sqrt(dot(a, a));
+	}
+	
+	/**
+	 * Forgets the solution of the previous solve, so the next one starts from 0.
+	 */
+	public void resetInitialGuess()
+	{
+		this.hasGuess = false;
+	}
+	
+	/**
+	 * Set the relative residual ||b - A*x|| / ||b|| a solve stops at, and the number of iterations after which it fails.
+	 * @param tolerance
+	 * @param maxIterations
+	 */
+	public void setTolerance(double tolerance, int maxIterations)
+	{
+		if (!(tolerance > 0d) || (maxIterations < 1))
+			throw new IllegalArgumentException("The solver tolerance must be positive and at least one iteration must be allowed.");
+		
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+	}
+	
+	/**
+	 * Set the number of GMRES iterations after which it restarts. Takes effect on the next analysis.
+	 * @param restart
+	 */
+	public void setRestart(int restart)
+	{
+		if (restart < 1) throw new IllegalArgumentException("The GMRES restart must be at least 1 (" + restart + ").");
+		
+		this.restart = restart;
+		this.analyzed = false;
+	}
+	
+	/**
+	 * Get the Krylov method of the solver.
+	 * @return
+	 */
+	public Method getMethod()
+	{
+		return this.method;
+	}
+	
+	/**
+	 * Get the preconditioner of the solver.
+	 * @return
+	 */
+	public Preconditioner getPreconditioner()
+	{
+		return this.preconditioner;
+	}
+	
+	/**
+	 * Get the relative residual a solve stops at.
+	 * @return
+	 */
+	public double getTolerance()
+	{
+		return this.tolerance;
+	}
+	
+	/**
+	 * Get the number of iterations after which a solve fails.
+	 * @return
+	 */
+	public int getMaxIterations()
+	{
+		return this.maxIterations;
+	}
+	
+	/**
+	 * Get the number of iterations of the last solve.
+	 * @return
+	 */
+	public int getLastIterationCount()
+	{
+		return this.lastIterationCount;
+	}
+	
+	/**
+	 * Get the number of iterations of all solves.
+	 * @return
+	 */
+	public long getTotalIterationCount()
+	{
+		return this.totalIterationCount;
+	}
+	
+	/**
+	 * Get the residual norm ||b - A*x|| of the last solve.
+	 * @return
+	 */
+	public double getLastResidualNorm()
+	{
+		return this.lastResidualNorm;
+	}
+	
+	// The Krylov method and the preconditioner.
+	final Method method;
+	final Preconditioner preconditioner;
+	
+	// The relative residual a solve stops at, the iterations it may take and the GMRES restart length.
+	double tolerance = 1e-10;
+	int maxIterations = 1000;
+	int restart = 30;
+	
+	// Whether the pattern was analyzed and the preconditioner built.
+	boolean analyzed = false;
+	boolean factored = false;
+	
+	// The dimension of the matrix, and the pattern it was analyzed for.
+	int size;
+	int[] analyzedColumnPointers;
+	int[] analyzedRowIndices;
+	
+	// The matrix by rows, with every diagonal present. Each entry knows its index in the compressed values of the matrix, or -1 for an added diagonal.
+	int[] rowPointers;
+	int[] columnIndices;
+	int[] sourceIndices;
+	int[] diagonalPositions;
+	double[] values;
+	
+	// The incomplete factors in the pattern of the matrix, or the inverse diagonal for Jacobi.
+	double[] factorValues;
+	double[] diagonalInverse;
+	
+	// The positions of the entries of the row being factored, by column, or -1.
+	int[] rowMarks;
+	
+	// The solution of the last solve, which the next one starts from.
+	double[] guess;
+	boolean hasGuess = false;
+	
+	// The work vectors of the methods.
+	double[] residual;
+	double[] preconditioned;
+	double[] direction;
+	double[] product;
+	double[] shadowResidual;
+	double[] stepVector;
+	double[] stepProduct;
+	double[] stepPreconditioned;
+	
+	// The Krylov basis, the rotated Hessenberg matrix, the Givens rotations and the least squares RHS of GMRES.
+	double[][] basis;
+	double[][] hessenberg;
+	double[] rotationCos;
+	double[] rotationSin;
+	double[] leastSquaresRHS;
+	
+	// The iterations of the last solve and of all solves, and the residual the last solve reached.
+	int lastIterationCount = 0;
+	long totalIterationCount = 0;
+	double lastResidualNorm = 0d;
+}
@@ -0,0 +1,62 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * A solver for the linear system A*x = b assembled from the circuit stamps.
+ * @author zhick
+ *
+ */
+public interface LinearSystemSolver
+{
+	/**
+	 * Analyzes the sparsity pattern of the matrix. Only needs to be called again when the pattern changes.
+	 * @param matLHS
+	 */
+	public void analyze(SparseStampMatrix matLHS);
+	
+	/**
+	 * Numerically factors the matrix. Returns false if the matrix is singular and cannot be solved by this solver.
+	 * @param matLHS
+	 * @return
+	 */
+	public boolean factor(SparseStampMatrix matLHS);
+	
+	/**
+	 * Solves the last factored system for the given right hand side and stores the result in solution.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	public void solve(double[] vecRHS, double[] solution);
+	
+	/**
+	 * Get the number of structural non-zeros of the sparse factors of the last factorization, to compare with the matrix for the
+	 * fill-in. The default returns 0, for solvers that factor densely or not at all.
+	 * @return
+	 */
+	public default int getFactorNonZeroCount()
+	{
+		return 0;
+	}
+	
+	/**
+	 * Solves the last factored system for several right hand sides and stores the results in solutionColumns. Column c of both blocks
+	 * occupies [c * n, (c + 1) * n) for a matrix of n rows. The default solves the columns one after the other, solvers with triangular
+	 * factors sweep them once for a panel of columns instead.
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	public default void solveMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		if (columnCount == 0) return;
+		
+		int n = rhsColumns.length / columnCount;
+		double[] rhs = new double[n];
+		double[] solution = new double[n];
+		for (int c = 0; c < columnCount; c++)
+		{
+			System.arraycopy(rhsColumns, c * n, rhs, 0, n);
+			solve(rhs, solution);
+			System.arraycopy(solution, 0, solutionColumns, c * n, n);
+		}
+	}
+}
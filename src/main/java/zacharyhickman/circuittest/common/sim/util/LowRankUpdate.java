@@ -0,0 +1,298 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * Solves with a factored matrix A after a few changes of two-terminal elements without factoring it again. The change of an element
+ * between rows a and b is the symmetric rank-one term delta * u * u^T with u = e(a) - e(b), and with U holding the changes as columns
+ * and D their deltas the Sherman-Morrison-Woodbury identity gives the solution of (A + U D U^T) x = b as x = y - W S^-1 U^T y, where
+ * y = A^-1 b, W = A^-1 U and S = D^-1 + U^T W. Adding a change costs one solve with A, and every solve after it one more pass over W.
+ * A row of -1 stands for the reference node, which has no row.
+ * @author zhick
+ *
+ */
+public class LowRankUpdate
+{
+	// Constructor of the update with room for the given number of changes.
+	public LowRankUpdate(int maxRank)
+	{
+		if (maxRank < 0) throw new IllegalArgumentException("The rank of a low-rank update must not be negative.");
+		
+		this.maxRank = maxRank;
+		this.rowsA = new int[maxRank];
+		this.rowsB = new int[maxRank];
+		this.deltas = new double[maxRank];
+		this.capacitance = new double[maxRank * maxRank];
+		this.pivotRows = new int[maxRank];
+		this.work = new double[maxRank];
+	}
+	
+	/**
+	 * Drops all changes and starts over from the given solver, factored for a matrix of the given size, or from none if it is null.
+	 * @param solver
+	 * @param size
+	 */
+	public void reset(LinearSystemSolver solver, int size)
+	{
+		this.solver = solver;
+		this.size = size;
+		this.rank = 0;
+	}
+	
+	/**
+	 * Adds the change delta * u * u^T with u = e(rowA) - e(rowB). A change between the same rows as an earlier one is merged into it.
+	 * Returns false if there is no room for the change or the changed matrix is singular, in which case the matrix has to be factored
+	 * again and the update is no longer usable until the next reset().
+	 * @param rowA
+	 * @param rowB
+	 * @param delta
+	 * @return
+	 */
+	public boolean add(int rowA, int rowB, double delta)
+	{
+		if (this.solver == null) return false;
+		if ((delta == 0d) || ((rowA < 0) && (rowB < 0))) return true;
+		
+		// The element changed before, so its column stays and only its delta grows. A change that cancels out drops the column.
+		for (int k = 0; k < this.rank; k++)
+		{
+			if (((this.rowsA[k] == rowA) && (this.rowsB[k] == rowB)) || ((this.rowsA[k] == rowB) && (this.rowsB[k] == rowA)))
+			{
+				this.deltas[k] += delta;
+				if (this.deltas[k] == 0d) removeColumn(k);
+				return factorCapacitance();
+			}
+		}
+		if (this.rank == this.maxRank) return false;
+		
+		// The new column of W is A^-1 u.
+		if ((this.columns == null) || (this.columns.length != this.maxRank * this.size))
+		{
+			this.columns = new double[this.maxRank * this.size];
+			this.unit = new double[this.size];
+			this.column = new double[this.size];
+		}
+		if (rowA >= 0) this.unit[rowA] = 1d;
+		if (rowB >= 0) this.unit[rowB] = -1d;
+		this.solver.solve(this.unit, this.column);
+		if (rowA >= 0) this.unit[rowA] = 0d;
+		if (rowB >= 0) this.unit[rowB] = 0d;
+		System.arraycopy(this.column, 0, this.columns, this.rank * this.size, this.size);
+		
+		this.rowsA[this.rank] = rowA;
+		this.rowsB[this.rank] = rowB;
+		this.deltas[this.rank] = delta;
+		this.rank++;
+		return factorCapacitance();
+	}
+	
+	/**
+	 * Solves the changed system for the given right hand side and stores the result in solution.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		this.solver.solve(vecRHS, solution);
+		correct(solution, 0);
+	}
+	
+	/**
+	 * Solves the changed system for several right hand sides, see LinearSystemSolver.solveMultiple().
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	public void solveMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		this.solver.solveMultiple(rhsColumns, solutionColumns, columnCount);
+		for (int c = 0; c < columnCount; c++) correct(solutionColumns, c * this.size);
+	}
+	
+	/**
+	 * Turns the solution y of the unchanged matrix, starting at the given offset of the array, into the solution of the changed one.
+	 * @param solution
+	 * @param offset
+	 */
+	void correct(double[] solution, int offset)
+	{
+		int r = this.rank;
+		if (r == 0) return;
+		
+		// t = S^-1 U^T y, with the row swaps of the factorization applied to U^T y first.
+		double[] t = this.work;
+		for (int i = 0; i < r; i++) t[i] = getDifference(solution, offset, this.rowsA[i], this.rowsB[i]);
+		double[] s = this.capacitance;
+		for (int k = 0; k < r; k++)
+		{
+			int pivotRow = this.pivotRows[k];
+			if (pivotRow == k) continue;
+			double swap = t[k];
+			t[k] = t[pivotRow];
+			t[pivotRow] = swap;
+		}
+		for (int row = 1; row < r; row++)
+		{
+			double sum = t[row];
+			for (int col = 0; col < row; col++) sum -= s[row * r + col] * t[col];
+			t[row] = sum;
+		}
+		for (int row = r - 1; row >= 0; row--)
+		{
+			double sum = t[row];
+			for (int col = row + 1; col < r; col++) sum -= s[row * r + col] * t[col];
+			t[row] = sum / s[row * r + row];
+		}
+		
+		// x = y - W t.
+		int n = this.size;
+		for (int k = 0; k < r; k++)
+		{
+			double factor = t[k];
+			if (factor == 0d) continue;
+			int column = k * n;
+			for (int i = 0; i < n; i++) solution[offset + i] -= this.columns[column + i] * factor;
+		}
+	}
+	
+	/**
+	 * Assembles S = D^-1 + U^T W and factors it with partial pivoting. Returns false if it is singular, i.e. the changes made the
+	 * matrix singular.
+	 * @return
+	 */
+	boolean factorCapacitance()
+	{
+		int r = this.rank;
+		int n = this.size;
+		double[] s = this.capacitance;
+		double largestEntry = 0d;
+		for (int row = 0; row < r; row++)
+		{
+			for (int col = 0; col < r; col++)
+			{
+				double value = getDifference(this.columns, col * n, this.rowsA[row], this.rowsB[row]);
+				if (row == col) value += 1d / this.deltas[row];
+				s[row * r + col] = value;
+				largestEntry = Math.max(largestEntry, Math.abs(value));
+			}
+		}
+		
+		for (int k = 0; k < r; k++)
+		{
+			// Pick the largest entry of the column as pivot and swap its row up.
+			int pivotRow = k;
+			double largest = Math.abs(s[k * r + k]);
+			for (int row = k + 1; row < r; row++)
+			{
+				double magnitude = Math.abs(s[row * r + k]);
+				if (magnitude > largest)
+				{
+					largest = magnitude;
+					pivotRow = row;
+				}
+			}
+			if (!(largest > SINGULAR_TOLERANCE * largestEntry))
+			{
+				this.solver = null;
+				return false;
+			}
+			this.pivotRows[k] = pivotRow;
+			if (pivotRow != k)
+			{
+				for (int col = 0; col < r; col++)
+				{
+					double swap = s[k * r + col];
+					s[k * r + col] = s[pivotRow * r + col];
+					s[pivotRow * r + col] = swap;
+				}
+			}
+			
+			double pivot = s[k * r + k];
+			for (int row = k + 1; row < r; row++)
+			{
+				double multiplier = s[row * r + k] / pivot;
+				s[row * r + k] = multiplier;
+				for (int col = k + 1; col < r; col++) s[row * r + col] -= multiplier * s[k * r + col];
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Removes a change by moving the last one into its place.
+	 * @param k
+	 */
+	void removeColumn(int k)
+	{
+		int last = --this.rank;
+		if (k == last) return;
+		
+		this.rowsA[k] = this.rowsA[last];
+		this.rowsB[k] = this.rowsB[last];
+		this.deltas[k] = this.deltas[last];
+		System.arraycopy(this.columns, last * this.size, this.columns, k * this.size, this.size);
+	}
+	
+	/**
+	 * Returns u^T v for u = e(rowA) - e(rowB), with v starting at the given offset of the array.
+	 * @param vector
+	 * @param offset
+	 * @param rowA
+	 * @param rowB
+	 * @return
+	 */
+	static double getDifference(double[] vector, int offset, int rowA, int rowB)
+	{
+		double difference = 0d;
+		if (rowA >= 0) difference += vector[offset + rowA];
+		if (rowB >= 0) difference -= vector[offset + rowB];
+		return difference;
+	}
+	
+	/**
+	 * Get the number of changes held by the update.
+	 * @return
+	 */
+	public int getRank()
+	{
+		return this.rank;
+	}
+	
+	/**
+	 * Get the number of changes the update has room for.
+	 * @return
+	 */
+	public int getMaxRank()
+	{
+		return this.maxRank;
+	}
+	
+	// The pivot of S below this fraction of its largest entry counts as zero.
+	static final double SINGULAR_TOLERANCE = 1e-12;
+	
+	// The number of changes the update has room for, and the number it holds.
+	final int maxRank;
+	int rank = 0;
+	
+	// The solver factored for the unchanged matrix, or null if there is none, and the size of the matrix.
+	LinearSystemSolver solver;
+	int size = 0;
+	
+	// The rows of each change and its delta.
+	final int[] rowsA;
+	final int[] rowsB;
+	final double[] deltas;
+	
+	// The columns of W = A^-1 U, one after the other.
+	double[] columns;
+	
+	// The right hand side u and the solution A^-1 u of a new column.
+	double[] unit;
+	double[] column;
+	
+	// The LU factors of S in row-major order and its row swaps.
+	final double[] capacitance;
+	final int[] pivotRows;
+	
+	// The intermediate vector of the correction.
+	final double[] work;
+}
@@ -84,4 +84,73 @@ public class MatrixHelper
 		// Return result matrix.
 		return resultMat;
 	}
+	
+	/**
+	 * Copies data from a sparse stamp matrix into a new DMatrixRMaj object for dense operations.
+	 * @param sparseMat
+	 * @return
+	 */
+	public static DMatrixRMaj convertSparseToDMatrixRMaj(SparseStampMatrix sparseMat)
+	{
+		// Make sure the stamped entries are merged.
+		if (!sparseMat.isCompressed()) sparseMat.compress();
+		
+		// Create a result matrix based on the size of the sparse matrix.
+		DMatrixRMaj resultMat = new DMatrixRMaj(sparseMat.numRows(), sparseMat.numCols());
+		
+		// Only visit the stored entries of each column.
+		int[] colPointers = sparseMat.getColumnPointers();
+		int[] rowIndices = sparseMat.getRowIndices();
+		double[] values = sparseMat.getValues();
+		for (int j = 0; j < sparseMat.numCols(); j++)
+		{
+			for (int k = colPointers[j]; k < colPointers[j + 1]; k++)
+			{
+				resultMat.set(rowIndices[k], j, values[k]);
+			}
+		}
+		
+		// Return result matrix.
+		return resultMat;
+	}
+	
+	/**
+	 * Copies data from a sparse stamp matrix into a new SimpleMatrix object for easier operations.
+	 * @param sparseMat
+	 * @return
+	 */
+	public static SimpleMatrix convertSparseToSimple(SparseStampMatrix sparseMat)
+	{
+		return convertDMatrixRMajToSimple(convertSparseToDMatrixRMaj(sparseMat));
+	}
+	
+	/**
+	 * Copies a vector into a new single column DMatrixRMaj object.
+	 * @param vector
+	 * @return
+	 */
+	public static DMatrixRMaj convertVectorToDMatrixRMaj(double[] vector)
+	{
+		// Create a result matrix with a single column.
+		DMatrixRMaj resultMat = new DMatrixRMaj(vector.length, 1);
+		
+		// Row loop.
+		for (int i = 0; i < vector.length; i++)
+		{
+			resultMat.set(i, 0, vector[i]);
+		}
+		
+		// Return result matrix.
+		return resultMat;
+	}
+	
+	/**
+	 * Copies a vector into a new single column SimpleMatrix object.
+	 * @param vector
+	 * @return
+	 */
+	public static SimpleMatrix convertVectorToSimple(double[] vector)
+	{
+		return convertDMatrixRMajToSimple(convertVectorToDMatrixRMaj(vector));
+	}
 }
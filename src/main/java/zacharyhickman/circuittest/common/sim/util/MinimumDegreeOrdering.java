@@ -0,0 +1,169 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * Minimum degree ordering of the graph of A + A^T. The vertex of smallest degree in the elimination graph is eliminated next and
+ * its neighbors are joined into a clique, which is exactly the fill it causes. Vertices that start out dense (e.g. a node shared
+ * by most of the circuit) are left to the end, as AMD does, so they do not dominate the cost of the ordering.
+ * @author zhick
+ *
+ */
+public class MinimumDegreeOrdering implements SparseOrdering
+{
+	/**
+	 * Computes the minimum degree order of the matrix.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public int[] computeOrder(SparseStampMatrix matLHS)
+	{
+		SparsePatternGraph graph = new SparsePatternGraph(matLHS);
+		int n = graph.size;
+		int[] order = new int[n];
+		if (n == 0) return order;
+		
+		// The elimination graph, starting as a copy of the pattern graph.
+		int[][] adjacency = new int[n][];
+		int[] degrees = new int[n];
+		for (int v = 0; v < n; v++)
+		{
+			adjacency[v] = Arrays.copyOfRange(graph.neighbors, graph.pointers[v], graph.pointers[v + 1]);
+			degrees[v] = adjacency[v].length;
+		}
+		
+		// Dense vertices are taken out of the graph and ordered last.
+		int denseDegree = Math.max(16, (int) (10 * Math.sqrt(n)));
+		boolean[] eliminated = new boolean[n];
+		int denseCount = 0;
+		for (int v = 0; v < n; v++)
+		{
+			if (degrees[v] > denseDegree)
+			{
+				eliminated[v] = true;
+				denseCount++;
+			}
+		}
+		int last = n;
+		for (int v = n - 1; v >= 0; v--)
+		{
+			if (eliminated[v]) order[--last] = v;
+		}
+		if (denseCount > 0)
+		{
+			for (int v = 0; v < n; v++)
+			{
+				if (!eliminated[v]) degrees[v] = removeEliminated(adjacency[v], degrees[v], eliminated);
+			}
+		}
+		
+		// Degree buckets as doubly linked lists.
+		int[] head = new int[n];
+		int[] next = new int[n];
+		int[] previous = new int[n];
+		Arrays.fill(head, -1);
+		for (int v = n - 1; v >= 0; v--)
+		{
+			if (!eliminated[v]) insert(v, degrees[v], head, next, previous);
+		}
+		
+		int[] marks = new int[n];
+		int markStamp = 0;
+		int minimumDegree = 0;
+		for (int k = 0; k < n - denseCount; k++)
+		{
+			// Take a vertex of minimum degree.
+			while (head[minimumDegree] < 0) minimumDegree++;
+			int pivot = head[minimumDegree];
+			remove(pivot, degrees[pivot], head, next, previous);
+			eliminated[pivot] = true;
+			order[k] = pivot;
+			
+			// Join the neighbors of the pivot into a clique, without the pivot.
+			int[] clique = adjacency[pivot];
+			int cliqueSize = degrees[pivot];
+			for (int c = 0; c < cliqueSize; c++)
+			{
+				int vertex = clique[c];
+				remove(vertex, degrees[vertex], head, next, previous);
+				
+				markStamp++;
+				marks[vertex] = markStamp;
+				int[] list = adjacency[vertex];
+				int size = 0;
+				for (int p = 0; p < degrees[vertex]; p++)
+				{
+					int neighbor = list[p];
+					if (neighbor == pivot) continue;
+					marks[neighbor] = markStamp;
+					list[size++] = neighbor;
+				}
+				for (int q = 0; q < cliqueSize; q++)
+				{
+					int neighbor = clique[q];
+					if (marks[neighbor] == markStamp) continue;
+					marks[neighbor] = markStamp;
+					if (size == list.length) list = Arrays.copyOf(list, Math.max(4, 2 * list.length));
+					list[size++] = neighbor;
+				}
+				adjacency[vertex] = list;
+				degrees[vertex] = size;
+				
+				insert(vertex, size, head, next, previous);
+				minimumDegree = Math.min(minimumDegree, size);
+			}
+			adjacency[pivot] = null;
+		}
+		
+		return order;
+	}
+	
+	/**
+	 * Removes the eliminated vertices from an adjacency list and returns its new length.
+	 * @param list
+	 * @param length
+	 * @param eliminated
+	 * @return
+	 */
+	int removeEliminated(int[] list, int length, boolean[] eliminated)
+	{
+		int size = 0;
+		for (int p = 0; p < length; p++)
+		{
+			if (!eliminated[list[p]]) list[size++] = list[p];
+		}
+		return size;
+	}
+	
+	/**
+	 * Inserts a vertex at the front of the bucket of the given degree.
+	 * @param vertex
+	 * @param degree
+	 * @param head
+	 * @param next
+	 * @param previous
+	 */
+	void insert(int vertex, int degree, int[] head, int[] next, int[] previous)
+	{
+		next[vertex] = head[degree];
+		previous[vertex] = -1;
+		if (head[degree] >= 0) previous[head[degree]] = vertex;
+		head[degree] = vertex;
+	}
+	
+	/**
+	 * Removes a vertex from the bucket of the given degree.
+	 * @param vertex
+	 * @param degree
+	 * @param head
+	 * @param next
+	 * @param previous
+	 */
+	void remove(int vertex, int degree, int[] head, int[] next, int[] previous)
+	{
+		if (previous[vertex] >= 0) next[previous[vertex]] = next[vertex];
+		else head[degree] = next[vertex];
+		if (next[vertex] >= 0) previous[next[vertex]] = previous[vertex];
+	}
+}
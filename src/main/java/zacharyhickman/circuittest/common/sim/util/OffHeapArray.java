@@ -0,0 +1,103 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed length array of primitives stored outside of the Java heap, for circuits whose state does not fit the heap budget.
+ * The memory is a list of direct ByteBuffers of CHUNK_BYTES each, so the length is a long and is not limited to 2^31 elements,
+ * while the garbage collector only sees the handful of buffer objects. Elements never straddle two chunks.
+ * The memory is zeroed on allocation and released when the array becomes unreachable. It counts against -XX:MaxDirectMemorySize,
+ * which defaults to the maximum heap size and has to be raised for large circuits.
+ * @author zhick
+ *
+ */
+public abstract class OffHeapArray
+{
+	// Constructor of the array with the given number of elements of the given size in bytes.
+	OffHeapArray(long length, int elementBytes)
+	{
+		if (length < 0) throw new IllegalArgumentException("The length of an off-heap array cannot be negative (" + length + ").");
+		
+		long bytes = length * elementBytes;
+		this.length = length;
+		this.elementBytes = elementBytes;
+		this.chunks = new ByteBuffer[(int) ((bytes + CHUNK_BYTES - 1) >>> CHUNK_SHIFT)];
+		for (int c = 0; c < this.chunks.length; c++)
+		{
+			long chunkBytes = Math.min(CHUNK_BYTES, bytes - ((long) c << CHUNK_SHIFT));
+			this.chunks[c] = ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.nativeOrder());
+		}
+		
+		// Keep the total up to date once the buffers are collected. The action must not hold on to the array.
+		ALLOCATED_BYTES.addAndGet(bytes);
+		CLEANER.register(this, () -> ALLOCATED_BYTES.addAndGet(-bytes));
+	}
+	
+	/**
+	 * Copies count elements from the start of another array of the same element type to the start of this one.
+	 * @param source
+	 * @param count
+	 */
+	public void copyFrom(OffHeapArray source, long count)
+	{
+		if (source.elementBytes != this.elementBytes) throw new IllegalArgumentException("The arrays have different element types.");
+		if ((count < 0) || (count > source.length) || (count > this.length))
+			throw new IndexOutOfBoundsException("Cannot copy " + count + " elements between arrays of " + source.length + " and " + this.length + " elements.");
+		
+		long bytes = count * this.elementBytes;
+		for (int c = 0; ((long) c << CHUNK_SHIFT) < bytes; c++)
+		{
+			int chunkBytes = (int) Math.min(CHUNK_BYTES, bytes - ((long) c << CHUNK_SHIFT));
+			ByteBuffer from = source.chunks[c].duplicate();
+			from.limit(chunkBytes);
+			ByteBuffer to = this.chunks[c].duplicate();
+			to.put(from);
+		}
+	}
+	
+	/**
+	 * Get the number of elements.
+	 * @return
+	 */
+	public long length()
+	{
+		return this.length;
+	}
+	
+	/**
+	 * Get the size of the array in bytes.
+	 * @return
+	 */
+	public long getByteSize()
+	{
+		return this.length * this.elementBytes;
+	}
+	
+	/**
+	 * Get the number of bytes held by all off-heap arrays that have not been collected yet.
+	 * @return
+	 */
+	public static long getAllocatedBytes()
+	{
+		return ALLOCATED_BYTES.get();
+	}
+	
+	// The chunk size as a power of two. A chunk holds a whole number of elements of every type.
+	static final int CHUNK_SHIFT = 27;
+	static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+	static final long CHUNK_MASK = CHUNK_BYTES - 1;
+	
+	// The number of bytes held by all off-heap arrays, and the cleaner that subtracts the collected ones.
+	static final AtomicLong ALLOCATED_BYTES = new AtomicLong();
+	static final Cleaner CLEANER = Cleaner.create();
+	
+	// The number of elements and the size of one element in bytes.
+	final long length;
+	final int elementBytes;
+	
+	// The memory chunks.
+	final ByteBuffer[] chunks;
+}
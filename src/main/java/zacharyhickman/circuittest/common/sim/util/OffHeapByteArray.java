@@ -0,0 +1,76 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * An off-heap array of bytes with a long index. See OffHeapArray.
+ * @author zhick
+ *
+ */
+public final class OffHeapByteArray extends OffHeapArray
+{
+	// Constructor of the array. All elements start at 0.
+	public OffHeapByteArray(long length)
+	{
+		super(length, 1);
+	}
+	
+	/**
+	 * Get the byte at the given index.
+	 * @param index
+	 * @return
+	 */
+	public byte get(long index)
+	{
+		return this.chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+	}
+	
+	/**
+	 * Set the byte at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void set(long index, byte value)
+	{
+		this.chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+	}
+	
+	/**
+	 * Copies bytes[offset, offset + count) into this array starting at index.
+	 * @param index
+	 * @param bytes
+	 * @param offset
+	 * @param count
+	 */
+	public void put(long index, byte[] bytes, int offset, int count)
+	{
+		for (int i = 0; i < count; i++) set(index + i, bytes[offset + i]);
+	}
+	
+	/**
+	 * Copies count bytes starting at index into bytes[offset, offset + count).
+	 * @param index
+	 * @param bytes
+	 * @param offset
+	 * @param count
+	 */
+	public void get(long index, byte[] bytes, int offset, int count)
+	{
+		for (int i = 0; i < count; i++) bytes[offset + i] = get(index + i);
+	}
+	
+	/**
+	 * Returns true if the count bytes starting at index equal bytes[offset, offset + count).
+	 * @param index
+	 * @param bytes
+	 * @param offset
+	 * @param count
+	 * @return
+	 */
+	public boolean matches(long index, byte[] bytes, int offset, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			if (get(index + i) != bytes[offset + i]) return false;
+		}
+		return true;
+	}
+}
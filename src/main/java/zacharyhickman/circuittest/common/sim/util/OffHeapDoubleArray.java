@@ -0,0 +1,59 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * An off-heap array of doubles with a long index. See OffHeapArray.
+ * @author zhick
+ *
+ */
+public final class OffHeapDoubleArray extends OffHeapArray
+{
+	// Constructor of the array. All elements start at 0.
+	public OffHeapDoubleArray(long length)
+	{
+		super(length, 8);
+	}
+	
+	/**
+	 * Get the element at the given index.
+	 * @param index
+	 * @return
+	 */
+	public double get(long index)
+	{
+		long position = index << 3;
+		return this.chunks[(int) (position >>> CHUNK_SHIFT)].getDouble((int) (position & CHUNK_MASK));
+	}
+	
+	/**
+	 * Set the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void set(long index, double value)
+	{
+		long position = index << 3;
+		this.chunks[(int) (position >>> CHUNK_SHIFT)].putDouble((int) (position & CHUNK_MASK), value);
+	}
+	
+	/**
+	 * Adds a value to the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void add(long index, double value)
+	{
+		long position = index << 3;
+		int chunk = (int) (position >>> CHUNK_SHIFT);
+		int offset = (int) (position & CHUNK_MASK);
+		this.chunks[chunk].putDouble(offset, this.chunks[chunk].getDouble(offset) + value);
+	}
+	
+	/**
+	 * Sets every element to the given value.
+	 * @param value
+	 */
+	public void fill(double value)
+	{
+		for (long i = 0; i < this.length; i++) set(i, value);
+	}
+}
@@ -0,0 +1,59 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * An off-heap array of ints with a long index. See OffHeapArray.
+ * @author zhick
+ *
+ */
+public final class OffHeapIntArray extends OffHeapArray
+{
+	// Constructor of the array. All elements start at 0.
+	public OffHeapIntArray(long length)
+	{
+		super(length, 4);
+	}
+	
+	/**
+	 * Get the element at the given index.
+	 * @param index
+	 * @return
+	 */
+	public int get(long index)
+	{
+		long position = index << 2;
+		return this.chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & CHUNK_MASK));
+	}
+	
+	/**
+	 * Set the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void set(long index, int value)
+	{
+		long position = index << 2;
+		this.chunks[(int) (position >>> CHUNK_SHIFT)].putInt((int) (position & CHUNK_MASK), value);
+	}
+	
+	/**
+	 * Adds a value to the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void add(long index, int value)
+	{
+		long position = index << 2;
+		int chunk = (int) (position >>> CHUNK_SHIFT);
+		int offset = (int) (position & CHUNK_MASK);
+		this.chunks[chunk].putInt(offset, this.chunks[chunk].getInt(offset) + value);
+	}
+	
+	/**
+	 * Sets every element to the given value.
+	 * @param value
+	 */
+	public void fill(int value)
+	{
+		for (long i = 0; i < this.length; i++) set(i, value);
+	}
+}
@@ -0,0 +1,59 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * An off-heap array of longs with a long index. See OffHeapArray.
+ * @author zhick
+ *
+ */
+public final class OffHeapLongArray extends OffHeapArray
+{
+	// Constructor of the array. All elements start at 0.
+	public OffHeapLongArray(long length)
+	{
+		super(length, 8);
+	}
+	
+	/**
+	 * Get the element at the given index.
+	 * @param index
+	 * @return
+	 */
+	public long get(long index)
+	{
+		long position = index << 3;
+		return this.chunks[(int) (position >>> CHUNK_SHIFT)].getLong((int) (position & CHUNK_MASK));
+	}
+	
+	/**
+	 * Set the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void set(long index, long value)
+	{
+		long position = index << 3;
+		this.chunks[(int) (position >>> CHUNK_SHIFT)].putLong((int) (position & CHUNK_MASK), value);
+	}
+	
+	/**
+	 * Adds a value to the element at the given index.
+	 * @param index
+	 * @param value
+	 */
+	public void add(long index, long value)
+	{
+		long position = index << 3;
+		int chunk = (int) (position >>> CHUNK_SHIFT);
+		int offset = (int) (position & CHUNK_MASK);
+		this.chunks[chunk].putLong(offset, this.chunks[chunk].getLong(offset) + value);
+	}
+	
+	/**
+	 * Sets every element to the given value.
+	 * @param value
+	 */
+	public void fill(long value)
+	{
+		for (long i = 0; i < this.length; i++) set(i, value);
+	}
+}
@@ -0,0 +1,255 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * A square matrix in compressed sparse column form held in off-heap arrays, for systems too large for SparseStampMatrix.
+ * It is assembled in two passes without a triplet list: first every entry is counted with countEntry(), then startFilling()
+ * lays out the columns and the same entries are added with addEntry(), and finally compress() sorts the rows of each column
+ * and sums the duplicates. The column pointers are longs, so the number of non-zeros is not limited to 2^31.
+ * @author zhick
+ *
+ */
+public final class OffHeapSparseMatrix
+{
+	// Constructor of an empty matrix of the given size, ready to count entries.
+	public OffHeapSparseMatrix(int size)
+	{
+		this.size = size;
+		this.columnPointers = new OffHeapLongArray(size + 1L);
+	}
+	
+	/**
+	 * Counts an entry in the given column. Only valid before startFilling().
+	 * @param col
+	 */
+	public void countEntry(int col)
+	{
+		if (this.phase != COUNTING) throw new IllegalStateException("The entries of the matrix were already counted.");
+		
+		this.columnPointers.add(col + 1L, 1L);
+	}
+	
+	/**
+	 * Allocates the entries counted so far. After this, the same entries must be added with addEntry().
+	 */
+	public void startFilling()
+	{
+		if (this.phase != COUNTING) throw new IllegalStateException("The matrix is already being filled.");
+		
+		this.fillPositions = new OffHeapLongArray(this.size);
+		for (int col = 0; col < this.size; col++)
+		{
+			long start = this.columnPointers.get(col);
+			this.columnPointers.add(col + 1L, start);
+			this.fillPositions.set(col, start);
+		}
+		long entryCount = this.columnPointers.get(this.size);
+		this.rowIndices = new OffHeapIntArray(entryCount);
+		this.values = new OffHeapDoubleArray(entryCount);
+		this.phase = FILLING;
+	}
+	
+	/**
+	 * Adds a value at the given position. Only valid between startFilling() and compress(), and only for counted entries.
+	 * @param row
+	 * @param col
+	 * @param value
+	 */
+	public void addEntry(int row, int col, double value)
+	{
+		if (this.phase != FILLING) throw new IllegalStateException("The matrix is not being filled.");
+		long position = this.fillPositions.get(col);
+		if (position == this.columnPointers.get(col + 1L)) throw new IllegalStateException("More entries were added to column " + col + " than counted.");
+		
+		this.rowIndices.set(position, row);
+		this.values.set(position, value);
+		this.fillPositions.set(col, position + 1);
+	}
+	
+	/**
+	 * Sorts the rows of every column and sums duplicate entries.
+	 */
+	public void compress()
+	{
+		if (this.phase != FILLING) throw new IllegalStateException("The matrix is not being filled.");
+		for (int col = 0; col < this.size; col++)
+		{
+			if (this.fillPositions.get(col) != this.columnPointers.get(col + 1L))
+				throw new IllegalStateException("Fewer entries were added to column " + col + " than counted.");
+		}
+		this.fillPositions = null;
+		
+		// Columns of a circuit matrix are short, so an insertion sort is enough. The merged entries move down in place.
+		long write = 0;
+		long read = 0;
+		for (int col = 0; col < this.size; col++)
+		{
+			long end = this.columnPointers.get(col + 1L);
+			for (long i = read + 1; i < end; i++)
+			{
+				int row = this.rowIndices.get(i);
+				double value = this.values.get(i);
+				long j = i - 1;
+				for (; (j >= read) && (this.rowIndices.get(j) > row); j--)
+				{
+					this.rowIndices.set(j + 1, this.rowIndices.get(j));
+					this.values.set(j + 1, this.values.get(j));
+				}
+				this.rowIndices.set(j + 1, row);
+				this.values.set(j + 1, value);
+			}
+			
+			long columnStart = write;
+			for (long i = read; i < end; i++)
+			{
+				if ((write > columnStart) && (this.rowIndices.get(write - 1) == this.rowIndices.get(i)))
+				{
+					this.values.add(write - 1, this.values.get(i));
+				}
+				else
+				{
+					this.rowIndices.set(write, this.rowIndices.get(i));
+					this.values.set(write, this.values.get(i));
+					write++;
+				}
+			}
+			read = end;
+			this.columnPointers.set(col + 1L, write);
+		}
+		
+		// Trim the arrays to the merged entries.
+		OffHeapIntArray rowIndices = new OffHeapIntArray(write);
+		rowIndices.copyFrom(this.rowIndices, write);
+		OffHeapDoubleArray values = new OffHeapDoubleArray(write);
+		values.copyFrom(this.values, write);
+		this.rowIndices = rowIndices;
+		this.values = values;
+		this.phase = COMPRESSED;
+	}
+	
+	/**
+	 * Computes y = A*x. Both vectors hold size elements.
+	 * @param x
+	 * @param y
+	 */
+	public void multiply(OffHeapDoubleArray x, OffHeapDoubleArray y)
+	{
+		checkCompressed();
+		
+		y.fill(0d);
+		long start = 0;
+		for (int col = 0; col < this.size; col++)
+		{
+			long end = this.columnPointers.get(col + 1L);
+			double xCol = x.get(col);
+			if (xCol != 0d)
+			{
+				for (long i = start; i < end; i++) y.add(this.rowIndices.get(i), this.values.get(i) * xCol);
+			}
+			start = end;
+		}
+	}
+	
+	/**
+	 * Computes y = A^T*x. Each element of y is the dot product of a column with x, so y is written once per element instead
+	 * of being scattered into, which makes this the faster product for symmetric matrices.
+	 * @param x
+	 * @param y
+	 */
+	public void multiplyTransposed(OffHeapDoubleArray x, OffHeapDoubleArray y)
+	{
+		checkCompressed();
+		
+		long start = 0;
+		for (int col = 0; col < this.size; col++)
+		{
+			long end = this.columnPointers.get(col + 1L);
+			double sum = 0d;
+			for (long i = start; i < end; i++) sum += this.values.get(i) * x.get(this.rowIndices.get(i));
+			y.set(col, sum);
+			start = end;
+		}
+	}
+	
+	/**
+	 * Get the entry at the given position, 0 if it is not stored.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double get(int row, int col)
+	{
+		checkCompressed();
+		
+		// Binary search of the sorted rows of the column.
+		long low = this.columnPointers.get(col);
+		long high = this.columnPointers.get(col + 1L) - 1;
+		while (low <= high)
+		{
+			long middle = (low + high) >>> 1;
+			int middleRow = this.rowIndices.get(middle);
+			if (middleRow < row) low = middle + 1;
+			else if (middleRow > row) high = middle - 1;
+			else return this.values.get(middle);
+		}
+		return 0d;
+	}
+	
+	/**
+	 * Throws an exception if the matrix was not compressed yet.
+	 */
+	void checkCompressed()
+	{
+		if (this.phase != COMPRESSED) throw new IllegalStateException("The matrix is not compressed yet.");
+	}
+	
+	/**
+	 * Get the dimension of the matrix.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Get the number of stored entries.
+	 * @return
+	 */
+	public long getNonZeroCount()
+	{
+		return this.columnPointers.get(this.size);
+	}
+	
+	/**
+	 * Get the number of off-heap bytes held by the matrix.
+	 * @return
+	 */
+	public long getByteSize()
+	{
+		long bytes = this.columnPointers.getByteSize();
+		if (this.rowIndices != null) bytes += this.rowIndices.getByteSize() + this.values.getByteSize();
+		if (this.fillPositions != null) bytes += this.fillPositions.getByteSize();
+		return bytes;
+	}
+	
+	// The assembly phases.
+	static final int COUNTING = 0;
+	static final int FILLING = 1;
+	static final int COMPRESSED = 2;
+	
+	// The dimension of the matrix.
+	final int size;
+	
+	// The current assembly phase.
+	int phase = COUNTING;
+	
+	// The start of each column in the entry arrays, with the total count at the end. Holds the counts shifted by one while counting.
+	final OffHeapLongArray columnPointers;
+	
+	// The row and value of each entry.
+	OffHeapIntArray rowIndices;
+	OffHeapDoubleArray values;
+	
+	// The next free position of each column while filling.
+	OffHeapLongArray fillPositions;
+}
@@ -0,0 +1,194 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An open-addressing table that interns names given as raw bytes and numbers them in order of first appearance, with the slots,
+ * the name bytes and the offsets all held in off-heap arrays. It is the off-heap counterpart of the name table of the netlist
+ * reader: a lookup hashes and compares the bytes in place and a String is only made when a name is asked for, and never kept.
+ * @author zhick
+ *
+ */
+public final class OffHeapStringTable
+{
+	// Constructor of the table, sized for the expected number of names and name bytes.
+	public OffHeapStringTable(long expectedCount, long expectedBytes)
+	{
+		long capacity = Long.highestOneBit(Math.max(16L, expectedCount * 2) - 1) << 1;
+		this.slots = new OffHeapLongArray(capacity);
+		this.offsets = new OffHeapLongArray(Math.max(16L, expectedCount) + 1);
+		this.arena = new OffHeapByteArray(Math.max(256L, expectedBytes));
+	}
+	
+	/**
+	 * Returns the id of the name held in bytes[offset, offset + length), adding it to the table if it is new.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int intern(byte[] bytes, int offset, int length)
+	{
+		int hash = hash(bytes, offset, length);
+		long mask = this.slots.length() - 1;
+		long slot = hash & mask;
+		while (this.slots.get(slot) != 0)
+		{
+			long entry = this.slots.get(slot);
+			int id = (int) entry - 1;
+			if (((int) (entry >>> 32) == hash) && matches(id, bytes, offset, length)) return id;
+			slot = (slot + 1) & mask;
+		}
+		if (this.size == Integer.MAX_VALUE - 1) throw new IllegalStateException("The string table is full.");
+		
+		// Add the name, growing the storage first if needed.
+		int id = this.size;
+		if (id + 1 == this.offsets.length())
+		{
+			OffHeapLongArray offsets = new OffHeapLongArray(this.offsets.length() * 2);
+			offsets.copyFrom(this.offsets, this.offsets.length());
+			this.offsets = offsets;
+		}
+		long start = this.offsets.get(id);
+		if (start + length > this.arena.length())
+		{
+			OffHeapByteArray arena = new OffHeapByteArray(Math.max(this.arena.length() * 2, start + length));
+			arena.copyFrom(this.arena, start);
+			this.arena = arena;
+		}
+		this.arena.put(start, bytes, offset, length);
+		this.offsets.set(id + 1, start + length);
+		this.slots.set(slot, ((long) hash << 32) | (id + 1));
+		this.size++;
+		
+		// Keep the load factor at or below one half.
+		if ((long) this.size * 2 > this.slots.length()) rehash(this.slots.length() * 2);
+		
+		return id;
+	}
+	
+	/**
+	 * Returns the id of the given name, or -1 if it is not in the table.
+	 * @param name
+	 * @return
+	 */
+	public int find(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(bytes, 0, bytes.length);
+		long mask = this.slots.length() - 1;
+		for (long slot = hash & mask; this.slots.get(slot) != 0; slot = (slot + 1) & mask)
+		{
+			long entry = this.slots.get(slot);
+			int id = (int) entry - 1;
+			if (((int) (entry >>> 32) == hash) && matches(id, bytes, 0, bytes.length)) return id;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the name of the given id. A new String is made on every call.
+	 * @param id
+	 * @return
+	 */
+	public String getName(int id)
+	{
+		if ((id < 0) || (id >= this.size)) throw new IndexOutOfBoundsException("There is no name of id " + id + ".");
+		
+		byte[] bytes = new byte[getNameLength(id)];
+		this.arena.get(this.offsets.get(id), bytes, 0, bytes.length);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Get the length of the name of the given id in bytes.
+	 * @param id
+	 * @return
+	 */
+	public int getNameLength(int id)
+	{
+		return (int) (this.offsets.get(id + 1) - this.offsets.get(id));
+	}
+	
+	/**
+	 * Get the number of names in the table.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Get the number of off-heap bytes held by the table.
+	 * @return
+	 */
+	public long getByteSize()
+	{
+		return this.slots.getByteSize() + this.offsets.getByteSize() + this.arena.getByteSize();
+	}
+	
+	/**
+	 * Returns true if the name of the given id equals bytes[offset, offset + length).
+	 * @param id
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	boolean matches(int id, byte[] bytes, int offset, int length)
+	{
+		long start = this.offsets.get(id);
+		if (this.offsets.get(id + 1) - start != length) return false;
+		return this.arena.matches(start, bytes, offset, length);
+	}
+	
+	/**
+	 * Rebuilds the slots with the given power of two capacity.
+	 * @param capacity
+	 */
+	void rehash(long capacity)
+	{
+		OffHeapLongArray oldSlots = this.slots;
+		this.slots = new OffHeapLongArray(capacity);
+		long mask = capacity - 1;
+		for (long i = 0; i < oldSlots.length(); i++)
+		{
+			long entry = oldSlots.get(i);
+			if (entry == 0) continue;
+			long slot = (int) (entry >>> 32) & mask;
+			while (this.slots.get(slot) != 0) slot = (slot + 1) & mask;
+			this.slots.set(slot, entry);
+		}
+	}
+	
+	/**
+	 * Hashes bytes[offset, offset + length). FNV-1a, finished with a mix so the low bits used for the slots are well spread.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	static int hash(byte[] bytes, int offset, int length)
+	{
+		int hash = 0x811c9dc5;
+		for (int i = offset; i < offset + length; i++)
+		{
+			hash = (hash ^ bytes[i]) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+	
+	// The open-addressing slots. Each holds the hash of its name in the high half and the id plus one in the low half, or 0 if it is empty.
+	OffHeapLongArray slots;
+	
+	// The bytes of all names back to back. Name id occupies arena[offsets[id], offsets[id + 1]).
+	OffHeapByteArray arena;
+	OffHeapLongArray offsets;
+	
+	// The number of names in the table.
+	int size = 0;
+}
@@ -0,0 +1,139 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * Reverse Cuthill-McKee ordering. Every connected part of the graph is numbered breadth first from a pseudo-peripheral vertex,
+ * visiting the neighbors in order of increasing degree, and the whole order is reversed at the end.
+ * @author zhick
+ *
+ */
+public class ReverseCuthillMcKeeOrdering implements SparseOrdering
+{
+	/**
+	 * Computes the reverse Cuthill-McKee order of the matrix.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public int[] computeOrder(SparseStampMatrix matLHS)
+	{
+		SparsePatternGraph graph = new SparsePatternGraph(matLHS);
+		int n = graph.size;
+		int[] order = new int[n];
+		int[] levels = new int[n];
+		boolean[] numbered = new boolean[n];
+		int count = 0;
+		
+		for (int seed = 0; seed < n; seed++)
+		{
+			if (numbered[seed]) continue;
+			
+			int start = findPseudoPeripheral(graph, seed, numbered, order, count, levels);
+			
+			// Breadth first numbering, appending the unnumbered neighbors of each vertex by increasing degree.
+			numbered[start] = true;
+			order[count] = start;
+			int head = count;
+			count++;
+			while (head < count)
+			{
+				int vertex = order[head++];
+				int first = count;
+				for (int p = graph.pointers[vertex]; p < graph.pointers[vertex + 1]; p++)
+				{
+					int neighbor = graph.neighbors[p];
+					if (numbered[neighbor]) continue;
+					numbered[neighbor] = true;
+					order[count++] = neighbor;
+				}
+				sortByDegree(graph, order, first, count);
+			}
+		}
+		
+		// Reverse.
+		for (int i = 0, j = n - 1; i < j; i++, j--)
+		{
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		
+		return order;
+	}
+	
+	/**
+	 * Finds a vertex of large eccentricity in the part of the graph containing seed, by repeating breadth first searches from the
+	 * lowest degree vertex of the last level while that makes the level structure deeper. order[offset..] is used as the queue.
+	 * @param graph
+	 * @param seed
+	 * @param numbered
+	 * @param order
+	 * @param offset
+	 * @param levels
+	 * @return
+	 */
+	int findPseudoPeripheral(SparsePatternGraph graph, int seed, boolean[] numbered, int[] order, int offset, int[] levels)
+	{
+		int start = seed;
+		int depth = -1;
+		while (true)
+		{
+			// Breadth first search from start, recording the level of every vertex.
+			int tail = offset;
+			order[tail++] = start;
+			levels[start] = 0;
+			numbered[start] = true;
+			int head = offset;
+			while (head < tail)
+			{
+				int vertex = order[head++];
+				for (int p = graph.pointers[vertex]; p < graph.pointers[vertex + 1]; p++)
+				{
+					int neighbor = graph.neighbors[p];
+					if (numbered[neighbor]) continue;
+					numbered[neighbor] = true;
+					levels[neighbor] = levels[vertex] + 1;
+					order[tail++] = neighbor;
+				}
+			}
+			
+			// Undo the marks, the caller numbers the vertices for real.
+			for (int i = offset; i < tail; i++) numbered[order[i]] = false;
+			
+			int newDepth = levels[order[tail - 1]];
+			if (newDepth <= depth) return start;
+			depth = newDepth;
+			
+			// Continue from the lowest degree vertex of the deepest level.
+			int best = order[tail - 1];
+			for (int i = tail - 1; (i >= offset) && (levels[order[i]] == newDepth); i--)
+			{
+				if (graph.degree(order[i]) < graph.degree(best)) best = order[i];
+			}
+			if (best == start) return start;
+			start = best;
+		}
+	}
+	
+	/**
+	 * Insertion sort of order[from..to-1] by increasing degree. The runs are the neighbor lists of single vertices, so they are short.
+	 * @param graph
+	 * @param order
+	 * @param from
+	 * @param to
+	 */
+	void sortByDegree(SparsePatternGraph graph, int[] order, int from, int to)
+	{
+		for (int i = from + 1; i < to; i++)
+		{
+			int vertex = order[i];
+			int degree = graph.degree(vertex);
+			int j = i - 1;
+			while ((j >= from) && (graph.degree(order[j]) > degree))
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = vertex;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Chooses the solver of a circuit matrix from its structure: its size, its density, whether it is symmetric and whether it is
+ * positive definite. A matrix without voltage source branch rows that is symmetric with a positive, dominant diagonal is the
+ * nodal matrix of positive conductances, which is positive definite whenever every node has a path to the reference node, so it
+ * gets a Cholesky solver. Small or dense matrices are factored densely, very large ones iteratively and the rest with the sparse LU solver.
+ * The choice can also be autotuned: every candidate that fits the matrix is timed on real steps and the fastest one is kept.
+ * @author zhick
+ *
+ */
+public class SolverSelector
+{
+	// Constructor of the selector with the default thresholds.
+	public SolverSelector()
+	{
+	
+	}
+	
+	// Constructor of a selector with the thresholds of the given one, e.g. to choose the solvers of the islands of its matrix.
+	public SolverSelector(SolverSelector thresholds)
+	{
+		this.denseThreshold = thresholds.denseThreshold;
+		this.denseLimit = thresholds.denseLimit;
+		this.denseDensity = thresholds.denseDensity;
+		this.iterativeThreshold = thresholds.iterativeThreshold;
+	}
+	
+	/**
+	 * The kinds of solvers the selector chooses from.
+	 */
+	public enum Kind
+	{
+		// The dense LU solver with partial pivoting.
+		DENSE_LU,
+		// The dense Cholesky solver, for symmetric positive definite matrices.
+		DENSE_CHOLESKY,
+		// The sparse LU solver, one block per island.
+		SPARSE_LU,
+		// The sparse Cholesky solver, for symmetric positive definite matrices.
+		SPARSE_CHOLESKY,
+		// The preconditioned iterative solver.
+		ITERATIVE
+	}
+	
+	/**
+	 * Inspects the matrix and chooses the kind of solver for it. The rows from nodeRowCount on are voltage source branches.
+	 * @param matLHS
+	 * @param nodeRowCount
+	 * @return
+	 */
+	public Kind select(SparseStampMatrix matLHS, int nodeRowCount)
+	{
+		inspect(matLHS, nodeRowCount);
+		
+		String structure = this.size + " rows, " + this.nonZeroCount + " non-zeros (" + String.format("%.2g", this.density * 100d) + "% dense), "
+				+ (this.positiveDefinite ? "symmetric positive definite" : (this.symmetric ? "symmetric, not definite" : "unsymmetric"))
+				+ ((this.size > nodeRowCount) ? " with " + (this.size - nodeRowCount) + ((this.size - nodeRowCount == 1) ? " branch row" : " branch rows") : "");
+		if (this.size <= this.denseThreshold)
+		{
+			this.kind = this.positiveDefinite ? Kind.DENSE_CHOLESKY : Kind.DENSE_LU;
+			this.reason = structure + ": small enough to factor densely";
+		}
+		else if ((this.density >= this.denseDensity) && (this.size <= this.denseLimit))
+		{
+			this.kind = this.positiveDefinite ? Kind.DENSE_CHOLESKY : Kind.DENSE_LU;
+			this.reason = structure + ": dense enough to factor densely";
+		}
+		else if (this.size >= this.iterativeThreshold)
+		{
+			this.kind = Kind.ITERATIVE;
+			this.reason = structure + ": too large for the fill of a direct factorization";
+		}
+		else
+		{
+			this.kind = this.positiveDefinite ? Kind.SPARSE_CHOLESKY : Kind.SPARSE_LU;
+			this.reason = structure + ": sparse";
+		}
+		
+		return this.kind;
+	}
+	
+	/**
+	 * Finds the size, density, symmetry and definiteness of the matrix.
+	 * @param matLHS
+	 * @param nodeRowCount
+	 */
+	void inspect(SparseStampMatrix matLHS, int nodeRowCount)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		
+		int n = matLHS.numCols();
+		int[] columnPointers = matLHS.getColumnPointers();
+		int[] rowIndices = matLHS.getRowIndices();
+		double[] values = matLHS.getValues();
+		this.size = n;
+		this.nonZeroCount = matLHS.getNonZeroCount();
+		this.density = (n > 0) ? (double) this.nonZeroCount / ((double) n * n) : 0d;
+		
+		// Symmetric if every entry matches its mirror to rounding, dominant if every diagonal is positive and at least the sum of the rest of its column.
+		double largest = 0d;
+		for (double value : values) largest = Math.max(largest, Math.abs(value));
+		double roundingLimit = 1e-12 * largest;
+		boolean symmetric = true;
+		boolean dominant = nodeRowCount >= n;
+		for (int col = 0; (col < n) && (symmetric || dominant); col++)
+		{
+			double diagonal = 0d;
+			double offDiagonal = 0d;
+			for (int p = columnPointers[col]; p < columnPointers[col + 1]; p++)
+			{
+				int row = rowIndices[p];
+				if (row == col)
+				{
+					diagonal = values[p];
+					continue;
+				}
+				offDiagonal += Math.abs(values[p]);
+				if (symmetric && (Math.abs(values[p] - matLHS.get(col, row)) > roundingLimit)) symmetric = false;
+			}
+			if (!(diagonal > 0d) || (diagonal < offDiagonal - roundingLimit)) dominant = false;
+		}
+		this.symmetric = symmetric;
+		this.positiveDefinite = symmetric && dominant;
+	}
+	
+	/**
+	 * Returns the kinds of solvers that fit the last inspected matrix, for autotuning. Dense kinds are left out above the dense
+	 * limit and Cholesky kinds for matrices that are not positive definite.
+	 * @return
+	 */
+	public Kind[] getCandidates()
+	{
+		ArrayList<Kind> candidates = new ArrayList<Kind>();
+		if (this.size <= this.denseLimit)
+		{
+			candidates.add(Kind.DENSE_LU);
+			if (this.positiveDefinite) candidates.add(Kind.DENSE_CHOLESKY);
+		}
+		candidates.add(Kind.SPARSE_LU);
+		if (this.positiveDefinite) candidates.add(Kind.SPARSE_CHOLESKY);
+		candidates.add(Kind.ITERATIVE);
+		return candidates.toArray(new Kind[0]);
+	}
+	
+	/**
+	 * Starts timing the given candidates.
+	 * @param candidates
+	 */
+	public void beginAutotune(Kind[] candidates)
+	{
+		this.candidates = candidates.clone();
+		this.factorNanos = new long[candidates.length];
+		this.solveNanos = new long[candidates.length];
+		this.solveCounts = new int[candidates.length];
+		this.failed = new boolean[candidates.length];
+	}
+	
+	/**
+	 * Records the time of a factorization by a candidate.
+	 * @param candidate
+	 * @param nanos
+	 */
+	public void recordFactorization(int candidate, long nanos)
+	{
+		this.factorNanos[candidate] += nanos;
+	}
+	
+	/**
+	 * Records the time of a solve by a candidate.
+	 * @param candidate
+	 * @param nanos
+	 */
+	public void recordSolve(int candidate, long nanos)
+	{
+		this.solveNanos[candidate] += nanos;
+		this.solveCounts[candidate]++;
+	}
+	
+	/**
+	 * Marks a candidate as unusable, e.g. because its factorization failed or it did not converge.
+	 * @param candidate
+	 */
+	public void recordFailure(int candidate)
+	{
+		this.failed[candidate] = true;
+	}
+	
+	/**
+	 * Chooses the fastest candidate that did not fail and returns its index, or -1 if all failed. A factorization is counted as a
+	 * hundredth of its time, since it is kept until the matrix changes while every step solves.
+	 * @return
+	 */
+	public int endAutotune()
+	{
+		int best = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		double[] costs = new double[this.candidates.length];
+		for (int c = 0; c < this.candidates.length; c++)
+		{
+			costs[c] = Double.NaN;
+			if (this.failed[c] || (this.solveCounts[c] == 0)) continue;
+			costs[c] = (double) this.solveNanos[c] / this.solveCounts[c] + this.factorNanos[c] / FACTORIZATION_AMORTIZATION_STEPS;
+			if (costs[c] < bestCost)
+			{
+				bestCost = costs[c];
+				best = c;
+			}
+		}
+		
+		StringBuilder timings = new StringBuilder();
+		for (int c = 0; c < this.candidates.length; c++)
+		{
+			if (c > 0) timings.append(", ");
+			timings.append(this.candidates[c]).append(' ');
+			timings.append(Double.isNaN(costs[c]) ? "failed" : String.format("%.1f us/step", costs[c] / 1000d));
+		}
+		if (best >= 0)
+		{
+			this.kind = this.candidates[best];
+			this.reason = "autotuned (" + timings + ")";
+		}
+		this.candidates = null;
+		
+		return best;
+	}
+	
+	/**
+	 * Replaces the chosen kind, e.g. after the chosen solver failed on the matrix and a fallback took over.
+	 * @param kind
+	 * @param reason
+	 */
+	public void override(Kind kind, String reason)
+	{
+		this.kind = kind;
+		this.reason = reason;
+	}
+	
+	/**
+	 * Set the size up to which matrices are always factored densely, and the size up to which dense matrices are.
+	 * @param denseThreshold
+	 * @param denseLimit
+	 */
+	public void setDenseThresholds(int denseThreshold, int denseLimit)
+	{
+		this.denseThreshold = denseThreshold;
+		this.denseLimit = denseLimit;
+	}
+	
+	/**
+	 * Set the size from which matrices are solved iteratively.
+	 * @param iterativeThreshold
+	 */
+	public void setIterativeThreshold(int iterativeThreshold)
+	{
+		this.iterativeThreshold = iterativeThreshold;
+	}
+	
+	/**
+	 * Get the kind of solver chosen last.
+	 * @return
+	 */
+	public Kind getKind()
+	{
+		return this.kind;
+	}
+	
+	/**
+	 * Get why the last kind was chosen.
+	 * @return
+	 */
+	public String getReason()
+	{
+		return this.reason;
+	}
+	
+	/**
+	 * Returns true if the last inspected matrix is symmetric.
+	 * @return
+	 */
+	public boolean isSymmetric()
+	{
+		return this.symmetric;
+	}
+	
+	/**
+	 * Returns true if the last inspected matrix is symmetric positive definite, as far as its structure shows.
+	 * @return
+	 */
+	public boolean isPositiveDefinite()
+	{
+		return this.positiveDefinite;
+	}
+	
+	/**
+	 * Returns true while candidates are being timed.
+	 * @return
+	 */
+	public boolean isAutotuning()
+	{
+		return this.candidates != null;
+	}
+	
+	/**
+	 * Get the candidates being timed.
+	 * @return
+	 */
+	public Kind[] getAutotuneCandidates()
+	{
+		return (this.candidates != null) ? Arrays.copyOf(this.candidates, this.candidates.length) : new Kind[0];
+	}
+	
+	// The number of steps a factorization is expected to be reused for when autotuning.
+	static final double FACTORIZATION_AMORTIZATION_STEPS = 100d;
+	
+	// The size up to which matrices are factored densely, and the size up to which matrices above the dense density are.
+	int denseThreshold = 48;
+	int denseLimit = 1500;
+	
+	// The fraction of non-zeros from which a matrix counts as dense.
+	double denseDensity = 0.25;
+	
+	// The size from which matrices are solved iteratively.
+	int iterativeThreshold = 2000000;
+	
+	// The structure of the last inspected matrix.
+	int size = 0;
+	int nonZeroCount = 0;
+	double density = 0d;
+	boolean symmetric = false;
+	boolean positiveDefinite = false;
+	
+	// The last chosen kind and why.
+	Kind kind = Kind.SPARSE_LU;
+	String reason = "not selected yet";
+	
+	// The candidates being timed, their accumulated factorization and solve times, their solve counts and whether they failed.
+	Kind[] candidates;
+	long[] factorNanos;
+	long[] solveNanos;
+	int[] solveCounts;
+	boolean[] failed;
+}
@@ -0,0 +1,482 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A sparse solver that splits the matrix into its independent blocks before factoring. The reference node is not part of the
+ * MNA matrix, so parts of a circuit that only share the reference node (e.g. independent sensor channels) are separate connected
+ * components of the matrix graph. Each one gets its own block system and solver, and the blocks are factored and solved
+ * in parallel, so the cost follows the largest block instead of the whole circuit. A connected matrix is passed straight to a single
+ * solver. Every block gets a sparse LU solver unless a BlockSolverFactory chooses another one, e.g. a dense solver for a small island.
+ * @author zhick
+ *
+ */
+public class SparseBlockSolver implements LinearSystemSolver
+{
+	// Constructor of the block solver.
+	public SparseBlockSolver()
+	{
+	
+	}
+	
+	/**
+	 * Chooses the solver of one block of the matrix.
+	 */
+	@FunctionalInterface
+	public interface BlockSolverFactory
+	{
+		/**
+		 * Creates the solver of a block. The block matrix holds the values of the matrix at the time of the analysis. rows are the
+		 * rows of the matrix the block consists of, in ascending order, or null if the matrix is connected and the block is all of it.
+		 * @param block
+		 * @param rows
+		 * @return
+		 */
+		public LinearSystemSolver newBlockSolver(SparseStampMatrix block, int[] rows);
+	}
+	
+	/**
+	 * Finds the connected components of the matrix and builds and analyzes a block system for each of them.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		
+		int n = matLHS.numCols();
+		this.size = n;
+		this.analyzedColumnPointers = matLHS.getColumnPointers().clone();
+		this.analyzedRowIndices = matLHS.getRowIndices().clone();
+		int[] blockOfRow = new int[n];
+		int blockCount = labelBlocks(matLHS, blockOfRow);
+		
+		// A connected matrix needs no blocks.
+		if (blockCount <= 1)
+		{
+			this.blockSolvers = new LinearSystemSolver[] { newBlockSolver(matLHS, null) };
+			this.blockSolvers[0].analyze(matLHS);
+			this.blockRows = new int[][] { null };
+			this.blockMatrices = null;
+			this.analyzed = true;
+			return;
+		}
+		
+		// Give every row its index inside its block, keeping the global order.
+		int[] blockSizes = new int[blockCount];
+		int[] localIndex = new int[n];
+		for (int row = 0; row < n; row++) localIndex[row] = blockSizes[blockOfRow[row]]++;
+		this.blockRows = new int[blockCount][];
+		for (int b = 0; b < blockCount; b++) this.blockRows[b] = new int[blockSizes[b]];
+		for (int row = 0; row < n; row++) this.blockRows[blockOfRow[row]][localIndex[row]] = row;
+		
+		// Stamp each entry into its block, remembering which global value each block triplet comes from.
+		int[] aPointers = matLHS.getColumnPointers();
+		int[] aRows = matLHS.getRowIndices();
+		double[] aValues = matLHS.getValues();
+		int[] blockNonZeros = new int[blockCount];
+		for (int col = 0; col < n; col++) blockNonZeros[blockOfRow[col]] += aPointers[col + 1] - aPointers[col];
+		this.blockMatrices = new SparseStampMatrix[blockCount];
+		this.blockValueIndices = new int[blockCount][];
+		for (int b = 0; b < blockCount; b++)
+		{
+			this.blockMatrices[b] = new SparseStampMatrix(blockSizes[b], blockSizes[b], blockNonZeros[b]);
+			this.blockValueIndices[b] = new int[blockNonZeros[b]];
+		}
+		for (int col = 0; col < n; col++)
+		{
+			int b = blockOfRow[col];
+			for (int p = aPointers[col]; p < aPointers[col + 1]; p++)
+			{
+				int slot = this.blockMatrices[b].addEntry(localIndex[aRows[p]], localIndex[col], aValues[p]);
+				this.blockValueIndices[b][slot] = p;
+			}
+		}
+		
+		// Analyze every block and give it its own right hand side and solution.
+		this.blockSolvers = new LinearSystemSolver[blockCount];
+		this.blockRHS = new double[blockCount][];
+		this.blockSolutions = new double[blockCount][];
+		this.blockFactored = new boolean[blockCount];
+		for (int b = 0; b < blockCount; b++)
+		{
+			this.blockMatrices[b].compress();
+			this.blockSolvers[b] = newBlockSolver(this.blockMatrices[b], this.blockRows[b]);
+			this.blockSolvers[b].analyze(this.blockMatrices[b]);
+			this.blockRHS[b] = new double[blockSizes[b]];
+			this.blockSolutions[b] = new double[blockSizes[b]];
+		}
+		this.analyzed = true;
+	}
+	
+	/**
+	 * Copies the values of the matrix into the blocks and factors them. Returns false if any block is singular.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (!this.analyzed || !hasSamePattern(matLHS)) analyze(matLHS);
+		
+		if (this.blockMatrices == null) return factorBlock(0, matLHS);
+		
+		double[] aValues = matLHS.getValues();
+		if (isParallel())
+		{
+			IntStream.range(0, this.blockSolvers.length).parallel().forEach(b -> factorBlock(b, aValues));
+		}
+		else
+		{
+			for (int b = 0; b < this.blockSolvers.length; b++) factorBlock(b, aValues);
+		}
+		for (boolean factored : this.blockFactored)
+		{
+			if (!factored) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Solves every block of the last factored system. solution may be the same array as vecRHS.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		if (this.blockMatrices == null)
+		{
+			this.blockSolvers[0].solve(vecRHS, solution);
+			return;
+		}
+		
+		// The blocks own disjoint rows, so they can gather, solve and scatter independently.
+		// The sequential loop does not go through a stream, so a step on one thread allocates nothing.
+		if (isParallel())
+		{
+			IntStream.range(0, this.blockSolvers.length).parallel().forEach(b -> solveBlock(b, vecRHS, solution));
+		}
+		else
+		{
+			for (int b = 0; b < this.blockSolvers.length; b++) solveBlock(b, vecRHS, solution);
+		}
+	}
+	
+	/**
+	 * Solves every block of the last factored system for several right hand sides, see LinearSystemSolver.solveMultiple(). Each block
+	 * gathers its rows of all columns and solves them together.
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	@Override
+	public void solveMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		if (this.blockMatrices == null)
+		{
+			this.blockSolvers[0].solveMultiple(rhsColumns, solutionColumns, columnCount);
+			return;
+		}
+		
+		if (isParallel())
+		{
+			IntStream.range(0, this.blockSolvers.length).parallel().forEach(b -> solveBlockMultiple(b, rhsColumns, solutionColumns, columnCount));
+		}
+		else
+		{
+			for (int b = 0; b < this.blockSolvers.length; b++) solveBlockMultiple(b, rhsColumns, solutionColumns, columnCount);
+		}
+	}
+	
+	/**
+	 * Copies the values of one block out of the matrix values and factors it.
+	 * @param b
+	 * @param aValues
+	 */
+	void factorBlock(int b, double[] aValues)
+	{
+		SparseStampMatrix block = this.blockMatrices[b];
+		int[] valueIndices = this.blockValueIndices[b];
+		for (int slot = 0; slot < valueIndices.length; slot++) block.setTripletValue(slot, aValues[valueIndices[slot]]);
+		block.refreshValues();
+		this.blockFactored[b] = factorBlock(b, block);
+	}
+	
+	/**
+	 * Factors one block with its solver. If a solver chosen by the factory cannot factor it (e.g. a Cholesky pivot that is not positive)
+	 * the block falls back to the sparse LU solver for good.
+	 * @param b
+	 * @param block
+	 * @return
+	 */
+	boolean factorBlock(int b, SparseStampMatrix block)
+	{
+		if (this.blockSolvers[b].factor(block)) return true;
+		if (this.blockSolvers[b] instanceof SparseLUSolver) return false;
+		
+		SparseLUSolver solver = new SparseLUSolver();
+		solver.setOrdering(this.ordering);
+		solver.analyze(block);
+		this.blockSolvers[b] = solver;
+		return solver.factor(block);
+	}
+	
+	/**
+	 * Gathers the RHS rows of one block, solves the block and scatters its solution.
+	 * @param b
+	 * @param vecRHS
+	 * @param solution
+	 */
+	void solveBlock(int b, double[] vecRHS, double[] solution)
+	{
+		int[] rows = this.blockRows[b];
+		double[] rhs = this.blockRHS[b];
+		double[] sol = this.blockSolutions[b];
+		for (int i = 0; i < rows.length; i++) rhs[i] = vecRHS[rows[i]];
+		this.blockSolvers[b].solve(rhs, sol);
+		for (int i = 0; i < rows.length; i++) solution[rows[i]] = sol[i];
+	}
+	
+	/**
+	 * Gathers the rows of one block from every column, solves them together and scatters the solutions.
+	 * @param b
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	void solveBlockMultiple(int b, double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		int[] rows = this.blockRows[b];
+		int m = rows.length;
+		int n = this.size;
+		double[] rhs = new double[m * columnCount];
+		double[] sol = new double[m * columnCount];
+		for (int c = 0; c < columnCount; c++)
+		{
+			for (int i = 0; i < m; i++) rhs[c * m + i] = rhsColumns[c * n + rows[i]];
+		}
+		this.blockSolvers[b].solveMultiple(rhs, sol, columnCount);
+		for (int c = 0; c < columnCount; c++)
+		{
+			for (int i = 0; i < m; i++) solutionColumns[c * n + rows[i]] = sol[c * m + i];
+		}
+	}
+	
+	/**
+	 * Returns true if the matrix has the same sparsity pattern as the last analyzed matrix.
+	 * @param matLHS
+	 * @return
+	 */
+	public boolean hasSamePattern(SparseStampMatrix matLHS)
+	{
+		return (matLHS.numRows() == this.size) && (matLHS.numCols() == this.size)
+				&& Arrays.equals(matLHS.getColumnPointers(), this.analyzedColumnPointers)
+				&& Arrays.equals(matLHS.getRowIndices(), this.analyzedRowIndices);
+	}
+	
+	/**
+	 * Set the fill-reducing ordering used for every block. Forces the next factorization to analyze the pattern again.
+	 * @param ordering
+	 */
+	public void setOrdering(SparseOrdering ordering)
+	{
+		this.ordering = ordering;
+		this.analyzed = false;
+	}
+	
+	/**
+	 * Get the fill-reducing ordering used for every block.
+	 * @return
+	 */
+	public SparseOrdering getOrdering()
+	{
+		return this.ordering;
+	}
+	
+	/**
+	 * Set the factory that chooses the solver of every block, or null to give every block a sparse LU solver (the default). Forces the
+	 * next factorization to analyze the pattern again.
+	 * @param factory
+	 */
+	public void setBlockSolverFactory(BlockSolverFactory factory)
+	{
+		this.blockSolverFactory = factory;
+		this.analyzed = false;
+	}
+	
+	/**
+	 * Set whether or not the blocks are factored and solved in parallel once the matrix has at least parallelThreshold rows.
+	 * @param parallel
+	 * @param parallelThreshold
+	 */
+	public void setParallel(boolean parallel, int parallelThreshold)
+	{
+		this.parallel = parallel;
+		this.parallelThreshold = parallelThreshold;
+	}
+	
+	/**
+	 * Get the number of independent blocks found by the last analysis.
+	 * @return
+	 */
+	public int getBlockCount()
+	{
+		return this.analyzed ? this.blockSolvers.length : 0;
+	}
+	
+	/**
+	 * Get the row count of the largest block found by the last analysis.
+	 * @return
+	 */
+	public int getLargestBlockSize()
+	{
+		if (!this.analyzed) return 0;
+		if (this.blockMatrices == null) return this.size;
+		
+		int largest = 0;
+		for (int[] rows : this.blockRows) largest = Math.max(largest, rows.length);
+		return largest;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the last analyzed matrix.
+	 * @return
+	 */
+	public int getMatrixNonZeroCount()
+	{
+		return this.analyzed ? this.analyzedColumnPointers[this.size] : 0;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the sparse factors of all blocks (the unit diagonals of L are not counted). Blocks
+	 * factored densely count 0.
+	 * @return
+	 */
+	@Override
+	public int getFactorNonZeroCount()
+	{
+		if (!this.analyzed) return 0;
+		
+		int count = 0;
+		for (LinearSystemSolver solver : this.blockSolvers) count += solver.getFactorNonZeroCount();
+		return count;
+	}
+	
+	/**
+	 * Returns true if the blocks are processed in parallel: the matrix is large enough to be worth it and there is more than one core.
+	 * @return
+	 */
+	boolean isParallel()
+	{
+		return this.parallel && (this.size >= this.parallelThreshold) && (ForkJoinPool.getCommonPoolParallelism() > 1);
+	}
+	
+	/**
+	 * Creates the solver of one block, with the factory if one is set.
+	 * @param block
+	 * @param rows
+	 * @return
+	 */
+	LinearSystemSolver newBlockSolver(SparseStampMatrix block, int[] rows)
+	{
+		if (this.blockSolverFactory != null) return this.blockSolverFactory.newBlockSolver(block, rows);
+		
+		SparseLUSolver solver = new SparseLUSolver();
+		solver.setOrdering(this.ordering);
+		return solver;
+	}
+	
+	/**
+	 * Returns the number of connected components of the matrix graph, i.e. the number of blocks the block solver splits it into.
+	 * @param matLHS
+	 * @return
+	 */
+	public static int countBlocks(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		
+		return labelBlocks(matLHS, new int[matLHS.numCols()]);
+	}
+	
+	/**
+	 * Labels every row with the connected component of the matrix graph it belongs to and returns the number of components. The
+	 * components are labeled breadth first, numbered in order of their lowest row.
+	 * @param matLHS
+	 * @param blockOfRow
+	 * @return
+	 */
+	static int labelBlocks(SparseStampMatrix matLHS, int[] blockOfRow)
+	{
+		SparsePatternGraph graph = new SparsePatternGraph(matLHS);
+		int n = graph.size;
+		Arrays.fill(blockOfRow, -1);
+		int[] queue = new int[n];
+		int blockCount = 0;
+		for (int seed = 0; seed < n; seed++)
+		{
+			if (blockOfRow[seed] >= 0) continue;
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = seed;
+			blockOfRow[seed] = blockCount;
+			while (head < tail)
+			{
+				int row = queue[head++];
+				for (int p = graph.pointers[row]; p < graph.pointers[row + 1]; p++)
+				{
+					int neighbor = graph.neighbors[p];
+					if (blockOfRow[neighbor] >= 0) continue;
+					blockOfRow[neighbor] = blockCount;
+					queue[tail++] = neighbor;
+				}
+			}
+			blockCount++;
+		}
+		return blockCount;
+	}
+	
+	// The fill-reducing ordering used for every block.
+	SparseOrdering ordering = SparseOrdering.MINIMUM_DEGREE;
+	
+	// The factory that chooses the solver of every block, or null for sparse LU solvers.
+	BlockSolverFactory blockSolverFactory;
+	
+	// Whether or not the blocks are processed in parallel, and the matrix size from which on they are.
+	boolean parallel = true;
+	int parallelThreshold = 1024;
+	
+	// The dimension of the analyzed matrix.
+	int size = 0;
+	
+	// Whether or not a pattern has been analyzed.
+	boolean analyzed = false;
+	
+	// The column pointers of the analyzed pattern.
+	int[] analyzedColumnPointers;
+	
+	// The row indices of the analyzed pattern.
+	int[] analyzedRowIndices;
+	
+	// The global rows of each block, in ascending order. A single null block means the matrix is connected.
+	int[][] blockRows;
+	
+	// The matrix of each block, or null if the matrix is connected.
+	SparseStampMatrix[] blockMatrices;
+	
+	// The global value index each triplet slot of a block matrix is copied from.
+	int[][] blockValueIndices;
+	
+	// The solver of each block.
+	LinearSystemSolver[] blockSolvers;
+	
+	// The right hand side and solution of each block.
+	double[][] blockRHS;
+	double[][] blockSolutions;
+	
+	// Whether each block was factored successfully.
+	boolean[] blockFactored;
+}
@@ -0,0 +1,361 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A sparse Cholesky solver (P*A*P^T = L*L^T, up-looking, in the style of CSparse) for symmetric positive definite systems, i.e.
+ * nodal-only circuits of resistors, capacitors and current sources. It needs no pivoting, so the analysis fixes the fill-reducing
+ * order and the pattern of L once, and it stores only one triangle, which makes it about half the work and memory of the LU solver.
+ * Only the upper triangle of the permuted matrix (the entries with order position row <= col) is read.
+ * @author zhick
+ *
+ */
+public class SparseCholeskySolver implements LinearSystemSolver
+{
+	// Constructor of the solver with the minimum degree ordering.
+	public SparseCholeskySolver()
+	{
+	
+	}
+	
+	/**
+	 * Computes the fill-reducing order, the elimination tree and the column counts of L.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols()) throw new IllegalArgumentException("The matrix must be square.");
+		
+		int n = matLHS.numCols();
+		int[] aPointers = matLHS.getColumnPointers();
+		int[] aRows = matLHS.getRowIndices();
+		this.size = n;
+		this.analyzedColumnPointers = aPointers.clone();
+		this.analyzedRowIndices = aRows.clone();
+		this.order = this.ordering.computeOrder(matLHS);
+		this.positionOf = new int[n];
+		for (int k = 0; k < n; k++) this.positionOf[this.order[k]] = k;
+		
+		// The upper triangle of C = P*A*P^T by columns, each entry remembering its index in the values of A.
+		int[] counts = new int[n + 1];
+		for (int j = 0; j < n; j++)
+		{
+			for (int p = aPointers[j]; p < aPointers[j + 1]; p++)
+			{
+				int row = this.positionOf[aRows[p]];
+				int col = this.positionOf[j];
+				if (row <= col) counts[col + 1]++;
+			}
+		}
+		for (int k = 0; k < n; k++) counts[k + 1] += counts[k];
+		this.cColumnPointers = counts;
+		this.cRowIndices = new int[counts[n]];
+		this.cSourceIndices = new int[counts[n]];
+		this.cValues = new double[counts[n]];
+		int[] next = Arrays.copyOf(counts, n);
+		for (int j = 0; j < n; j++)
+		{
+			for (int p = aPointers[j]; p < aPointers[j + 1]; p++)
+			{
+				int row = this.positionOf[aRows[p]];
+				int col = this.positionOf[j];
+				if (row > col) continue;
+				int q = next[col]++;
+				this.cRowIndices[q] = row;
+				this.cSourceIndices[q] = p;
+			}
+		}
+		
+		// The elimination tree: the parent of column i is the first row below the diagonal of column i of L.
+		this.parent = new int[n];
+		int[] ancestor = new int[n];
+		for (int k = 0; k < n; k++)
+		{
+			this.parent[k] = -1;
+			ancestor[k] = -1;
+			for (int p = this.cColumnPointers[k]; p < this.cColumnPointers[k + 1]; p++)
+			{
+				// Follow the path from row i up to the root, compressing it to k.
+				int i = this.cRowIndices[p];
+				while ((i != -1) && (i < k))
+				{
+					int nextAncestor = ancestor[i];
+					ancestor[i] = k;
+					if (nextAncestor == -1) this.parent[i] = k;
+					i = nextAncestor;
+				}
+			}
+		}
+		
+		// The column counts of L, from the pattern of every row of L (the reach of its column of C in the tree).
+		this.marks = new int[n];
+		this.stack = new int[n];
+		this.work = new double[n];
+		Arrays.fill(this.marks, -1);
+		int[] columnCounts = new int[n + 1];
+		for (int k = 0; k < n; k++)
+		{
+			for (int top = reach(k); top < n; top++) columnCounts[this.stack[top] + 1]++;
+			columnCounts[k + 1]++;
+		}
+		for (int k = 0; k < n; k++) columnCounts[k + 1] += columnCounts[k];
+		this.lColumnPointers = columnCounts;
+		this.lRowIndices = new int[columnCounts[n]];
+		this.lValues = new double[columnCounts[n]];
+		this.columnFill = new int[n];
+		this.analyzed = true;
+		this.factored = false;
+	}
+	
+	/**
+	 * Finds the pattern of row k of L, the columns reached from the entries of column k of C through the elimination tree.
+	 * The columns are left in stack[top, n) in topological order. Returns top.
+	 * @param k
+	 * @return
+	 */
+	int reach(int k)
+	{
+		int n = this.size;
+		int top = n;
+		this.marks[k] = k;
+		for (int p = this.cColumnPointers[k]; p < this.cColumnPointers[k + 1]; p++)
+		{
+			int i = this.cRowIndices[p];
+			if (i > k) continue;
+			
+			// Walk up the tree until a column of this row is met, then push the path so its root end comes out first.
+			int length = 0;
+			for (; this.marks[i] != k; i = this.parent[i])
+			{
+				this.stack[length++] = i;
+				this.marks[i] = k;
+			}
+			while (length > 0) this.stack[--top] = this.stack[--length];
+		}
+		return top;
+	}
+	
+	/**
+	 * Numerically factors the matrix. Returns false if it is not positive definite.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (!this.analyzed || (matLHS.numCols() != this.size) || !Arrays.equals(matLHS.getColumnPointers(), this.analyzedColumnPointers)
+				|| !Arrays.equals(matLHS.getRowIndices(), this.analyzedRowIndices))
+			analyze(matLHS);
+		
+		int n = this.size;
+		double[] aValues = matLHS.getValues();
+		for (int q = 0; q < this.cValues.length; q++) this.cValues[q] = aValues[this.cSourceIndices[q]];
+		
+		double[] x = this.work;
+		int[] fill = this.columnFill;
+		System.arraycopy(this.lColumnPointers, 0, fill, 0, n);
+		Arrays.fill(x, 0d);
+		Arrays.fill(this.marks, -1);
+		this.factored = false;
+		for (int k = 0; k < n; k++)
+		{
+			// Scatter column k of C, then solve L(0:k-1, 0:k-1) * L(k, 0:k-1)^T = C(0:k-1, k) along the pattern of row k.
+			int top = reach(k);
+			x[k] = 0d;
+			for (int p = this.cColumnPointers[k]; p < this.cColumnPointers[k + 1]; p++) x[this.cRowIndices[p]] += this.cValues[p];
+			double diagonal = x[k];
+			x[k] = 0d;
+			for (; top < n; top++)
+			{
+				int i = this.stack[top];
+				double lki = x[i] / this.lValues[this.lColumnPointers[i]];
+				x[i] = 0d;
+				for (int p = this.lColumnPointers[i] + 1; p < fill[i]; p++) x[this.lRowIndices[p]] -= this.lValues[p] * lki;
+				diagonal -= lki * lki;
+				int p = fill[i]++;
+				this.lRowIndices[p] = k;
+				this.lValues[p] = lki;
+			}
+			if (!(diagonal > 0d)) return false;
+			
+			// The diagonal comes first in its column.
+			int p = fill[k]++;
+			this.lRowIndices[p] = k;
+			this.lValues[p] = Math.sqrt(diagonal);
+		}
+		
+		this.factored = true;
+		return true;
+	}
+	
+	/**
+	 * Solves the last factored system.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		if (!this.factored) throw new IllegalStateException("The solver has not been factored.");
+		
+		int n = this.size;
+		double[] y = this.work;
+		for (int k = 0; k < n; k++) y[k] = vecRHS[this.order[k]];
+		
+		// Forward substitution with L by columns, then back substitution with L^T by the same columns.
+		for (int j = 0; j < n; j++)
+		{
+			int diagonal = this.lColumnPointers[j];
+			double value = y[j] / this.lValues[diagonal];
+			y[j] = value;
+			for (int p = diagonal + 1; p < this.lColumnPointers[j + 1]; p++) y[this.lRowIndices[p]] -= this.lValues[p] * value;
+		}
+		for (int j = n - 1; j >= 0; j--)
+		{
+			int diagonal = this.lColumnPointers[j];
+			double sum = y[j];
+			for (int p = diagonal + 1; p < this.lColumnPointers[j + 1]; p++) sum -= this.lValues[p] * y[this.lRowIndices[p]];
+			y[j] = sum / this.lValues[diagonal];
+		}
+		
+		for (int k = 0; k < n; k++) solution[this.order[k]] = y[k];
+	}
+	
+	/**
+	 * Solves the last factored system for several right hand sides in panels of interleaved columns, the same way as
+	 * SparseLUSolver.solveMultiple().
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	@Override
+	public void solveMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		if (!this.factored) throw new IllegalStateException("The solver has not been factored.");
+		
+		int n = this.size;
+		if ((this.panelWork == null) || (this.panelWork.length != n * PANEL_WIDTH))
+		{
+			this.panelWork = new double[n * PANEL_WIDTH];
+			this.panelRow = new double[PANEL_WIDTH];
+		}
+		double[] y = this.panelWork;
+		for (int first = 0; first < columnCount; first += PANEL_WIDTH)
+		{
+			int k = Math.min(PANEL_WIDTH, columnCount - first);
+			int offset = first * n;
+			for (int i = 0; i < n; i++)
+			{
+				int ik = i * k;
+				int row = offset + this.order[i];
+				for (int c = 0; c < k; c++) y[ik + c] = rhsColumns[row + c * n];
+			}
+			
+			// The forward substitution copies the eliminated row out, so the inner loop does not read and write the same array.
+			double[] yj = this.panelRow;
+			for (int j = 0; j < n; j++)
+			{
+				int jk = j * k;
+				int diagonal = this.lColumnPointers[j];
+				double pivot = this.lValues[diagonal];
+				for (int c = 0; c < k; c++) y[jk + c] /= pivot;
+				if (!SparseLUSolver.copyPanelRow(y, jk, yj, k)) continue;
+				for (int p = diagonal + 1; p < this.lColumnPointers[j + 1]; p++)
+				{
+					double value = this.lValues[p];
+					int rk = this.lRowIndices[p] * k;
+					for (int c = 0; c < k; c++) y[rk + c] -= value * yj[c];
+				}
+			}
+			
+			// The back substitution sums into the row, so it is accumulated in the copy.
+			for (int j = n - 1; j >= 0; j--)
+			{
+				int jk = j * k;
+				int diagonal = this.lColumnPointers[j];
+				SparseLUSolver.copyPanelRow(y, jk, yj, k);
+				for (int p = diagonal + 1; p < this.lColumnPointers[j + 1]; p++)
+				{
+					double value = this.lValues[p];
+					int rk = this.lRowIndices[p] * k;
+					for (int c = 0; c < k; c++) yj[c] -= value * y[rk + c];
+				}
+				double pivot = this.lValues[diagonal];
+				for (int c = 0; c < k; c++) y[jk + c] = yj[c] / pivot;
+			}
+			
+			for (int i = 0; i < n; i++)
+			{
+				int ik = i * k;
+				int row = offset + this.order[i];
+				for (int c = 0; c < k; c++) solutionColumns[row + c * n] = y[ik + c];
+			}
+		}
+	}
+	
+	/**
+	 * Set the fill-reducing ordering. The matrix is analyzed again on the next factorization.
+	 * @param ordering
+	 */
+	public void setOrdering(SparseOrdering ordering)
+	{
+		this.ordering = ordering;
+		this.analyzed = false;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of L, the diagonal included, or 0 if the matrix has not been analyzed.
+	 * @return
+	 */
+	@Override
+	public int getFactorNonZeroCount()
+	{
+		return this.analyzed ? this.lColumnPointers[this.size] : 0;
+	}
+	
+	// The fill-reducing ordering.
+	SparseOrdering ordering = SparseOrdering.MINIMUM_DEGREE;
+	
+	// Whether the pattern was analyzed and the values factored.
+	boolean analyzed = false;
+	boolean factored = false;
+	
+	// The dimension of the matrix, and the pattern it was analyzed for.
+	int size;
+	int[] analyzedColumnPointers;
+	int[] analyzedRowIndices;
+	
+	// The original index eliminated at each position, and the position of each original index.
+	int[] order;
+	int[] positionOf;
+	
+	// The upper triangle of the permuted matrix, with the index of each entry in the values of the original matrix.
+	int[] cColumnPointers;
+	int[] cRowIndices;
+	int[] cSourceIndices;
+	double[] cValues;
+	
+	// The elimination tree.
+	int[] parent;
+	
+	// The factor L by columns, with the diagonal first in each column.
+	int[] lColumnPointers;
+	int[] lRowIndices;
+	double[] lValues;
+	
+	// The next free position of each column of L while factoring.
+	int[] columnFill;
+	
+	// The visit marks and the stack of the reach, and the dense work vector.
+	int[] marks;
+	int[] stack;
+	double[] work;
+	
+	// The interleaved columns of a panel of solveMultiple(), the row being eliminated and the number of columns in a panel.
+	double[] panelWork;
+	double[] panelRow;
+	static final int PANEL_WIDTH = 32;
+}
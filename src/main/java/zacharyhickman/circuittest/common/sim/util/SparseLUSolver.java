@@ -0,0 +1,754 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A sparse LU solver for square MNA systems (left-looking Gilbert-Peierls factorization with threshold partial pivoting,
+ * in the style of KLU). The columns are factored in a fill-reducing order computed by the analysis, which is kept for as long as
+ * the sparsity pattern does not change. When only the values change the previous pivot sequence and L/U patterns are reused for
+ * a cheaper numeric refactorization.
+ * @author zhick
+ *
+ */
+public class SparseLUSolver implements LinearSystemSolver
+{
+	// Constructor of the solver with the default pivot tolerance.
+	public SparseLUSolver()
+	{
+	
+	}
+	
+	// Constructor of the solver with a given pivot tolerance. A diagonal entry is kept as pivot if it is at least tolerance * (largest candidate).
+	public SparseLUSolver(double pivotTolerance)
+	{
+		this.pivotTolerance = pivotTolerance;
+	}
+	
+	// Constructor of a solver that shares the symbolic analysis, pivot sequence and L/U patterns of a factored solver.
+	// Only the numeric values and workspaces are its own, so many solvers can refactor variants of one matrix in parallel.
+	// The shared arrays are copied first if this solver ever needs a full factorization with a new pivot sequence.
+	public SparseLUSolver(SparseLUSolver factoredSolver)
+	{
+		if (!factoredSolver.factored) throw new IllegalArgumentException("The solver to share must be factored.");
+		
+		int n = factoredSolver.size;
+		this.pivotTolerance = factoredSolver.pivotTolerance;
+		this.ordering = factoredSolver.ordering;
+		this.size = n;
+		this.analyzedColumnPointers = factoredSolver.analyzedColumnPointers;
+		this.analyzedRowIndices = factoredSolver.analyzedRowIndices;
+		this.columnOrder = factoredSolver.columnOrder;
+		this.rowOfPivot = factoredSolver.rowOfPivot;
+		this.pivotOfRow = factoredSolver.pivotOfRow;
+		this.lColumnPointers = factoredSolver.lColumnPointers;
+		this.lRowIndices = factoredSolver.lRowIndices;
+		this.uColumnPointers = factoredSolver.uColumnPointers;
+		this.uRowIndices = factoredSolver.uRowIndices;
+		this.lValues = factoredSolver.lValues.clone();
+		this.uValues = factoredSolver.uValues.clone();
+		this.sharedPattern = true;
+		
+		// Workspaces.
+		this.work = new double[n];
+		this.reach = new int[n];
+		this.dfsStack = new int[n];
+		this.dfsPointer = new int[n];
+		this.marks = new int[n];
+		this.solveWork = new double[n];
+		
+		this.analyzed = true;
+		this.factored = true;
+	}
+	
+	// Constructor of a solver restored from a symbolic factorization, e.g. one loaded from a compiled circuit file.
+	// The first factorization of a matrix with the same pattern is a numeric refactorization with the stored pivot sequence.
+	public SparseLUSolver(SparseSymbolicFactorization symbolic)
+	{
+		int n = symbolic.size;
+		this.size = n;
+		this.analyzedColumnPointers = symbolic.matrixColumnPointers;
+		this.analyzedRowIndices = symbolic.matrixRowIndices;
+		this.columnOrder = symbolic.columnOrder;
+		this.rowOfPivot = symbolic.rowOfPivot;
+		this.pivotOfRow = symbolic.pivotOfRow;
+		this.lColumnPointers = symbolic.lColumnPointers;
+		this.lRowIndices = symbolic.lRowIndices;
+		this.uColumnPointers = symbolic.uColumnPointers;
+		this.uRowIndices = symbolic.uRowIndices;
+		this.lValues = new double[symbolic.lRowIndices.length];
+		this.uValues = new double[symbolic.uRowIndices.length];
+		this.sharedPattern = true;
+		
+		// Workspaces.
+		this.work = new double[n];
+		this.reach = new int[n];
+		this.dfsStack = new int[n];
+		this.dfsPointer = new int[n];
+		this.marks = new int[n];
+		this.solveWork = new double[n];
+		
+		this.analyzed = true;
+		this.factored = false;
+		this.pivotsRestored = true;
+	}
+	
+	/**
+	 * Records the sparsity pattern of the matrix and allocates the factorization workspaces.
+	 * @param matLHS
+	 */
+	@Override
+	public void analyze(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols())
+			throw new IllegalArgumentException("The sparse LU solver needs a square matrix (" + matLHS.numRows() + " x " + matLHS.numCols() + ").");
+		
+		int n = matLHS.numRows();
+		this.size = n;
+		this.analyzedColumnPointers = matLHS.getColumnPointers().clone();
+		this.analyzedRowIndices = matLHS.getRowIndices().clone();
+		
+		// Fill-reducing column order.
+		this.columnOrder = this.ordering.computeOrder(matLHS);
+		if (this.columnOrder.length != n)
+			throw new IllegalStateException("The ordering returned " + this.columnOrder.length + " columns for a matrix of size " + n + ".");
+		
+		// Workspaces.
+		this.work = new double[n];
+		this.reach = new int[n];
+		this.dfsStack = new int[n];
+		this.dfsPointer = new int[n];
+		this.marks = new int[n];
+		this.markStamp = 0;
+		this.rowOfPivot = new int[n];
+		this.pivotOfRow = new int[n];
+		this.solveWork = new double[n];
+		
+		// Initial guess of the factor sizes, grown on demand.
+		int capacity = Math.max(4 * matLHS.getNonZeroCount(), n + 1);
+		this.lColumnPointers = new int[n + 1];
+		this.lRowIndices = new int[capacity];
+		this.lValues = new double[capacity];
+		this.uColumnPointers = new int[n + 1];
+		this.uRowIndices = new int[capacity];
+		this.uValues = new double[capacity];
+		
+		this.factored = false;
+		this.analyzed = true;
+		this.sharedPattern = false;
+		this.pivotsRestored = false;
+	}
+	
+	/**
+	 * Numerically factors the matrix. The symbolic analysis is redone if the pattern changed, and a refactorization with
+	 * the previous pivots is tried first when the matrix was factored before. Returns false if the matrix is singular.
+	 * @param matLHS
+	 * @return
+	 */
+	@Override
+	public boolean factor(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (!this.analyzed || !hasSamePattern(matLHS)) analyze(matLHS);
+		
+		boolean tryRefactor = this.factored || this.pivotsRestored;
+		this.pivotsRestored = false;
+		if (tryRefactor && refactorNumeric(matLHS))
+		{
+			this.factored = true;
+			this.refactorCount++;
+			return true;
+		}
+		
+		// A full factorization rewrites the pivots and patterns, so stop sharing them first.
+		if (this.sharedPattern) unsharePattern();
+		
+		this.factored = factorNumeric(matLHS);
+		if (this.factored) this.fullFactorCount++;
+		return this.factored;
+	}
+	
+	/**
+	 * Solves the last factored system. solution may be the same array as vecRHS.
+	 * @param vecRHS
+	 * @param solution
+	 */
+	@Override
+	public void solve(double[] vecRHS, double[] solution)
+	{
+		if (!this.factored) throw new IllegalStateException("The matrix has not been factored.");
+		
+		int n = this.size;
+		double[] y = this.solveWork;
+		
+		// Apply the row permutation.
+		for (int i = 0; i < n; i++) y[this.pivotOfRow[i]] = vecRHS[i];
+		
+		// Forward substitution with the unit lower factor (diagonal stored first in each column).
+		for (int j = 0; j < n; j++)
+		{
+			double yj = y[j];
+			if (yj == 0d) continue;
+			for (int p = this.lColumnPointers[j] + 1; p < this.lColumnPointers[j + 1]; p++)
+			{
+				y[this.lRowIndices[p]] -= this.lValues[p] * yj;
+			}
+		}
+		
+		// Backward substitution with the upper factor (diagonal stored last in each column).
+		for (int j = n - 1; j >= 0; j--)
+		{
+			int last = this.uColumnPointers[j + 1] - 1;
+			double yj = y[j] / this.uValues[last];
+			y[j] = yj;
+			if (yj == 0d) continue;
+			for (int p = this.uColumnPointers[j]; p < last; p++)
+			{
+				y[this.uRowIndices[p]] -= this.uValues[p] * yj;
+			}
+		}
+		
+		// Undo the column permutation.
+		for (int k = 0; k < n; k++) solution[this.columnOrder[k]] = y[k];
+	}
+	
+	/**
+	 * Solves the last factored system for several right hand sides, see LinearSystemSolver.solveMultiple(). The columns are solved in
+	 * panels of PANEL_WIDTH interleaved by row, so every entry of the factors is loaded once per panel and applied to all of its
+	 * columns in a contiguous inner loop. The results are the same, bit for bit, as solving the columns one by one.
+	 * @param rhsColumns
+	 * @param solutionColumns
+	 * @param columnCount
+	 */
+	@Override
+	public void solveMultiple(double[] rhsColumns, double[] solutionColumns, int columnCount)
+	{
+		if (!this.factored) throw new IllegalStateException("The matrix has not been factored.");
+		
+		int n = this.size;
+		if ((this.panelWork == null) || (this.panelWork.length != n * PANEL_WIDTH))
+		{
+			this.panelWork = new double[n * PANEL_WIDTH];
+			this.panelRow = new double[PANEL_WIDTH];
+		}
+		double[] y = this.panelWork;
+		for (int first = 0; first < columnCount; first += PANEL_WIDTH)
+		{
+			// Row i of panel column c is at y[i * k + c], with the row permutation applied.
+			int k = Math.min(PANEL_WIDTH, columnCount - first);
+			int offset = first * n;
+			for (int i = 0; i < n; i++)
+			{
+				int ik = this.pivotOfRow[i] * k;
+				for (int c = 0; c < k; c++) y[ik + c] = rhsColumns[offset + c * n + i];
+			}
+			
+			// Forward substitution with the unit lower factor. The row being eliminated is copied out, so the inner loop does not
+			// read and write the same array, and a row that is zero in every column is skipped like a zero in solve().
+			double[] yj = this.panelRow;
+			for (int j = 0; j < n; j++)
+			{
+				if (!copyPanelRow(y, j * k, yj, k)) continue;
+				for (int p = this.lColumnPointers[j] + 1; p < this.lColumnPointers[j + 1]; p++)
+				{
+					double value = this.lValues[p];
+					int rk = this.lRowIndices[p] * k;
+					for (int c = 0; c < k; c++) y[rk + c] -= value * yj[c];
+				}
+			}
+			
+			// Backward substitution with the upper factor.
+			for (int j = n - 1; j >= 0; j--)
+			{
+				int jk = j * k;
+				int last = this.uColumnPointers[j + 1] - 1;
+				double pivot = this.uValues[last];
+				for (int c = 0; c < k; c++) y[jk + c] /= pivot;
+				if (!copyPanelRow(y, jk, yj, k)) continue;
+				for (int p = this.uColumnPointers[j]; p < last; p++)
+				{
+					double value = this.uValues[p];
+					int rk = this.uRowIndices[p] * k;
+					for (int c = 0; c < k; c++) y[rk + c] -= value * yj[c];
+				}
+			}
+			
+			// Undo the column permutation.
+			for (int i = 0; i < n; i++)
+			{
+				int ik = i * k;
+				int row = offset + this.columnOrder[i];
+				for (int c = 0; c < k; c++) solutionColumns[row + c * n] = y[ik + c];
+			}
+		}
+	}
+	
+	/**
+	 * Copies the k values of a panel row starting at offset into row. Returns false if they are all zero.
+	 * @param panel
+	 * @param offset
+	 * @param row
+	 * @param k
+	 * @return
+	 */
+	static boolean copyPanelRow(double[] panel, int offset, double[] row, int k)
+	{
+		boolean nonZero = false;
+		for (int c = 0; c < k; c++)
+		{
+			double value = panel[offset + c];
+			row[c] = value;
+			nonZero |= (value != 0d);
+		}
+		return nonZero;
+	}
+	
+	/**
+	 * Returns the symbolic part of the last factorization, which can be stored and restored with SparseLUSolver(SparseSymbolicFactorization).
+	 * @return
+	 */
+	public SparseSymbolicFactorization getSymbolicFactorization()
+	{
+		if (!this.factored) throw new IllegalStateException("The matrix has not been factored.");
+		
+		int n = this.size;
+		return new SparseSymbolicFactorization(n, this.analyzedColumnPointers.clone(), this.analyzedRowIndices.clone(), this.columnOrder.clone(), this.rowOfPivot.clone(),
+				this.lColumnPointers.clone(), Arrays.copyOf(this.lRowIndices, this.lColumnPointers[n]), this.uColumnPointers.clone(), Arrays.copyOf(this.uRowIndices, this.uColumnPointers[n]));
+	}
+	
+	/**
+	 * Returns true if the matrix has the same sparsity pattern as the last analyzed matrix.
+	 * @param matLHS
+	 * @return
+	 */
+	public boolean hasSamePattern(SparseStampMatrix matLHS)
+	{
+		return (matLHS.numRows() == this.size) && (matLHS.numCols() == this.size)
+				&& Arrays.equals(matLHS.getColumnPointers(), this.analyzedColumnPointers)
+				&& Arrays.equals(matLHS.getRowIndices(), this.analyzedRowIndices);
+	}
+	
+	/**
+	 * Set the fill-reducing ordering used by the next analysis. Forces the next factorization to analyze the pattern again.
+	 * @param ordering
+	 */
+	public void setOrdering(SparseOrdering ordering)
+	{
+		this.ordering = ordering;
+		this.analyzed = false;
+		this.factored = false;
+	}
+	
+	/**
+	 * Get the fill-reducing ordering of this solver.
+	 * @return
+	 */
+	public SparseOrdering getOrdering()
+	{
+		return this.ordering;
+	}
+	
+	/**
+	 * Get the relative threshold for keeping a diagonal pivot.
+	 * @return
+	 */
+	public double getPivotTolerance()
+	{
+		return this.pivotTolerance;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the last analyzed matrix.
+	 * @return
+	 */
+	public int getMatrixNonZeroCount()
+	{
+		return this.analyzed ? this.analyzedColumnPointers[this.size] : 0;
+	}
+	
+	/**
+	 * Returns true if a factorization is available for solving.
+	 * @return
+	 */
+	public boolean isFactored()
+	{
+		return this.factored;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of L+U (the unit diagonal of L is not counted).
+	 * @return
+	 */
+	@Override
+	public int getFactorNonZeroCount()
+	{
+		if (!this.factored) return 0;
+		return (this.lColumnPointers[this.size] - this.size) + this.uColumnPointers[this.size];
+	}
+	
+	/**
+	 * Get the number of full factorizations (with pivot search) done by this solver.
+	 * @return
+	 */
+	public long getFullFactorCount()
+	{
+		return this.fullFactorCount;
+	}
+	
+	/**
+	 * Get the number of numeric refactorizations (reusing the pivot sequence) done by this solver.
+	 * @return
+	 */
+	public long getRefactorCount()
+	{
+		return this.refactorCount;
+	}
+	
+	/**
+	 * Full left-looking factorization with partial pivoting. Returns false if the matrix is singular.
+	 * @param matLHS
+	 * @return
+	 */
+	boolean factorNumeric(SparseStampMatrix matLHS)
+	{
+		int n = this.size;
+		int[] aPointers = matLHS.getColumnPointers();
+		int[] aRows = matLHS.getRowIndices();
+		double[] aValues = matLHS.getValues();
+		double[] x = this.work;
+		
+		Arrays.fill(this.pivotOfRow, -1);
+		int lCount = 0;
+		int uCount = 0;
+		
+		for (int k = 0; k < n; k++)
+		{
+			this.lColumnPointers[k] = lCount;
+			this.uColumnPointers[k] = uCount;
+			ensureFactorCapacity(lCount + n, uCount + n);
+			
+			// x = L \ A(:, col), where top..n-1 of the reach holds the pattern in topological order.
+			int col = this.columnOrder[k];
+			int top = computeReach(aPointers, aRows, col);
+			for (int p = top; p < n; p++) x[this.reach[p]] = 0d;
+			for (int p = aPointers[col]; p < aPointers[col + 1]; p++) x[aRows[p]] = aValues[p];
+			for (int p = top; p < n; p++)
+			{
+				int row = this.reach[p];
+				int pivotColumn = this.pivotOfRow[row];
+				if (pivotColumn < 0) continue;
+				double xj = x[row];
+				for (int q = this.lColumnPointers[pivotColumn] + 1; q < this.lColumnPointers[pivotColumn + 1]; q++)
+				{
+					x[this.lRowIndices[q]] -= this.lValues[q] * xj;
+				}
+			}
+			
+			// Move the pivotal rows into U and search the remaining rows for the pivot.
+			int pivotRow = -1;
+			double largest = -1d;
+			for (int p = top; p < n; p++)
+			{
+				int row = this.reach[p];
+				if (this.pivotOfRow[row] < 0)
+				{
+					double magnitude = Math.abs(x[row]);
+					if (magnitude > largest)
+					{
+						largest = magnitude;
+						pivotRow = row;
+					}
+				}
+				else
+				{
+					this.uRowIndices[uCount] = this.pivotOfRow[row];
+					this.uValues[uCount++] = x[row];
+				}
+			}
+			if ((pivotRow < 0) || (largest <= 0d))
+			{
+				clearWork(top);
+				return false;
+			}
+			
+			// Prefer the diagonal to keep the fill close to what the ordering planned.
+			if ((this.pivotOfRow[col] < 0) && (Math.abs(x[col]) >= largest * this.pivotTolerance)) pivotRow = col;
+			double pivot = x[pivotRow];
+			
+			this.uRowIndices[uCount] = k;
+			this.uValues[uCount++] = pivot;
+			this.pivotOfRow[pivotRow] = k;
+			this.rowOfPivot[k] = pivotRow;
+			
+			// Diagonal of L first, then the scaled remaining rows. L keeps original row numbers until the end.
+			this.lRowIndices[lCount] = pivotRow;
+			this.lValues[lCount++] = 1d;
+			for (int p = top; p < n; p++)
+			{
+				int row = this.reach[p];
+				if (this.pivotOfRow[row] < 0)
+				{
+					this.lRowIndices[lCount] = row;
+					this.lValues[lCount++] = x[row] / pivot;
+				}
+				x[row] = 0d;
+			}
+		}
+		this.lColumnPointers[n] = lCount;
+		this.uColumnPointers[n] = uCount;
+		
+		// Renumber the rows of L into pivot order.
+		for (int p = 0; p < lCount; p++) this.lRowIndices[p] = this.pivotOfRow[this.lRowIndices[p]];
+		
+		return true;
+	}
+	
+	/**
+	 * Refactors a matrix with the same pattern using the previous pivot sequence and L/U patterns.
+	 * Returns false if a pivot became too small, in which case a full factorization is needed.
+	 * @param matLHS
+	 * @return
+	 */
+	boolean refactorNumeric(SparseStampMatrix matLHS)
+	{
+		int n = this.size;
+		int[] aPointers = matLHS.getColumnPointers();
+		int[] aRows = matLHS.getRowIndices();
+		double[] aValues = matLHS.getValues();
+		double[] x = this.work;
+		
+		for (int k = 0; k < n; k++)
+		{
+			// Scatter the column in pivot order.
+			int col = this.columnOrder[k];
+			for (int p = aPointers[col]; p < aPointers[col + 1]; p++) x[this.pivotOfRow[aRows[p]]] = aValues[p];
+			
+			// The U pattern is stored in topological order, so each entry is final when it is reached.
+			int uEnd = this.uColumnPointers[k + 1] - 1;
+			for (int p = this.uColumnPointers[k]; p < uEnd; p++)
+			{
+				int j = this.uRowIndices[p];
+				double ujk = x[j];
+				this.uValues[p] = ujk;
+				x[j] = 0d;
+				for (int q = this.lColumnPointers[j] + 1; q < this.lColumnPointers[j + 1]; q++)
+				{
+					x[this.lRowIndices[q]] -= this.lValues[q] * ujk;
+				}
+			}
+			
+			// Check that the reused pivot is still acceptable.
+			double pivot = x[k];
+			x[k] = 0d;
+			double largest = Math.abs(pivot);
+			int lStart = this.lColumnPointers[k] + 1;
+			int lEnd = this.lColumnPointers[k + 1];
+			for (int p = lStart; p < lEnd; p++) largest = Math.max(largest, Math.abs(x[this.lRowIndices[p]]));
+			if ((pivot == 0d) || (Math.abs(pivot) < largest * this.pivotTolerance))
+			{
+				for (int p = lStart; p < lEnd; p++) x[this.lRowIndices[p]] = 0d;
+				return false;
+			}
+			
+			this.uValues[uEnd] = pivot;
+			for (int p = lStart; p < lEnd; p++)
+			{
+				int i = this.lRowIndices[p];
+				this.lValues[p] = x[i] / pivot;
+				x[i] = 0d;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Depth first search of the graph of L from the rows of A(:, col). Stores the reached rows in reach[top..n-1] in
+	 * topological order and returns top.
+	 * @param aPointers
+	 * @param aRows
+	 * @param col
+	 * @return
+	 */
+	int computeReach(int[] aPointers, int[] aRows, int col)
+	{
+		int top = this.size;
+		
+		// Use a new stamp so the marks never need clearing.
+		this.markStamp++;
+		if (this.markStamp == Integer.MAX_VALUE)
+		{
+			Arrays.fill(this.marks, 0);
+			this.markStamp = 1;
+		}
+		
+		for (int p = aPointers[col]; p < aPointers[col + 1]; p++)
+		{
+			int start = aRows[p];
+			if (this.marks[start] == this.markStamp) continue;
+			
+			// Iterative depth first search from the start row.
+			int head = 0;
+			this.dfsStack[0] = start;
+			while (head >= 0)
+			{
+				int row = this.dfsStack[head];
+				int pivotColumn = this.pivotOfRow[row];
+				if (this.marks[row] != this.markStamp)
+				{
+					this.marks[row] = this.markStamp;
+					this.dfsPointer[head] = (pivotColumn < 0) ? 0 : this.lColumnPointers[pivotColumn] + 1;
+				}
+				
+				boolean done = true;
+				int end = (pivotColumn < 0) ? 0 : this.lColumnPointers[pivotColumn + 1];
+				for (int q = this.dfsPointer[head]; q < end; q++)
+				{
+					int next = this.lRowIndices[q];
+					if (this.marks[next] == this.markStamp) continue;
+					this.dfsPointer[head] = q + 1;
+					this.dfsStack[++head] = next;
+					done = false;
+					break;
+				}
+				if (done)
+				{
+					head--;
+					this.reach[--top] = row;
+				}
+			}
+		}
+		
+		return top;
+	}
+	
+	/**
+	 * Takes private copies of the pivot sequence and L/U patterns shared with another solver.
+	 */
+	void unsharePattern()
+	{
+		this.rowOfPivot = this.rowOfPivot.clone();
+		this.pivotOfRow = this.pivotOfRow.clone();
+		this.lColumnPointers = this.lColumnPointers.clone();
+		this.lRowIndices = this.lRowIndices.clone();
+		this.uColumnPointers = this.uColumnPointers.clone();
+		this.uRowIndices = this.uRowIndices.clone();
+		this.sharedPattern = false;
+	}
+	
+	/**
+	 * Clears the dense workspace after an aborted column.
+	 * @param top
+	 */
+	void clearWork(int top)
+	{
+		for (int p = top; p < this.size; p++) this.work[this.reach[p]] = 0d;
+	}
+	
+	/**
+	 * Grows the factor storage so it can hold at least the given entry counts.
+	 * @param lNeeded
+	 * @param uNeeded
+	 */
+	void ensureFactorCapacity(int lNeeded, int uNeeded)
+	{
+		if (lNeeded > this.lRowIndices.length)
+		{
+			int capacity = Math.max(lNeeded, 2 * this.lRowIndices.length);
+			this.lRowIndices = Arrays.copyOf(this.lRowIndices, capacity);
+			this.lValues = Arrays.copyOf(this.lValues, capacity);
+		}
+		if (uNeeded > this.uRowIndices.length)
+		{
+			int capacity = Math.max(uNeeded, 2 * this.uRowIndices.length);
+			this.uRowIndices = Arrays.copyOf(this.uRowIndices, capacity);
+			this.uValues = Arrays.copyOf(this.uValues, capacity);
+		}
+	}
+	
+	// The relative threshold for keeping a diagonal pivot.
+	double pivotTolerance = 0.001;
+	
+	// The fill-reducing ordering computed by the analysis.
+	SparseOrdering ordering = SparseOrdering.MINIMUM_DEGREE;
+	
+	// The dimension of the analyzed matrix.
+	int size = 0;
+	
+	// Whether or not a pattern has been analyzed.
+	boolean analyzed = false;
+	
+	// Whether or not a valid factorization is stored.
+	boolean factored = false;
+	
+	// Whether or not the pivot sequence and L/U patterns are shared with another solver.
+	boolean sharedPattern = false;
+	
+	// Whether or not the pivot sequence and L/U patterns were restored from a symbolic factorization and not factored yet.
+	boolean pivotsRestored = false;
+	
+	// The column pointers of the analyzed pattern.
+	int[] analyzedColumnPointers;
+	
+	// The row indices of the analyzed pattern.
+	int[] analyzedRowIndices;
+	
+	// The order in which the columns of A are factored.
+	int[] columnOrder;
+	
+	// The original row chosen as pivot of each step.
+	int[] rowOfPivot;
+	
+	// The pivot step of each original row, or -1 while the row is not pivotal.
+	int[] pivotOfRow;
+	
+	// Column pointers of the unit lower factor.
+	int[] lColumnPointers;
+	
+	// Row indices of the unit lower factor.
+	int[] lRowIndices;
+	
+	// Values of the unit lower factor.
+	double[] lValues;
+	
+	// Column pointers of the upper factor.
+	int[] uColumnPointers;
+	
+	// Row indices of the upper factor.
+	int[] uRowIndices;
+	
+	// Values of the upper factor.
+	double[] uValues;
+	
+	// Dense accumulator used by the factorization.
+	double[] work;
+	
+	// Dense accumulator used by the solve.
+	double[] solveWork;
+	
+	// The interleaved columns of a panel of solveMultiple(), the row being eliminated and the number of columns in a panel.
+	double[] panelWork;
+	double[] panelRow;
+	static final int PANEL_WIDTH = 32;
+	
+	// Rows reached by the depth first search.
+	int[] reach;
+	
+	// Depth first search stack.
+	int[] dfsStack;
+	
+	// Depth first search position of each stack entry.
+	int[] dfsPointer;
+	
+	// Visited marks of the depth first search.
+	int[] marks;
+	
+	// The current visited stamp.
+	int markStamp = 0;
+	
+	// The number of full factorizations done.
+	long fullFactorCount = 0;
+	
+	// The number of numeric refactorizations done.
+	long refactorCount = 0;
+}
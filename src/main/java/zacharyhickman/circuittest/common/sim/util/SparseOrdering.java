@@ -0,0 +1,32 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+/**
+ * A fill-reducing ordering of the unknowns of a sparse system. The LU solver eliminates the columns (and prefers the matching
+ * diagonal pivots) in the returned order, so for the structurally symmetric MNA matrices this acts as a symmetric permutation of the
+ * node and branch indices without changing the ids the rest of the simulator uses.
+ * @author zhick
+ *
+ */
+public interface SparseOrdering
+{
+	/**
+	 * Returns the elimination order of the columns of the matrix: order[k] is the column eliminated at step k.
+	 * @param matLHS
+	 * @return
+	 */
+	public int[] computeOrder(SparseStampMatrix matLHS);
+	
+	// Eliminates the columns in index order.
+	public static final SparseOrdering NATURAL = matLHS ->
+	{
+		int[] order = new int[matLHS.numCols()];
+		for (int k = 0; k < order.length; k++) order[k] = k;
+		return order;
+	};
+	
+	// Reverse Cuthill-McKee, which keeps the factors inside a narrow band. Cheap and good for chains and ladders.
+	public static final SparseOrdering REVERSE_CUTHILL_MCKEE = new ReverseCuthillMcKeeOrdering();
+	
+	// Minimum degree on the graph of A + A^T, which gives the least fill on meshes and grids.
+	public static final SparseOrdering MINIMUM_DEGREE = new MinimumDegreeOrdering();
+}
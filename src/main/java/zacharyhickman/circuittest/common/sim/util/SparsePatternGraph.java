@@ -0,0 +1,89 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * The adjacency structure of the graph of A + A^T (without self loops) of a square sparse matrix, stored like a compressed
+ * matrix: the neighbors of vertex i are neighbors[pointers[i]] to neighbors[pointers[i + 1] - 1]. Used by the orderings.
+ * @author zhick
+ *
+ */
+class SparsePatternGraph
+{
+	// Constructor of the graph of the pattern of the given matrix.
+	SparsePatternGraph(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		if (matLHS.numRows() != matLHS.numCols())
+			throw new IllegalArgumentException("Orderings need a square matrix (" + matLHS.numRows() + " x " + matLHS.numCols() + ").");
+		
+		int n = matLHS.numCols();
+		int[] aPointers = matLHS.getColumnPointers();
+		int[] aRows = matLHS.getRowIndices();
+		this.size = n;
+		
+		// Count both directions of every off-diagonal entry, duplicates included.
+		int[] counts = new int[n + 1];
+		for (int j = 0; j < n; j++)
+		{
+			for (int p = aPointers[j]; p < aPointers[j + 1]; p++)
+			{
+				int i = aRows[p];
+				if (i == j) continue;
+				counts[i + 1]++;
+				counts[j + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++) counts[i + 1] += counts[i];
+		int[] raw = new int[counts[n]];
+		int[] fill = counts.clone();
+		for (int j = 0; j < n; j++)
+		{
+			for (int p = aPointers[j]; p < aPointers[j + 1]; p++)
+			{
+				int i = aRows[p];
+				if (i == j) continue;
+				raw[fill[i]++] = j;
+				raw[fill[j]++] = i;
+			}
+		}
+		
+		// Drop the duplicates of each vertex, which come from entries stored in both triangles.
+		int[] marks = new int[n];
+		Arrays.fill(marks, -1);
+		this.pointers = new int[n + 1];
+		int count = 0;
+		for (int i = 0; i < n; i++)
+		{
+			this.pointers[i] = count;
+			for (int p = counts[i]; p < counts[i + 1]; p++)
+			{
+				int j = raw[p];
+				if (marks[j] == i) continue;
+				marks[j] = i;
+				raw[count++] = j;
+			}
+		}
+		this.pointers[n] = count;
+		this.neighbors = Arrays.copyOf(raw, count);
+	}
+	
+	/**
+	 * Get the number of neighbors of a vertex.
+	 * @param vertex
+	 * @return
+	 */
+	int degree(int vertex)
+	{
+		return this.pointers[vertex + 1] - this.pointers[vertex];
+	}
+	
+	// The number of vertices.
+	int size = 0;
+	
+	// The start of the neighbors of each vertex.
+	int[] pointers;
+	
+	// The neighbors of all vertices.
+	int[] neighbors;
+}
@@ -0,0 +1,414 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * A sparse accumulator that circuit elements stamp their matrix entries into. Entries are collected as triplets
+ * (row, column, value) and then compressed into column-major (CSC) storage, summing duplicate entries.
+ * Every triplet keeps a slot number so its value can be patched later without recompressing the pattern.
+ * @author zhick
+ *
+ */
+public class SparseStampMatrix
+{
+	// Constructor of the stamp matrix.
+	public SparseStampMatrix(int numRows, int numCols)
+	{
+		this(numRows, numCols, 16);
+	}
+	
+	// Constructor of the stamp matrix with an initial triplet capacity.
+	public SparseStampMatrix(int numRows, int numCols, int tripletCapacity)
+	{
+		this.tripletRows = new int[Math.max(tripletCapacity, 1)];
+		this.tripletCols = new int[this.tripletRows.length];
+		this.tripletValues = new double[this.tripletRows.length];
+		reset(numRows, numCols);
+	}
+	
+	// Constructor of a copy of another stamp matrix, including its triplets and compressed storage.
+	public SparseStampMatrix(SparseStampMatrix source)
+	{
+		this.numRows = source.numRows;
+		this.numCols = source.numCols;
+		this.tripletCount = source.tripletCount;
+		this.tripletRows = source.tripletRows.clone();
+		this.tripletCols = source.tripletCols.clone();
+		this.tripletValues = source.tripletValues.clone();
+		this.compressed = source.compressed;
+		this.columnPointers = source.columnPointers.clone();
+		this.rowIndices = source.rowIndices.clone();
+		this.values = source.values.clone();
+		this.tripletToValueIndex = source.tripletToValueIndex.clone();
+	}
+	
+	// Constructor of a compressed stamp matrix from stored triplets and the pattern they were compressed into, e.g. read from a file.
+	// The compressed values are summed from the triplets, the pattern is taken as given.
+	public SparseStampMatrix(int numRows, int numCols, int[] tripletRows, int[] tripletCols, double[] tripletValues,
+			int[] columnPointers, int[] rowIndices, int[] tripletToValueIndex)
+	{
+		int count = tripletRows.length;
+		if ((tripletCols.length != count) || (tripletValues.length != count) || (tripletToValueIndex.length != count))
+			throw new IllegalArgumentException("The triplet arrays have different lengths.");
+		if ((columnPointers.length != numCols + 1) || (columnPointers[numCols] != rowIndices.length))
+			throw new IllegalArgumentException("The column pointers do not match the matrix (" + numRows + " x " + numCols + ").");
+		for (int k = 0; k < count; k++)
+		{
+			if ((tripletToValueIndex[k] < 0) || (tripletToValueIndex[k] >= rowIndices.length))
+				throw new IllegalArgumentException("Triplet " + k + " is merged into value " + tripletToValueIndex[k] + ", outside of the pattern.");
+		}
+		
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.tripletCount = count;
+		this.tripletRows = (count > 0) ? tripletRows : new int[1];
+		this.tripletCols = (count > 0) ? tripletCols : new int[1];
+		this.tripletValues = (count > 0) ? tripletValues : new double[1];
+		this.columnPointers = columnPointers;
+		this.rowIndices = rowIndices;
+		this.values = new double[rowIndices.length];
+		this.tripletToValueIndex = tripletToValueIndex;
+		this.compressed = true;
+		
+		refreshValues();
+	}
+	
+	/**
+	 * Clears all stamped entries and resizes the matrix. Triplet storage is kept so it can be reused.
+	 * @param numRows
+	 * @param numCols
+	 */
+	public void reset(int numRows, int numCols)
+	{
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.tripletCount = 0;
+		this.compressed = false;
+		this.restamping = false;
+	}
+	
+	/**
+	 * Adds a value to an entry of the matrix. Returns the slot of the stamped triplet.
+	 * @param row
+	 * @param col
+	 * @param value
+	 * @return
+	 */
+	public int addEntry(int row, int col, double value)
+	{
+		// Throw an exception if the entry is outside of the matrix.
+		if ((row < 0) || (row >= this.numRows) || (col < 0) || (col >= this.numCols))
+			throw new ArrayIndexOutOfBoundsException("Stamp entry (" + row + ", " + col + ") is outside of the matrix (" + this.numRows + " x " + this.numCols + ").");
+		
+		// Grow the triplet storage if needed.
+		if (this.tripletCount == this.tripletRows.length)
+		{
+			int newCapacity = this.tripletRows.length * 2;
+			this.tripletRows = Arrays.copyOf(this.tripletRows, newCapacity);
+			this.tripletCols = Arrays.copyOf(this.tripletCols, newCapacity);
+			this.tripletValues = Arrays.copyOf(this.tripletValues, newCapacity);
+		}
+		
+		// While restamping, an entry that lands on the same slot as before keeps the compressed pattern valid.
+		boolean samePosition = this.restamping && (this.tripletCount < this.restampExpectedCount)
+				&& (this.tripletRows[this.tripletCount] == row) && (this.tripletCols[this.tripletCount] == col);
+		
+		this.tripletRows[this.tripletCount] = row;
+		this.tripletCols[this.tripletCount] = col;
+		this.tripletValues[this.tripletCount] = value;
+		
+		// New entries invalidate the compressed pattern.
+		if (!samePosition) this.compressed = false;
+		
+		return this.tripletCount++;
+	}
+	
+	/**
+	 * Starts restamping the values of the matrix. If the elements stamp the same entries in the same order as before,
+	 * endRestamp() only refreshes the compressed values instead of compressing the pattern again.
+	 */
+	public void beginRestamp()
+	{
+		this.restamping = true;
+		this.restampExpectedCount = this.tripletCount;
+		this.tripletCount = 0;
+	}
+	
+	/**
+	 * Ends restamping the values of the matrix. Returns true if the pattern was unchanged and only the values were refreshed,
+	 * or false if the pattern had to be compressed again.
+	 * @return
+	 */
+	public boolean endRestamp()
+	{
+		this.restamping = false;
+		if (this.compressed && (this.tripletCount == this.restampExpectedCount))
+		{
+			refreshValues();
+			return true;
+		}
+		
+		compress();
+		return false;
+	}
+	
+	/**
+	 * Sets the value of a previously stamped triplet. Call refreshValues() afterwards to update the compressed values.
+	 * @param slot
+	 * @param value
+	 */
+	public void setTripletValue(int slot, double value)
+	{
+		this.tripletValues[slot] = value;
+	}
+	
+	/**
+	 * Sets the value of a previously stamped triplet and adds the difference to the compressed value it was merged into, so changing
+	 * a few triplets does not need refreshValues() over the whole matrix.
+	 * @param slot
+	 * @param value
+	 */
+	public void patchTripletValue(int slot, double value)
+	{
+		if (!this.compressed) throw new IllegalStateException("The stamp matrix has not been compressed.");
+		
+		this.values[this.tripletToValueIndex[slot]] += value - this.tripletValues[slot];
+		this.tripletValues[slot] = value;
+	}
+	
+	/**
+	 * Returns the value of a previously stamped triplet.
+	 * @param slot
+	 * @return
+	 */
+	public double getTripletValue(int slot)
+	{
+		return this.tripletValues[slot];
+	}
+	
+	/**
+	 * Returns the row of a previously stamped triplet.
+	 * @param slot
+	 * @return
+	 */
+	public int getTripletRow(int slot)
+	{
+		return this.tripletRows[slot];
+	}
+	
+	/**
+	 * Returns the column of a previously stamped triplet.
+	 * @param slot
+	 * @return
+	 */
+	public int getTripletColumn(int slot)
+	{
+		return this.tripletCols[slot];
+	}
+	
+	/**
+	 * Compresses the stamped triplets into column-major storage. Duplicate entries are summed and the row indices
+	 * of each column are sorted. Runs in O(nnz + rows + columns).
+	 */
+	public void compress()
+	{
+		int count = this.tripletCount;
+		
+		// First pass: bucket the triplets by row so that the column pass below produces sorted rows.
+		int[] rowPointers = new int[this.numRows + 1];
+		for (int k = 0; k < count; k++) rowPointers[this.tripletRows[k] + 1]++;
+		for (int i = 0; i < this.numRows; i++) rowPointers[i + 1] += rowPointers[i];
+		int[] byRow = new int[count];
+		for (int k = 0; k < count; k++) byRow[rowPointers[this.tripletRows[k]]++] = k;
+		
+		// Second pass: stable bucket by column.
+		int[] colCounts = new int[this.numCols + 1];
+		for (int k = 0; k < count; k++) colCounts[this.tripletCols[k] + 1]++;
+		for (int j = 0; j < this.numCols; j++) colCounts[j + 1] += colCounts[j];
+		int[] byColumn = new int[count];
+		for (int k = 0; k < count; k++)
+		{
+			int slot = byRow[k];
+			byColumn[colCounts[this.tripletCols[slot]]++] = slot;
+		}
+		
+		// Merge duplicates, which are now adjacent, and record where each triplet ended up.
+		this.columnPointers = new int[this.numCols + 1];
+		this.rowIndices = new int[count];
+		this.tripletToValueIndex = new int[count];
+		int nonZeros = 0;
+		int k = 0;
+		for (int j = 0; j < this.numCols; j++)
+		{
+			this.columnPointers[j] = nonZeros;
+			int lastRow = -1;
+			while ((k < count) && (this.tripletCols[byColumn[k]] == j))
+			{
+				int slot = byColumn[k++];
+				if (this.tripletRows[slot] != lastRow)
+				{
+					lastRow = this.tripletRows[slot];
+					this.rowIndices[nonZeros++] = lastRow;
+				}
+				this.tripletToValueIndex[slot] = nonZeros - 1;
+			}
+		}
+		this.columnPointers[this.numCols] = nonZeros;
+		this.rowIndices = Arrays.copyOf(this.rowIndices, nonZeros);
+		this.values = new double[nonZeros];
+		this.compressed = true;
+		
+		refreshValues();
+	}
+	
+	/**
+	 * Recomputes the compressed values from the triplet values without touching the sparsity pattern.
+	 */
+	public void refreshValues()
+	{
+		if (!this.compressed) throw new IllegalStateException("The stamp matrix has not been compressed.");
+		
+		Arrays.fill(this.values, 0d);
+		for (int k = 0; k < this.tripletCount; k++)
+		{
+			this.values[this.tripletToValueIndex[k]] += this.tripletValues[k];
+		}
+	}
+	
+	/**
+	 * Returns the value stored at the given entry, or zero if the entry is not part of the pattern.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double get(int row, int col)
+	{
+		if (!this.compressed) compress();
+		
+		int index = Arrays.binarySearch(this.rowIndices, this.columnPointers[col], this.columnPointers[col + 1], row);
+		return (index >= 0) ? this.values[index] : 0d;
+	}
+	
+	/**
+	 * Returns true if the triplets have been compressed since the last new entry.
+	 * @return
+	 */
+	public boolean isCompressed()
+	{
+		return this.compressed;
+	}
+	
+	/**
+	 * Get the row count of this matrix.
+	 * @return
+	 */
+	public int numRows()
+	{
+		return this.numRows;
+	}
+	
+	/**
+	 * Get the column count of this matrix.
+	 * @return
+	 */
+	public int numCols()
+	{
+		return this.numCols;
+	}
+	
+	/**
+	 * Get the number of stamped triplets, including duplicates.
+	 * @return
+	 */
+	public int getTripletCount()
+	{
+		return this.tripletCount;
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of the compressed matrix.
+	 * @return
+	 */
+	public int getNonZeroCount()
+	{
+		if (!this.compressed) compress();
+		
+		return this.columnPointers[this.numCols];
+	}
+	
+	/**
+	 * Get the column pointers of the compressed matrix. Column j occupies [ptr[j], ptr[j+1]).
+	 * @return
+	 */
+	public int[] getColumnPointers()
+	{
+		return this.columnPointers;
+	}
+	
+	/**
+	 * Get the row indices of the compressed matrix.
+	 * @return
+	 */
+	public int[] getRowIndices()
+	{
+		return this.rowIndices;
+	}
+	
+	/**
+	 * Get the values of the compressed matrix.
+	 * @return
+	 */
+	public double[] getValues()
+	{
+		return this.values;
+	}
+	
+	/**
+	 * Get the position in the compressed values that a triplet slot was merged into.
+	 * @param slot
+	 * @return
+	 */
+	public int getValueIndexOfSlot(int slot)
+	{
+		return this.tripletToValueIndex[slot];
+	}
+	
+	// The row count of the matrix.
+	int numRows = 0;
+	
+	// The column count of the matrix.
+	int numCols = 0;
+	
+	// The number of triplets stamped since the last reset.
+	int tripletCount = 0;
+	
+	// The row of each stamped triplet.
+	int[] tripletRows;
+	
+	// The column of each stamped triplet.
+	int[] tripletCols;
+	
+	// The value of each stamped triplet.
+	double[] tripletValues;
+	
+	// Whether or not the compressed storage matches the stamped triplets.
+	boolean compressed = false;
+	
+	// Whether or not a restamp of the values is in progress.
+	boolean restamping = false;
+	
+	// The number of triplets stamped before the restamp started.
+	int restampExpectedCount = 0;
+	
+	// The compressed column pointers.
+	int[] columnPointers = new int[1];
+	
+	// The compressed row indices.
+	int[] rowIndices = new int[0];
+	
+	// The compressed values.
+	double[] values = new double[0];
+	
+	// The position in the compressed values that each triplet was merged into.
+	int[] tripletToValueIndex = new int[0];
+}
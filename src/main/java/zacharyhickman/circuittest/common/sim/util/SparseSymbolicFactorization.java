@@ -0,0 +1,91 @@
+package zacharyhickman.circuittest.common.sim.util;
+
+import java.util.Arrays;
+
+/**
+ * The symbolic part of a SparseLUSolver factorization: the analyzed sparsity pattern, the fill-reducing column order, the pivot
+ * sequence and the patterns of L and U. It holds no numeric values, so a solver restored from it only needs a numeric
+ * refactorization before it can solve, which is how compiled circuit files skip the analysis and pivot search.
+ * The arrays are never modified by the solvers that use them.
+ * @author zhick
+ *
+ */
+public final class SparseSymbolicFactorization
+{
+	// Constructor of the symbolic factorization. Throws an exception if the arrays do not describe a consistent factorization.
+	public SparseSymbolicFactorization(int size, int[] matrixColumnPointers, int[] matrixRowIndices, int[] columnOrder, int[] rowOfPivot,
+			int[] lColumnPointers, int[] lRowIndices, int[] uColumnPointers, int[] uRowIndices)
+	{
+		if ((matrixColumnPointers.length != size + 1) || (columnOrder.length != size) || (rowOfPivot.length != size)
+				|| (lColumnPointers.length != size + 1) || (uColumnPointers.length != size + 1))
+			throw new IllegalArgumentException("The symbolic factorization arrays do not match the matrix size " + size + ".");
+		if ((matrixColumnPointers[size] != matrixRowIndices.length) || (lColumnPointers[size] != lRowIndices.length) || (uColumnPointers[size] != uRowIndices.length))
+			throw new IllegalArgumentException("The symbolic factorization patterns do not match their column pointers.");
+		
+		// Every pivot row must be used exactly once, or the solve would read garbage.
+		this.pivotOfRow = new int[size];
+		Arrays.fill(this.pivotOfRow, -1);
+		for (int k = 0; k < size; k++)
+		{
+			int row = rowOfPivot[k];
+			if ((row < 0) || (row >= size) || (this.pivotOfRow[row] >= 0))
+				throw new IllegalArgumentException("The pivot sequence is not a permutation (pivot " + k + ", row " + row + ").");
+			this.pivotOfRow[row] = k;
+		}
+		
+		this.size = size;
+		this.matrixColumnPointers = matrixColumnPointers;
+		this.matrixRowIndices = matrixRowIndices;
+		this.columnOrder = columnOrder;
+		this.rowOfPivot = rowOfPivot;
+		this.lColumnPointers = lColumnPointers;
+		this.lRowIndices = lRowIndices;
+		this.uColumnPointers = uColumnPointers;
+		this.uRowIndices = uRowIndices;
+	}
+	
+	/**
+	 * Returns true if the symbolic factorization was made for a matrix with the sparsity pattern of the given matrix.
+	 * @param matLHS
+	 * @return
+	 */
+	public boolean matchesPattern(SparseStampMatrix matLHS)
+	{
+		if (!matLHS.isCompressed()) matLHS.compress();
+		
+		return (matLHS.numRows() == this.size) && (matLHS.numCols() == this.size)
+				&& Arrays.equals(matLHS.getColumnPointers(), this.matrixColumnPointers)
+				&& Arrays.equals(matLHS.getRowIndices(), this.matrixRowIndices);
+	}
+	
+	/**
+	 * Get the number of structural non-zeros of L+U (the unit diagonal of L is not counted).
+	 * @return
+	 */
+	public int getFactorNonZeroCount()
+	{
+		return (this.lColumnPointers[this.size] - this.size) + this.uColumnPointers[this.size];
+	}
+	
+	// The dimension of the matrix.
+	public final int size;
+	
+	// The column pointers and row indices of the analyzed matrix pattern.
+	public final int[] matrixColumnPointers;
+	public final int[] matrixRowIndices;
+	
+	// The order in which the columns of the matrix are factored.
+	public final int[] columnOrder;
+	
+	// The original row chosen as pivot of each step, and its inverse.
+	public final int[] rowOfPivot;
+	final int[] pivotOfRow;
+	
+	// The pattern of the unit lower factor, rows in pivot order with the diagonal first in each column.
+	public final int[] lColumnPointers;
+	public final int[] lRowIndices;
+	
+	// The pattern of the upper factor, in topological order with the diagonal last in each column.
+	public final int[] uColumnPointers;
+	public final int[] uRowIndices;
+}
@@ -0,0 +1,125 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+import java.util.Arrays;
+
+/**
+ * A waveform sink that stores the samples in primitive column arrays, one for the time and one per probe.
+ * The columns are preallocated to the expected sample count and only grow if a run records more than that.
+ * @author zhick
+ *
+ */
+public class SimColumnBuffer implements SimWaveformSink
+{
+	/**
+	 * Allocates the columns for the expected number of samples.
+	 * @param probeNames
+	 * @param expectedSamples
+	 */
+	@Override
+	public void begin(String[] probeNames, int expectedSamples)
+	{
+		int capacity = Math.max(expectedSamples, 16);
+		this.probeNames = probeNames.clone();
+		this.timeColumn = new double[capacity];
+		this.valueColumns = new double[probeNames.length][capacity];
+		this.sampleCount = 0;
+	}
+	
+	/**
+	 * Appends one sample to the columns.
+	 * @param time
+	 * @param values
+	 */
+	@Override
+	public void record(double time, double[] values)
+	{
+		if (this.sampleCount == this.timeColumn.length)
+		{
+			int capacity = this.timeColumn.length * 2;
+			this.timeColumn = Arrays.copyOf(this.timeColumn, capacity);
+			for (int p = 0; p < this.valueColumns.length; p++)
+			{
+				this.valueColumns[p] = Arrays.copyOf(this.valueColumns[p], capacity);
+			}
+		}
+		
+		this.timeColumn[this.sampleCount] = time;
+		for (int p = 0; p < values.length; p++)
+		{
+			this.valueColumns[p][this.sampleCount] = values[p];
+		}
+		this.sampleCount++;
+	}
+	
+	/**
+	 * Nothing to finish for an in-memory buffer.
+	 */
+	@Override
+	public void end()
+	{
+	
+	}
+	
+	/**
+	 * Get the number of recorded samples. Only the first getSampleCount() entries of the columns are valid.
+	 * @return
+	 */
+	public int getSampleCount()
+	{
+		return this.sampleCount;
+	}
+	
+	/**
+	 * Get the time column.
+	 * @return
+	 */
+	public double[] getTimeColumn()
+	{
+		return this.timeColumn;
+	}
+	
+	/**
+	 * Get the value column of the probe at the given position.
+	 * @param probe
+	 * @return
+	 */
+	public double[] getValueColumn(int probe)
+	{
+		return this.valueColumns[probe];
+	}
+	
+	/**
+	 * Get the value column of the probe of the given name, e.g. V(NA).
+	 * @param probeName
+	 * @return
+	 */
+	public double[] getValueColumn(String probeName)
+	{
+		for (int p = 0; p < this.probeNames.length; p++)
+		{
+			if (this.probeNames[p].equals(probeName)) return this.valueColumns[p];
+		}
+		throw new IllegalArgumentException("No probe named " + probeName + " was recorded.");
+	}
+	
+	/**
+	 * Get the names of the recorded probes.
+	 * @return
+	 */
+	public String[] getProbeNames()
+	{
+		return this.probeNames;
+	}
+	
+	// The names of the recorded probes.
+	String[] probeNames = new String[0];
+	
+	// The time of each sample.
+	double[] timeColumn = new double[0];
+	
+	// The values of each probe, one column per probe.
+	double[][] valueColumns = new double[0][];
+	
+	// The number of recorded samples.
+	int sampleCount = 0;
+}
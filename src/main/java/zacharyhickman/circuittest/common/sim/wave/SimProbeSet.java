@@ -0,0 +1,136 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import zacharyhickman.circuittest.common.sim.SimCircuit;
+import zacharyhickman.circuittest.common.sim.SimCircuitState;
+import zacharyhickman.circuittest.common.sim.SimCompiledCircuit;
+
+/**
+ * A selection of node voltages and voltage source branch currents to record during a transient run.
+ * The names are resolved to state indices once per run, so sampling is a plain array gather.
+ * @author zhick
+ *
+ */
+public class SimProbeSet
+{
+	/**
+	 * Adds the voltage of the node of the given name to the probes.
+	 * @param nodeName
+	 * @return
+	 */
+	public SimProbeSet addNodeVoltage(String nodeName)
+	{
+		this.probeNames.add("V(" + nodeName + ")");
+		this.targetNames.add(nodeName);
+		this.isBranch.add(false);
+		return this;
+	}
+	
+	/**
+	 * Adds the current through the voltage source of the given name to the probes.
+	 * @param sourceName
+	 * @return
+	 */
+	public SimProbeSet addBranchCurrent(String sourceName)
+	{
+		this.probeNames.add("I(" + sourceName + ")");
+		this.targetNames.add(sourceName);
+		this.isBranch.add(true);
+		return this;
+	}
+	
+	/**
+	 * Resolves the probe names to the node and branch indices of the circuit. Must be called again after the circuit is remapped.
+	 * @param circuit
+	 */
+	public void resolve(SimCircuit circuit)
+	{
+		resolve(circuit.circuitNodeIndexMap, circuit.circuitBranchIndexMap);
+	}
+	
+	/**
+	 * Resolves the probe names to the node and branch indices of a compiled circuit.
+	 * @param circuit
+	 */
+	public void resolve(SimCompiledCircuit circuit)
+	{
+		resolve(circuit.nodeIndexMap, circuit.branchIndexMap);
+	}
+	
+	/**
+	 * Resolves the probe names with the given node and branch index maps.
+	 * @param nodeIndexMap
+	 * @param branchIndexMap
+	 */
+	void resolve(Map<String, Integer> nodeIndexMap, Map<String, Integer> branchIndexMap)
+	{
+		int count = this.probeNames.size();
+		this.indices = new int[count];
+		this.branchFlags = new boolean[count];
+		for (int i = 0; i < count; i++)
+		{
+			String target = this.targetNames.get(i);
+			this.branchFlags[i] = this.isBranch.get(i);
+			if (this.branchFlags[i])
+			{
+				if (!branchIndexMap.containsKey(target + "_i"))
+					throw new IllegalArgumentException("The circuit has no voltage source named " + target + ".");
+				this.indices[i] = branchIndexMap.get(target + "_i");
+			}
+			else
+			{
+				if (!nodeIndexMap.containsKey(target))
+					throw new IllegalArgumentException("The circuit has no node named " + target + ".");
+				this.indices[i] = nodeIndexMap.get(target);
+			}
+		}
+	}
+	
+	/**
+	 * Copies the probed values out of the circuit state into values (one entry per probe).
+	 * @param state
+	 * @param values
+	 */
+	public void sample(SimCircuitState state, double[] values)
+	{
+		for (int i = 0; i < this.indices.length; i++)
+		{
+			values[i] = this.branchFlags[i] ? state.branchCurrents[this.indices[i]] : state.nodeVoltages[this.indices[i]];
+		}
+	}
+	
+	/**
+	 * Get the number of probes.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.probeNames.size();
+	}
+	
+	/**
+	 * Get the display names of the probes, e.g. V(NA) or I(V1).
+	 * @return
+	 */
+	public String[] getProbeNames()
+	{
+		return this.probeNames.toArray(new String[0]);
+	}
+	
+	// The display name of each probe.
+	ArrayList<String> probeNames = new ArrayList<String>();
+	
+	// The node or source name of each probe.
+	ArrayList<String> targetNames = new ArrayList<String>();
+	
+	// Whether each probe is a branch current (true) or a node voltage (false).
+	ArrayList<Boolean> isBranch = new ArrayList<Boolean>();
+	
+	// The resolved state index of each probe.
+	int[] indices = new int[0];
+	
+	// The resolved kind of each probe.
+	boolean[] branchFlags = new boolean[0];
+}
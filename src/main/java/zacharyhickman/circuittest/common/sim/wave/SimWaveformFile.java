@@ -0,0 +1,48 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+/**
+ * Layout constants of the binary waveform file shared by the writer and the reader.
+ * 
+ * The file is little-endian and starts with a header:
+ *   int magic, int version, int value size in bytes (4 = float, 8 = double), int probe count,
+ *   long sample count, int data offset, then per probe an int byte length and the UTF-8 name.
+ * The samples follow at the data offset (aligned to 8 bytes) as fixed size records of a double time followed by one value per probe.
+ * @author zhick
+ *
+ */
+public final class SimWaveformFile
+{
+	private SimWaveformFile()
+	{
+	
+	}
+	
+	/**
+	 * Get the size in bytes of one sample record.
+	 * @param probeCount
+	 * @param valueSize
+	 * @return
+	 */
+	public static int getRecordSize(int probeCount, int valueSize)
+	{
+		return 8 + (probeCount * valueSize);
+	}
+	
+	// The magic number at the start of every waveform file ("CSWF").
+	public static final int MAGIC = 0x46575343;
+	
+	// The version of the file layout.
+	public static final int VERSION = 1;
+	
+	// The byte position of the sample count in the header.
+	public static final int SAMPLE_COUNT_POSITION = 16;
+	
+	// The byte position of the data offset in the header.
+	public static final int DATA_OFFSET_POSITION = 24;
+	
+	// The byte position of the first probe name in the header.
+	public static final int PROBE_NAMES_POSITION = 28;
+	
+	// The target size of one mapped window of the file.
+	public static final int WINDOW_BYTES = 32 * 1024 * 1024;
+}
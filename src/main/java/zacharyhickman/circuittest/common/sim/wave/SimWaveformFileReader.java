@@ -0,0 +1,246 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a binary waveform file written by SimWaveformFileWriter. The samples are read straight out of memory-mapped
+ * windows of the file, so only the pages that are touched are loaded.
+ * @author zhick
+ *
+ */
+public class SimWaveformFileReader implements Closeable
+{
+	// Constructor of the reader. Opens the file and reads its header.
+	public SimWaveformFileReader(Path path) throws IOException
+	{
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		
+		ByteBuffer header = ByteBuffer.allocate(SimWaveformFile.PROBE_NAMES_POSITION).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if (header.getInt(0) != SimWaveformFile.MAGIC)
+		{
+			this.channel.close();
+			throw new IOException(path + " is not a waveform file.");
+		}
+		if (header.getInt(4) != SimWaveformFile.VERSION)
+		{
+			this.channel.close();
+			throw new IOException(path + " has unsupported waveform version " + header.getInt(4) + ".");
+		}
+		this.valueSize = header.getInt(8);
+		int probeCount = header.getInt(12);
+		this.sampleCount = header.getLong(SimWaveformFile.SAMPLE_COUNT_POSITION);
+		this.dataOffset = header.getInt(SimWaveformFile.DATA_OFFSET_POSITION);
+		
+		// Read the probe names.
+		ByteBuffer names = ByteBuffer.allocate(this.dataOffset - SimWaveformFile.PROBE_NAMES_POSITION).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(names, SimWaveformFile.PROBE_NAMES_POSITION);
+		this.probeNames = new String[probeCount];
+		for (int p = 0; p < probeCount; p++)
+		{
+			byte[] name = new byte[names.getInt()];
+			names.get(name);
+			this.probeNames[p] = new String(name, StandardCharsets.UTF_8);
+		}
+		
+		this.recordSize = SimWaveformFile.getRecordSize(probeCount, this.valueSize);
+		this.recordsPerWindow = Math.max(1, SimWaveformFile.WINDOW_BYTES / this.recordSize);
+	}
+	
+	/**
+	 * Get the number of samples in the file.
+	 * @return
+	 */
+	public long getSampleCount()
+	{
+		return this.sampleCount;
+	}
+	
+	/**
+	 * Get the names of the probes in the file.
+	 * @return
+	 */
+	public String[] getProbeNames()
+	{
+		return this.probeNames.clone();
+	}
+	
+	/**
+	 * Get the size of the stored values in bytes (4 = float, 8 = double).
+	 * @return
+	 */
+	public int getValueSize()
+	{
+		return this.valueSize;
+	}
+	
+	/**
+	 * Returns the position of the probe of the given name, or -1 if there is none.
+	 * @param probeName
+	 * @return
+	 */
+	public int getProbeIndex(String probeName)
+	{
+		for (int p = 0; p < this.probeNames.length; p++)
+		{
+			if (this.probeNames[p].equals(probeName)) return p;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the time of the given sample.
+	 * @param sample
+	 * @return
+	 * @throws IOException
+	 */
+	public double getTime(long sample) throws IOException
+	{
+		return this.windowOf(sample).getDouble(positionInWindow(sample));
+	}
+	
+	/**
+	 * Returns one probe value of the given sample.
+	 * @param sample
+	 * @param probe
+	 * @return
+	 * @throws IOException
+	 */
+	public double getValue(long sample, int probe) throws IOException
+	{
+		MappedByteBuffer buffer = windowOf(sample);
+		int position = positionInWindow(sample) + 8 + (probe * this.valueSize);
+		return (this.valueSize == 8) ? buffer.getDouble(position) : buffer.getFloat(position);
+	}
+	
+	/**
+	 * Reads all probe values of the given sample into values and returns the time of the sample.
+	 * @param sample
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public double readSample(long sample, double[] values) throws IOException
+	{
+		MappedByteBuffer buffer = windowOf(sample);
+		int position = positionInWindow(sample);
+		for (int p = 0; p < this.probeNames.length; p++)
+		{
+			int valuePosition = position + 8 + (p * this.valueSize);
+			values[p] = (this.valueSize == 8) ? buffer.getDouble(valuePosition) : buffer.getFloat(valuePosition);
+		}
+		return buffer.getDouble(position);
+	}
+	
+	/**
+	 * Reads count consecutive values of one probe, starting at the given sample, into column. Returns the number of values read,
+	 * which is smaller than count at the end of the file.
+	 * @param probe
+	 * @param firstSample
+	 * @param column
+	 * @param count
+	 * @return
+	 * @throws IOException
+	 */
+	public int readColumn(int probe, long firstSample, double[] column, int count) throws IOException
+	{
+		int read = (int) Math.max(0L, Math.min(count, this.sampleCount - firstSample));
+		for (int i = 0; i < read; i++)
+		{
+			column[i] = getValue(firstSample + i, probe);
+		}
+		return read;
+	}
+	
+	/**
+	 * Closes the file. The mapped windows are released by the garbage collector.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.window = null;
+		this.channel.close();
+	}
+	
+	/**
+	 * Returns the mapped window containing the given sample, mapping it if it is not the current one.
+	 * @param sample
+	 * @return
+	 * @throws IOException
+	 */
+	MappedByteBuffer windowOf(long sample) throws IOException
+	{
+		if ((sample < 0) || (sample >= this.sampleCount))
+			throw new IndexOutOfBoundsException("Sample " + sample + " is outside of the file (" + this.sampleCount + " samples).");
+		
+		long windowIndex = sample / this.recordsPerWindow;
+		if ((this.window == null) || (windowIndex != this.windowIndex))
+		{
+			long firstRecord = windowIndex * this.recordsPerWindow;
+			long records = Math.min(this.recordsPerWindow, this.sampleCount - firstRecord);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.dataOffset + (firstRecord * this.recordSize), records * this.recordSize);
+			this.window.order(ByteOrder.LITTLE_ENDIAN);
+			this.windowIndex = windowIndex;
+		}
+		return this.window;
+	}
+	
+	/**
+	 * Returns the byte position of the given sample inside its window.
+	 * @param sample
+	 * @return
+	 */
+	int positionInWindow(long sample)
+	{
+		return (int) (sample % this.recordsPerWindow) * this.recordSize;
+	}
+	
+	/**
+	 * Reads from the channel until the buffer is full.
+	 * @param buffer
+	 * @param position
+	 * @throws IOException
+	 */
+	void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = this.channel.read(buffer, position + buffer.position());
+			if (read < 0) throw new IOException("Unexpected end of the waveform file.");
+		}
+		buffer.flip();
+	}
+	
+	// The open file channel.
+	FileChannel channel;
+	
+	// The names of the probes.
+	String[] probeNames;
+	
+	// The size of one stored value in bytes.
+	int valueSize = 8;
+	
+	// The number of samples in the file.
+	long sampleCount = 0;
+	
+	// The byte position of the first record.
+	int dataOffset = 0;
+	
+	// The size of one record in bytes.
+	int recordSize = 0;
+	
+	// The number of records in one mapped window.
+	int recordsPerWindow = 1;
+	
+	// The mapped window being read, and its index.
+	MappedByteBuffer window;
+	long windowIndex = -1;
+}
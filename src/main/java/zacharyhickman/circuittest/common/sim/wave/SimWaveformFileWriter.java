@@ -0,0 +1,183 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A waveform sink that streams the samples into a binary file through memory-mapped windows, so a run of any length
+ * never keeps its results on the heap. See SimWaveformFile for the layout.
+ * @author zhick
+ *
+ */
+public class SimWaveformFileWriter implements SimWaveformSink
+{
+	// Constructor of a writer storing the values as doubles.
+	public SimWaveformFileWriter(Path path)
+	{
+		this(path, 8);
+	}
+	
+	// Constructor of a writer storing the values with the given size in bytes (4 = float, 8 = double).
+	public SimWaveformFileWriter(Path path, int valueSize)
+	{
+		if ((valueSize != 4) && (valueSize != 8))
+			throw new IllegalArgumentException("The value size must be 4 (float) or 8 (double) bytes, not " + valueSize + ".");
+		
+		this.path = path;
+		this.valueSize = valueSize;
+	}
+	
+	/**
+	 * Creates the file and writes the header.
+	 * @param probeNames
+	 * @param expectedSamples
+	 */
+	@Override
+	public void begin(String[] probeNames, int expectedSamples)
+	{
+		try
+		{
+			this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			
+			// Encode the probe names to size the header.
+			byte[][] encodedNames = new byte[probeNames.length][];
+			int headerSize = SimWaveformFile.PROBE_NAMES_POSITION;
+			for (int p = 0; p < probeNames.length; p++)
+			{
+				encodedNames[p] = probeNames[p].getBytes(StandardCharsets.UTF_8);
+				headerSize += 4 + encodedNames[p].length;
+			}
+			this.dataOffset = (headerSize + 7) & ~7;
+			
+			// Write the header. The sample count is patched in end().
+			ByteBuffer header = ByteBuffer.allocate(this.dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(SimWaveformFile.MAGIC);
+			header.putInt(SimWaveformFile.VERSION);
+			header.putInt(this.valueSize);
+			header.putInt(probeNames.length);
+			header.putLong(0L);
+			header.putInt(this.dataOffset);
+			for (byte[] name : encodedNames)
+			{
+				header.putInt(name.length);
+				header.put(name);
+			}
+			header.position(0);
+			this.channel.write(header, 0);
+			
+			// Windows hold a whole number of records, so a record never spans two windows.
+			this.recordSize = SimWaveformFile.getRecordSize(probeNames.length, this.valueSize);
+			this.recordsPerWindow = Math.max(1, SimWaveformFile.WINDOW_BYTES / this.recordSize);
+			this.sampleCount = 0;
+			this.window = null;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not create the waveform file " + this.path + ".", e);
+		}
+	}
+	
+	/**
+	 * Writes one sample record into the current mapped window.
+	 * @param time
+	 * @param values
+	 */
+	@Override
+	public void record(double time, double[] values)
+	{
+		if ((this.window == null) || !this.window.hasRemaining()) mapNextWindow();
+		
+		this.window.putDouble(time);
+		if (this.valueSize == 8)
+		{
+			for (int p = 0; p < values.length; p++) this.window.putDouble(values[p]);
+		}
+		else
+		{
+			for (int p = 0; p < values.length; p++) this.window.putFloat((float) values[p]);
+		}
+		this.sampleCount++;
+	}
+	
+	/**
+	 * Flushes the mapped windows, trims the file to the written samples and patches the sample count into the header.
+	 */
+	@Override
+	public void end()
+	{
+		try
+		{
+			if (this.window != null) this.window.force();
+			this.window = null;
+			
+			this.channel.truncate(this.dataOffset + (this.sampleCount * this.recordSize));
+			ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			count.putLong(0, this.sampleCount);
+			this.channel.write(count, SimWaveformFile.SAMPLE_COUNT_POSITION);
+			this.channel.close();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not finish the waveform file " + this.path + ".", e);
+		}
+	}
+	
+	/**
+	 * Get the number of samples written so far.
+	 * @return
+	 */
+	public long getSampleCount()
+	{
+		return this.sampleCount;
+	}
+	
+	/**
+	 * Maps the window that starts at the next record. Mapping past the end of the file grows it.
+	 */
+	void mapNextWindow()
+	{
+		try
+		{
+			if (this.window != null) this.window.force();
+			
+			long position = this.dataOffset + (this.sampleCount * this.recordSize);
+			this.window = this.channel.map(FileChannel.MapMode.READ_WRITE, position, (long) this.recordsPerWindow * this.recordSize);
+			this.window.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not map the waveform file " + this.path + ".", e);
+		}
+	}
+	
+	// The path of the waveform file.
+	Path path;
+	
+	// The size of one stored value in bytes.
+	int valueSize = 8;
+	
+	// The open file channel while recording.
+	FileChannel channel;
+	
+	// The mapped window being written.
+	MappedByteBuffer window;
+	
+	// The byte position of the first record.
+	int dataOffset = 0;
+	
+	// The size of one record in bytes.
+	int recordSize = 0;
+	
+	// The number of records in one mapped window.
+	int recordsPerWindow = 1;
+	
+	// The number of records written.
+	long sampleCount = 0;
+}
@@ -0,0 +1,28 @@
+package zacharyhickman.circuittest.common.sim.wave;
+
+/**
+ * A receiver of the probe values recorded by a transient run.
+ * @author zhick
+ *
+ */
+public interface SimWaveformSink
+{
+	/**
+	 * Called once before the first sample.
+	 * @param probeNames the name of each probe, in the order of the recorded values
+	 * @param expectedSamples the number of samples the run expects to record, or -1 if it is not known (adaptive stepping)
+	 */
+	public void begin(String[] probeNames, int expectedSamples);
+	
+	/**
+	 * Called once per simulation step. The values array is reused between calls, so it must be copied if kept.
+	 * @param time
+	 * @param values
+	 */
+	public void record(double time, double[] values);
+	
+	/**
+	 * Called once after the last sample.
+	 */
+	public void end();
+}